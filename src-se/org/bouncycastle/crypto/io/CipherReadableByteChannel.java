@@ -0,0 +1,183 @@
+package org.bouncycastle.crypto.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.StreamCipher;
+
+/**
+ * The NIO counterpart of CipherInputStream: data read from another channel is returned
+ * processed by the cipher. For a BufferedBlockCipher the end of the underlying channel
+ * finishes the cipher.
+ * <p>
+ * When the destination is a heap buffer with room, the cipher writes straight into it, and a
+ * stream cipher reads the channel into it and works in place. Otherwise output goes through an
+ * internal buffer. A non-blocking channel may make read() return 0.
+ */
+public class CipherReadableByteChannel
+    implements ReadableByteChannel
+{
+    private final ReadableByteChannel channel;
+    private final BufferedBlockCipher bufferedBlockCipher;
+    private final StreamCipher streamCipher;
+
+    private final byte[] inBuf;
+    private final ByteBuffer inBuffer;
+    private final byte[] outBuf;
+    private final ByteBuffer pending;   // output not yet taken by the caller
+
+    private boolean finalized;
+    private boolean open = true;
+
+    public CipherReadableByteChannel(ReadableByteChannel channel, BufferedBlockCipher cipher)
+    {
+        this(channel, cipher, CipherInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    public CipherReadableByteChannel(ReadableByteChannel channel, BufferedBlockCipher cipher, int bufferSize)
+    {
+        this(channel, cipher, null, Math.max(bufferSize, 1), 2 * cipher.getBlockSize());
+    }
+
+    public CipherReadableByteChannel(ReadableByteChannel channel, StreamCipher cipher)
+    {
+        this(channel, cipher, CipherInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    public CipherReadableByteChannel(ReadableByteChannel channel, StreamCipher cipher, int bufferSize)
+    {
+        this(channel, null, cipher, Math.max(bufferSize, 1), 0);
+    }
+
+    private CipherReadableByteChannel(ReadableByteChannel channel, BufferedBlockCipher bufferedBlockCipher,
+        StreamCipher streamCipher, int bufferSize, int extra)
+    {
+        this.channel = channel;
+        this.bufferedBlockCipher = bufferedBlockCipher;
+        this.streamCipher = streamCipher;
+        this.inBuf = new byte[bufferSize];
+        this.inBuffer = ByteBuffer.wrap(inBuf);
+        this.outBuf = new byte[bufferSize + extra];
+        this.pending = ByteBuffer.wrap(outBuf);
+        this.pending.limit(0);
+    }
+
+    public int read(ByteBuffer dst)
+        throws IOException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+
+        while (!pending.hasRemaining())
+        {
+            if (finalized)
+            {
+                return -1;
+            }
+            if (!dst.hasRemaining())
+            {
+                return 0;
+            }
+
+            if (streamCipher != null && dst.hasArray())
+            {
+                int pos = dst.position();
+                int count = channel.read(dst);
+
+                if (count < 0)
+                {
+                    finalized = true;
+                    return -1;
+                }
+
+                process(dst.array(), dst.arrayOffset() + pos, count, dst.array(), dst.arrayOffset() + pos);
+
+                return count;
+            }
+
+            inBuffer.clear();
+            int count = channel.read(inBuffer);
+
+            if (count == 0)
+            {
+                return 0;
+            }
+
+            int outLen = (bufferedBlockCipher == null) ? count
+                : (count < 0) ? bufferedBlockCipher.getOutputSize(0) : bufferedBlockCipher.getUpdateOutputSize(count);
+
+            if (dst.hasArray() && outLen <= dst.remaining())
+            {
+                outLen = process(inBuf, 0, count, dst.array(), dst.arrayOffset() + dst.position());
+                dst.position(dst.position() + outLen);
+
+                if (outLen != 0)
+                {
+                    return outLen;
+                }
+            }
+            else
+            {
+                outLen = process(inBuf, 0, count, outBuf, 0);
+                pending.clear();
+                pending.limit(outLen);
+            }
+        }
+
+        int len = Math.min(pending.remaining(), dst.remaining());
+        int limit = pending.limit();
+
+        pending.limit(pending.position() + len);
+        dst.put(pending);
+        pending.limit(limit);
+
+        return len;
+    }
+
+    /**
+     * Run count bytes through the cipher, finishing it if count is negative.
+     */
+    private int process(byte[] in, int inOff, int count, byte[] out, int outOff)
+        throws IOException
+    {
+        try
+        {
+            if (count < 0)
+            {
+                finalized = true;
+
+                return (bufferedBlockCipher != null) ? bufferedBlockCipher.doFinal(out, outOff) : 0;
+            }
+
+            if (streamCipher != null)
+            {
+                streamCipher.processBytes(in, inOff, count, out, outOff);
+
+                return count;
+            }
+
+            return bufferedBlockCipher.processBytes(in, inOff, count, out, outOff);
+        }
+        catch (Exception e)
+        {
+            throw new IOException("error processing stream: " + e.toString());
+        }
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    public void close()
+        throws IOException
+    {
+        open = false;
+        channel.close();
+    }
+}
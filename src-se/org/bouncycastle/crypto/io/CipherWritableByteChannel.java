@@ -0,0 +1,170 @@
+package org.bouncycastle.crypto.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.StreamCipher;
+
+/**
+ * The NIO counterpart of CipherOutputStream: data written is processed by the cipher and
+ * passed on to another channel, which must be in blocking mode.
+ * <p>
+ * Heap buffers are read by the cipher where they lie; direct buffers are copied out a piece
+ * at a time. Closing the channel finishes the cipher and closes the one underneath.
+ */
+public class CipherWritableByteChannel
+    implements WritableByteChannel
+{
+    private final WritableByteChannel channel;
+    private final BufferedBlockCipher bufferedBlockCipher;
+    private final StreamCipher streamCipher;
+
+    private final byte[] inBuf;
+    private final byte[] outBuf;
+    private final ByteBuffer outBuffer;
+    private final int maxChunk;
+
+    private boolean open = true;
+
+    public CipherWritableByteChannel(WritableByteChannel channel, BufferedBlockCipher cipher)
+    {
+        this(channel, cipher, CipherOutputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    public CipherWritableByteChannel(WritableByteChannel channel, BufferedBlockCipher cipher, int bufferSize)
+    {
+        int blockSize = cipher.getBlockSize();
+
+        this.channel = channel;
+        this.bufferedBlockCipher = cipher;
+        this.streamCipher = null;
+        this.maxChunk = Math.max(bufferSize - 2 * blockSize, blockSize);
+        this.inBuf = new byte[maxChunk];
+        this.outBuf = new byte[maxChunk + 2 * blockSize];
+        this.outBuffer = ByteBuffer.wrap(outBuf);
+    }
+
+    public CipherWritableByteChannel(WritableByteChannel channel, StreamCipher cipher)
+    {
+        this(channel, cipher, CipherOutputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    public CipherWritableByteChannel(WritableByteChannel channel, StreamCipher cipher, int bufferSize)
+    {
+        this.channel = channel;
+        this.bufferedBlockCipher = null;
+        this.streamCipher = cipher;
+        this.maxChunk = Math.max(bufferSize, 1);
+        this.inBuf = null;
+        this.outBuf = new byte[maxChunk];
+        this.outBuffer = ByteBuffer.wrap(outBuf);
+    }
+
+    public int write(ByteBuffer src)
+        throws IOException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+
+        int count = src.remaining();
+
+        while (src.hasRemaining())
+        {
+            int chunk = Math.min(src.remaining(), maxChunk);
+            byte[] in;
+            int inOff;
+
+            if (src.hasArray())
+            {
+                in = src.array();
+                inOff = src.arrayOffset() + src.position();
+                src.position(src.position() + chunk);
+            }
+            else
+            {
+                // a stream cipher can work on the copy in place
+                in = (streamCipher != null) ? outBuf : inBuf;
+                inOff = 0;
+                src.get(in, 0, chunk);
+            }
+
+            int outLen;
+            try
+            {
+                if (streamCipher != null)
+                {
+                    streamCipher.processBytes(in, inOff, chunk, outBuf, 0);
+                    outLen = chunk;
+                }
+                else
+                {
+                    outLen = bufferedBlockCipher.processBytes(in, inOff, chunk, outBuf, 0);
+                }
+            }
+            catch (Exception e)
+            {
+                throw new IOException("error processing stream: " + e.toString());
+            }
+
+            writeOut(outLen);
+        }
+
+        return count;
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * Finish the cipher, write what it returns, and close the underlying channel.
+     */
+    public void close()
+        throws IOException
+    {
+        if (!open)
+        {
+            return;
+        }
+        open = false;
+
+        try
+        {
+            if (bufferedBlockCipher != null)
+            {
+                int outLen;
+                try
+                {
+                    outLen = bufferedBlockCipher.doFinal(outBuf, 0);
+                }
+                catch (Exception e)
+                {
+                    throw new IOException("Error closing stream: " + e.toString());
+                }
+
+                writeOut(outLen);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void writeOut(int len)
+        throws IOException
+    {
+        outBuffer.clear();
+        outBuffer.limit(len);
+        while (outBuffer.hasRemaining())
+        {
+            channel.write(outBuffer);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.bouncycastle.crypto.modes;
+
+import org.bouncycastle.crypto.BlockCipher;
+
+/**
+ * Makes a fresh engine for each worker of the parallel modes, which must not share one.
+ */
+public interface BlockCipherProvider
+{
+    /**
+     * @return a new, uninitialised engine.
+     */
+    BlockCipher get();
+}
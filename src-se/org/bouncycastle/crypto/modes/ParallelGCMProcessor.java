@@ -0,0 +1,506 @@
+package org.bouncycastle.crypto.modes;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.MultiBlockCipher;
+import org.bouncycastle.crypto.modes.gcm.BasicGCMMultiplier;
+import org.bouncycastle.crypto.modes.gcm.GCMExponentiator;
+import org.bouncycastle.crypto.modes.gcm.Tables1kGCMExponentiator;
+import org.bouncycastle.crypto.modes.gcm.Tables8kGCMMultiplier;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.crypto.util.Pack;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * GCM spread over the threads of a ForkJoinPool, for bulk data on servers. The result is
+ * byte for byte that of {@link GCMBlockCipher}.
+ * <p>
+ * Each chunk is encrypted from its own counter offset by a fresh engine, and hashed from a
+ * zero GHASH state. GHASH is linear, so running the chunks in order the state becomes
+ * S.H^n ^ Y, where Y is the chunk's partial hash and n its number of blocks; the partial
+ * hashes are combined that way once the chunks are done.
+ * <p>
+ * Unlike GCMBlockCipher the MAC is kept apart from the data: doFinal() returns it when
+ * encrypting and checks it when decrypting. Decrypted data must not be trusted before
+ * doFinal() has returned. Every call but the last must be a whole number of blocks.
+ */
+public class ParallelGCMProcessor
+{
+    /** Default chunk size, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final ForkJoinPool pool;
+    private final BlockCipherProvider provider;
+    private final int chunkSize;
+
+    // set by init
+    private boolean forEncryption;
+    private int macSize;
+    private KeyParameter key;
+    private byte[] H;
+    private byte[] J0;
+    private long aadLength;
+    private Tables8kGCMMultiplier multiplier;
+    private Tables8kGCMMultiplier chunkMultiplier;     // by H^(chunkSize / 16)
+    private GCMExponentiator exponentiator;
+    private byte[] initS;
+
+    // modified during processing
+    private byte[] S;
+    private long position;      // in blocks
+    private long totalLength;
+    private boolean finished;
+
+    public ParallelGCMProcessor(ForkJoinPool pool, BlockCipherProvider provider)
+    {
+        this(pool, provider, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize bytes per task, a multiple of 16.
+     */
+    public ParallelGCMProcessor(ForkJoinPool pool, BlockCipherProvider provider, int chunkSize)
+    {
+        if (provider.get().getBlockSize() != BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("cipher required with a block size of " + BLOCK_SIZE + ".");
+        }
+        if (chunkSize <= 0 || chunkSize % BLOCK_SIZE != 0)
+        {
+            throw new IllegalArgumentException("chunk size must be a positive multiple of the block size");
+        }
+
+        this.pool = pool;
+        this.provider = provider;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param params AEADParameters or ParametersWithIV, as for GCMBlockCipher; a null key
+     * keeps the last one.
+     */
+    public void init(boolean forEncryption, CipherParameters params)
+    {
+        byte[] nonce;
+        byte[] A;
+        KeyParameter keyParam;
+
+        if (params instanceof AEADParameters)
+        {
+            AEADParameters param = (AEADParameters)params;
+
+            nonce = param.getNonce();
+            A = param.getAssociatedText();
+
+            int macSizeBits = param.getMacSize();
+            if (macSizeBits < 96 || macSizeBits > 128 || macSizeBits % 8 != 0)
+            {
+                throw new IllegalArgumentException("Invalid value for MAC size: " + macSizeBits);
+            }
+
+            macSize = macSizeBits / 8;
+            keyParam = param.getKey();
+        }
+        else if (params instanceof ParametersWithIV)
+        {
+            ParametersWithIV param = (ParametersWithIV)params;
+
+            nonce = param.getIV();
+            A = null;
+            macSize = 16;
+            keyParam = (KeyParameter)param.getParameters();
+        }
+        else
+        {
+            throw new IllegalArgumentException("invalid parameters passed to GCM");
+        }
+
+        if (nonce == null || nonce.length < 1)
+        {
+            throw new IllegalArgumentException("IV must be at least 1 byte");
+        }
+        if (A == null)
+        {
+            A = new byte[0];
+        }
+
+        if (keyParam != null)
+        {
+            key = keyParam;
+
+            H = new byte[BLOCK_SIZE];
+            BlockCipher cipher = provider.get();
+            cipher.init(true, key);
+            cipher.processBlock(new byte[BLOCK_SIZE], 0, H, 0);
+
+            multiplier = new Tables8kGCMMultiplier();
+            multiplier.init(H);
+            exponentiator = new Tables1kGCMExponentiator();
+            exponentiator.init(H);
+            chunkMultiplier = new Tables8kGCMMultiplier();
+            chunkMultiplier.init(powerOfH(chunkSize / BLOCK_SIZE));
+        }
+        else if (key == null)
+        {
+            throw new IllegalArgumentException("no key given");
+        }
+
+        this.forEncryption = forEncryption;
+        this.aadLength = A.length;
+        this.initS = gHASH(A);
+
+        if (nonce.length == 12)
+        {
+            J0 = new byte[BLOCK_SIZE];
+            System.arraycopy(nonce, 0, J0, 0, nonce.length);
+            J0[15] = 0x01;
+        }
+        else
+        {
+            J0 = gHASH(nonce);
+            byte[] X = new byte[BLOCK_SIZE];
+            Pack.longToBigEndian((long)nonce.length * 8, X, 8);
+            xor(J0, X, 0);
+            multiplier.multiplyH(J0);
+        }
+
+        reset();
+    }
+
+    /**
+     * Start again with the same key, nonce and associated text.
+     */
+    public void reset()
+    {
+        S = Arrays.clone(initS);
+        position = 0;
+        totalLength = 0;
+        finished = false;
+    }
+
+    public void processBytes(byte[] in, int inOff, int len, byte[] out, int outOff)
+    {
+        if (inOff + len > in.length || outOff + len > out.length)
+        {
+            throw new DataLengthException("buffer too short");
+        }
+
+        long start = advance(len);
+        ChunkTask[] tasks = new ChunkTask[(len + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            int off = i * chunkSize;
+            tasks[i] = new ArrayChunk(start + off / BLOCK_SIZE, in, inOff + off, Math.min(chunkSize, len - off),
+                out, outOff + off);
+        }
+        ParallelSICProcessor.runAll(pool, tasks);
+        combine(tasks);
+    }
+
+    /**
+     * Process in.remaining() bytes of in into out, advancing both. Either may be a
+     * MappedByteBuffer.
+     */
+    public void process(ByteBuffer in, ByteBuffer out)
+    {
+        int len = in.remaining();
+        if (out.remaining() < len)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        long start = advance(len);
+        ChunkTask[] tasks = new ChunkTask[(len + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            int off = i * chunkSize;
+            int chunkLen = Math.min(chunkSize, len - off);
+            tasks[i] = new BufferChunk(start + off / BLOCK_SIZE, ParallelSICProcessor.slice(in, off, chunkLen),
+                ParallelSICProcessor.slice(out, off, chunkLen));
+        }
+        ParallelSICProcessor.runAll(pool, tasks);
+        combine(tasks);
+
+        in.position(in.position() + len);
+        out.position(out.position() + len);
+    }
+
+    /**
+     * Finish encrypting.
+     *
+     * @return the MAC, to be sent after the ciphertext.
+     */
+    public byte[] doFinal()
+    {
+        if (!forEncryption)
+        {
+            throw new IllegalStateException("decryption needs the MAC to check");
+        }
+
+        byte[] mac = calculateMac();
+        reset();
+        return mac;
+    }
+
+    /**
+     * Finish decrypting.
+     *
+     * @param mac the MAC that came with the ciphertext.
+     * @exception InvalidCipherTextException if it does not match.
+     */
+    public void doFinal(byte[] mac)
+        throws InvalidCipherTextException
+    {
+        if (forEncryption)
+        {
+            throw new IllegalStateException("encryption makes the MAC, see doFinal()");
+        }
+
+        byte[] expected = calculateMac();
+        reset();
+        if (!Arrays.constantTimeAreEqual(expected, mac))
+        {
+            throw new InvalidCipherTextException("mac check in GCM failed");
+        }
+    }
+
+    private byte[] calculateMac()
+    {
+        if (J0 == null)
+        {
+            throw new IllegalStateException("GCM processor not initialised");
+        }
+
+        byte[] X = new byte[BLOCK_SIZE];
+        Pack.longToBigEndian(aadLength * 8, X, 0);
+        Pack.longToBigEndian(totalLength * 8, X, 8);
+        xor(S, X, 0);
+        multiplier.multiplyH(S);
+
+        byte[] tag = new byte[BLOCK_SIZE];
+        BlockCipher cipher = provider.get();
+        cipher.init(true, key);
+        cipher.processBlock(J0, 0, tag, 0);
+        xor(tag, S, 0);
+
+        byte[] mac = new byte[macSize];
+        System.arraycopy(tag, 0, mac, 0, macSize);
+        return mac;
+    }
+
+    /**
+     * @return the first block of this call, after checking it may follow the last one.
+     */
+    private long advance(int len)
+    {
+        if (J0 == null)
+        {
+            throw new IllegalStateException("GCM processor not initialised");
+        }
+        if (finished)
+        {
+            throw new IllegalStateException("only the last call may end part way through a block");
+        }
+
+        long start = position;
+        position += (len + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        totalLength += len;
+        if (len % BLOCK_SIZE != 0)
+        {
+            finished = true;
+        }
+        return start;
+    }
+
+    /**
+     * Fold the chunks' partial hashes into S, in order.
+     */
+    private void combine(ChunkTask[] tasks)
+    {
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            int blocks = tasks[i].blockCount;
+            if (blocks == chunkSize / BLOCK_SIZE)
+            {
+                chunkMultiplier.multiplyH(S);
+            }
+            else
+            {
+                BasicGCMMultiplier m = new BasicGCMMultiplier();
+                m.init(powerOfH(blocks));
+                m.multiplyH(S);
+            }
+            xor(S, tasks[i].Y, 0);
+        }
+    }
+
+    private byte[] powerOfH(long n)
+    {
+        byte[] Hn = new byte[BLOCK_SIZE];
+        exponentiator.exponentiateX(n, Hn);
+        return Hn;
+    }
+
+    private byte[] gHASH(byte[] b)
+    {
+        byte[] Y = new byte[BLOCK_SIZE];
+        hash(multiplier, Y, b, 0, b.length);
+        return Y;
+    }
+
+    /**
+     * Hash len bytes of buf into Y, the last block padded with zeros.
+     */
+    private static void hash(Tables8kGCMMultiplier m, byte[] Y, byte[] buf, int off, int len)
+    {
+        int whole = len / BLOCK_SIZE;
+        m.hashBlocks(Y, buf, off, whole);
+
+        int rest = len - whole * BLOCK_SIZE;
+        if (rest > 0)
+        {
+            byte[] X = new byte[BLOCK_SIZE];
+            System.arraycopy(buf, off + whole * BLOCK_SIZE, X, 0, rest);
+            xor(Y, X, 0);
+            m.multiplyH(Y);
+        }
+    }
+
+    private static void xor(byte[] block, byte[] val, int off)
+    {
+        for (int i = 15; i >= 0; --i)
+        {
+            block[i] ^= val[off + i];
+        }
+    }
+
+    private abstract class ChunkTask
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstBlock;
+        final int blockCount;
+
+        // the chunk's hash from a zero state, once run
+        final byte[] Y = new byte[BLOCK_SIZE];
+
+        ChunkTask(long firstBlock, int len)
+        {
+            this.firstBlock = firstBlock;
+            this.blockCount = (len + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+
+        /**
+         * Encrypt or decrypt len bytes from in to out and hash the ciphertext. Decryption
+         * hashes all of the input before writing, so in and out may be the same.
+         */
+        void crypt(byte[] in, int inOff, int len, byte[] out, int outOff)
+        {
+            BlockCipher cipher = provider.get();
+            cipher.init(true, key);
+            Tables8kGCMMultiplier m = new Tables8kGCMMultiplier();
+            m.init(H);
+
+            if (!forEncryption)
+            {
+                hash(m, Y, in, inOff, len);
+            }
+
+            byte[] counterBlocks = new byte[16 * BLOCK_SIZE];
+            byte[] keyStream = new byte[16 * BLOCK_SIZE];
+            int ctr = Pack.bigEndianToInt(J0, 12) + (int)firstBlock;
+
+            for (int done = 0; done < len; done += keyStream.length)
+            {
+                int batchLen = Math.min(len - done, keyStream.length);
+                int batchBlocks = (batchLen + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+                for (int pos = 0; pos < batchBlocks * BLOCK_SIZE; pos += BLOCK_SIZE)
+                {
+                    System.arraycopy(J0, 0, counterBlocks, pos, 12);
+                    Pack.intToBigEndian(++ctr, counterBlocks, pos + 12);
+                }
+
+                if (cipher instanceof MultiBlockCipher)
+                {
+                    ((MultiBlockCipher)cipher).processBlocks(counterBlocks, 0, batchBlocks, keyStream, 0);
+                }
+                else
+                {
+                    for (int pos = 0; pos < batchBlocks * BLOCK_SIZE; pos += BLOCK_SIZE)
+                    {
+                        cipher.processBlock(counterBlocks, pos, keyStream, pos);
+                    }
+                }
+
+                for (int i = 0; i < batchLen; ++i)
+                {
+                    out[outOff + done + i] = (byte)(in[inOff + done + i] ^ keyStream[i]);
+                }
+            }
+
+            if (forEncryption)
+            {
+                hash(m, Y, out, outOff, len);
+            }
+        }
+    }
+
+    private class ArrayChunk
+        extends ChunkTask
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] in, out;
+        private final int inOff, len, outOff;
+
+        ArrayChunk(long firstBlock, byte[] in, int inOff, int len, byte[] out, int outOff)
+        {
+            super(firstBlock, len);
+            this.in = in;
+            this.inOff = inOff;
+            this.len = len;
+            this.out = out;
+            this.outOff = outOff;
+        }
+
+        protected void compute()
+        {
+            crypt(in, inOff, len, out, outOff);
+        }
+    }
+
+    private class BufferChunk
+        extends ChunkTask
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer in, out;
+
+        BufferChunk(long firstBlock, ByteBuffer in, ByteBuffer out)
+        {
+            super(firstBlock, in.remaining());
+            this.in = in;
+            this.out = out;
+        }
+
+        protected void compute()
+        {
+            byte[] buf = new byte[in.remaining()];
+            in.get(buf);
+            crypt(buf, 0, buf.length, buf, 0);
+            out.put(buf);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.bouncycastle.crypto.modes;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * Counter (SIC) mode spread over the threads of a ForkJoinPool, for bulk data on servers.
+ * <p>
+ * The input is cut into chunks of whole blocks. Each chunk is run by its own SICBlockCipher
+ * on a fresh engine, with the counter advanced to the chunk's first block, so the output is
+ * byte for byte that of one SICBlockCipher over the whole input. Large files can be passed
+ * as MappedByteBuffers, a region at a time.
+ * <p>
+ * The processor keeps its place between calls: every call but the last must be a whole
+ * number of blocks.
+ */
+public class ParallelSICProcessor
+{
+    /** Default chunk size, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private final ForkJoinPool pool;
+    private final BlockCipherProvider provider;
+    private final int blockSize;
+    private final int chunkSize;
+
+    private CipherParameters key;
+    private byte[] IV;
+    private long position;      // in blocks
+    private boolean finished;
+
+    public ParallelSICProcessor(ForkJoinPool pool, BlockCipherProvider provider)
+    {
+        this(pool, provider, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize bytes per task, a multiple of the block size.
+     */
+    public ParallelSICProcessor(ForkJoinPool pool, BlockCipherProvider provider, int chunkSize)
+    {
+        this.pool = pool;
+        this.provider = provider;
+        this.blockSize = provider.get().getBlockSize();
+
+        if (chunkSize <= 0 || chunkSize % blockSize != 0)
+        {
+            throw new IllegalArgumentException("chunk size must be a positive multiple of the block size");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param params a ParametersWithIV with the key and the first counter block; a null key
+     * keeps the last one.
+     */
+    public void init(CipherParameters params)
+    {
+        if (!(params instanceof ParametersWithIV))
+        {
+            throw new IllegalArgumentException("SIC mode requires ParametersWithIV");
+        }
+
+        ParametersWithIV ivParam = (ParametersWithIV)params;
+        if (ivParam.getIV().length != blockSize)
+        {
+            throw new IllegalArgumentException("initialisation vector must be the same length as block size");
+        }
+        if (ivParam.getParameters() != null)
+        {
+            key = ivParam.getParameters();
+        }
+        else if (key == null)
+        {
+            throw new IllegalArgumentException("no key given");
+        }
+
+        IV = ivParam.getIV().clone();
+        reset();
+    }
+
+    /**
+     * Go back to the first counter block.
+     */
+    public void reset()
+    {
+        position = 0;
+        finished = false;
+    }
+
+    public void processBytes(byte[] in, int inOff, int len, byte[] out, int outOff)
+    {
+        if (inOff + len > in.length || outOff + len > out.length)
+        {
+            throw new DataLengthException("buffer too short");
+        }
+
+        long start = advance(len);
+        ChunkTask[] tasks = new ChunkTask[(len + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            int off = i * chunkSize;
+            tasks[i] = new ArrayChunk(start + off / blockSize, in, inOff + off, Math.min(chunkSize, len - off),
+                out, outOff + off);
+        }
+        runAll(pool, tasks);
+    }
+
+    /**
+     * Process in.remaining() bytes of in into out, advancing both. Either may be a
+     * MappedByteBuffer.
+     */
+    public void process(ByteBuffer in, ByteBuffer out)
+    {
+        int len = in.remaining();
+        if (out.remaining() < len)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        long start = advance(len);
+        ChunkTask[] tasks = new ChunkTask[(len + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            int off = i * chunkSize;
+            tasks[i] = new BufferChunk(start + off / blockSize, slice(in, off, Math.min(chunkSize, len - off)),
+                slice(out, off, Math.min(chunkSize, len - off)));
+        }
+        runAll(pool, tasks);
+
+        in.position(in.position() + len);
+        out.position(out.position() + len);
+    }
+
+    /**
+     * @return the first block of this call, after checking it may follow the last one.
+     */
+    private long advance(int len)
+    {
+        if (IV == null)
+        {
+            throw new IllegalStateException("SIC processor not initialised");
+        }
+        if (finished)
+        {
+            throw new IllegalStateException("only the last call may end part way through a block");
+        }
+
+        long start = position;
+        position += len / blockSize;
+        if (len % blockSize != 0)
+        {
+            finished = true;
+        }
+        return start;
+    }
+
+    static void runAll(ForkJoinPool pool, final ForkJoinTask<?>[] tasks)
+    {
+        if (tasks.length < 2)
+        {
+            // not worth a hand-off
+            for (int i = 0; i < tasks.length; ++i)
+            {
+                tasks[i].invoke();
+            }
+            return;
+        }
+
+        pool.invoke(new RecursiveAction()
+        {
+            protected void compute()
+            {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+
+    static ByteBuffer slice(ByteBuffer buf, int off, int len)
+    {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(buf.position() + off);
+        dup.limit(buf.position() + off + len);
+        return dup.slice();
+    }
+
+    /**
+     * @return the counter block the given number of blocks past iv, counting across all of it
+     * as SICBlockCipher does.
+     */
+    static byte[] addToCounter(byte[] iv, long blocks)
+    {
+        byte[] counter = iv.clone();
+        long carry = blocks;
+        for (int i = counter.length - 1; i >= 0 && carry != 0; --i)
+        {
+            long sum = (counter[i] & 0xff) + (carry & 0xff);
+            counter[i] = (byte)sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return counter;
+    }
+
+    private abstract class ChunkTask
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstBlock;
+
+        ChunkTask(long firstBlock)
+        {
+            this.firstBlock = firstBlock;
+        }
+
+        SICBlockCipher newCipher()
+        {
+            SICBlockCipher cipher = new SICBlockCipher(provider.get());
+            cipher.init(true, new ParametersWithIV(key, addToCounter(IV, firstBlock)));
+            return cipher;
+        }
+
+        /**
+         * Process len bytes from in to out; only the last chunk may end part way through a
+         * block.
+         */
+        void crypt(SICBlockCipher cipher, byte[] in, int inOff, int len, byte[] out, int outOff)
+        {
+            int whole = len / blockSize;
+            cipher.processBlocks(in, inOff, whole, out, outOff);
+
+            int rest = len - whole * blockSize;
+            if (rest > 0)
+            {
+                byte[] block = new byte[blockSize];
+                System.arraycopy(in, inOff + whole * blockSize, block, 0, rest);
+                cipher.processBlock(block, 0, block, 0);
+                System.arraycopy(block, 0, out, outOff + whole * blockSize, rest);
+            }
+        }
+    }
+
+    private class ArrayChunk
+        extends ChunkTask
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] in, out;
+        private final int inOff, len, outOff;
+
+        ArrayChunk(long firstBlock, byte[] in, int inOff, int len, byte[] out, int outOff)
+        {
+            super(firstBlock);
+            this.in = in;
+            this.inOff = inOff;
+            this.len = len;
+            this.out = out;
+            this.outOff = outOff;
+        }
+
+        protected void compute()
+        {
+            crypt(newCipher(), in, inOff, len, out, outOff);
+        }
+    }
+
+    private class BufferChunk
+        extends ChunkTask
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer in, out;
+
+        BufferChunk(long firstBlock, ByteBuffer in, ByteBuffer out)
+        {
+            super(firstBlock);
+            this.in = in;
+            this.out = out;
+        }
+
+        protected void compute()
+        {
+            byte[] buf = new byte[in.remaining()];
+            in.get(buf);
+            crypt(newCipher(), buf, 0, buf.length, buf, 0);
+            out.put(buf);
+        }
+    }
+}
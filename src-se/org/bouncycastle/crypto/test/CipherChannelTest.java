@@ -0,0 +1,165 @@
+package org.bouncycastle.crypto.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.RC4Engine;
+import org.bouncycastle.crypto.io.CipherReadableByteChannel;
+import org.bouncycastle.crypto.io.CipherWritableByteChannel;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * CipherReadableByteChannel and CipherWritableByteChannel against the ciphers used directly,
+ * with heap and direct buffers. Java SE only, so not part of RegressionTest.
+ */
+public class CipherChannelTest
+    extends SimpleTest
+{
+    private static final KeyParameter KEY = new KeyParameter(Hex.decode("000102030405060708090a0b0c0d0e0f"));
+    private static final ParametersWithIV KEY_IV = new ParametersWithIV(KEY, Hex.decode("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff"));
+
+    public String getName()
+    {
+        return "CipherChannel";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        int[] lengths = { 0, 1, 1000, 100000 };
+        int[] pieces = { 1, 17, 4096, 65536 };
+
+        for (int i = 0; i < lengths.length; ++i)
+        {
+            byte[] data = new byte[lengths[i]];
+            for (int j = 0; j < data.length; ++j)
+            {
+                data[j] = (byte)(j * 11 + (j >> 8));
+            }
+
+            for (int p = 0; p < pieces.length; ++p)
+            {
+                blockTest(data, pieces[p], false);
+                blockTest(data, pieces[p], true);
+                streamTest(data, pieces[p], false);
+                streamTest(data, pieces[p], true);
+            }
+        }
+    }
+
+    private void blockTest(byte[] data, int piece, boolean direct)
+        throws Exception
+    {
+        BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+        cipher.init(true, KEY_IV);
+        byte[] expected = new byte[cipher.getOutputSize(data.length)];
+        int len = cipher.processBytes(data, 0, data.length, expected, 0);
+        len += cipher.doFinal(expected, len);
+
+        String label = "CBC " + data.length + " bytes in pieces of " + piece + (direct ? ", direct" : ", heap");
+
+        cipher.init(true, KEY_IV);
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        CipherWritableByteChannel out = new CipherWritableByteChannel(Channels.newChannel(bOut), cipher, 1000);
+        for (int off = 0; off < data.length; off += piece)
+        {
+            out.write(buffer(data, off, Math.min(piece, data.length - off), direct));
+        }
+        out.close();
+        if (!Arrays.areEqual(expected, bOut.toByteArray()))
+        {
+            fail(label + ": writable channel differs");
+        }
+
+        cipher.init(false, KEY_IV);
+        byte[] decrypted = read(new CipherReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(expected)),
+            cipher, 1000), piece, direct);
+        if (!Arrays.areEqual(data, decrypted))
+        {
+            fail(label + ": readable channel differs");
+        }
+    }
+
+    private void streamTest(byte[] data, int piece, boolean direct)
+        throws Exception
+    {
+        RC4Engine cipher = new RC4Engine();
+        cipher.init(true, KEY);
+        byte[] expected = new byte[data.length];
+        cipher.processBytes(data, 0, data.length, expected, 0);
+
+        String label = "RC4 " + data.length + " bytes in pieces of " + piece + (direct ? ", direct" : ", heap");
+
+        cipher.init(true, KEY);
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        CipherWritableByteChannel out = new CipherWritableByteChannel(Channels.newChannel(bOut), cipher, 1000);
+        for (int off = 0; off < data.length; off += piece)
+        {
+            out.write(buffer(data, off, Math.min(piece, data.length - off), direct));
+        }
+        out.close();
+        if (!Arrays.areEqual(expected, bOut.toByteArray()))
+        {
+            fail(label + ": writable channel differs");
+        }
+
+        cipher.init(false, KEY);
+        byte[] decrypted = read(new CipherReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(expected)),
+            cipher, 1000), piece, direct);
+        if (!Arrays.areEqual(data, decrypted))
+        {
+            fail(label + ": readable channel differs");
+        }
+    }
+
+    private ByteBuffer buffer(byte[] data, int off, int len, boolean direct)
+    {
+        if (!direct)
+        {
+            // an offset backing array, to check arrayOffset() is honoured
+            return ByteBuffer.wrap(Arrays.copyOfRange(data, off > 0 ? off - 1 : off, off + len), off > 0 ? 1 : 0, len).slice();
+        }
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(len);
+        buf.put(data, off, len);
+        buf.flip();
+        return buf;
+    }
+
+    private byte[] read(ReadableByteChannel in, int piece, boolean direct)
+        throws Exception
+    {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        ByteBuffer buf = direct ? ByteBuffer.allocateDirect(piece) : ByteBuffer.allocate(piece);
+        byte[] tmp = new byte[piece];
+
+        while (in.read(buf) >= 0)
+        {
+            buf.flip();
+            int len = buf.remaining();
+            buf.get(tmp, 0, len);
+            bOut.write(tmp, 0, len);
+            buf.clear();
+        }
+        in.close();
+
+        return bOut.toByteArray();
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new CipherChannelTest());
+    }
+}
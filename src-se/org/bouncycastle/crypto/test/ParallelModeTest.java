@@ -0,0 +1,270 @@
+package org.bouncycastle.crypto.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.modes.BlockCipherProvider;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.ParallelGCMProcessor;
+import org.bouncycastle.crypto.modes.ParallelSICProcessor;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * ParallelSICProcessor and ParallelGCMProcessor against SICBlockCipher and GCMBlockCipher.
+ * Java SE only, so not part of RegressionTest.
+ */
+public class ParallelModeTest
+    extends SimpleTest
+{
+    private static final BlockCipherProvider AES = new BlockCipherProvider()
+    {
+        public BlockCipher get()
+        {
+            return new AESFastEngine();
+        }
+    };
+
+    private final SecureRandom random = new SecureRandom();
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    public String getName()
+    {
+        return "ParallelMode";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        int[] lengths = { 0, 1, 15, 16, 63, 64, 65, 1000, 4096, 100000 };
+
+        for (int i = 0; i < lengths.length; ++i)
+        {
+            sicTest(lengths[i]);
+            gcmTest(lengths[i], 12);
+            gcmTest(lengths[i], 7);
+        }
+
+        sicCarryTest();
+        sicDESedeTest();
+        gcmBadMacTest();
+        mappedFileTest();
+    }
+
+    private byte[] randomBytes(int len)
+    {
+        byte[] bytes = new byte[len];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private void sicTest(int len)
+    {
+        ParametersWithIV params = new ParametersWithIV(new KeyParameter(randomBytes(16)), randomBytes(16));
+        byte[] in = randomBytes(len);
+        byte[] expected = sic(new SICBlockCipher(new AESFastEngine()), params, in);
+
+        // small chunks so that even short inputs are split
+        ParallelSICProcessor parallel = new ParallelSICProcessor(pool, AES, 64);
+        parallel.init(params);
+        byte[] out = new byte[len];
+        int first = (len / 2) & ~15;
+        parallel.processBytes(in, 0, first, out, 0);
+        parallel.processBytes(in, first, len - first, out, first);
+        if (!Arrays.areEqual(expected, out))
+        {
+            fail("parallel SIC differs for " + len + " bytes");
+        }
+
+        // in place, through ByteBuffers
+        parallel.init(params);
+        ByteBuffer buf = ByteBuffer.wrap(Arrays.clone(in));
+        parallel.process(buf.duplicate(), buf.duplicate());
+        if (!Arrays.areEqual(expected, buf.array()))
+        {
+            fail("parallel SIC in place differs for " + len + " bytes");
+        }
+    }
+
+    private byte[] sic(SICBlockCipher cipher, ParametersWithIV params, byte[] in)
+    {
+        int blockSize = cipher.getBlockSize();
+        cipher.init(true, params);
+        byte[] out = new byte[in.length];
+        byte[] block = new byte[blockSize];
+        for (int off = 0; off < in.length; off += blockSize)
+        {
+            int n = Math.min(blockSize, in.length - off);
+            System.arraycopy(in, off, block, 0, n);
+            cipher.processBlock(block, 0, block, 0);
+            System.arraycopy(block, 0, out, off, n);
+        }
+        return out;
+    }
+
+    private void sicCarryTest()
+    {
+        // the counter carries out of its low 64 bits part way through
+        byte[] iv = new byte[16];
+        for (int i = 4; i < 16; ++i)
+        {
+            iv[i] = (byte)0xff;
+        }
+        iv[15] = (byte)0xf0;
+        ParametersWithIV params = new ParametersWithIV(new KeyParameter(randomBytes(16)), iv);
+        byte[] in = randomBytes(5000);
+        byte[] expected = sic(new SICBlockCipher(new AESFastEngine()), params, in);
+
+        ParallelSICProcessor parallel = new ParallelSICProcessor(pool, AES, 128);
+        parallel.init(params);
+        byte[] out = new byte[in.length];
+        parallel.processBytes(in, 0, in.length, out, 0);
+        if (!Arrays.areEqual(expected, out))
+        {
+            fail("parallel SIC differs across a counter carry");
+        }
+    }
+
+    private void sicDESedeTest()
+    {
+        ParametersWithIV params = new ParametersWithIV(new KeyParameter(randomBytes(24)), randomBytes(8));
+        byte[] in = randomBytes(3001);
+        byte[] expected = sic(new SICBlockCipher(new DESedeEngine()), params, in);
+
+        ParallelSICProcessor parallel = new ParallelSICProcessor(pool, new BlockCipherProvider()
+        {
+            public BlockCipher get()
+            {
+                return new DESedeEngine();
+            }
+        }, 80);
+        parallel.init(params);
+        byte[] out = new byte[in.length];
+        parallel.processBytes(in, 0, in.length, out, 0);
+        if (!Arrays.areEqual(expected, out))
+        {
+            fail("parallel SIC differs with DESede");
+        }
+    }
+
+    private void gcmTest(int len, int nonceLength)
+        throws InvalidCipherTextException
+    {
+        AEADParameters params = new AEADParameters(new KeyParameter(randomBytes(16)), 128, randomBytes(nonceLength),
+            randomBytes(len % 37));
+        byte[] in = randomBytes(len);
+
+        GCMBlockCipher gcm = new GCMBlockCipher(new AESFastEngine());
+        gcm.init(true, params);
+        byte[] expected = new byte[gcm.getOutputSize(len)];
+        int n = gcm.processBytes(in, 0, len, expected, 0);
+        gcm.doFinal(expected, n);
+
+        ParallelGCMProcessor parallel = new ParallelGCMProcessor(pool, AES, 64);
+        parallel.init(true, params);
+        byte[] out = new byte[len];
+        int first = (len / 3) & ~15;
+        parallel.processBytes(in, 0, first, out, 0);
+        parallel.processBytes(in, first, len - first, out, first);
+        byte[] mac = parallel.doFinal();
+
+        if (!Arrays.areEqual(Arrays.copyOfRange(expected, 0, len), out))
+        {
+            fail("parallel GCM ciphertext differs for " + len + " bytes");
+        }
+        if (!Arrays.areEqual(Arrays.copyOfRange(expected, len, expected.length), mac))
+        {
+            fail("parallel GCM MAC differs for " + len + " bytes");
+        }
+
+        // decrypt in place, reusing the key
+        parallel.init(false, new AEADParameters(null, 128, params.getNonce(), params.getAssociatedText()));
+        parallel.processBytes(out, 0, len, out, 0);
+        parallel.doFinal(mac);
+        if (!Arrays.areEqual(in, out))
+        {
+            fail("parallel GCM decryption differs for " + len + " bytes");
+        }
+    }
+
+    private void gcmBadMacTest()
+    {
+        AEADParameters params = new AEADParameters(new KeyParameter(randomBytes(16)), 96, randomBytes(12), null);
+        byte[] data = randomBytes(1000);
+
+        ParallelGCMProcessor parallel = new ParallelGCMProcessor(pool, AES, 256);
+        parallel.init(true, params);
+        parallel.processBytes(data, 0, data.length, data, 0);
+        byte[] mac = parallel.doFinal();
+
+        data[500] ^= 1;
+        parallel.init(false, params);
+        parallel.processBytes(data, 0, data.length, data, 0);
+        try
+        {
+            parallel.doFinal(mac);
+            fail("altered ciphertext not detected");
+        }
+        catch (InvalidCipherTextException e)
+        {
+            // expected
+        }
+    }
+
+    private void mappedFileTest()
+        throws Exception
+    {
+        ParametersWithIV params = new ParametersWithIV(new KeyParameter(randomBytes(16)), randomBytes(16));
+        byte[] in = randomBytes(1 << 20);
+        byte[] expected = sic(new SICBlockCipher(new AESFastEngine()), params, in);
+
+        File file = File.createTempFile("parallel", ".bin");
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+            {
+                raf.write(in);
+                MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, in.length);
+
+                ParallelSICProcessor parallel = new ParallelSICProcessor(pool, AES);
+                parallel.init(params);
+                parallel.process(map.duplicate(), map.duplicate());
+
+                byte[] out = new byte[in.length];
+                map.get(out);
+                if (!Arrays.areEqual(expected, out))
+                {
+                    fail("parallel SIC differs on a mapped file");
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new ParallelModeTest());
+    }
+}
@@ -0,0 +1,228 @@
+package telexme.se;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+import telexme.transport.Transport;
+import telexme.transport.TransportConnection;
+import telexme.transport.TransportServer;
+
+/**
+ * A {@link Transport} for Java SE built on java.nio channels, so the proxy can run and be
+ * load tested on an ordinary server.
+ *
+ * The channels stay in blocking mode: the proxy already runs a thread per direction, and a
+ * blocking SocketChannel reads and writes from two threads at once without the lock the
+ * streams of Channels.newInputStream() take. Closing one of the streams shuts down that half
+ * of the socket, as closing a stream of a SocketConnection does on the phone.
+ */
+public class NioTransport implements Transport {
+
+	private static final String SOCKET_SCHEME = "socket://";
+	private static final String FILE_SCHEME = "file://";
+
+	private static final int BACKLOG = 256;
+
+	public TransportConnection open(String url) throws IOException {
+		InetSocketAddress address = parseSocketUrl(url);
+		if (address.getHostString().length() == 0) {
+			throw new IOException("no host in " + url);
+		}
+
+		SocketChannel channel = SocketChannel.open();
+		try {
+			// the tunnels flush whole records on purpose, Nagle would only hold them back
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+			channel.connect(address);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new NioConnection(channel);
+	}
+
+	public TransportServer listen(String url) throws IOException {
+		InetSocketAddress address = parseSocketUrl(url);
+		if (address.getHostString().length() == 0) {
+			address = new InetSocketAddress(address.getPort());
+		}
+
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			channel.bind(address, BACKLOG);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new NioServer(channel);
+	}
+
+	public InputStream openFile(String url) throws IOException {
+		String path = url.startsWith(FILE_SCHEME) ? url.substring(FILE_SCHEME.length()) : url;
+		return Channels.newInputStream(FileChannel.open(Paths.get(path)));
+	}
+
+	/**
+	 * @param url "socket://host:port", "socket://[ipv6]:port" or "socket://:port"
+	 * @return the address, unresolved and with an empty host if there is none
+	 */
+	static InetSocketAddress parseSocketUrl(String url) throws IOException {
+		if (!url.startsWith(SOCKET_SCHEME)) {
+			throw new IOException("not a socket URL: " + url);
+		}
+		String hostPort = url.substring(SOCKET_SCHEME.length());
+		int colon = hostPort.lastIndexOf(':');
+		if (colon < 0 || hostPort.indexOf(']', colon) >= 0) {
+			throw new IOException("no port in " + url);
+		}
+
+		String host = hostPort.substring(0, colon);
+		if (host.startsWith("[") && host.endsWith("]")) {
+			host = host.substring(1, host.length() - 1);
+		}
+		int port;
+		try {
+			port = Integer.parseInt(hostPort.substring(colon + 1));
+		} catch (NumberFormatException e) {
+			throw new IOException("bad port in " + url);
+		}
+		if (port < 0 || port > 65535) {
+			throw new IOException("bad port in " + url);
+		}
+		return host.length() == 0 ? InetSocketAddress.createUnresolved("", port) : new InetSocketAddress(host, port);
+	}
+
+	private static class NioConnection implements TransportConnection {
+		private final SocketChannel channel;
+		private final InputStream in;
+		private final OutputStream out;
+
+		NioConnection(SocketChannel channel) {
+			this.channel = channel;
+			this.in = new ChannelInputStream(channel);
+			this.out = new ChannelOutputStream(channel);
+		}
+
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		public String getAddress() throws IOException {
+			return ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+		}
+
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	private static class NioServer implements TransportServer {
+		private final ServerSocketChannel channel;
+
+		NioServer(ServerSocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public TransportConnection accept() throws IOException {
+			SocketChannel client = channel.accept();
+			try {
+				client.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+			} catch (IOException e) {
+				client.close();
+				throw e;
+			}
+			return new NioConnection(client);
+		}
+
+		public int getLocalPort() throws IOException {
+			return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+		}
+
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// the acceptor ends either way
+			}
+		}
+	}
+
+	private static class ChannelInputStream extends InputStream {
+		private final SocketChannel channel;
+		private final byte[] single = new byte[1];
+
+		ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public int read() throws IOException {
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			return channel.read(ByteBuffer.wrap(buf, off, len));
+		}
+
+		/**
+		 * What the socket has received and not yet been read, as Socket.getInputStream() tells.
+		 */
+		public int available() throws IOException {
+			if (!channel.isOpen()) {
+				return 0;
+			}
+			return channel.socket().getInputStream().available();
+		}
+
+		public void close() throws IOException {
+			if (channel.isOpen()) {
+				channel.shutdownInput();
+			}
+		}
+	}
+
+	private static class ChannelOutputStream extends OutputStream {
+		private final SocketChannel channel;
+
+		ChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+			while (bb.hasRemaining()) {
+				channel.write(bb);
+			}
+		}
+
+		public void close() throws IOException {
+			if (channel.isOpen()) {
+				channel.shutdownOutput();
+			}
+		}
+	}
+}
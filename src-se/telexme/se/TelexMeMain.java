@@ -0,0 +1,73 @@
+package telexme.se;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.bouncycastle.crypto.tls.TlsMetricsHistogram;
+
+import telexme.ProxyServer;
+import telexme.TelexMeService;
+
+/**
+ * Runs the proxy without a phone or an emulator.
+ *
+ * <pre>
+ * java telexme.se.TelexMeMain [settings.properties]
+ * </pre>
+ *
+ * The settings are the TelexMe-* properties of the "Application Descriptor", read from the
+ * given file; system properties (-DTelexMe-Station=socket://localhost:4433) override them.
+ * The metrics are printed when the process is stopped; their times are in microseconds.
+ */
+public class TelexMeMain {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 1) {
+			System.err.println("usage: java telexme.se.TelexMeMain [settings.properties]");
+			System.exit(2);
+		}
+
+		final Properties settings = new Properties();
+		if (args.length == 1) {
+			InputStream in = new FileInputStream(args[0]);
+			try {
+				settings.load(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		// Java SE has a proper monotonic clock, and a record's cipher and MAC take well under a
+		// millisecond, so keep microseconds
+		final TlsMetricsHistogram metrics = new TlsMetricsHistogram() {
+			public long currentTime() {
+				return System.nanoTime() / 1000;
+			}
+		};
+
+		final TelexMeService service = new TelexMeService(new NioTransport(), metrics) {
+			protected String getProperty(String key) {
+				return System.getProperty(key, settings.getProperty(key));
+			}
+		};
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				service.stop();
+				metrics.dump(System.out);
+			}
+		});
+
+		try {
+			service.start();
+		} catch (IOException e) {
+			System.err.println("cannot listen: " + e.getMessage());
+			System.exit(1);
+		}
+
+		ProxyServer proxy = service.getProxy();
+		System.out.println("TelexMe proxy listening on port " + proxy.getLocalPort());
+	}
+}
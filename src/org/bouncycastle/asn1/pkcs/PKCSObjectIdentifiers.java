@@ -253,5 +253,6 @@ public interface PKCSObjectIdentifiers
 
     static final ASN1ObjectIdentifier    id_alg_CMS3DESwrap = new ASN1ObjectIdentifier("1.2.840.113549.1.9.16.3.6");
     static final ASN1ObjectIdentifier    id_alg_CMSRC2wrap = new ASN1ObjectIdentifier("1.2.840.113549.1.9.16.3.7");
+    static final ASN1ObjectIdentifier    id_alg_zlibCompress = new ASN1ObjectIdentifier("1.2.840.113549.1.9.16.3.8");
 }
 
@@ -218,6 +218,17 @@ public class BufferedBlockCipher
             len -= gapLen;
             inOff += gapLen;
 
+            if (cipher instanceof MultiBlockCipher && len > buf.length)
+            {
+                // everything but the last block (which stays buffered, as below) in one go
+                int blockCount = (len - 1) / blockSize;
+
+                resultLen += ((MultiBlockCipher)cipher).processBlocks(in, inOff, blockCount, out, outOff + resultLen);
+
+                len -= blockCount * blockSize;
+                inOff += blockCount * blockSize;
+            }
+
             while (len > buf.length)
             {
                 resultLen += cipher.processBlock(in, inOff, out, outOff + resultLen);
@@ -0,0 +1,621 @@
+package org.bouncycastle.crypto.engines;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.MultiBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.util.Pack;
+
+/**
+ * an implementation of the AES (Rijndael), from FIPS-197, in constant time.
+ * <p>
+ * For further details see: <a href="http://csrc.nist.gov/encryption/aes/">http://csrc.nist.gov/encryption/aes/</a>.
+ *
+ * Unlike the table driven engines this one has no look ups indexed by secret data, so its
+ * timing does not depend on the key or the data through the cache. It is bitsliced: four
+ * blocks are spread over eight 64 bit words, one word per bit of each byte, and every step
+ * of a round is done with logic operations on all four at once. The S box is the circuit of
+ * Boyar and Peralta, "A new combinational logic minimization technique with applications to
+ * cryptology" (<a href="https://eprint.iacr.org/2009/191.pdf">https://eprint.iacr.org/2009/191.pdf</a>);
+ * the layout follows Thomas Pornin's BearSSL.
+ * <p>
+ * A single block costs as much as four, so this engine is meant for processBlocks() runs of
+ * many blocks, as in CTR, GCM and CBC decryption. For one block at a time use one of the
+ * other engines.
+ */
+public class AESBitslicedEngine
+    implements MultiBlockCipher
+{
+    private static final int BLOCK_SIZE = 16;
+
+    private static final int[] rcon = {
+        0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1b, 0x36 };
+
+    private int         ROUNDS;
+    private long[]      roundKeys = null;   // 8 words per round
+    private boolean     forEncryption;
+
+    // work space
+    private final long[] q = new long[8];
+    private final int[] w = new int[16];
+
+    /**
+     * default constructor - 128 bit block size.
+     */
+    public AESBitslicedEngine()
+    {
+    }
+
+    /**
+     * initialise an AES cipher.
+     *
+     * @param forEncryption whether or not we are for encryption.
+     * @param params the parameters required to set up the cipher.
+     * @exception IllegalArgumentException if the params argument is
+     * inappropriate.
+     */
+    public void init(
+        boolean           forEncryption,
+        CipherParameters  params)
+    {
+        if (params instanceof KeyParameter)
+        {
+            roundKeys = generateRoundKeys(((KeyParameter)params).getKey());
+            this.forEncryption = forEncryption;
+            return;
+        }
+
+        throw new IllegalArgumentException("invalid parameter passed to AES init - " + params.getClass().getName());
+    }
+
+    public String getAlgorithmName()
+    {
+        return "AES";
+    }
+
+    public int getBlockSize()
+    {
+        return BLOCK_SIZE;
+    }
+
+    public int processBlock(
+        byte[] in,
+        int inOff,
+        byte[] out,
+        int outOff)
+    {
+        return processBlocks(in, inOff, 1, out, outOff);
+    }
+
+    public int processBlocks(
+        byte[] in,
+        int inOff,
+        int blockCount,
+        byte[] out,
+        int outOff)
+    {
+        if (roundKeys == null)
+        {
+            throw new IllegalStateException("AES engine not initialised");
+        }
+
+        int length = blockCount * BLOCK_SIZE;
+
+        if ((inOff + length) > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+
+        if ((outOff + length) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        for (int done = 0; done < length; done += 4 * BLOCK_SIZE)
+        {
+            int words = Math.min(16, (length - done) / 4);
+
+            for (int i = 0; i < words; ++i)
+            {
+                w[i] = Pack.littleEndianToInt(in, inOff + done + 4 * i);
+            }
+            for (int i = words; i < 16; ++i)
+            {
+                w[i] = 0;
+            }
+
+            for (int i = 0; i < 4; ++i)
+            {
+                interleaveIn(q, i, w, i << 2);
+            }
+            ortho(q);
+
+            if (forEncryption)
+            {
+                encrypt(q);
+            }
+            else
+            {
+                decrypt(q);
+            }
+
+            ortho(q);
+            for (int i = 0; i < 4; ++i)
+            {
+                interleaveOut(w, i << 2, q[i], q[i + 4]);
+            }
+
+            for (int i = 0; i < words; ++i)
+            {
+                Pack.intToLittleEndian(w[i], out, outOff + done + 4 * i);
+            }
+        }
+
+        return length;
+    }
+
+    public void reset()
+    {
+    }
+
+    private void encrypt(long[] q)
+    {
+        addRoundKey(q, 0);
+        for (int r = 1; r < ROUNDS; ++r)
+        {
+            sbox(q);
+            shiftRows(q);
+            mixColumns(q);
+            addRoundKey(q, r << 3);
+        }
+        sbox(q);
+        shiftRows(q);
+        addRoundKey(q, ROUNDS << 3);
+    }
+
+    private void decrypt(long[] q)
+    {
+        addRoundKey(q, ROUNDS << 3);
+        for (int r = ROUNDS - 1; r > 0; --r)
+        {
+            invShiftRows(q);
+            invSbox(q);
+            addRoundKey(q, r << 3);
+            invMixColumns(q);
+        }
+        invShiftRows(q);
+        invSbox(q);
+        addRoundKey(q, 0);
+    }
+
+    private void addRoundKey(long[] q, int off)
+    {
+        for (int i = 0; i < 8; ++i)
+        {
+            q[i] ^= roundKeys[off + i];
+        }
+    }
+
+    private long[] generateRoundKeys(byte[] key)
+    {
+        int nk = key.length / 4;
+        if ((nk != 4 && nk != 6 && nk != 8) || nk * 4 != key.length)
+        {
+            throw new IllegalArgumentException("Key length not 128/192/256 bits.");
+        }
+
+        ROUNDS = nk + 6;
+        int nkf = (ROUNDS + 1) * 4;
+
+        // the plain key schedule, in little endian words
+        int[] sk = new int[nkf];
+        for (int i = 0; i < nk; ++i)
+        {
+            sk[i] = Pack.littleEndianToInt(key, i * 4);
+        }
+
+        int tmp = sk[nk - 1];
+        for (int i = nk, j = 0, k = 0; i < nkf; ++i)
+        {
+            if (j == 0)
+            {
+                tmp = (tmp << 24) | (tmp >>> 8);
+                tmp = subWord(tmp) ^ rcon[k];
+            }
+            else if (nk > 6 && j == 4)
+            {
+                tmp = subWord(tmp);
+            }
+            tmp ^= sk[i - nk];
+            sk[i] = tmp;
+            if (++j == nk)
+            {
+                j = 0;
+                ++k;
+            }
+        }
+
+        // each round key bitsliced, the same in all four lanes
+        long[] keys = new long[(ROUNDS + 1) * 8];
+        long[] t = new long[8];
+        for (int i = 0; i < nkf; i += 4)
+        {
+            interleaveIn(t, 0, sk, i);
+            t[1] = t[0];
+            t[2] = t[0];
+            t[3] = t[0];
+            t[5] = t[4];
+            t[6] = t[4];
+            t[7] = t[4];
+            ortho(t);
+
+            long c0 = (t[0] & 0x1111111111111111L) | (t[1] & 0x2222222222222222L)
+                | (t[2] & 0x4444444444444444L) | (t[3] & 0x8888888888888888L);
+            long c1 = (t[4] & 0x1111111111111111L) | (t[5] & 0x2222222222222222L)
+                | (t[6] & 0x4444444444444444L) | (t[7] & 0x8888888888888888L);
+
+            expandKey(c0, keys, i * 2);
+            expandKey(c1, keys, i * 2 + 4);
+        }
+        return keys;
+    }
+
+    private static void expandKey(long c, long[] keys, int off)
+    {
+        long x0 = c & 0x1111111111111111L;
+        long x1 = (c & 0x2222222222222222L) >>> 1;
+        long x2 = (c & 0x4444444444444444L) >>> 2;
+        long x3 = (c & 0x8888888888888888L) >>> 3;
+
+        // spread each bit over its four lanes
+        keys[off] = (x0 << 4) - x0;
+        keys[off + 1] = (x1 << 4) - x1;
+        keys[off + 2] = (x2 << 4) - x2;
+        keys[off + 3] = (x3 << 4) - x3;
+    }
+
+    private static int subWord(int x)
+    {
+        long[] t = new long[8];
+        t[0] = x & 0xffffffffL;
+        ortho(t);
+        sbox(t);
+        ortho(t);
+        return (int)t[0];
+    }
+
+    private static void interleaveIn(long[] q, int i, int[] w, int off)
+    {
+        long x0 = w[off] & 0xffffffffL;
+        long x1 = w[off + 1] & 0xffffffffL;
+        long x2 = w[off + 2] & 0xffffffffL;
+        long x3 = w[off + 3] & 0xffffffffL;
+        x0 |= (x0 << 16);
+        x1 |= (x1 << 16);
+        x2 |= (x2 << 16);
+        x3 |= (x3 << 16);
+        x0 &= 0x0000FFFF0000FFFFL;
+        x1 &= 0x0000FFFF0000FFFFL;
+        x2 &= 0x0000FFFF0000FFFFL;
+        x3 &= 0x0000FFFF0000FFFFL;
+        x0 |= (x0 << 8);
+        x1 |= (x1 << 8);
+        x2 |= (x2 << 8);
+        x3 |= (x3 << 8);
+        x0 &= 0x00FF00FF00FF00FFL;
+        x1 &= 0x00FF00FF00FF00FFL;
+        x2 &= 0x00FF00FF00FF00FFL;
+        x3 &= 0x00FF00FF00FF00FFL;
+        q[i] = x0 | (x2 << 8);
+        q[i + 4] = x1 | (x3 << 8);
+    }
+
+    private static void interleaveOut(int[] w, int off, long q0, long q1)
+    {
+        long x0 = q0 & 0x00FF00FF00FF00FFL;
+        long x1 = q1 & 0x00FF00FF00FF00FFL;
+        long x2 = (q0 >>> 8) & 0x00FF00FF00FF00FFL;
+        long x3 = (q1 >>> 8) & 0x00FF00FF00FF00FFL;
+        x0 |= (x0 >>> 8);
+        x1 |= (x1 >>> 8);
+        x2 |= (x2 >>> 8);
+        x3 |= (x3 >>> 8);
+        x0 &= 0x0000FFFF0000FFFFL;
+        x1 &= 0x0000FFFF0000FFFFL;
+        x2 &= 0x0000FFFF0000FFFFL;
+        x3 &= 0x0000FFFF0000FFFFL;
+        w[off] = (int)x0 | (int)(x0 >>> 16);
+        w[off + 1] = (int)x1 | (int)(x1 >>> 16);
+        w[off + 2] = (int)x2 | (int)(x2 >>> 16);
+        w[off + 3] = (int)x3 | (int)(x3 >>> 16);
+    }
+
+    /**
+     * Transpose to and from bitsliced form; its own inverse.
+     */
+    private static void ortho(long[] q)
+    {
+        swap(q, 0, 1, 0x5555555555555555L, 1);
+        swap(q, 2, 3, 0x5555555555555555L, 1);
+        swap(q, 4, 5, 0x5555555555555555L, 1);
+        swap(q, 6, 7, 0x5555555555555555L, 1);
+
+        swap(q, 0, 2, 0x3333333333333333L, 2);
+        swap(q, 1, 3, 0x3333333333333333L, 2);
+        swap(q, 4, 6, 0x3333333333333333L, 2);
+        swap(q, 5, 7, 0x3333333333333333L, 2);
+
+        swap(q, 0, 4, 0x0F0F0F0F0F0F0F0FL, 4);
+        swap(q, 1, 5, 0x0F0F0F0F0F0F0F0FL, 4);
+        swap(q, 2, 6, 0x0F0F0F0F0F0F0F0FL, 4);
+        swap(q, 3, 7, 0x0F0F0F0F0F0F0F0FL, 4);
+    }
+
+    private static void swap(long[] q, int x, int y, long cl, int s)
+    {
+        long a = q[x];
+        long b = q[y];
+        q[x] = (a & cl) | ((b & cl) << s);
+        q[y] = ((a & ~cl) >>> s) | (b & ~cl);
+    }
+
+    private static void shiftRows(long[] q)
+    {
+        for (int i = 0; i < 8; ++i)
+        {
+            long x = q[i];
+            q[i] = (x & 0x000000000000FFFFL)
+                | ((x & 0x00000000FFF00000L) >>> 4)
+                | ((x & 0x00000000000F0000L) << 12)
+                | ((x & 0x0000FF0000000000L) >>> 8)
+                | ((x & 0x000000FF00000000L) << 8)
+                | ((x & 0xF000000000000000L) >>> 12)
+                | ((x & 0x0FFF000000000000L) << 4);
+        }
+    }
+
+    private static void invShiftRows(long[] q)
+    {
+        for (int i = 0; i < 8; ++i)
+        {
+            long x = q[i];
+            q[i] = (x & 0x000000000000FFFFL)
+                | ((x & 0x000000000FFF0000L) << 4)
+                | ((x & 0x00000000F0000000L) >>> 12)
+                | ((x & 0x000000FF00000000L) << 8)
+                | ((x & 0x0000FF0000000000L) >>> 8)
+                | ((x & 0x000F000000000000L) << 12)
+                | ((x & 0xFFF0000000000000L) >>> 4);
+        }
+    }
+
+    private static long rotr32(long x)
+    {
+        return (x << 32) | (x >>> 32);
+    }
+
+    private static void mixColumns(long[] q)
+    {
+        long q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        long q4 = q[4], q5 = q[5], q6 = q[6], q7 = q[7];
+        long r0 = (q0 >>> 16) | (q0 << 48);
+        long r1 = (q1 >>> 16) | (q1 << 48);
+        long r2 = (q2 >>> 16) | (q2 << 48);
+        long r3 = (q3 >>> 16) | (q3 << 48);
+        long r4 = (q4 >>> 16) | (q4 << 48);
+        long r5 = (q5 >>> 16) | (q5 << 48);
+        long r6 = (q6 >>> 16) | (q6 << 48);
+        long r7 = (q7 >>> 16) | (q7 << 48);
+
+        q[0] = q7 ^ r7 ^ r0 ^ rotr32(q0 ^ r0);
+        q[1] = q0 ^ r0 ^ q7 ^ r7 ^ r1 ^ rotr32(q1 ^ r1);
+        q[2] = q1 ^ r1 ^ r2 ^ rotr32(q2 ^ r2);
+        q[3] = q2 ^ r2 ^ q7 ^ r7 ^ r3 ^ rotr32(q3 ^ r3);
+        q[4] = q3 ^ r3 ^ q7 ^ r7 ^ r4 ^ rotr32(q4 ^ r4);
+        q[5] = q4 ^ r4 ^ r5 ^ rotr32(q5 ^ r5);
+        q[6] = q5 ^ r5 ^ r6 ^ rotr32(q6 ^ r6);
+        q[7] = q6 ^ r6 ^ r7 ^ rotr32(q7 ^ r7);
+    }
+
+    private static void invMixColumns(long[] q)
+    {
+        long q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        long q4 = q[4], q5 = q[5], q6 = q[6], q7 = q[7];
+        long r0 = (q0 >>> 16) | (q0 << 48);
+        long r1 = (q1 >>> 16) | (q1 << 48);
+        long r2 = (q2 >>> 16) | (q2 << 48);
+        long r3 = (q3 >>> 16) | (q3 << 48);
+        long r4 = (q4 >>> 16) | (q4 << 48);
+        long r5 = (q5 >>> 16) | (q5 << 48);
+        long r6 = (q6 >>> 16) | (q6 << 48);
+        long r7 = (q7 >>> 16) | (q7 << 48);
+
+        q[0] = q5 ^ q6 ^ q7 ^ r0 ^ r5 ^ r7 ^ rotr32(q0 ^ q5 ^ q6 ^ r0 ^ r5);
+        q[1] = q0 ^ q5 ^ r0 ^ r1 ^ r5 ^ r6 ^ r7 ^ rotr32(q1 ^ q5 ^ q7 ^ r1 ^ r5 ^ r6);
+        q[2] = q0 ^ q1 ^ q6 ^ r1 ^ r2 ^ r6 ^ r7 ^ rotr32(q0 ^ q2 ^ q6 ^ r2 ^ r6 ^ r7);
+        q[3] = q0 ^ q1 ^ q2 ^ q5 ^ q6 ^ r0 ^ r2 ^ r3 ^ r5 ^ rotr32(q0 ^ q1 ^ q3 ^ q5 ^ q6 ^ q7 ^ r0 ^ r3 ^ r5 ^ r7);
+        q[4] = q1 ^ q2 ^ q3 ^ q5 ^ r1 ^ r3 ^ r4 ^ r5 ^ r6 ^ r7 ^ rotr32(q1 ^ q2 ^ q4 ^ q5 ^ q7 ^ r1 ^ r4 ^ r5 ^ r6);
+        q[5] = q2 ^ q3 ^ q4 ^ q6 ^ r2 ^ r4 ^ r5 ^ r6 ^ r7 ^ rotr32(q2 ^ q3 ^ q5 ^ q6 ^ r2 ^ r5 ^ r6 ^ r7);
+        q[6] = q3 ^ q4 ^ q5 ^ q7 ^ r3 ^ r5 ^ r6 ^ r7 ^ rotr32(q3 ^ q4 ^ q6 ^ q7 ^ r3 ^ r6 ^ r7);
+        q[7] = q4 ^ q5 ^ q6 ^ r4 ^ r6 ^ r7 ^ rotr32(q4 ^ q5 ^ q7 ^ r4 ^ r7);
+    }
+
+    /**
+     * The inverse S box is the forward one between two copies of the inverse of its affine
+     * transform.
+     */
+    private static void invSbox(long[] q)
+    {
+        invAffine(q);
+        sbox(q);
+        invAffine(q);
+    }
+
+    private static void invAffine(long[] q)
+    {
+        long q0 = ~q[0];
+        long q1 = ~q[1];
+        long q2 = q[2];
+        long q3 = q[3];
+        long q4 = q[4];
+        long q5 = ~q[5];
+        long q6 = ~q[6];
+        long q7 = q[7];
+        q[7] = q1 ^ q4 ^ q6;
+        q[6] = q0 ^ q3 ^ q5;
+        q[5] = q7 ^ q2 ^ q4;
+        q[4] = q6 ^ q1 ^ q3;
+        q[3] = q5 ^ q0 ^ q2;
+        q[2] = q4 ^ q7 ^ q1;
+        q[1] = q3 ^ q6 ^ q0;
+        q[0] = q2 ^ q5 ^ q7;
+    }
+
+    /**
+     * The S box on all 32 bytes at once, as 113 logic gates. x0 is the high bit of each byte
+     * and x7 the low one, as in the paper.
+     */
+    private static void sbox(long[] q)
+    {
+        long x0 = q[7];
+        long x1 = q[6];
+        long x2 = q[5];
+        long x3 = q[4];
+        long x4 = q[3];
+        long x5 = q[2];
+        long x6 = q[1];
+        long x7 = q[0];
+
+        // top linear transformation
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        // non-linear section
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        // bottom linear transformation
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        q[7] = s0;
+        q[6] = s1;
+        q[5] = s2;
+        q[4] = s3;
+        q[3] = s4;
+        q[2] = s5;
+        q[1] = s6;
+        q[0] = s7;
+    }
+}
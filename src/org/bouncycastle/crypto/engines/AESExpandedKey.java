@@ -0,0 +1,335 @@
+package org.bouncycastle.crypto.engines;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * An AES key with its round keys already worked out, for AESEngine, AESFastEngine and
+ * AESLightEngine. Passing one of these to init() in place of a plain KeyParameter skips the
+ * key schedule, which helps callers that set up an engine over and over with one key, such
+ * as the key wrap engines, CMac and CCM.
+ * <p>
+ * Instances may be shared between engines and threads; getKey() returns a copy of the key so
+ * that callers cannot change it. The decryption round keys are only worked out the first time
+ * an engine is set up for decryption with the key.
+ * <p>
+ * The engines expand plain KeyParameters themselves, as they always have. Modes that re-init an
+ * engine they were given use expand() to keep one AESExpandedKey of their own. Callers that
+ * want the last few keys they used kept expanded across objects can ask for them through
+ * getInstance(); those keys then stay in memory until they are pushed out by others or
+ * clearCache() is called.
+ */
+public class AESExpandedKey
+    extends KeyParameter
+{
+    // The S box
+    private static final byte[] S = {
+        (byte)99, (byte)124, (byte)119, (byte)123, (byte)242, (byte)107, (byte)111, (byte)197,
+        (byte)48,   (byte)1, (byte)103,  (byte)43, (byte)254, (byte)215, (byte)171, (byte)118,
+        (byte)202, (byte)130, (byte)201, (byte)125, (byte)250,  (byte)89,  (byte)71, (byte)240,
+        (byte)173, (byte)212, (byte)162, (byte)175, (byte)156, (byte)164, (byte)114, (byte)192,
+        (byte)183, (byte)253, (byte)147,  (byte)38,  (byte)54,  (byte)63, (byte)247, (byte)204,
+        (byte)52, (byte)165, (byte)229, (byte)241, (byte)113, (byte)216,  (byte)49,  (byte)21,
+        (byte)4, (byte)199,  (byte)35, (byte)195,  (byte)24, (byte)150,   (byte)5, (byte)154,
+        (byte)7,  (byte)18, (byte)128, (byte)226, (byte)235,  (byte)39, (byte)178, (byte)117,
+        (byte)9, (byte)131,  (byte)44,  (byte)26,  (byte)27, (byte)110,  (byte)90, (byte)160,
+        (byte)82,  (byte)59, (byte)214, (byte)179,  (byte)41, (byte)227,  (byte)47, (byte)132,
+        (byte)83, (byte)209,   (byte)0, (byte)237,  (byte)32, (byte)252, (byte)177,  (byte)91,
+        (byte)106, (byte)203, (byte)190,  (byte)57,  (byte)74,  (byte)76,  (byte)88, (byte)207,
+        (byte)208, (byte)239, (byte)170, (byte)251,  (byte)67,  (byte)77,  (byte)51, (byte)133,
+        (byte)69, (byte)249,   (byte)2, (byte)127,  (byte)80,  (byte)60, (byte)159, (byte)168,
+        (byte)81, (byte)163,  (byte)64, (byte)143, (byte)146, (byte)157,  (byte)56, (byte)245,
+        (byte)188, (byte)182, (byte)218,  (byte)33,  (byte)16, (byte)255, (byte)243, (byte)210,
+        (byte)205,  (byte)12,  (byte)19, (byte)236,  (byte)95, (byte)151,  (byte)68,  (byte)23,
+        (byte)196, (byte)167, (byte)126,  (byte)61, (byte)100,  (byte)93,  (byte)25, (byte)115,
+        (byte)96, (byte)129,  (byte)79, (byte)220,  (byte)34,  (byte)42, (byte)144, (byte)136,
+        (byte)70, (byte)238, (byte)184,  (byte)20, (byte)222,  (byte)94,  (byte)11, (byte)219,
+        (byte)224,  (byte)50,  (byte)58,  (byte)10,  (byte)73,   (byte)6,  (byte)36,  (byte)92,
+        (byte)194, (byte)211, (byte)172,  (byte)98, (byte)145, (byte)149, (byte)228, (byte)121,
+        (byte)231, (byte)200,  (byte)55, (byte)109, (byte)141, (byte)213,  (byte)78, (byte)169,
+        (byte)108,  (byte)86, (byte)244, (byte)234, (byte)101, (byte)122, (byte)174,   (byte)8,
+        (byte)186, (byte)120,  (byte)37,  (byte)46,  (byte)28, (byte)166, (byte)180, (byte)198,
+        (byte)232, (byte)221, (byte)116,  (byte)31,  (byte)75, (byte)189, (byte)139, (byte)138,
+        (byte)112,  (byte)62, (byte)181, (byte)102,  (byte)72,   (byte)3, (byte)246,  (byte)14,
+        (byte)97,  (byte)53,  (byte)87, (byte)185, (byte)134, (byte)193,  (byte)29, (byte)158,
+        (byte)225, (byte)248, (byte)152,  (byte)17, (byte)105, (byte)217, (byte)142, (byte)148,
+        (byte)155,  (byte)30, (byte)135, (byte)233, (byte)206,  (byte)85,  (byte)40, (byte)223,
+        (byte)140, (byte)161, (byte)137,  (byte)13, (byte)191, (byte)230,  (byte)66, (byte)104,
+        (byte)65, (byte)153,  (byte)45,  (byte)15, (byte)176,  (byte)84, (byte)187,  (byte)22,
+    };
+
+    // vector used in calculating key schedule (powers of x in GF(256))
+    private static final int[] rcon = {
+         0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1b, 0x36, 0x6c, 0xd8, 0xab, 0x4d, 0x9a,
+         0x2f, 0x5e, 0xbc, 0x63, 0xc6, 0x97, 0x35, 0x6a, 0xd4, 0xb3, 0x7d, 0xfa, 0xef, 0xc5, 0x91 };
+
+    private static int shift(
+        int     r,
+        int     shift)
+    {
+        return (r >>> shift) | (r << -shift);
+    }
+
+    /* multiply four bytes in GF(2^8) by 'x' {02} in parallel */
+
+    private static final int m1 = 0x80808080;
+    private static final int m2 = 0x7f7f7f7f;
+    private static final int m3 = 0x0000001b;
+
+    private static int FFmulX(int x)
+    {
+        return (((x & m2) << 1) ^ (((x & m1) >>> 7) * m3));
+    }
+
+    private static int inv_mcol(int x)
+    {
+        int f2 = FFmulX(x);
+        int f4 = FFmulX(f2);
+        int f8 = FFmulX(f4);
+        int f9 = x ^ f8;
+        
+        return f2 ^ f4 ^ f8 ^ shift(f2 ^ f9, 8) ^ shift(f4 ^ f9, 16) ^ shift(f9, 24);
+    }
+
+    private static int subWord(int x)
+    {
+        return (S[x&255]&255 | ((S[(x>>8)&255]&255)<<8) | ((S[(x>>16)&255]&255)<<16) | S[(x>>24)&255]<<24);
+    }
+
+    // the cache behind getInstance(), most recently used first
+    private static final int CACHE_SIZE = 8;
+    private static final AESExpandedKey[] cache = new AESExpandedKey[CACHE_SIZE];
+    private static final Object cacheLock = new Object();
+
+    private final int       ROUNDS;
+    private final int       fingerprint;
+    private final int[][]   encryptionKey;
+    private int[][]         decryptionKey;
+
+    /**
+     * Work out the encryption round keys for key. The decryption ones follow when first needed.
+     *
+     * @param key a 128, 192 or 256 bit AES key.
+     * @exception IllegalArgumentException if the key is the wrong length.
+     */
+    public AESExpandedKey(
+        byte[]  key)
+    {
+        super(key);
+
+        encryptionKey = generateWorkingKey(key, true);
+        ROUNDS = encryptionKey.length - 1;
+        fingerprint = Arrays.hashCode(key);
+    }
+
+    /**
+     * Return the expanded form of key, from the cache if it was seen lately. Keys found
+     * through here are kept, and shared with other callers, until clearCache() is called.
+     *
+     * @param key an AESExpandedKey, returned as is, or a KeyParameter holding an AES key.
+     * @exception IllegalArgumentException if the key is the wrong length.
+     */
+    public static AESExpandedKey getInstance(
+        KeyParameter  key)
+    {
+        if (key instanceof AESExpandedKey)
+        {
+            return (AESExpandedKey)key;
+        }
+
+        byte[] keyBytes = key.getKey();
+        int fingerprint = Arrays.hashCode(keyBytes);
+
+        synchronized (cacheLock)
+        {
+            for (int i = 0; i < CACHE_SIZE && cache[i] != null; i++)
+            {
+                AESExpandedKey entry = cache[i];
+                if (entry.fingerprint == fingerprint && entry.matches(keyBytes))
+                {
+                    System.arraycopy(cache, 0, cache, 1, i);
+                    cache[0] = entry;
+                    return entry;
+                }
+            }
+        }
+
+        AESExpandedKey entry = new AESExpandedKey(keyBytes);
+
+        synchronized (cacheLock)
+        {
+            System.arraycopy(cache, 0, cache, 1, CACHE_SIZE - 1);
+            cache[0] = entry;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Return the key to set up cipher with, expanded if cipher is one of the AES engines. For
+     * modes such as key wrap, CMac and CCM, which set up the engine they were given over and
+     * over with one key: they keep the result, and pass it back as last on their next init so
+     * the expansion is reused while the key bytes stay the same. Nothing is cached elsewhere.
+     *
+     * @param cipher the engine the key is for.
+     * @param key the key, which may be null.
+     * @param last the result of the caller's previous call, or null.
+     * @exception IllegalArgumentException if cipher is AES and the key is the wrong length.
+     */
+    public static KeyParameter expand(
+        BlockCipher     cipher,
+        KeyParameter    key,
+        KeyParameter    last)
+    {
+        if (key == null || key instanceof AESExpandedKey
+            || !(cipher instanceof AESEngine || cipher instanceof AESFastEngine || cipher instanceof AESLightEngine))
+        {
+            return key;
+        }
+
+        byte[] keyBytes = key.getKey();
+
+        if (last instanceof AESExpandedKey && ((AESExpandedKey)last).matches(keyBytes))
+        {
+            return last;
+        }
+
+        return new AESExpandedKey(keyBytes);
+    }
+
+    /**
+     * Empty the cache behind getInstance(). The keys it held are not changed, as engines may
+     * still be using them; they go once nothing refers to them.
+     */
+    public static void clearCache()
+    {
+        synchronized (cacheLock)
+        {
+            for (int i = 0; i < CACHE_SIZE; i++)
+            {
+                cache[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Return a copy of the key bytes.
+     */
+    public byte[] getKey()
+    {
+        return Arrays.clone(super.getKey());
+    }
+
+    int getRounds()
+    {
+        return ROUNDS;
+    }
+
+    /**
+     * Return the round keys, which the caller must not change.
+     */
+    int[][] getWorkingKey(
+        boolean forEncryption)
+    {
+        if (forEncryption)
+        {
+            return encryptionKey;
+        }
+
+        synchronized (this)
+        {
+            if (decryptionKey == null)
+            {
+                decryptionKey = new int[ROUNDS+1][];
+                for (int j = 0; j <= ROUNDS; j++)
+                {
+                    decryptionKey[j] = new int[4];
+                    for (int i = 0; i < 4; i++)
+                    {
+                        int w = encryptionKey[j][i];
+                        decryptionKey[j][i] = (j == 0 || j == ROUNDS) ? w : inv_mcol(w);
+                    }
+                }
+            }
+
+            return decryptionKey;
+        }
+    }
+
+    private boolean matches(
+        byte[]  key)
+    {
+        return Arrays.constantTimeAreEqual(super.getKey(), key);
+    }
+
+    /**
+     * Calculate the necessary round keys
+     * The number of calculations depends on key size and block size
+     * AES specified a fixed block size of 128 bits and key sizes 128/192/256 bits
+     * This code is written assuming those are the only possible values
+     *
+     * @exception IllegalArgumentException if the key is the wrong length.
+     */
+    static int[][] generateWorkingKey(
+                                    byte[] key,
+                                    boolean forEncryption)
+    {
+        int         KC = key.length / 4;  // key length in words
+        int         t;
+
+        if (((KC != 4) && (KC != 6) && (KC != 8)) || ((KC * 4) != key.length))
+        {
+            throw new IllegalArgumentException("Key length not 128/192/256 bits.");
+        }
+
+        int ROUNDS = KC + 6;
+        int[][] W = new int[ROUNDS+1][4];   // 4 words in a block
+        
+        //
+        // copy the key into the round key array
+        //
+        
+        t = 0;
+        int i = 0;
+        while (i < key.length)
+        {
+            W[t >> 2][t & 3] = (key[i]&0xff) | ((key[i+1]&0xff) << 8) | ((key[i+2]&0xff) << 16) | (key[i+3] << 24);
+            i+=4;
+            t++;
+        }
+        
+        //
+        // while not enough round key material calculated
+        // calculate new values
+        //
+        int k = (ROUNDS + 1) << 2;
+        for (i = KC; (i < k); i++)
+        {
+            int temp = W[(i - 1) >> 2][(i - 1) & 3];
+            if ((i % KC) == 0)
+            {
+                temp = subWord(shift(temp, 8)) ^ rcon[(i / KC) - 1];
+            }
+            else if ((KC > 6) && ((i % KC) == 4))
+            {
+                temp = subWord(temp);
+            }
+
+            W[i >> 2][i & 3] = W[(i - KC) >> 2][(i - KC) & 3] ^ temp;
+        }
+
+        if (!forEncryption)
+        {
+            for (int j = 1; j < ROUNDS; j++)
+            {
+                for (i = 0; i < 4; i++)
+                {
+                    W[j][i] = inv_mcol(W[j][i]);
+                }
+            }
+        }
+
+        return W;
+    }
+}
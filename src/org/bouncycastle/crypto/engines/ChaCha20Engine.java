@@ -0,0 +1,313 @@
+package org.bouncycastle.crypto.engines;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.MaxBytesExceededException;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.crypto.util.Pack;
+import org.bouncycastle.util.Strings;
+
+/**
+ * Implementation of Daniel J. Bernstein's ChaCha20 stream cipher.
+ * <p>
+ * With a 12 byte IV this is the variant of RFC 7539 (32 bit block counter, at most 256GB per
+ * IV), with an 8 byte IV the original one (64 bit block counter). The block counter starts
+ * at 0.
+ */
+public class ChaCha20Engine
+    implements StreamCipher
+{
+    /** Constants */
+    private final static int STATE_SIZE = 16; // 16, 32 bit ints = 64 bytes
+
+    private final static byte[]
+        sigma = Strings.toByteArray("expand 32-byte k"),
+        tau   = Strings.toByteArray("expand 16-byte k");
+
+    /*
+     * variables to hold the state of the engine
+     * during encryption and decryption
+     */
+    private int         index = 0;
+    private int[]       engineState = new int[STATE_SIZE]; // state
+    private int[]       x = new int[STATE_SIZE] ; // internal buffer
+    private byte[]      keyStream   = new byte[STATE_SIZE * 4], // expanded state, 64 bytes
+                        workingKey  = null,
+                        workingIV   = null;
+    private boolean     initialised = false;
+
+    /*
+     * RFC 7539 only: set once the 32 bit block counter has wrapped around.
+     */
+    private boolean     exhausted = false;
+
+    /**
+     * initialise a ChaCha20 cipher.
+     *
+     * @param forEncryption whether or not we are for encryption.
+     * @param params the parameters required to set up the cipher.
+     * @exception IllegalArgumentException if the params argument is
+     * inappropriate.
+     */
+    public void init(
+        boolean             forEncryption,
+        CipherParameters     params)
+    {
+        /*
+         * ChaCha20 encryption and decryption is completely
+         * symmetrical, so the 'forEncryption' is
+         * irrelevant.
+         */
+
+        if (!(params instanceof ParametersWithIV))
+        {
+            throw new IllegalArgumentException("ChaCha20 Init parameters must include an IV");
+        }
+
+        ParametersWithIV ivParams = (ParametersWithIV) params;
+
+        byte[] iv = ivParams.getIV();
+
+        if (iv == null || (iv.length != 8 && iv.length != 12))
+        {
+            throw new IllegalArgumentException("ChaCha20 requires exactly 8 or 12 bytes of IV");
+        }
+
+        if (!(ivParams.getParameters() instanceof KeyParameter))
+        {
+            throw new IllegalArgumentException("ChaCha20 Init parameters must include a key");
+        }
+
+        KeyParameter key = (KeyParameter) ivParams.getParameters();
+
+        byte[] keyBytes = key.getKey();
+
+        if (keyBytes.length != 16 && keyBytes.length != 32)
+        {
+            throw new IllegalArgumentException("ChaCha20 requires 128 bit or 256 bit key");
+        }
+
+        setKey(keyBytes, iv);
+    }
+
+    public String getAlgorithmName()
+    {
+        return "ChaCha20";
+    }
+
+    public byte returnByte(byte in)
+    {
+        if (index == 0)
+        {
+            nextBlock();
+        }
+
+        byte out = (byte)(keyStream[index]^in);
+        index = (index + 1) & 63;
+
+        return out;
+    }
+
+    public void processBytes(
+        byte[]     in,
+        int     inOff,
+        int     len,
+        byte[]     out,
+        int     outOff)
+    {
+        if (!initialised)
+        {
+            throw new IllegalStateException(getAlgorithmName()+" not initialised");
+        }
+
+        if ((inOff + len) > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+
+        if ((outOff + len) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        for (int i = 0; i < len; i++)
+        {
+            if (index == 0)
+            {
+                nextBlock();
+            }
+
+            out[i+outOff] = (byte)(keyStream[index]^in[i+inOff]);
+            index = (index + 1) & 63;
+        }
+    }
+
+    public void reset()
+    {
+        setKey(workingKey, workingIV);
+    }
+
+    // Private implementation
+
+    private void setKey(byte[] keyBytes, byte[] ivBytes)
+    {
+        workingKey = keyBytes;
+        workingIV  = ivBytes;
+
+        index = 0;
+        exhausted = false;
+        int offset = 0;
+        byte[] constants;
+
+        // Key
+        engineState[4] = Pack.littleEndianToInt(workingKey, 0);
+        engineState[5] = Pack.littleEndianToInt(workingKey, 4);
+        engineState[6] = Pack.littleEndianToInt(workingKey, 8);
+        engineState[7] = Pack.littleEndianToInt(workingKey, 12);
+
+        if (workingKey.length == 32)
+        {
+            constants = sigma;
+            offset = 16;
+        }
+        else
+        {
+            constants = tau;
+        }
+
+        engineState[ 8] = Pack.littleEndianToInt(workingKey, offset);
+        engineState[ 9] = Pack.littleEndianToInt(workingKey, offset+4);
+        engineState[10] = Pack.littleEndianToInt(workingKey, offset+8);
+        engineState[11] = Pack.littleEndianToInt(workingKey, offset+12);
+        engineState[ 0] = Pack.littleEndianToInt(constants, 0);
+        engineState[ 1] = Pack.littleEndianToInt(constants, 4);
+        engineState[ 2] = Pack.littleEndianToInt(constants, 8);
+        engineState[ 3] = Pack.littleEndianToInt(constants, 12);
+
+        // Counter and IV
+        engineState[12] = 0;
+        if (workingIV.length == 12)
+        {
+            engineState[13] = Pack.littleEndianToInt(workingIV, 0);
+            engineState[14] = Pack.littleEndianToInt(workingIV, 4);
+            engineState[15] = Pack.littleEndianToInt(workingIV, 8);
+        }
+        else
+        {
+            engineState[13] = 0;
+            engineState[14] = Pack.littleEndianToInt(workingIV, 0);
+            engineState[15] = Pack.littleEndianToInt(workingIV, 4);
+        }
+
+        initialised = true;
+    }
+
+    private void nextBlock()
+    {
+        if (exhausted)
+        {
+            throw new MaxBytesExceededException("2^38 byte limit per IV; Change IV");
+        }
+
+        chachaCore(20, engineState, x);
+        Pack.intToLittleEndian(x, keyStream, 0);
+
+        if (++engineState[12] == 0)
+        {
+            if (workingIV.length == 12)
+            {
+                exhausted = true;
+            }
+            else
+            {
+                ++engineState[13];
+            }
+        }
+    }
+
+    /**
+     * ChaCha function
+     *
+     * @param   rounds  the number of rounds, 20 for ChaCha20
+     * @param   input   input state
+     * @param   x       output block
+     */
+    public static void chachaCore(int rounds, int[] input, int[] x)
+    {
+        int x00 = input[ 0], x01 = input[ 1], x02 = input[ 2], x03 = input[ 3];
+        int x04 = input[ 4], x05 = input[ 5], x06 = input[ 6], x07 = input[ 7];
+        int x08 = input[ 8], x09 = input[ 9], x10 = input[10], x11 = input[11];
+        int x12 = input[12], x13 = input[13], x14 = input[14], x15 = input[15];
+
+        for (int i = rounds; i > 0; i -= 2)
+        {
+            // column rounds
+            x00 += x04; x12 = rotl(x12 ^ x00, 16);
+            x08 += x12; x04 = rotl(x04 ^ x08, 12);
+            x00 += x04; x12 = rotl(x12 ^ x00, 8);
+            x08 += x12; x04 = rotl(x04 ^ x08, 7);
+            x01 += x05; x13 = rotl(x13 ^ x01, 16);
+            x09 += x13; x05 = rotl(x05 ^ x09, 12);
+            x01 += x05; x13 = rotl(x13 ^ x01, 8);
+            x09 += x13; x05 = rotl(x05 ^ x09, 7);
+            x02 += x06; x14 = rotl(x14 ^ x02, 16);
+            x10 += x14; x06 = rotl(x06 ^ x10, 12);
+            x02 += x06; x14 = rotl(x14 ^ x02, 8);
+            x10 += x14; x06 = rotl(x06 ^ x10, 7);
+            x03 += x07; x15 = rotl(x15 ^ x03, 16);
+            x11 += x15; x07 = rotl(x07 ^ x11, 12);
+            x03 += x07; x15 = rotl(x15 ^ x03, 8);
+            x11 += x15; x07 = rotl(x07 ^ x11, 7);
+
+            // diagonal rounds
+            x00 += x05; x15 = rotl(x15 ^ x00, 16);
+            x10 += x15; x05 = rotl(x05 ^ x10, 12);
+            x00 += x05; x15 = rotl(x15 ^ x00, 8);
+            x10 += x15; x05 = rotl(x05 ^ x10, 7);
+            x01 += x06; x12 = rotl(x12 ^ x01, 16);
+            x11 += x12; x06 = rotl(x06 ^ x11, 12);
+            x01 += x06; x12 = rotl(x12 ^ x01, 8);
+            x11 += x12; x06 = rotl(x06 ^ x11, 7);
+            x02 += x07; x13 = rotl(x13 ^ x02, 16);
+            x08 += x13; x07 = rotl(x07 ^ x08, 12);
+            x02 += x07; x13 = rotl(x13 ^ x02, 8);
+            x08 += x13; x07 = rotl(x07 ^ x08, 7);
+            x03 += x04; x14 = rotl(x14 ^ x03, 16);
+            x09 += x14; x04 = rotl(x04 ^ x09, 12);
+            x03 += x04; x14 = rotl(x14 ^ x03, 8);
+            x09 += x14; x04 = rotl(x04 ^ x09, 7);
+        }
+
+        x[ 0] = x00 + input[ 0];
+        x[ 1] = x01 + input[ 1];
+        x[ 2] = x02 + input[ 2];
+        x[ 3] = x03 + input[ 3];
+        x[ 4] = x04 + input[ 4];
+        x[ 5] = x05 + input[ 5];
+        x[ 6] = x06 + input[ 6];
+        x[ 7] = x07 + input[ 7];
+        x[ 8] = x08 + input[ 8];
+        x[ 9] = x09 + input[ 9];
+        x[10] = x10 + input[10];
+        x[11] = x11 + input[11];
+        x[12] = x12 + input[12];
+        x[13] = x13 + input[13];
+        x[14] = x14 + input[14];
+        x[15] = x15 + input[15];
+    }
+
+    /**
+     * Rotate left
+     *
+     * @param   x   value to rotate
+     * @param   y   amount to rotate x
+     *
+     * @return  rotated x
+     */
+    private static int rotl(int x, int y)
+    {
+        return (x << y) | (x >>> -y);
+    }
+}
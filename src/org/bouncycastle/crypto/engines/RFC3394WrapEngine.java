@@ -46,12 +46,12 @@ public class RFC3394WrapEngine
 
         if (param instanceof KeyParameter)
         {
-            this.param = (KeyParameter)param;
+            this.param = AESExpandedKey.expand(engine, (KeyParameter)param, this.param);
         }
         else if (param instanceof ParametersWithIV)
         {
             this.iv = ((ParametersWithIV)param).getIV();
-            this.param = (KeyParameter)((ParametersWithIV) param).getParameters();
+            this.param = AESExpandedKey.expand(engine, (KeyParameter)((ParametersWithIV) param).getParameters(), this.param);
             if (this.iv.length != 8)
             {
                throw new IllegalArgumentException("IV not equal to 8");
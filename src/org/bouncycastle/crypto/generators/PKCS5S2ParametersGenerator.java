@@ -36,17 +36,17 @@ public class PKCS5S2ParametersGenerator
     }
 
     private void F(
-        byte[]  P,
         byte[]  S,
         int     c,
         byte[]  iBuf,
+        byte[]  state,
         byte[]  out,
         int     outOff)
     {
-        byte[]              state = new byte[hMac.getMacSize()];
-        CipherParameters    param = new KeyParameter(P);
-
-        hMac.init(param);
+        if (c == 0)
+        {
+            throw new IllegalArgumentException("iteration count must be at least 1.");
+        }
 
         if (S != null)
         {
@@ -59,14 +59,9 @@ public class PKCS5S2ParametersGenerator
 
         System.arraycopy(state, 0, out, outOff, state.length);
 
-        if (c == 0)
-        {
-            throw new IllegalArgumentException("iteration count must be at least 1.");
-        }
-        
+        // doFinal() leaves the mac keyed, so each iteration is just update/doFinal
         for (int count = 1; count < c; count++)
         {
-            hMac.init(param);
             hMac.update(state, 0, state.length);
             hMac.doFinal(state, 0);
 
@@ -94,12 +89,15 @@ public class PKCS5S2ParametersGenerator
         int     l = (dkLen + hLen - 1) / hLen;
         byte[]  iBuf = new byte[4];
         byte[]  out = new byte[l * hLen];
+        byte[]  state = new byte[hLen];
+
+        hMac.init(new KeyParameter(password));
 
         for (int i = 1; i <= l; i++)
         {
             intToOctet(iBuf, i);
 
-            F(password, salt, iterationCount, iBuf, out, (i - 1) * hLen);
+            F(salt, iterationCount, iBuf, state, out, (i - 1) * hLen);
         }
 
         return out;
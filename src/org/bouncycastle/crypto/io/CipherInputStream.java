@@ -18,22 +18,27 @@ import org.bouncycastle.crypto.StreamCipher;
  * For example, if the Cipher is initialized for decryption, the
  * CipherInputStream will attempt to read in data and decrypt them,
  * before returning the decrypted data.
+ * <p>
+ * Input is read a buffer at a time. Where the caller's array has room the cipher writes
+ * straight into it, and a stream cipher works in place there, so most reads copy nothing;
+ * only output that does not fit is held in an internal buffer for the next read.
  */
 public class CipherInputStream
     extends FilterInputStream
 {
+    /** Buffer size used unless another is given. */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
     private BufferedBlockCipher bufferedBlockCipher;
     private StreamCipher streamCipher;
 
-    private byte[] buf;
-    private byte[] inBuf;
+    private byte[] buf;         // output not yet taken by the caller
+    private byte[] inBuf;       // block ciphers only, stream ciphers work in place
 
     private int bufOff;
     private int maxBuf;
     private boolean finalized;
 
-    private static final int INPUT_BUF_SIZE = 2048;
-
     /**
      * Constructs a CipherInputStream from an InputStream and a
      * BufferedBlockCipher.
@@ -41,111 +46,144 @@ public class CipherInputStream
     public CipherInputStream(
         InputStream is,
         BufferedBlockCipher cipher)
+    {
+        this(is, cipher, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a CipherInputStream from an InputStream and a
+     * BufferedBlockCipher, reading bufferSize bytes at a time.
+     */
+    public CipherInputStream(
+        InputStream is,
+        BufferedBlockCipher cipher,
+        int bufferSize)
     {
         super(is);
 
         this.bufferedBlockCipher = cipher;
 
-        buf = new byte[cipher.getOutputSize(INPUT_BUF_SIZE)];
-        inBuf = new byte[INPUT_BUF_SIZE];
+        // the cipher may hold back up to two blocks, and let them out later
+        inBuf = new byte[Math.max(bufferSize, 1)];
+        buf = new byte[inBuf.length + 2 * cipher.getBlockSize()];
     }
 
+    /**
+     * Constructs a CipherInputStream from an InputStream and a
+     * StreamCipher.
+     */
     public CipherInputStream(
         InputStream is,
         StreamCipher cipher)
+    {
+        this(is, cipher, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a CipherInputStream from an InputStream and a
+     * StreamCipher, reading bufferSize bytes at a time.
+     */
+    public CipherInputStream(
+        InputStream is,
+        StreamCipher cipher,
+        int bufferSize)
     {
         super(is);
 
         this.streamCipher = cipher;
 
-        buf = new byte[INPUT_BUF_SIZE];
-        inBuf = new byte[INPUT_BUF_SIZE];
+        buf = new byte[Math.max(bufferSize, 1)];
     }
 
     /**
-     * grab the next chunk of input from the underlying input stream
+     * grab the next chunk of input from the underlying input stream into buf
      */
     private int nextChunk()
         throws IOException
     {
-        int available = super.available();
-
-        // must always try to read 1 byte!
-        // some buggy InputStreams return < 0!
-        if (available <= 0)
-        {
-            available = 1;
-        }
+        bufOff = 0;
+        maxBuf = 0;
 
-        if (available > inBuf.length)
-        {
-            available = super.read(inBuf, 0, inBuf.length);
-        }
-        else
-        {
-            available = super.read(inBuf, 0, available);
-        }
-
-        if (available < 0)
+        while (maxBuf == 0)
         {
             if (finalized)
             {
                 return -1;
             }
 
-            try
+            if (streamCipher != null)
             {
-                if (bufferedBlockCipher != null)
-                {
-                    maxBuf = bufferedBlockCipher.doFinal(buf, 0);
-                }
-                else
-                {
-                    maxBuf = 0; // a stream cipher
-                }
+                maxBuf = processInPlace(buf, 0, buf.length);
             }
-            catch (Exception e)
+            else
             {
-                throw new IOException("error processing stream: " + e.toString());
+                int len = super.read(inBuf, 0, inBuf.length);
+
+                maxBuf = (len < 0) ? finish(buf, 0) : process(len, buf, 0);
             }
 
-            bufOff = 0;
+            if (maxBuf < 0)
+            {
+                maxBuf = 0;
+            }
+        }
+
+        return maxBuf;
+    }
+
+    /**
+     * read up to len bytes into b and decrypt them there.
+     */
+    private int processInPlace(byte[] b, int off, int len)
+        throws IOException
+    {
+        int count = super.read(b, off, len);
 
+        if (count < 0)
+        {
             finalized = true;
 
-            if (bufOff == maxBuf)
-            {
-                return -1;
-            }
+            return -1;
         }
-        else
+
+        try
         {
-            bufOff = 0;
+            streamCipher.processBytes(b, off, count, b, off);
+        }
+        catch (Exception e)
+        {
+            throw new IOException("error processing stream: " + e.toString());
+        }
 
-            try
-            {
-                if (bufferedBlockCipher != null)
-                {
-                    maxBuf = bufferedBlockCipher.processBytes(inBuf, 0, available, buf, 0);
-                }
-                else
-                {
-                    streamCipher.processBytes(inBuf, 0, available, buf, 0);
-                    maxBuf = available;
-                }
-            }
-            catch (Exception e)
-            {
-                throw new IOException("error processing stream: " + e.toString());
-            }
+        return count;
+    }
 
-            if (maxBuf == 0)    // not enough bytes read for first block...
-            {
-                return nextChunk();
-            }
+    private int process(int len, byte[] out, int outOff)
+        throws IOException
+    {
+        try
+        {
+            return bufferedBlockCipher.processBytes(inBuf, 0, len, out, outOff);
         }
+        catch (Exception e)
+        {
+            throw new IOException("error processing stream: " + e.toString());
+        }
+    }
 
-        return maxBuf;
+    private int finish(byte[] out, int outOff)
+        throws IOException
+    {
+        finalized = true;
+
+        try
+        {
+            return bufferedBlockCipher.doFinal(out, outOff);
+        }
+        catch (Exception e)
+        {
+            throw new IOException("error processing stream: " + e.toString());
+        }
     }
 
     public int read()
@@ -177,7 +215,47 @@ public class CipherInputStream
     {
         if (bufOff == maxBuf)
         {
-            if (nextChunk() < 0)
+            if (len == 0)
+            {
+                return 0;
+            }
+
+            // nothing held over, so work straight into the caller's array if it fits
+            while (!finalized)
+            {
+                if (streamCipher != null)
+                {
+                    int count = processInPlace(b, off, len);
+                    if (count != 0)
+                    {
+                        return count;
+                    }
+                    continue;
+                }
+
+                int count = super.read(inBuf, 0, inBuf.length);
+                int outLen = (count < 0) ? bufferedBlockCipher.getOutputSize(0) : bufferedBlockCipher.getUpdateOutputSize(count);
+
+                if (outLen <= len)
+                {
+                    outLen = (count < 0) ? finish(b, off) : process(count, b, off);
+                    if (outLen != 0)
+                    {
+                        return outLen;
+                    }
+                }
+                else
+                {
+                    bufOff = 0;
+                    maxBuf = (count < 0) ? finish(buf, 0) : process(count, buf, 0);
+                    if (maxBuf != 0)
+                    {
+                        break;
+                    }
+                }
+            }
+
+            if (bufOff == maxBuf)
             {
                 return -1;
             }
@@ -8,14 +8,25 @@ import javaaddin.io.FilterOutputStream;
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.StreamCipher;
 
+/**
+ * A CipherOutputStream is composed of an OutputStream and a cipher so that write() methods
+ * process the data before writing it out to the underlying OutputStream.
+ * <p>
+ * Output goes through one buffer, allocated when the stream is made, so writes allocate
+ * nothing. Large writes are cut into pieces of about the buffer's size.
+ */
 public class CipherOutputStream
     extends FilterOutputStream
 {
+    /** Buffer size used unless another is given. */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
     private BufferedBlockCipher bufferedBlockCipher;
     private StreamCipher streamCipher;
 
     private byte[] oneByte = new byte[1];
     private byte[] buf;
+    private int maxChunk;       // most input whose output is sure to fit buf
 
     /**
      * Constructs a CipherOutputStream from an OutputStream and a
@@ -24,22 +35,52 @@ public class CipherOutputStream
     public CipherOutputStream(
         OutputStream os,
         BufferedBlockCipher cipher)
+    {
+        this(os, cipher, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a CipherOutputStream from an OutputStream and a
+     * BufferedBlockCipher, with an output buffer of bufferSize bytes.
+     */
+    public CipherOutputStream(
+        OutputStream os,
+        BufferedBlockCipher cipher,
+        int bufferSize)
     {
         super(os);
         this.bufferedBlockCipher = cipher;
-        this.buf = new byte[cipher.getBlockSize()];
+
+        // the cipher may hold back up to two blocks, and let them out later
+        int blockSize = cipher.getBlockSize();
+        this.maxChunk = Math.max(bufferSize - 2 * blockSize, blockSize);
+        this.buf = new byte[maxChunk + 2 * blockSize];
     }
 
     /**
      * Constructs a CipherOutputStream from an OutputStream and a
-     * BufferedBlockCipher.
+     * StreamCipher.
      */
     public CipherOutputStream(
         OutputStream os,
         StreamCipher cipher)
+    {
+        this(os, cipher, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a CipherOutputStream from an OutputStream and a
+     * StreamCipher, with an output buffer of bufferSize bytes.
+     */
+    public CipherOutputStream(
+        OutputStream os,
+        StreamCipher cipher,
+        int bufferSize)
     {
         super(os);
         this.streamCipher = cipher;
+        this.maxChunk = Math.max(bufferSize, 1);
+        this.buf = new byte[maxChunk];
     }
 
     /**
@@ -104,24 +145,28 @@ public class CipherOutputStream
         int len)
         throws IOException
     {
-        if (bufferedBlockCipher != null)
+        while (len > 0)
         {
-            byte[] buf = new byte[bufferedBlockCipher.getOutputSize(len)];
+            int chunk = Math.min(len, maxChunk);
+            int outLen;
 
-            int outLen = bufferedBlockCipher.processBytes(b, off, len, buf, 0);
+            if (bufferedBlockCipher != null)
+            {
+                outLen = bufferedBlockCipher.processBytes(b, off, chunk, buf, 0);
+            }
+            else
+            {
+                streamCipher.processBytes(b, off, chunk, buf, 0);
+                outLen = chunk;
+            }
 
             if (outLen != 0)
             {
                 out.write(buf, 0, outLen);
             }
-        }
-        else
-        {
-            byte[] buf = new byte[len];
-
-            streamCipher.processBytes(b, off, len, buf, 0);
 
-            out.write(buf, 0, len);
+            off += chunk;
+            len -= chunk;
         }
     }
 
@@ -167,8 +212,6 @@ public class CipherOutputStream
         {
             if (bufferedBlockCipher != null)
             {
-                byte[] buf = new byte[bufferedBlockCipher.getOutputSize(0)];
-
                 int outLen = bufferedBlockCipher.doFinal(buf, 0);
 
                 if (outLen != 0)
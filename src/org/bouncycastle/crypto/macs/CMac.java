@@ -3,7 +3,9 @@ package org.bouncycastle.crypto.macs;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.engines.AESExpandedKey;
 import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
 
 /**
@@ -37,6 +39,7 @@ public class CMac implements Mac
     private byte[] buf;
     private int bufOff;
     private BlockCipher cipher;
+    private KeyParameter key;
 
     private int macSize;
 
@@ -123,6 +126,12 @@ public class CMac implements Mac
     {
         reset();
 
+        if (params instanceof KeyParameter)
+        {
+            key = AESExpandedKey.expand(((CBCBlockCipher)cipher).getUnderlyingCipher(), (KeyParameter)params, key);
+            params = key;
+        }
+
         cipher.init(true, params);
 
         //initializes the L, Lu, Lu2 numbers
@@ -7,11 +7,16 @@ import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.ExtendedDigest;
 import org.bouncycastle.crypto.Mac;
 import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Memoable;
 
 /**
  * HMAC implementation based on RFC2104
  *
  * H(K XOR opad, H(K XOR ipad, text))
+ * <p>
+ * If the digest is {@link Memoable} the states after absorbing the padded keys
+ * are saved at init, so each message costs no more compression rounds than the
+ * text and the inner hash need.
  */
 public class HMac
     implements Mac
@@ -23,8 +28,11 @@ public class HMac
     private int digestSize;
     private int blockLength;
     
+    private Memoable ipadState;
+    private Memoable opadState;
+
     private byte[] inputPad;
-    private byte[] outputPad;
+    private byte[] outputBuf;
 
     private static Hashtable blockLengths;
     
@@ -91,7 +99,7 @@ public class HMac
         this.blockLength = byteLength;
 
         inputPad = new byte[blockLength];
-        outputPad = new byte[blockLength];
+        outputBuf = new byte[blockLength + digestSize];
     }
     
     public String getAlgorithmName()
@@ -129,20 +137,31 @@ public class HMac
             }
         }
 
-        outputPad = new byte[inputPad.length];
-        System.arraycopy(inputPad, 0, outputPad, 0, inputPad.length);
+        System.arraycopy(inputPad, 0, outputBuf, 0, blockLength);
 
-        for (int i = 0; i < inputPad.length; i++)
+        for (int i = 0; i < blockLength; i++)
         {
             inputPad[i] ^= IPAD;
         }
 
-        for (int i = 0; i < outputPad.length; i++)
+        for (int i = 0; i < blockLength; i++)
+        {
+            outputBuf[i] ^= OPAD;
+        }
+
+        if (digest instanceof Memoable)
         {
-            outputPad[i] ^= OPAD;
+            opadState = ((Memoable)digest).copy();
+
+            ((Digest)opadState).update(outputBuf, 0, blockLength);
         }
 
         digest.update(inputPad, 0, inputPad.length);
+
+        if (digest instanceof Memoable)
+        {
+            ipadState = ((Memoable)digest).copy();
+        }
     }
 
     public int getMacSize()
@@ -168,15 +187,33 @@ public class HMac
         byte[] out,
         int outOff)
     {
-        byte[] tmp = new byte[digestSize];
-        digest.doFinal(tmp, 0);
+        digest.doFinal(outputBuf, blockLength);
 
-        digest.update(outputPad, 0, outputPad.length);
-        digest.update(tmp, 0, tmp.length);
+        if (opadState != null)
+        {
+            ((Memoable)digest).reset(opadState);
+            digest.update(outputBuf, blockLength, digestSize);
+        }
+        else
+        {
+            digest.update(outputBuf, 0, outputBuf.length);
+        }
 
         int     len = digest.doFinal(out, outOff);
 
-        reset();
+        for (int i = blockLength; i < outputBuf.length; i++)
+        {
+            outputBuf[i] = 0;
+        }
+
+        if (ipadState != null)
+        {
+            ((Memoable)digest).reset(ipadState);
+        }
+        else
+        {
+            digest.update(inputPad, 0, inputPad.length);
+        }
 
         return len;
     }
@@ -186,6 +223,12 @@ public class HMac
      */
     public void reset()
     {
+        if (ipadState != null)
+        {
+            ((Memoable)digest).reset(ipadState);
+            return;
+        }
+
         /*
          * reset the underlying digest.
          */
@@ -3,6 +3,7 @@ package org.bouncycastle.crypto.modes;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.MultiBlockCipher;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.util.Arrays;
 
@@ -10,8 +11,11 @@ import org.bouncycastle.util.Arrays;
  * implements Cipher-Block-Chaining (CBC) mode on top of a simple cipher.
  */
 public class CBCBlockCipher
-    implements BlockCipher
+    implements MultiBlockCipher
 {
+    // blocks per call to the underlying cipher when decrypting a run of blocks
+    private static final int BATCH_BLOCKS = 16;
+
     private byte[]          IV;
     private byte[]          cbcV;
     private byte[]          cbcNextV;
@@ -20,6 +24,9 @@ public class CBCBlockCipher
     private BlockCipher     cipher = null;
     private boolean         encrypting;
 
+    // ciphertext of the batch being decrypted, allocated on first use
+    private byte[]          batchBuf;
+
     /**
      * Basic constructor.
      *
@@ -148,6 +155,166 @@ public class CBCBlockCipher
         return (encrypting) ? encryptBlock(in, inOff, out, outOff) : decryptBlock(in, inOff, out, outOff);
     }
 
+    /**
+     * Process a run of blocks, as if processBlock() had been called for each in turn.
+     * <p>
+     * Decryption works from the last block back to the first, so in place (in == out and
+     * inOff == outOff) it needs no copy of each ciphertext block, and the blocks do not
+     * depend on one another beyond the ciphertext, which is why CBC decryption can be
+     * split up, see {@link org.bouncycastle.crypto.tls.TlsBlockCipher}. If the underlying
+     * cipher is a MultiBlockCipher the blocks go to it a batch at a time.
+     *
+     * @param in the array containing the input data.
+     * @param inOff offset into the in array the data starts at.
+     * @param blockCount the number of blocks to process.
+     * @param out the array the output data will be copied into.
+     * @param outOff the offset into the out array the output will start at.
+     * @exception DataLengthException if there isn't enough data in in, or
+     * space in out.
+     * @exception IllegalStateException if the cipher isn't initialised.
+     * @return the number of bytes processed and produced.
+     */
+    public int processBlocks(
+        byte[]      in,
+        int         inOff,
+        int         blockCount,
+        byte[]      out,
+        int         outOff)
+        throws DataLengthException, IllegalStateException
+    {
+        int length = blockCount * blockSize;
+
+        if ((inOff + length) > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+        if ((outOff + length) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        if (blockCount == 0)
+        {
+            return 0;
+        }
+
+        if (encrypting)
+        {
+            for (int i = 0; i < length; i += blockSize)
+            {
+                encryptBlock(in, inOff + i, out, outOff + i);
+            }
+            return length;
+        }
+
+        if (in == out && outOff != inOff && outOff < inOff + length && inOff < outOff + length)
+        {
+            // overlapping but shifted, the plain way is the only safe one
+            for (int i = 0; i < length; i += blockSize)
+            {
+                decryptBlock(in, inOff + i, out, outOff + i);
+            }
+            return length;
+        }
+
+        /*
+         * the last ciphertext block chains into the next call
+         */
+        System.arraycopy(in, inOff + length - blockSize, cbcNextV, 0, blockSize);
+
+        if (cipher instanceof MultiBlockCipher)
+        {
+            decryptBatches((MultiBlockCipher)cipher, in, inOff, length, out, outOff);
+        }
+        else
+        {
+            decryptBackwards(in, inOff, length, out, outOff);
+        }
+
+        byte[]  tmp;
+
+        tmp = cbcV;
+        cbcV = cbcNextV;
+        cbcNextV = tmp;
+
+        return length;
+    }
+
+    private void decryptBackwards(
+        byte[]      in,
+        int         inOff,
+        int         length,
+        byte[]      out,
+        int         outOff)
+    {
+        for (int i = length - blockSize; i > 0; i -= blockSize)
+        {
+            cipher.processBlock(in, inOff + i, out, outOff + i);
+
+            for (int j = 0; j < blockSize; j++)
+            {
+                out[outOff + i + j] ^= in[inOff + i - blockSize + j];
+            }
+        }
+
+        cipher.processBlock(in, inOff, out, outOff);
+
+        for (int j = 0; j < blockSize; j++)
+        {
+            out[outOff + j] ^= cbcV[j];
+        }
+    }
+
+    /**
+     * Batches from the last back to the first, each copied aside before it is decrypted,
+     * so in place the ciphertext in front of a batch is still there to chain from.
+     */
+    private void decryptBatches(
+        MultiBlockCipher    multi,
+        byte[]              in,
+        int                 inOff,
+        int                 length,
+        byte[]              out,
+        int                 outOff)
+    {
+        if (batchBuf == null)
+        {
+            batchBuf = new byte[BATCH_BLOCKS * blockSize];
+        }
+
+        int end = length;
+        while (end > 0)
+        {
+            int start = Math.max(0, end - batchBuf.length);
+            int batchLen = end - start;
+
+            System.arraycopy(in, inOff + start, batchBuf, 0, batchLen);
+            multi.processBlocks(batchBuf, 0, batchLen / blockSize, out, outOff + start);
+
+            for (int j = batchLen - 1; j >= blockSize; j--)
+            {
+                out[outOff + start + j] ^= batchBuf[j - blockSize];
+            }
+
+            if (start > 0)
+            {
+                for (int j = 0; j < blockSize; j++)
+                {
+                    out[outOff + start + j] ^= in[inOff + start - blockSize + j];
+                }
+            }
+            else
+            {
+                for (int j = 0; j < blockSize; j++)
+                {
+                    out[outOff + j] ^= cbcV[j];
+                }
+            }
+
+            end = start;
+        }
+    }
+
     /**
      * reset the chaining vector back to the IV and reset the underlying
      * cipher.
@@ -8,7 +8,9 @@ import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.Mac;
 import org.bouncycastle.crypto.macs.CBCBlockCipherMac;
+import org.bouncycastle.crypto.engines.AESExpandedKey;
 import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.util.Arrays;
 
@@ -64,6 +66,8 @@ public class CCMBlockCipher
     {
         this.forEncryption = forEncryption;
 
+        CipherParameters lastKey = keyParam;
+
         if (params instanceof AEADParameters)
         {
             AEADParameters param = (AEADParameters)params;
@@ -86,6 +90,13 @@ public class CCMBlockCipher
         {
             throw new IllegalArgumentException("invalid parameters passed to CCM");
         }
+
+        // each packet sets the cipher up again, so expand an AES key once here
+        if (keyParam instanceof KeyParameter)
+        {
+            keyParam = AESExpandedKey.expand(cipher, (KeyParameter)keyParam,
+                lastKey instanceof KeyParameter ? (KeyParameter)lastKey : null);
+        }
     }
 
     public String getAlgorithmName()
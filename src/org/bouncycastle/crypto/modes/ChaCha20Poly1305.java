@@ -0,0 +1,282 @@
+package org.bouncycastle.crypto.modes;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.ChaCha20Engine;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.crypto.util.Pack;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * The ChaCha20-Poly1305 AEAD construction of RFC 7539: a 256 bit key, a 96 bit nonce and a 128
+ * bit tag.
+ * <p>
+ * The first ChaCha20 block for the nonce provides the one-time Poly1305 key, the remaining
+ * key stream encrypts the data. The tag covers the associated data and the ciphertext, each
+ * padded to 16 bytes, followed by both lengths.
+ * </p>
+ */
+public class ChaCha20Poly1305
+    implements AEADCipher
+{
+    private static final int MAC_SIZE = 16;
+    private static final byte[] ZEROES = new byte[MAC_SIZE];
+
+    private final ChaCha20Engine chacha20 = new ChaCha20Engine();
+    private final Poly1305 poly1305 = new Poly1305();
+
+    private boolean forEncryption;
+    private KeyParameter key;
+    private byte[] nonce;
+    private byte[] A;
+
+    private byte[] macBlock;
+
+    // holds back what might be the tag when decrypting
+    private byte[] bufBlock = new byte[MAC_SIZE];
+    private int bufOff;
+    private long dataLength;
+
+    public String getAlgorithmName()
+    {
+        return "ChaCha20Poly1305";
+    }
+
+    /**
+     * Initialise the cipher. A null key in the parameters means the last key is used again,
+     * which must then come with a new nonce.
+     */
+    public void init(boolean forEncryption, CipherParameters params)
+        throws IllegalArgumentException
+    {
+        this.forEncryption = forEncryption;
+        this.macBlock = null;
+
+        KeyParameter keyParam;
+
+        if (params instanceof AEADParameters)
+        {
+            AEADParameters param = (AEADParameters)params;
+
+            if (param.getMacSize() != MAC_SIZE * 8)
+            {
+                throw new IllegalArgumentException("Invalid value for MAC size: " + param.getMacSize());
+            }
+
+            nonce = param.getNonce();
+            A = param.getAssociatedText();
+            keyParam = param.getKey();
+        }
+        else if (params instanceof ParametersWithIV)
+        {
+            ParametersWithIV param = (ParametersWithIV)params;
+
+            nonce = param.getIV();
+            A = null;
+            keyParam = (KeyParameter)param.getParameters();
+        }
+        else
+        {
+            throw new IllegalArgumentException("invalid parameters passed to ChaCha20Poly1305");
+        }
+
+        if (nonce == null || nonce.length != 12)
+        {
+            throw new IllegalArgumentException("ChaCha20Poly1305 requires a 96 bit nonce");
+        }
+
+        if (A == null)
+        {
+            // Avoid lots of null checks
+            A = new byte[0];
+        }
+
+        if (keyParam != null)
+        {
+            if (keyParam.getKey().length != 32)
+            {
+                throw new IllegalArgumentException("ChaCha20Poly1305 requires a 256 bit key");
+            }
+            this.key = keyParam;
+        }
+        else if (this.key == null)
+        {
+            throw new IllegalArgumentException("ChaCha20Poly1305 requires a key");
+        }
+
+        reset(true);
+    }
+
+    public byte[] getMac()
+    {
+        return Arrays.clone(macBlock);
+    }
+
+    public int getOutputSize(int len)
+    {
+        if (forEncryption)
+        {
+            return len + MAC_SIZE;
+        }
+
+        return Math.max(0, len + bufOff - MAC_SIZE);
+    }
+
+    public int getUpdateOutputSize(int len)
+    {
+        if (forEncryption)
+        {
+            return len;
+        }
+
+        return Math.max(0, len + bufOff - MAC_SIZE);
+    }
+
+    public int processByte(byte in, byte[] out, int outOff)
+        throws DataLengthException
+    {
+        return processBytes(new byte[]{ in }, 0, 1, out, outOff);
+    }
+
+    public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff)
+        throws DataLengthException
+    {
+        if ((inOff + len) > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+
+        if (forEncryption)
+        {
+            if ((outOff + len) > out.length)
+            {
+                throw new DataLengthException("output buffer too short");
+            }
+
+            chacha20.processBytes(in, inOff, len, out, outOff);
+            poly1305.update(out, outOff, len);
+            dataLength += len;
+            return len;
+        }
+
+        /*
+         * The last MAC_SIZE bytes seen so far might be the tag, so they are held back.
+         */
+        int available = bufOff + len;
+        if (available <= MAC_SIZE)
+        {
+            System.arraycopy(in, inOff, bufBlock, bufOff, len);
+            bufOff = available;
+            return 0;
+        }
+
+        int outLen = available - MAC_SIZE;
+        if ((outOff + outLen) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        int fromBuf = Math.min(bufOff, outLen);
+        decrypt(bufBlock, 0, fromBuf, out, outOff);
+
+        int fromIn = outLen - fromBuf;
+        decrypt(in, inOff, fromIn, out, outOff + fromBuf);
+
+        int keep = bufOff - fromBuf;
+        System.arraycopy(bufBlock, fromBuf, bufBlock, 0, keep);
+        System.arraycopy(in, inOff + fromIn, bufBlock, keep, len - fromIn);
+        bufOff = MAC_SIZE;
+
+        return outLen;
+    }
+
+    private void decrypt(byte[] in, int inOff, int len, byte[] out, int outOff)
+    {
+        poly1305.update(in, inOff, len);
+        chacha20.processBytes(in, inOff, len, out, outOff);
+        dataLength += len;
+    }
+
+    public int doFinal(byte[] out, int outOff)
+        throws IllegalStateException, InvalidCipherTextException
+    {
+        if (!forEncryption && bufOff < MAC_SIZE)
+        {
+            throw new InvalidCipherTextException("data too short");
+        }
+
+        if (forEncryption && (outOff + MAC_SIZE) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        updatePadding(dataLength);
+
+        byte[] lengths = new byte[16];
+        Pack.longToLittleEndian(A.length & 0xffffffffL, lengths, 0);
+        Pack.longToLittleEndian(dataLength, lengths, 8);
+        poly1305.update(lengths, 0, 16);
+
+        this.macBlock = new byte[MAC_SIZE];
+        poly1305.doFinal(macBlock, 0);
+
+        int resultLen = 0;
+
+        if (forEncryption)
+        {
+            System.arraycopy(macBlock, 0, out, outOff, MAC_SIZE);
+            resultLen = MAC_SIZE;
+        }
+        else
+        {
+            if (!Arrays.constantTimeAreEqual(macBlock, bufBlock))
+            {
+                throw new InvalidCipherTextException("mac check in ChaCha20Poly1305 failed");
+            }
+        }
+
+        reset(false);
+
+        return resultLen;
+    }
+
+    public void reset()
+    {
+        reset(true);
+    }
+
+    private void reset(boolean clearMac)
+    {
+        chacha20.init(true, new ParametersWithIV(key, nonce));
+
+        // Block 0 of the key stream is the one-time Poly1305 key
+        byte[] firstBlock = new byte[64];
+        chacha20.processBytes(firstBlock, 0, 64, firstBlock, 0);
+        poly1305.init(new KeyParameter(firstBlock, 0, 32));
+
+        poly1305.update(A, 0, A.length);
+        updatePadding(A.length);
+
+        bufOff = 0;
+        dataLength = 0;
+        Arrays.fill(bufBlock, (byte)0);
+
+        if (clearMac)
+        {
+            macBlock = null;
+        }
+    }
+
+    private void updatePadding(long length)
+    {
+        int partial = (int)length & (MAC_SIZE - 1);
+        if (partial != 0)
+        {
+            poly1305.update(ZEROES, 0, MAC_SIZE - partial);
+        }
+    }
+}
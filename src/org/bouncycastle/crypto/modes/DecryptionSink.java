@@ -0,0 +1,34 @@
+package org.bouncycastle.crypto.modes;
+
+import java.io.IOException;
+
+/**
+ * Somewhere for a streaming AEAD mode to put plaintext while it decrypts, until the MAC has
+ * been checked. An implementation might spool to a temporary file, say, and move it into
+ * place on release().
+ * <p>
+ * Nothing written should be used until release() is called. After release() or discard()
+ * the sink should be ready for the next message.
+ */
+public interface DecryptionSink
+{
+    /**
+     * Take the next len bytes of unverified plaintext.
+     */
+    public void write(byte[] buf, int off, int len)
+        throws IOException;
+
+    /**
+     * The MAC was good: everything written since the last release() or discard() is the
+     * message and may be handed on.
+     */
+    public void release()
+        throws IOException;
+
+    /**
+     * The MAC was bad, or the message was abandoned: drop everything written since the last
+     * release() or discard().
+     */
+    public void discard()
+        throws IOException;
+}
@@ -4,6 +4,8 @@ import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.MultiBlockCipher;
+import org.bouncycastle.crypto.modes.gcm.GCMBulkMultiplier;
 import org.bouncycastle.crypto.modes.gcm.GCMMultiplier;
 import org.bouncycastle.crypto.modes.gcm.Tables8kGCMMultiplier;
 import org.bouncycastle.crypto.params.AEADParameters;
@@ -15,6 +17,10 @@ import org.bouncycastle.util.Arrays;
 /**
  * Implements the Galois/Counter mode (GCM) detailed in
  * NIST Special Publication 800-38D.
+ * <p/>
+ * Runs of whole blocks passed to processBytes() go straight from the input to the output,
+ * with the counter blocks encrypted a batch at a time and, when the multiplier is a
+ * {@link GCMBulkMultiplier}, the batch hashed in one call.
  */
 public class GCMBlockCipher
     implements AEADBlockCipher
@@ -22,9 +28,13 @@ public class GCMBlockCipher
     private static final int BLOCK_SIZE = 16;
     private static final byte[] ZEROES = new byte[BLOCK_SIZE];
 
+    // blocks of key stream made per batch in the bulk path
+    private static final int BATCH_BLOCKS = 16;
+
     // not final due to a compiler bug 
     private BlockCipher   cipher;
     private GCMMultiplier multiplier;
+    private GCMBulkMultiplier bulkMultiplier;
 
     // These fields are set by init and not modified by processing
     private boolean             forEncryption;
@@ -43,6 +53,10 @@ public class GCMBlockCipher
     private int         bufOff;
     private long        totalLength;
 
+    // work space, reused
+    private final byte[] counterBlocks = new byte[BATCH_BLOCKS * BLOCK_SIZE];
+    private final byte[] keyStream = new byte[BATCH_BLOCKS * BLOCK_SIZE];
+
     public GCMBlockCipher(BlockCipher c)
     {
         this(c, null);
@@ -64,6 +78,10 @@ public class GCMBlockCipher
 
         this.cipher = c;
         this.multiplier = m;
+        if (m instanceof GCMBulkMultiplier)
+        {
+            this.bulkMultiplier = (GCMBulkMultiplier)m;
+        }
     }
 
     public BlockCipher getUnderlyingCipher()
@@ -197,25 +215,55 @@ public class GCMBlockCipher
     {
         int resultLen = 0;
 
-        for (int i = 0; i != len; i++)
+        // Finish off whatever an earlier call left in bufBlock. When decrypting, the last
+        // macSize bytes seen may be the MAC, so they are always held back.
+        while (bufOff > 0)
         {
-//            resultLen += process(in[inOff + i], out, outOff + resultLen);
-            bufBlock[bufOff++] = in[inOff + i];
+            int holdBack = forEncryption ? 0 : macSize;
+            if (bufOff + len < BLOCK_SIZE + holdBack)
+            {
+                System.arraycopy(in, inOff, bufBlock, bufOff, len);
+                bufOff += len;
+                return resultLen;
+            }
 
-            if (bufOff == bufBlock.length)
+            if (bufOff < BLOCK_SIZE)
             {
-                gCTRBlock(bufBlock, BLOCK_SIZE, out, outOff + resultLen);
-                if (!forEncryption)
-                {
-                    System.arraycopy(bufBlock, BLOCK_SIZE, bufBlock, 0, macSize);
-                }
-//              bufOff = 0;
-                bufOff = bufBlock.length - BLOCK_SIZE;
-//              return bufBlock.Length;
-                resultLen += BLOCK_SIZE;
+                int count = BLOCK_SIZE - bufOff;
+                System.arraycopy(in, inOff, bufBlock, bufOff, count);
+                inOff += count;
+                len -= count;
+                bufOff = BLOCK_SIZE;
             }
+
+            gCTRBlock(bufBlock, BLOCK_SIZE, out, outOff + resultLen);
+            resultLen += BLOCK_SIZE;
+            bufOff -= BLOCK_SIZE;
+            System.arraycopy(bufBlock, BLOCK_SIZE, bufBlock, 0, bufOff);
         }
 
+        // bufBlock is empty: whole blocks go straight through, the rest is kept
+        int blockCount;
+        if (forEncryption)
+        {
+            blockCount = len / BLOCK_SIZE;
+        }
+        else
+        {
+            blockCount = len > macSize ? (len - macSize) / BLOCK_SIZE : 0;
+        }
+
+        if (blockCount > 0)
+        {
+            gCTRBlocks(in, inOff, blockCount, out, outOff + resultLen);
+            inOff += blockCount * BLOCK_SIZE;
+            len -= blockCount * BLOCK_SIZE;
+            resultLen += blockCount * BLOCK_SIZE;
+        }
+
+        System.arraycopy(in, inOff, bufBlock, 0, len);
+        bufOff = len;
+
         return resultLen;
     }
 
@@ -342,7 +390,7 @@ public class GCMBlockCipher
             }
         }
 
-        byte[] tmp = new byte[BLOCK_SIZE];
+        byte[] tmp = keyStream;
         cipher.processBlock(counter, 0, tmp, 0);
 
         byte[] hashBytes;
@@ -369,6 +417,82 @@ public class GCMBlockCipher
         totalLength += bufCount;
     }
 
+    /**
+     * Encrypt or decrypt blockCount whole blocks from in to out. Decryption hashes the
+     * input before writing, encryption the output after, so in and out may be the same
+     * array at the same offset.
+     */
+    private void gCTRBlocks(byte[] in, int inOff, int blockCount, byte[] out, int outOff)
+    {
+        int ctr = Pack.bigEndianToInt(counter, 12);
+
+        while (blockCount > 0)
+        {
+            int batch = Math.min(blockCount, BATCH_BLOCKS);
+            int batchLen = batch * BLOCK_SIZE;
+
+            for (int pos = 0; pos < batchLen; pos += BLOCK_SIZE)
+            {
+                System.arraycopy(counter, 0, counterBlocks, pos, 12);
+                Pack.intToBigEndian(++ctr, counterBlocks, pos + 12);
+            }
+
+            if (cipher instanceof MultiBlockCipher)
+            {
+                ((MultiBlockCipher)cipher).processBlocks(counterBlocks, 0, batch, keyStream, 0);
+            }
+            else
+            {
+                for (int pos = 0; pos < batchLen; pos += BLOCK_SIZE)
+                {
+                    cipher.processBlock(counterBlocks, pos, keyStream, pos);
+                }
+            }
+
+            if (!forEncryption)
+            {
+                hashBlocks(in, inOff, batch);
+            }
+
+            for (int i = 0; i < batchLen; ++i)
+            {
+                out[outOff + i] = (byte)(in[inOff + i] ^ keyStream[i]);
+            }
+
+            if (forEncryption)
+            {
+                hashBlocks(out, outOff, batch);
+            }
+
+            inOff += batchLen;
+            outOff += batchLen;
+            blockCount -= batch;
+            totalLength += batchLen;
+        }
+
+        Pack.intToBigEndian(ctr, counter, 12);
+    }
+
+    private void hashBlocks(byte[] buf, int off, int blockCount)
+    {
+        if (bulkMultiplier != null)
+        {
+            bulkMultiplier.hashBlocks(S, buf, off, blockCount);
+            return;
+        }
+
+        while (blockCount > 0)
+        {
+            for (int i = 15; i >= 0; --i)
+            {
+                S[i] ^= buf[off + i];
+            }
+            multiplier.multiplyH(S);
+            off += BLOCK_SIZE;
+            --blockCount;
+        }
+    }
+
     private byte[] gHASH(byte[] b)
     {
         byte[] Y = new byte[16];
@@ -3,14 +3,21 @@ package org.bouncycastle.crypto.modes;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.MultiBlockCipher;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
 /**
  * Implements the Segmented Integer Counter (SIC) mode on top of a simple
  * block cipher. This mode is also known as CTR mode.
+ * <p>
+ * processBlocks() makes the key stream a batch of counter blocks at a time,
+ * with a single call to the underlying cipher if it is a MultiBlockCipher.
  */
-public class SICBlockCipher implements BlockCipher
+public class SICBlockCipher implements MultiBlockCipher
 {
+    // blocks of key stream made per batch by processBlocks()
+    private static final int BATCH_BLOCKS = 16;
+
     private final BlockCipher     cipher;
     private final int             blockSize;
     
@@ -18,6 +25,10 @@ public class SICBlockCipher implements BlockCipher
     private byte[]          counter;
     private byte[]          counterOut;
 
+    // batch buffers, allocated on the first processBlocks()
+    private byte[]          counterBlocks;
+    private byte[]          keyStream;
+
 
     /**
      * Basic constructor.
@@ -94,25 +105,74 @@ public class SICBlockCipher implements BlockCipher
           out[outOff + i] = (byte)(counterOut[i] ^ in[inOff + i]);
         }
 
-        int    carry = 1;
-        
-        for (int i = counter.length - 1; i >= 0; i--)
+        incrementCounter();
+
+        return counter.length;
+    }
+
+    public int processBlocks(byte[] in, int inOff, int blockCount, byte[] out, int outOff)
+        throws DataLengthException, IllegalStateException
+    {
+        int length = blockCount * blockSize;
+
+        if ((inOff + length) > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+        if ((outOff + length) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        if (counterBlocks == null)
+        {
+            counterBlocks = new byte[BATCH_BLOCKS * blockSize];
+            keyStream = new byte[BATCH_BLOCKS * blockSize];
+        }
+
+        int done = 0;
+        while (done < length)
         {
-            int    x = (counter[i] & 0xff) + carry;
-            
-            if (x > 0xff)
+            int batchLen = Math.min(length - done, counterBlocks.length);
+
+            for (int pos = 0; pos < batchLen; pos += blockSize)
             {
-                carry = 1;
+                System.arraycopy(counter, 0, counterBlocks, pos, blockSize);
+                incrementCounter();
+            }
+
+            if (cipher instanceof MultiBlockCipher)
+            {
+                ((MultiBlockCipher)cipher).processBlocks(counterBlocks, 0, batchLen / blockSize, keyStream, 0);
             }
             else
             {
-                carry = 0;
+                for (int pos = 0; pos < batchLen; pos += blockSize)
+                {
+                    cipher.processBlock(counterBlocks, pos, keyStream, pos);
+                }
             }
-            
-            counter[i] = (byte)x;
+
+            for (int i = 0; i < batchLen; i++)
+            {
+                out[outOff + done + i] = (byte)(keyStream[i] ^ in[inOff + done + i]);
+            }
+
+            done += batchLen;
         }
 
-        return counter.length;
+        return length;
+    }
+
+    private void incrementCounter()
+    {
+        for (int i = counter.length - 1; i >= 0; i--)
+        {
+            if (++counter[i] != 0)
+            {
+                break;
+            }
+        }
     }
 
 
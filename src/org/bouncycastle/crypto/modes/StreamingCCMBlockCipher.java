@@ -0,0 +1,504 @@
+package org.bouncycastle.crypto.modes;
+
+import java.io.IOException;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.RuntimeCryptoException;
+import org.bouncycastle.crypto.engines.AESExpandedKey;
+import org.bouncycastle.crypto.params.CCMParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Implements the Counter with Cipher Block Chaining mode (CCM) detailed in
+ * NIST Special Publication 800-38C, in a single pass.
+ * <p>
+ * CCMBlockCipher holds the whole message until doFinal(). Here the message length is declared
+ * up front in CCMParameters, so the CBC-MAC and the counter mode run side by side as the data
+ * arrives. Encryption hands back each byte of ciphertext as soon as it is given the plaintext,
+ * and doFinal() adds the MAC.
+ * <p>
+ * Decryption writes the plaintext to a DecryptionSink instead of the output buffer. doFinal()
+ * checks the MAC, then releases the plaintext or, if the MAC is bad, discards it. The input is
+ * the declared length of ciphertext followed by the MAC.
+ */
+public class StreamingCCMBlockCipher
+    implements AEADBlockCipher
+{
+    private static final int WORK_SIZE = 256;
+
+    private BlockCipher           cipher;
+    private SICBlockCipher        ctrCipher;
+    private DecryptionSink        sink;
+    private int                   blockSize;
+    private boolean               forEncryption;
+    private byte[]                nonce;
+    private byte[]                associatedText;
+    private int                   macSize;
+    private int                   dataLength;
+    private KeyParameter          keyParam;
+
+    private byte[]                macBlock;           // CBC-MAC chaining value
+    private int                   macOff;             // bytes added to macBlock since it was last encrypted
+    private byte[]                s0;                 // counter block zero, encrypted, for the MAC
+    private byte[]                keyStream;
+    private int                   keyStreamOff;       // blockSize when used up
+    private byte[]                zeroBlock;
+    private byte[]                work;               // plaintext on its way to the sink
+    private byte[]                receivedMac;
+    private int                   receivedMacOff;
+    private int                   processed;
+    private boolean               sinkDirty;
+    private byte[]                mac;
+    private byte[]                oneByte = new byte[1];
+
+    /**
+     * Constructor for encryption only.
+     *
+     * @param c the block cipher to be used.
+     */
+    public StreamingCCMBlockCipher(BlockCipher c)
+    {
+        this(c, null);
+    }
+
+    /**
+     * Constructor for encryption and decryption.
+     *
+     * @param c the block cipher to be used.
+     * @param sink where decryption puts the plaintext until the MAC is checked.
+     */
+    public StreamingCCMBlockCipher(BlockCipher c, DecryptionSink sink)
+    {
+        this.cipher = c;
+        this.ctrCipher = new SICBlockCipher(c);
+        this.sink = sink;
+        this.blockSize = c.getBlockSize();
+
+        if (blockSize != 16)
+        {
+            throw new IllegalArgumentException("cipher required with a block size of 16.");
+        }
+
+        this.macBlock = new byte[blockSize];
+        this.s0 = new byte[blockSize];
+        this.keyStream = new byte[blockSize];
+        this.zeroBlock = new byte[blockSize];
+    }
+
+    /**
+     * return the underlying block cipher that we are wrapping.
+     *
+     * @return the underlying block cipher that we are wrapping.
+     */
+    public BlockCipher getUnderlyingCipher()
+    {
+        return cipher;
+    }
+
+    /**
+     * @param params a CCMParameters giving the message length.
+     */
+    public void init(boolean forEncryption, CipherParameters params)
+          throws IllegalArgumentException
+    {
+        if (!(params instanceof CCMParameters) || ((CCMParameters)params).getDataLength() < 0)
+        {
+            throw new IllegalArgumentException("streaming CCM requires CCMParameters with a data length");
+        }
+        if (!forEncryption && sink == null)
+        {
+            throw new IllegalArgumentException("streaming CCM decryption requires a DecryptionSink");
+        }
+
+        CCMParameters param = (CCMParameters)params;
+
+        if (param.getNonce().length < 7 || param.getNonce().length > 13)
+        {
+            throw new IllegalArgumentException("nonce must have length from 7 to 13 octets");
+        }
+        if (param.getMacSize() < 32 || param.getMacSize() > 128 || param.getMacSize() % 16 != 0)
+        {
+            throw new IllegalArgumentException("invalid value for MAC size");
+        }
+
+        int lengthSize = 15 - param.getNonce().length;
+        if (lengthSize < 4 && param.getDataLength() >= (1 << (8 * lengthSize)))
+        {
+            throw new IllegalArgumentException("data length too large for the nonce length");
+        }
+
+        discardSink();
+
+        this.forEncryption = forEncryption;
+        this.nonce = param.getNonce();
+        this.associatedText = param.getAssociatedText();
+        this.macSize = param.getMacSize() / 8;
+        this.dataLength = param.getDataLength();
+        this.keyParam = AESExpandedKey.expand(cipher, param.getKey(), keyParam);
+        this.receivedMac = new byte[macSize];
+        this.mac = null;
+
+        if (!forEncryption && work == null)
+        {
+            work = new byte[WORK_SIZE];
+        }
+
+        restart(keyParam);
+    }
+
+    public String getAlgorithmName()
+    {
+        return cipher.getAlgorithmName() + "/CCM";
+    }
+
+    public int processByte(byte in, byte[] out, int outOff)
+        throws DataLengthException, IllegalStateException
+    {
+        oneByte[0] = in;
+
+        return processBytes(oneByte, 0, 1, out, outOff);
+    }
+
+    public int processBytes(byte[] in, int inOff, int inLen, byte[] out, int outOff)
+        throws DataLengthException, IllegalStateException
+    {
+        if (keyParam == null)
+        {
+            throw new IllegalStateException("CCM cipher unitialized.");
+        }
+        if (inOff + inLen > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+
+        int dataLen = Math.min(inLen, dataLength - processed);
+
+        if (forEncryption)
+        {
+            if (dataLen != inLen)
+            {
+                throw new DataLengthException("more data than the declared length");
+            }
+            if (outOff + inLen > out.length)
+            {
+                throw new DataLengthException("output buffer too short");
+            }
+
+            crypt(in, inOff, inLen, out, outOff);
+
+            return inLen;
+        }
+
+        if (inLen - dataLen > macSize - receivedMacOff)
+        {
+            throw new DataLengthException("more data than the declared length and MAC");
+        }
+
+        for (int done = 0; done < dataLen;)
+        {
+            int n = Math.min(dataLen - done, work.length);
+
+            crypt(in, inOff + done, n, work, 0);
+            writeSink(work, n);
+            done += n;
+        }
+
+        System.arraycopy(in, inOff + dataLen, receivedMac, receivedMacOff, inLen - dataLen);
+        receivedMacOff += inLen - dataLen;
+
+        return 0;
+    }
+
+    public int doFinal(byte[] out, int outOff)
+        throws IllegalStateException, InvalidCipherTextException
+    {
+        if (keyParam == null)
+        {
+            throw new IllegalStateException("CCM cipher unitialized.");
+        }
+
+        if (forEncryption)
+        {
+            if (processed != dataLength)
+            {
+                throw new DataLengthException("less data than the declared length");
+            }
+            if (outOff + macSize > out.length)
+            {
+                throw new DataLengthException("output buffer too short");
+            }
+
+            calculateMac();
+            System.arraycopy(mac, 0, out, outOff, macSize);
+
+            restart(null);
+
+            return macSize;
+        }
+
+        if (processed != dataLength || receivedMacOff != macSize)
+        {
+            reset();
+            throw new InvalidCipherTextException("data too short");
+        }
+
+        calculateMac();
+
+        if (!Arrays.constantTimeAreEqual(mac, receivedMac))
+        {
+            reset();
+            throw new InvalidCipherTextException("mac check in CCM failed");
+        }
+
+        try
+        {
+            sink.release();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeCryptoException("CCM decryption sink failed: " + e.getMessage());
+        }
+        sinkDirty = false;
+
+        restart(null);
+
+        return 0;
+    }
+
+    /**
+     * Go back to the start of the message, discarding any plaintext not yet released.
+     */
+    public void reset()
+    {
+        discardSink();
+
+        if (keyParam != null)
+        {
+            restart(null);
+        }
+    }
+
+    /**
+     * Returns a byte array containing the mac calculated as part of the
+     * last encrypt or decrypt operation.
+     *
+     * @return the last mac calculated.
+     */
+    public byte[] getMac()
+    {
+        return Arrays.clone(mac);
+    }
+
+    public int getUpdateOutputSize(int len)
+    {
+        return forEncryption ? len : 0;
+    }
+
+    public int getOutputSize(int len)
+    {
+        return forEncryption ? len + macSize : 0;
+    }
+
+    /**
+     * Counter mode over len bytes, with the plaintext going into the MAC.
+     */
+    private void crypt(byte[] in, int inOff, int len, byte[] out, int outOff)
+    {
+        if (forEncryption)
+        {
+            macUpdate(in, inOff, len);
+        }
+
+        int done = 0;
+
+        // finish a block already started
+        while (done < len && keyStreamOff < blockSize)
+        {
+            out[outOff + done] = (byte)(in[inOff + done] ^ keyStream[keyStreamOff++]);
+            done++;
+        }
+
+        int blocks = (len - done) / blockSize;
+        if (blocks > 0)
+        {
+            ctrCipher.processBlocks(in, inOff + done, blocks, out, outOff + done);
+            done += blocks * blockSize;
+        }
+
+        if (done < len)
+        {
+            ctrCipher.processBlock(zeroBlock, 0, keyStream, 0);
+            keyStreamOff = 0;
+
+            while (done < len)
+            {
+                out[outOff + done] = (byte)(in[inOff + done] ^ keyStream[keyStreamOff++]);
+                done++;
+            }
+        }
+
+        if (!forEncryption)
+        {
+            macUpdate(out, outOff, len);
+        }
+
+        processed += len;
+    }
+
+    private void macUpdate(byte[] in, int inOff, int len)
+    {
+        for (int i = 0; i < len; i++)
+        {
+            macBlock[macOff++] ^= in[inOff + i];
+            if (macOff == blockSize)
+            {
+                cipher.processBlock(macBlock, 0, macBlock, 0);
+                macOff = 0;
+            }
+        }
+    }
+
+    private void macUpdate(byte in)
+    {
+        oneByte[0] = in;
+        macUpdate(oneByte, 0, 1);
+    }
+
+    /**
+     * Fill the rest of the block with zeroes.
+     */
+    private void macPad()
+    {
+        if (macOff != 0)
+        {
+            cipher.processBlock(macBlock, 0, macBlock, 0);
+            macOff = 0;
+        }
+    }
+
+    private void calculateMac()
+    {
+        macPad();
+
+        mac = new byte[macSize];
+        for (int i = 0; i != macSize; i++)
+        {
+            mac[i] = (byte)(macBlock[i] ^ s0[i]);
+        }
+    }
+
+    /**
+     * Set up the counter and take the MAC through b0 and the associated text.
+     *
+     * @param key the key, or null to keep the one the cipher has.
+     */
+    private void restart(KeyParameter key)
+    {
+        byte[] iv = new byte[blockSize];
+
+        iv[0] = (byte)(((15 - nonce.length) - 1) & 0x7);
+
+        System.arraycopy(nonce, 0, iv, 1, nonce.length);
+
+        ctrCipher.init(true, new ParametersWithIV(key, iv));
+        ctrCipher.processBlock(zeroBlock, 0, s0, 0);        // S0
+
+        keyStreamOff = blockSize;
+        processed = 0;
+        receivedMacOff = 0;
+
+        //
+        // build b0
+        //
+        for (int i = 0; i != blockSize; i++)
+        {
+            macBlock[i] = 0;
+        }
+
+        if (hasAssociatedText())
+        {
+            macBlock[0] |= 0x40;
+        }
+
+        macBlock[0] |= (((macSize - 2) / 2) & 0x7) << 3;
+
+        macBlock[0] |= ((15 - nonce.length) - 1) & 0x7;
+
+        System.arraycopy(nonce, 0, macBlock, 1, nonce.length);
+
+        int q = dataLength;
+        int count = 1;
+        while (q > 0)
+        {
+            macBlock[blockSize - count] = (byte)(q & 0xff);
+            q >>>= 8;
+            count++;
+        }
+
+        cipher.processBlock(macBlock, 0, macBlock, 0);
+        macOff = 0;
+
+        //
+        // process associated text
+        //
+        if (hasAssociatedText())
+        {
+            if (associatedText.length < ((1 << 16) - (1 << 8)))
+            {
+                macUpdate((byte)(associatedText.length >> 8));
+                macUpdate((byte)associatedText.length);
+            }
+            else // can't go any higher than 2^32
+            {
+                macUpdate((byte)0xff);
+                macUpdate((byte)0xfe);
+                macUpdate((byte)(associatedText.length >> 24));
+                macUpdate((byte)(associatedText.length >> 16));
+                macUpdate((byte)(associatedText.length >> 8));
+                macUpdate((byte)associatedText.length);
+            }
+
+            macUpdate(associatedText, 0, associatedText.length);
+            macPad();
+        }
+    }
+
+    private boolean hasAssociatedText()
+    {
+        return associatedText != null && associatedText.length != 0;
+    }
+
+    private void writeSink(byte[] buf, int len)
+    {
+        sinkDirty = true;
+        try
+        {
+            sink.write(buf, 0, len);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeCryptoException("CCM decryption sink failed: " + e.getMessage());
+        }
+    }
+
+    private void discardSink()
+    {
+        if (sinkDirty)
+        {
+            sinkDirty = false;
+            try
+            {
+                sink.discard();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeCryptoException("CCM decryption sink failed: " + e.getMessage());
+            }
+        }
+    }
+}
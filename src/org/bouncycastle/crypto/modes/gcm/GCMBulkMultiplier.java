@@ -0,0 +1,14 @@
+package org.bouncycastle.crypto.modes.gcm;
+
+/**
+ * A GCMMultiplier that can also hash a run of whole blocks in one call, which lets it
+ * combine several blocks per multiplication (see {@link Tables8kGCMMultiplier}).
+ */
+public interface GCMBulkMultiplier
+    extends GCMMultiplier
+{
+    /**
+     * For each of the blockCount blocks starting at buf[off], in order: x ^= block; x *= H.
+     */
+    void hashBlocks(byte[] x, byte[] buf, int off, int blockCount);
+}
@@ -1,13 +1,153 @@
 package org.bouncycastle.crypto.modes.gcm;
 
 import org.bouncycastle.crypto.util.Pack;
+import org.bouncycastle.util.Arrays;
 
-public class Tables8kGCMMultiplier implements GCMMultiplier
+public class Tables8kGCMMultiplier implements GCMBulkMultiplier
 {
-    private final int[][][] M = new int[32][16][];
+    private byte[] H;
+    private int[][][] M;
+
+    // H, H^2, H^3 and H^4 tables for hashBlocks(), laid out flat as [32][16][4] so each
+    // lookup is a single index; built the first time it is given 4 blocks
+    private int[] F1, F2, F3, F4;
 
     public void init(byte[] H)
     {
+        if (this.H != null && Arrays.areEqual(this.H, H))
+        {
+            // same key as before, the tables still hold
+            return;
+        }
+
+        this.H = Arrays.clone(H);
+        this.M = buildTables(H);
+        this.F1 = null;
+        this.F2 = null;
+        this.F3 = null;
+        this.F4 = null;
+    }
+
+    public void multiplyH(byte[] x)
+    {
+//      assert x.Length == 16;
+
+        int[] z = new int[4];
+        for (int i = 15; i >= 0; --i)
+        {
+//            GCMUtil.xor(z, M[i + i][x[i] & 0x0f]);
+            int[] m = M[i + i][x[i] & 0x0f];
+            z[0] ^= m[0];
+            z[1] ^= m[1];
+            z[2] ^= m[2];
+            z[3] ^= m[3];
+//            GCMUtil.xor(z, M[i + i + 1][(x[i] & 0xf0) >>> 4]);
+            m = M[i + i + 1][(x[i] & 0xf0) >>> 4];
+            z[0] ^= m[0];
+            z[1] ^= m[1];
+            z[2] ^= m[2];
+            z[3] ^= m[3];
+        }
+
+        Pack.intToBigEndian(z, x, 0);
+    }
+
+    /**
+     * Four blocks at a time are hashed as
+     * ((((x ^ b1)H ^ b2)H ^ b3)H ^ b4)H = (x ^ b1)H^4 ^ b2.H^3 ^ b3.H^2 ^ b4.H,
+     * so the four products go into one accumulator. The tables already hold reduced
+     * values, so this is the table form of aggregated reduction: one result per four
+     * blocks, and no product waits on the one before.
+     */
+    public void hashBlocks(byte[] x, byte[] buf, int off, int blockCount)
+    {
+        if (blockCount >= 4 && F4 == null)
+        {
+            buildPowers();
+        }
+
+        while (blockCount >= 4)
+        {
+            int z0 = 0, z1 = 0, z2 = 0, z3 = 0;
+
+            for (int i = 15; i >= 0; --i)
+            {
+                int b1 = x[i] ^ buf[off + i];
+                int b2 = buf[off + 16 + i];
+                int b3 = buf[off + 32 + i];
+                int b4 = buf[off + 48 + i];
+                int lo = i << 7, hi = lo + 64;
+
+                int k = lo + ((b1 & 0x0f) << 2);
+                z0 ^= F4[k]; z1 ^= F4[k + 1]; z2 ^= F4[k + 2]; z3 ^= F4[k + 3];
+                k = hi + ((b1 & 0xf0) >>> 2);
+                z0 ^= F4[k]; z1 ^= F4[k + 1]; z2 ^= F4[k + 2]; z3 ^= F4[k + 3];
+
+                k = lo + ((b2 & 0x0f) << 2);
+                z0 ^= F3[k]; z1 ^= F3[k + 1]; z2 ^= F3[k + 2]; z3 ^= F3[k + 3];
+                k = hi + ((b2 & 0xf0) >>> 2);
+                z0 ^= F3[k]; z1 ^= F3[k + 1]; z2 ^= F3[k + 2]; z3 ^= F3[k + 3];
+
+                k = lo + ((b3 & 0x0f) << 2);
+                z0 ^= F2[k]; z1 ^= F2[k + 1]; z2 ^= F2[k + 2]; z3 ^= F2[k + 3];
+                k = hi + ((b3 & 0xf0) >>> 2);
+                z0 ^= F2[k]; z1 ^= F2[k + 1]; z2 ^= F2[k + 2]; z3 ^= F2[k + 3];
+
+                k = lo + ((b4 & 0x0f) << 2);
+                z0 ^= F1[k]; z1 ^= F1[k + 1]; z2 ^= F1[k + 2]; z3 ^= F1[k + 3];
+                k = hi + ((b4 & 0xf0) >>> 2);
+                z0 ^= F1[k]; z1 ^= F1[k + 1]; z2 ^= F1[k + 2]; z3 ^= F1[k + 3];
+            }
+
+            Pack.intToBigEndian(z0, x, 0);
+            Pack.intToBigEndian(z1, x, 4);
+            Pack.intToBigEndian(z2, x, 8);
+            Pack.intToBigEndian(z3, x, 12);
+            off += 64;
+            blockCount -= 4;
+        }
+
+        while (blockCount > 0)
+        {
+            for (int i = 15; i >= 0; --i)
+            {
+                x[i] ^= buf[off + i];
+            }
+            multiplyH(x);
+            off += 16;
+            --blockCount;
+        }
+    }
+
+    private void buildPowers()
+    {
+        F1 = flatten(M);
+        byte[] P = Arrays.clone(H);
+        multiplyH(P);
+        F2 = flatten(buildTables(P));
+        multiplyH(P);
+        F3 = flatten(buildTables(P));
+        multiplyH(P);
+        F4 = flatten(buildTables(P));
+    }
+
+    private static int[] flatten(int[][][] M)
+    {
+        int[] F = new int[32 * 16 * 4];
+        for (int i = 0; i < 32; ++i)
+        {
+            for (int j = 0; j < 16; ++j)
+            {
+                System.arraycopy(M[i][j], 0, F, (i * 16 + j) * 4, 4);
+            }
+        }
+        return F;
+    }
+
+    private static int[][][] buildTables(byte[] H)
+    {
+        int[][][] M = new int[32][16][];
+
         M[0][0] = new int[4];
         M[1][0] = new int[4];
         M[1][8] = GCMUtil.asInts(H);
@@ -55,7 +195,7 @@ public class Tables8kGCMMultiplier implements GCMMultiplier
 
             if (++i == 32)
             {
-                return;
+                return M;
             }
 
             if (i > 1)
@@ -72,28 +212,4 @@ public class Tables8kGCMMultiplier implements GCMMultiplier
             }
         }
     }
-
-    public void multiplyH(byte[] x)
-    {
-//      assert x.Length == 16;
-
-        int[] z = new int[4];
-        for (int i = 15; i >= 0; --i)
-        {
-//            GCMUtil.xor(z, M[i + i][x[i] & 0x0f]);
-            int[] m = M[i + i][x[i] & 0x0f];
-            z[0] ^= m[0];
-            z[1] ^= m[1];
-            z[2] ^= m[2];
-            z[3] ^= m[3];
-//            GCMUtil.xor(z, M[i + i + 1][(x[i] & 0xf0) >>> 4]);
-            m = M[i + i + 1][(x[i] & 0xf0) >>> 4];
-            z[0] ^= m[0];
-            z[1] ^= m[1];
-            z[2] ^= m[2];
-            z[3] ^= m[3];
-        }
-
-        Pack.intToBigEndian(z, x, 0);
-    }
 }
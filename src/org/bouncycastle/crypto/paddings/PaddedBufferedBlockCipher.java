@@ -5,6 +5,7 @@ import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.MultiBlockCipher;
 import org.bouncycastle.crypto.params.ParametersWithRandom;
 
 /**
@@ -208,6 +209,17 @@ public class PaddedBufferedBlockCipher
             len -= gapLen;
             inOff += gapLen;
 
+            if (cipher instanceof MultiBlockCipher && len > buf.length)
+            {
+                // everything but the last block (which stays buffered, as below) in one go
+                int blockCount = (len - 1) / blockSize;
+
+                resultLen += ((MultiBlockCipher)cipher).processBlocks(in, inOff, blockCount, out, outOff + resultLen);
+
+                len -= blockCount * blockSize;
+                inOff += blockCount * blockSize;
+            }
+
             while (len > buf.length)
             {
                 resultLen += cipher.processBlock(in, inOff, out, outOff + resultLen);
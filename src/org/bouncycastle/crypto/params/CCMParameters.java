@@ -3,6 +3,8 @@ package org.bouncycastle.crypto.params;
 public class CCMParameters
     extends AEADParameters
 {
+    private int dataLength;
+
     /**
      * Base constructor.
      * 
@@ -12,7 +14,32 @@ public class CCMParameters
      * @param associatedText associated text, if any
      */
     public CCMParameters(KeyParameter key, int macSize, byte[] nonce, byte[] associatedText)
+    {
+        this(key, macSize, nonce, associatedText, -1);
+    }
+
+    /**
+     * Constructor for when the message length is known in advance, as
+     * StreamingCCMBlockCipher needs.
+     * 
+     * @param key key to be used by underlying cipher
+     * @param macSize macSize in bits
+     * @param nonce nonce to be used
+     * @param associatedText associated text, if any
+     * @param dataLength length of the message in bytes, not counting the MAC
+     */
+    public CCMParameters(KeyParameter key, int macSize, byte[] nonce, byte[] associatedText, int dataLength)
     {
         super(key, macSize, nonce, associatedText);
+
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * @return the declared message length, or -1 if none was given.
+     */
+    public int getDataLength()
+    {
+        return dataLength;
     }
 }
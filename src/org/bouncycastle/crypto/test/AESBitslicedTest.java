@@ -0,0 +1,258 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.AESBitslicedEngine;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * Test vectors from the NIST standard tests and Brian Gladman's vector set
+ * <a href="http://fp.gladman.plus.com/cryptography_technology/rijndael/">
+ * http://fp.gladman.plus.com/cryptography_technology/rijndael/</a>, and runs of blocks
+ * against AESFastEngine.
+ */
+public class AESBitslicedTest
+    extends CipherTest
+{
+    static SimpleTest[]  tests = 
+            {
+                new BlockCipherVectorTest(0, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("80000000000000000000000000000000")),
+                        "00000000000000000000000000000000", "0EDD33D3C621E546455BD8BA1418BEC8"),
+                new BlockCipherVectorTest(1, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("00000000000000000000000000000080")),
+                        "00000000000000000000000000000000", "172AEAB3D507678ECAF455C12587ADB7"),
+                new BlockCipherMonteCarloTest(2, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("00000000000000000000000000000000")),
+                        "00000000000000000000000000000000", "C34C052CC0DA8D73451AFE5F03BE297F"),
+                new BlockCipherMonteCarloTest(3, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("5F060D3716B345C253F6749ABAC10917")),
+                        "355F697E8B868B65B25A04E18D782AFA", "ACC863637868E3E068D2FD6E3508454A"),
+                new BlockCipherVectorTest(4, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("000000000000000000000000000000000000000000000000")),
+                        "80000000000000000000000000000000", "6CD02513E8D4DC986B4AFE087A60BD0C"),
+                new BlockCipherMonteCarloTest(5, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("AAFE47EE82411A2BF3F6752AE8D7831138F041560631B114")),
+                        "F3F6752AE8D7831138F041560631B114", "77BA00ED5412DFF27C8ED91F3C376172"),
+                new BlockCipherVectorTest(6, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("0000000000000000000000000000000000000000000000000000000000000000")),
+                        "80000000000000000000000000000000", "DDC6BF790C15760D8D9AEB6F9A75FD4E"),
+                new BlockCipherMonteCarloTest(7, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("28E79E2AFC5F7745FCCABE2F6257C2EF4C4EDFB37324814ED4137C288711A386")),
+                        "C737317FE0846F132B23C8C2A672CE22", "E58B82BFBA53C0040DC610C642121168"),
+                new BlockCipherVectorTest(8, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("80000000000000000000000000000000")),
+                        "00000000000000000000000000000000", "0EDD33D3C621E546455BD8BA1418BEC8"),
+                new BlockCipherVectorTest(9, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("00000000000000000000000000000080")),
+                        "00000000000000000000000000000000", "172AEAB3D507678ECAF455C12587ADB7"),
+                new BlockCipherMonteCarloTest(10, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("00000000000000000000000000000000")),
+                        "00000000000000000000000000000000", "C34C052CC0DA8D73451AFE5F03BE297F"),
+                new BlockCipherMonteCarloTest(11, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("5F060D3716B345C253F6749ABAC10917")),
+                        "355F697E8B868B65B25A04E18D782AFA", "ACC863637868E3E068D2FD6E3508454A"),
+                new BlockCipherVectorTest(12, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("000000000000000000000000000000000000000000000000")),
+                        "80000000000000000000000000000000", "6CD02513E8D4DC986B4AFE087A60BD0C"),
+                new BlockCipherMonteCarloTest(13, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("AAFE47EE82411A2BF3F6752AE8D7831138F041560631B114")),
+                        "F3F6752AE8D7831138F041560631B114", "77BA00ED5412DFF27C8ED91F3C376172"),
+                new BlockCipherVectorTest(14, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("0000000000000000000000000000000000000000000000000000000000000000")),
+                        "80000000000000000000000000000000", "DDC6BF790C15760D8D9AEB6F9A75FD4E"),
+                new BlockCipherMonteCarloTest(15, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("28E79E2AFC5F7745FCCABE2F6257C2EF4C4EDFB37324814ED4137C288711A386")),
+                        "C737317FE0846F132B23C8C2A672CE22", "E58B82BFBA53C0040DC610C642121168"),
+                new BlockCipherVectorTest(16, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("80000000000000000000000000000000")),
+                        "00000000000000000000000000000000", "0EDD33D3C621E546455BD8BA1418BEC8"),
+                new BlockCipherVectorTest(17, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("00000000000000000000000000000080")),
+                        "00000000000000000000000000000000", "172AEAB3D507678ECAF455C12587ADB7"),
+                new BlockCipherMonteCarloTest(18, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("00000000000000000000000000000000")),
+                        "00000000000000000000000000000000", "C34C052CC0DA8D73451AFE5F03BE297F"),
+                new BlockCipherMonteCarloTest(19, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("5F060D3716B345C253F6749ABAC10917")),
+                        "355F697E8B868B65B25A04E18D782AFA", "ACC863637868E3E068D2FD6E3508454A"),
+                new BlockCipherVectorTest(20, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("000000000000000000000000000000000000000000000000")),
+                        "80000000000000000000000000000000", "6CD02513E8D4DC986B4AFE087A60BD0C"),
+                new BlockCipherMonteCarloTest(21, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("AAFE47EE82411A2BF3F6752AE8D7831138F041560631B114")),
+                        "F3F6752AE8D7831138F041560631B114", "77BA00ED5412DFF27C8ED91F3C376172"),
+                new BlockCipherVectorTest(22, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("0000000000000000000000000000000000000000000000000000000000000000")),
+                        "80000000000000000000000000000000", "DDC6BF790C15760D8D9AEB6F9A75FD4E"),
+                new BlockCipherMonteCarloTest(23, 10000, new AESBitslicedEngine(),
+                        new KeyParameter(Hex.decode("28E79E2AFC5F7745FCCABE2F6257C2EF4C4EDFB37324814ED4137C288711A386")),
+                        "C737317FE0846F132B23C8C2A672CE22", "E58B82BFBA53C0040DC610C642121168")
+            };
+    
+    private BlockCipher _engine = new AESBitslicedEngine();
+
+    AESBitslicedTest()
+    {
+        super(tests, new AESBitslicedEngine(), new KeyParameter(new byte[16]));
+    }
+
+    public String getName()
+    {
+        return "AESBitsliced";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        super.performTest();
+
+        byte[] keyBytes = new byte[16];
+        
+        _engine.init(true, new KeyParameter(keyBytes));
+        
+        //
+        // init tests
+        //
+        try
+        {
+            byte[]      dudKey = new byte[6];
+            
+            _engine.init(true, new KeyParameter(dudKey));
+            
+            fail("failed key length check");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected 
+        }
+        
+        try
+        {
+            byte[]      iv = new byte[16];
+
+            _engine.init(true, new ParametersWithIV(null, iv));
+            
+            fail("failed parameter check");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected 
+        }
+
+        for (int keySize = 16; keySize <= 32; keySize += 8)
+        {
+            multiBlockTest(keySize);
+            cbcTest(keySize);
+            gcmTest(keySize);
+        }
+    }
+
+    private byte[] pattern(int len, int seed)
+    {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; ++i)
+        {
+            bytes[i] = (byte)(i * seed + (i >> 8));
+        }
+        return bytes;
+    }
+
+    private void multiBlockTest(int keySize)
+    {
+        KeyParameter key = new KeyParameter(pattern(keySize, 7));
+        byte[] in = pattern(16 * 11, 3);
+
+        for (int pass = 0; pass < 2; ++pass)
+        {
+            boolean forEncryption = (pass == 0);
+
+            BlockCipher fast = new AESFastEngine();
+            fast.init(forEncryption, key);
+            byte[] expected = new byte[in.length];
+            for (int i = 0; i < in.length; i += 16)
+            {
+                fast.processBlock(in, i, expected, i);
+            }
+
+            // every group size, including the partial ones
+            AESBitslicedEngine engine = new AESBitslicedEngine();
+            engine.init(forEncryption, key);
+            for (int count = 1; count <= 11; ++count)
+            {
+                byte[] out = new byte[in.length];
+                engine.processBlocks(in, 0, count, out, 0);
+                if (!Arrays.areEqual(Arrays.copyOfRange(expected, 0, count * 16), Arrays.copyOfRange(out, 0, count * 16)))
+                {
+                    fail(count + " blocks differ from AESFast, " + keySize * 8 + " bit key "
+                        + (forEncryption ? "encrypting" : "decrypting"));
+                }
+            }
+        }
+    }
+
+    private void cbcTest(int keySize)
+    {
+        ParametersWithIV params = new ParametersWithIV(new KeyParameter(pattern(keySize, 11)), pattern(16, 5));
+        byte[] in = pattern(16 * 37, 9);
+
+        CBCBlockCipher fast = new CBCBlockCipher(new AESFastEngine());
+        fast.init(true, params);
+        byte[] ct = new byte[in.length];
+        for (int i = 0; i < in.length; i += 16)
+        {
+            fast.processBlock(in, i, ct, i);
+        }
+
+        CBCBlockCipher cbc = new CBCBlockCipher(new AESBitslicedEngine());
+        cbc.init(false, params);
+        byte[] out = new byte[in.length];
+        cbc.processBlocks(ct, 0, 37, out, 0);
+        if (!Arrays.areEqual(in, out))
+        {
+            fail("CBC decryption failed, " + keySize * 8 + " bit key");
+        }
+    }
+
+    private void gcmTest(int keySize)
+        throws Exception
+    {
+        AEADParameters params = new AEADParameters(new KeyParameter(pattern(keySize, 13)), 128, pattern(12, 17),
+            pattern(20, 19));
+        byte[] in = pattern(1000, 23);
+
+        byte[] expected = gcm(new GCMBlockCipher(new AESFastEngine()), true, params, in);
+        byte[] out = gcm(new GCMBlockCipher(new AESBitslicedEngine()), true, params, in);
+        if (!Arrays.areEqual(expected, out))
+        {
+            fail("GCM encryption differs from AESFast, " + keySize * 8 + " bit key");
+        }
+        if (!Arrays.areEqual(in, gcm(new GCMBlockCipher(new AESBitslicedEngine()), false, params, out)))
+        {
+            fail("GCM decryption failed, " + keySize * 8 + " bit key");
+        }
+    }
+
+    private byte[] gcm(GCMBlockCipher cipher, boolean forEncryption, AEADParameters params, byte[] in)
+        throws Exception
+    {
+        cipher.init(forEncryption, params);
+        byte[] out = new byte[cipher.getOutputSize(in.length)];
+        int len = cipher.processBytes(in, 0, in.length, out, 0);
+        cipher.doFinal(out, len);
+        return out;
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new AESBitslicedTest());
+    }
+}
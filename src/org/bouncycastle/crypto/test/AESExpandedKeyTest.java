@@ -0,0 +1,178 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.AESExpandedKey;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.AESLightEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * AESExpandedKey and its opt-in cache, through the AES engines.
+ */
+public class AESExpandedKeyTest
+    extends SimpleTest
+{
+    private static final byte[] KEY = Hex.decode("000102030405060708090a0b0c0d0e0f");
+    private static final byte[] IN = Hex.decode("00112233445566778899aabbccddeeff");
+    private static final byte[] OUT = Hex.decode("69c4e0d86a7b0430d8cdb78070b4c55a");
+
+    public String getName()
+    {
+        return "AESExpandedKey";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        AESExpandedKey key = new AESExpandedKey(KEY);
+
+        engineTest("AES", new AESEngine(), key);
+        engineTest("AESFast", new AESFastEngine(), key);
+        engineTest("AESLight", new AESLightEngine(), key);
+
+        if (AESExpandedKey.getInstance(key) != key)
+        {
+            fail("expanded key not passed through");
+        }
+
+        // getKey() must not expose the cached key
+        key.getKey()[0] ^= 1;
+        engineTest("AES after getKey()", new AESEngine(), key);
+
+        // the same bytes in a new KeyParameter come from the cache
+        AESExpandedKey cached = AESExpandedKey.getInstance(new KeyParameter(KEY));
+        if (AESExpandedKey.getInstance(new KeyParameter(KEY)) != cached)
+        {
+            fail("key not cached");
+        }
+
+        // a caller changing its key bytes between inits gets the new key
+        KeyParameter param = new KeyParameter(KEY);
+        BlockCipher engine = new AESFastEngine();
+        engine.init(true, param);
+        param.getKey()[15] ^= 1;
+        engine.init(true, param);
+        byte[] out = new byte[16];
+        engine.processBlock(IN, 0, out, 0);
+        if (Arrays.areEqual(OUT, out))
+        {
+            fail("changed key bytes not noticed");
+        }
+
+        // enough other keys push the first one out
+        for (int i = 0; i < 20; ++i)
+        {
+            byte[] other = Arrays.clone(KEY);
+            other[0] = (byte)(0x80 + i);
+            AESExpandedKey.getInstance(new KeyParameter(other));
+        }
+        AESExpandedKey fresh = AESExpandedKey.getInstance(new KeyParameter(KEY));
+        if (fresh == cached)
+        {
+            fail("cache not bounded");
+        }
+        engineTest("AES after eviction", new AESEngine(), fresh);
+
+        // clearing the cache only lets go of what it held
+        BlockCipher inUse = new AESFastEngine();
+        inUse.init(true, fresh);
+        AESExpandedKey.clearCache();
+        AESExpandedKey again = AESExpandedKey.getInstance(new KeyParameter(KEY));
+        if (again == fresh)
+        {
+            fail("cache not cleared");
+        }
+        byte[] out2 = new byte[16];
+        inUse.processBlock(IN, 0, out2, 0);
+        if (!Arrays.areEqual(OUT, out2))
+        {
+            fail("engine broken by clearCache()");
+        }
+        engineTest("AES after clearCache()", new AESEngine(), fresh);
+        AESExpandedKey.clearCache();
+
+        // expand() is for AES engines only, and reuses the last expansion for the same bytes
+        KeyParameter plain = new KeyParameter(KEY);
+        if (AESExpandedKey.expand(new DESedeEngine(), plain, null) != plain)
+        {
+            fail("non-AES key expanded");
+        }
+        if (AESExpandedKey.expand(new AESEngine(), null, null) != null)
+        {
+            fail("null key not passed through");
+        }
+        KeyParameter expanded = AESExpandedKey.expand(new AESEngine(), plain, null);
+        if (!(expanded instanceof AESExpandedKey))
+        {
+            fail("AES key not expanded");
+        }
+        if (AESExpandedKey.expand(new AESEngine(), new KeyParameter(KEY), expanded) != expanded)
+        {
+            fail("expansion not reused");
+        }
+        byte[] otherKey = Arrays.clone(KEY);
+        otherKey[0] ^= 1;
+        if (AESExpandedKey.expand(new AESEngine(), new KeyParameter(otherKey), expanded) == expanded)
+        {
+            fail("expansion reused for another key");
+        }
+        engineTest("AESLight from expand()", new AESLightEngine(), expanded);
+
+        // plain KeyParameters are expanded by the engines themselves
+        engineTest("AES", new AESEngine(), new KeyParameter(KEY));
+        engineTest("AESFast", new AESFastEngine(), new KeyParameter(KEY));
+        engineTest("AESLight", new AESLightEngine(), new KeyParameter(KEY));
+
+        try
+        {
+            AESExpandedKey.getInstance(new KeyParameter(new byte[6]));
+
+            fail("failed key length check");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            new AESFastEngine().init(true, new KeyParameter(new byte[6]));
+
+            fail("failed engine key length check");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private void engineTest(String name, BlockCipher engine, KeyParameter key)
+    {
+        byte[] out = new byte[16];
+
+        engine.init(true, key);
+        engine.processBlock(IN, 0, out, 0);
+        if (!Arrays.areEqual(OUT, out))
+        {
+            fail(name + " encryption failed");
+        }
+
+        engine.init(false, key);
+        engine.processBlock(out, 0, out, 0);
+        if (!Arrays.areEqual(IN, out))
+        {
+            fail(name + " decryption failed");
+        }
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new AESExpandedKeyTest());
+    }
+}
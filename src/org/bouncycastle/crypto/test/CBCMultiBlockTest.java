@@ -0,0 +1,110 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * CBCBlockCipher.processBlocks() against processBlock(), including decryption in place and
+ * in parts.
+ */
+public class CBCMultiBlockTest
+    extends SimpleTest
+{
+    public String getName()
+    {
+        return "CBCMultiBlock";
+    }
+
+    public void performTest()
+    {
+        multiBlockTest(new CBCBlockCipher(new AESFastEngine()), new CBCBlockCipher(new AESFastEngine()),
+            Hex.decode("2b7e151628aed2a6abf7158809cf4f3c"));
+        multiBlockTest(new CBCBlockCipher(new DESedeEngine()), new CBCBlockCipher(new DESedeEngine()),
+            Hex.decode("0123456789abcdeffedcba98765432100123456789abcdef"));
+    }
+
+    private void multiBlockTest(CBCBlockCipher single, CBCBlockCipher multi, byte[] key)
+    {
+        int blockSize = single.getBlockSize();
+        byte[] iv = new byte[blockSize];
+        for (int i = 0; i < iv.length; ++i)
+        {
+            iv[i] = (byte)(0xa0 + i);
+        }
+
+        byte[] plain = new byte[blockSize * 40];
+        for (int i = 0; i < plain.length; ++i)
+        {
+            plain[i] = (byte)(i * 7);
+        }
+
+        // reference: one block at a time
+        byte[] expected = new byte[plain.length];
+        single.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+        for (int i = 0; i < plain.length; i += blockSize)
+        {
+            single.processBlock(plain, i, expected, i);
+        }
+
+        // encryption, split across two calls so the chaining carries over
+        byte[] cipher = new byte[plain.length];
+        multi.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+        multi.processBlocks(plain, 0, 13, cipher, 0);
+        multi.processBlocks(plain, 13 * blockSize, 27, cipher, 13 * blockSize);
+        if (!Arrays.areEqual(expected, cipher))
+        {
+            fail("encryption does not match processBlock()");
+        }
+
+        // decryption to another array
+        byte[] out = new byte[plain.length];
+        multi.init(false, new ParametersWithIV(new KeyParameter(key), iv));
+        multi.processBlocks(cipher, 0, 40, out, 0);
+        if (!Arrays.areEqual(plain, out))
+        {
+            fail("decryption does not match");
+        }
+
+        // decryption in place, in three calls
+        byte[] buf = Arrays.clone(cipher);
+        multi.init(false, new ParametersWithIV(null, iv));
+        multi.processBlocks(buf, 0, 1, buf, 0);
+        multi.processBlocks(buf, blockSize, 20, buf, blockSize);
+        multi.processBlocks(buf, 21 * blockSize, 19, buf, 21 * blockSize);
+        if (!Arrays.areEqual(plain, buf))
+        {
+            fail("decryption in place does not match");
+        }
+
+        // decryption into the same array, shifted by one block
+        buf = new byte[cipher.length + blockSize];
+        System.arraycopy(cipher, 0, buf, blockSize, cipher.length);
+        multi.init(false, new ParametersWithIV(null, iv));
+        multi.processBlocks(buf, blockSize, 40, buf, 0);
+        if (!Arrays.areEqual(plain, Arrays.copyOfRange(buf, 0, plain.length)))
+        {
+            fail("overlapping decryption does not match");
+        }
+
+        // a part on its own, given the ciphertext block in front of it as the IV
+        multi.init(false, new ParametersWithIV(null, Arrays.copyOfRange(cipher, 9 * blockSize, 10 * blockSize)));
+        multi.processBlocks(cipher, 10 * blockSize, 5, out, 0);
+        if (!Arrays.areEqual(Arrays.copyOfRange(plain, 10 * blockSize, 15 * blockSize),
+            Arrays.copyOfRange(out, 0, 5 * blockSize)))
+        {
+            fail("decryption of a part does not match");
+        }
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new CBCMultiBlockTest());
+    }
+}
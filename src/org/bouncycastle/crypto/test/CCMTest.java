@@ -1,9 +1,15 @@
 package org.bouncycastle.crypto.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.crypto.engines.AESEngine;
 import org.bouncycastle.crypto.engines.DESEngine;
 import org.bouncycastle.crypto.modes.CCMBlockCipher;
+import org.bouncycastle.crypto.modes.DecryptionSink;
+import org.bouncycastle.crypto.modes.StreamingCCMBlockCipher;
 import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.CCMParameters;
 import org.bouncycastle.crypto.params.KeyParameter;
@@ -80,6 +86,16 @@ public class CCMTest
         // long data test
         //
         checkVectors(4, ccm, K4, 112, N4, A4, A4, T5, C5);
+
+        //
+        // single pass CCM
+        //
+        checkStreaming(0, K1, 32, N1, A1, P1, C1);
+        checkStreaming(1, K2, 48, N2, A2, P2, C2);
+        checkStreaming(2, K3, 64, N3, A3, P3, C3);
+        checkStreaming(3, K4, 112, N4, a4, P4, C4);
+        checkStreaming(4, K4, 112, N4, A4, A4, C5);
+        streamingExceptionTest();
         
         //
         // exception tests
@@ -204,6 +220,191 @@ public class CCMTest
         }
     }
 
+    private void checkStreaming(
+        int count,
+        byte[] k,
+        int macSize,
+        byte[] n,
+        byte[] a,
+        byte[] p,
+        byte[] c)
+        throws InvalidCipherTextException
+    {
+        CCMParameters params = new CCMParameters(new KeyParameter(k), macSize, n, a, p.length);
+        MemorySink sink = new MemorySink();
+        StreamingCCMBlockCipher ccm = new StreamingCCMBlockCipher(new AESEngine(), sink);
+
+        // uneven pieces, so blocks are split every way
+        int[] pieces = { 1, 7, 16, 33, 5, 64 };
+
+        for (int pass = 0; pass != 2; pass++)
+        {
+            ccm.init(true, params);
+
+            byte[] enc = new byte[ccm.getOutputSize(p.length)];
+            int len = 0;
+            for (int off = 0, i = 0; off < p.length; i++)
+            {
+                int piece = Math.min(pieces[i % pieces.length], p.length - off);
+                if (ccm.getUpdateOutputSize(piece) != piece)
+                {
+                    fail("update output size wrong in streaming test " + count);
+                }
+                len += ccm.processBytes(p, off, piece, enc, len);
+                off += piece;
+            }
+            len += ccm.doFinal(enc, len);
+
+            if (len != c.length || !areEqual(c, enc))
+            {
+                fail("encrypted stream fails to match in streaming test " + count);
+            }
+
+            ccm.init(false, params);
+
+            for (int off = 0, i = 0; off < c.length; i++)
+            {
+                int piece = Math.min(pieces[(i + pass) % pieces.length], c.length - off);
+                if (ccm.processBytes(c, off, piece, null, 0) != 0)
+                {
+                    fail("plaintext released early in streaming test " + count);
+                }
+                if (sink.released != null)
+                {
+                    fail("sink released early in streaming test " + count);
+                }
+                off += piece;
+            }
+            ccm.doFinal(null, 0);
+
+            if (!areEqual(p, sink.released))
+            {
+                fail("decrypted stream fails to match in streaming test " + count);
+            }
+            sink.released = null;
+        }
+
+        // a changed ciphertext is discarded, not released
+        byte[] bad = (byte[])c.clone();
+        bad[0] ^= 1;
+
+        ccm.init(false, params);
+        ccm.processBytes(bad, 0, bad.length, null, 0);
+        try
+        {
+            ccm.doFinal(null, 0);
+
+            fail("invalid cipher text not picked up in streaming test " + count);
+        }
+        catch (InvalidCipherTextException e)
+        {
+            // expected
+        }
+
+        if (sink.released != null || sink.discards == 0)
+        {
+            fail("bad plaintext not discarded in streaming test " + count);
+        }
+    }
+
+    private void streamingExceptionTest()
+        throws InvalidCipherTextException
+    {
+        CCMParameters params = new CCMParameters(new KeyParameter(K2), 48, N2, A2, P2.length);
+        StreamingCCMBlockCipher ccm = new StreamingCCMBlockCipher(new AESEngine(), new MemorySink());
+        byte[] out = new byte[C2.length + 1];
+
+        try
+        {
+            ccm.init(true, new CCMParameters(new KeyParameter(K2), 48, N2, A2));
+
+            fail("missing data length not picked up");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            new StreamingCCMBlockCipher(new AESEngine()).init(false, params);
+
+            fail("missing sink not picked up");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        ccm.init(true, params);
+        try
+        {
+            ccm.processBytes(P2, 0, P2.length, out, 0);
+            ccm.processBytes(P2, 0, 1, out, P2.length);
+
+            fail("data past declared length not picked up");
+        }
+        catch (DataLengthException e)
+        {
+            // expected
+        }
+
+        ccm.init(true, params);
+        try
+        {
+            ccm.processBytes(P2, 0, P2.length - 1, out, 0);
+            ccm.doFinal(out, P2.length - 1);
+
+            fail("short data not picked up");
+        }
+        catch (DataLengthException e)
+        {
+            // expected
+        }
+
+        ccm.init(false, params);
+        try
+        {
+            ccm.processBytes(C2, 0, C2.length - 1, null, 0);
+            ccm.doFinal(null, 0);
+
+            fail("truncated MAC not picked up");
+        }
+        catch (InvalidCipherTextException e)
+        {
+            // expected
+        }
+    }
+
+    private static class MemorySink
+        implements DecryptionSink
+    {
+        private ByteArrayOutputStream spool = new ByteArrayOutputStream();
+
+        byte[] released;
+        int discards;
+
+        public void write(byte[] buf, int off, int len)
+            throws IOException
+        {
+            spool.write(buf, off, len);
+        }
+
+        public void release()
+            throws IOException
+        {
+            released = spool.toByteArray();
+            spool.reset();
+        }
+
+        public void discard()
+            throws IOException
+        {
+            discards++;
+            spool.reset();
+        }
+    }
+
     public String getName()
     {
         return "CCM";
@@ -0,0 +1,216 @@
+package org.bouncycastle.crypto.test;
+
+import javaaddin.security.SecureRandom;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.modes.AEADCipher;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * ChaCha20-Poly1305 AEAD Test, vectors from RFC 7539 2.8.2 and A.5
+ */
+public class ChaCha20Poly1305Test
+    extends SimpleTest
+{
+    private static final String[][] TEST_VECTORS = new String[][] {
+        {
+            "2.8.2",
+            "808182838485868788898a8b8c8d8e8f909192939495969798999a9b9c9d9e9f",
+            new String(Hex.encode(Strings.toByteArray("Ladies and Gentlemen of the class of '99: "
+                + "If I could offer you only one tip for the future, sunscreen would be it."))),
+            "50515253c0c1c2c3c4c5c6c7",
+            "070000004041424344454647",
+            "d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d63dbea45e8ca96712"
+            + "82fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b3692ddbd7f2d778b8c9803aee328091b58"
+            + "fab324e4fad675945585808b4831d7bc3ff4def08e4b7a9de576d26586cec64b6116",
+            "1ae10b594f09e26a7e902ecbd0600691",
+        },
+        {
+            "A.5",
+            "1c9240a5eb55d38af333888604f6b5f0473917c1402b80099dca5cbc207075c0",
+            "496e7465726e65742d4472616674732061726520647261667420646f63756d656e74732076616c69"
+            + "6420666f722061206d6178696d756d206f6620736978206d6f6e74687320616e64206d6179206265"
+            + "20757064617465642c207265706c616365642c206f72206f62736f6c65746564206279206f746865"
+            + "7220646f63756d656e747320617420616e792074696d652e20497420697320696e617070726f7072"
+            + "6961746520746f2075736520496e7465726e65742d447261667473206173207265666572656e6365"
+            + "206d6174657269616c206f7220746f2063697465207468656d206f74686572207468616e20617320"
+            + "2fe2809c776f726b20696e2070726f67726573732e2fe2809d",
+            "f33388860000000000004e91",
+            "000000000102030405060708",
+            "64a0861575861af460f062c79be643bd5e805cfd345cf389f108670ac76c8cb24c6cfc18755d43ee"
+            + "a09ee94e382d26b0bdb7b73c321b0100d4f03b7f355894cf332f830e710b97ce98c8a84abd0b9481"
+            + "14ad176e008d33bd60f982b1ff37c8559797a06ef4f0ef61c186324e2b3506383606907b6a7c02b0"
+            + "f9f6157b53c867e4b9166c767b804d46a59b5216cde7a4e99040c5a40433225ee282a1b0a06c523e"
+            + "af4534d7f83fa1155b0047718cbc546a0d072b04b3564eea1b422273f548271a0bb2316053fa7699"
+            + "1955ebd63159434ecebb4e466dae5a1073a6727627097a1049e617d91d361094fa68f0ff77987130"
+            + "305beaba2eda04df997b714d6c6f2c29a6ad5cb4022b02709b",
+            "eead9d67890cbb22392336fea1851f38",
+        },
+    };
+
+    public String getName()
+    {
+        return "ChaCha20Poly1305";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        for (int i = 0; i < TEST_VECTORS.length; ++i)
+        {
+            runTestCase(TEST_VECTORS[i]);
+        }
+
+        randomTests();
+    }
+
+    private void runTestCase(String[] testVector)
+        throws InvalidCipherTextException
+    {
+        String testName = testVector[0];
+        byte[] K = Hex.decode(testVector[1]);
+        byte[] P = Hex.decode(testVector[2]);
+        byte[] A = Hex.decode(testVector[3]);
+        byte[] N = Hex.decode(testVector[4]);
+        byte[] C = Hex.decode(testVector[5]);
+        byte[] T = Hex.decode(testVector[6]);
+
+        AEADParameters parameters = new AEADParameters(new KeyParameter(K), 128, N, A);
+
+        AEADCipher encCipher = new ChaCha20Poly1305();
+        encCipher.init(true, parameters);
+
+        byte[] enc = new byte[encCipher.getOutputSize(P.length)];
+        int len = encCipher.processBytes(P, 0, P.length, enc, 0);
+        len += encCipher.doFinal(enc, len);
+
+        if (enc.length != len)
+        {
+            fail("encryption reported incorrect length: " + testName);
+        }
+
+        byte[] data = new byte[P.length];
+        System.arraycopy(enc, 0, data, 0, data.length);
+        byte[] tail = new byte[enc.length - P.length];
+        System.arraycopy(enc, P.length, tail, 0, tail.length);
+
+        if (!areEqual(C, data))
+        {
+            fail("incorrect encrypt in: " + testName);
+        }
+
+        if (!areEqual(T, encCipher.getMac()))
+        {
+            fail("getMac() returned wrong mac in: " + testName);
+        }
+
+        if (!areEqual(T, tail))
+        {
+            fail("stream contained wrong mac in: " + testName);
+        }
+
+        AEADCipher decCipher = new ChaCha20Poly1305();
+        decCipher.init(false, parameters);
+
+        byte[] dec = new byte[decCipher.getOutputSize(enc.length)];
+        len = decCipher.processBytes(enc, 0, enc.length, dec, 0);
+        len += decCipher.doFinal(dec, len);
+
+        if (!areEqual(P, dec))
+        {
+            fail("incorrect decrypt in: " + testName);
+        }
+
+        /*
+         * Any change to the ciphertext or the tag must be detected
+         */
+        enc[enc.length / 2] ^= 1;
+        decCipher.init(false, parameters);
+        len = decCipher.processBytes(enc, 0, enc.length, dec, 0);
+        try
+        {
+            decCipher.doFinal(dec, len);
+            fail("tampered ciphertext accepted in: " + testName);
+        }
+        catch (InvalidCipherTextException e)
+        {
+        }
+    }
+
+    private void randomTests()
+        throws InvalidCipherTextException
+    {
+        SecureRandom srng = new SecureRandom();
+        for (int i = 0; i < 20; ++i)
+        {
+            randomTest(srng);
+        }
+    }
+
+    private void randomTest(SecureRandom srng)
+        throws InvalidCipherTextException
+    {
+        byte[] K = new byte[32];
+        srng.nextBytes(K);
+
+        int pLength = srng.nextInt() >>> 22;
+        byte[] P = new byte[pLength];
+        srng.nextBytes(P);
+
+        int aLength = srng.nextInt() >>> 24;
+        byte[] A = new byte[aLength];
+        srng.nextBytes(A);
+
+        byte[] N = new byte[12];
+        srng.nextBytes(N);
+
+        AEADCipher cipher = new ChaCha20Poly1305();
+        AEADParameters parameters = new AEADParameters(new KeyParameter(K), 16 * 8, N, A);
+        cipher.init(true, parameters);
+        byte[] C = new byte[cipher.getOutputSize(P.length)];
+        int len = cipher.processBytes(P, 0, P.length, C, 0);
+        len += cipher.doFinal(C, len);
+
+        if (C.length != len)
+        {
+            fail("encryption reported incorrect length in randomised test");
+        }
+
+        byte[] encT = cipher.getMac();
+
+        /*
+         * Decrypt in small pieces, so the held back tag crosses calls, reusing the key
+         */
+        cipher.init(false, new AEADParameters(null, 16 * 8, N, A));
+        byte[] decP = new byte[cipher.getOutputSize(C.length)];
+        len = 0;
+        int off = 0;
+        while (off < C.length)
+        {
+            int chunk = Math.min(1 + (srng.nextInt() >>> 26), C.length - off);
+            len += cipher.processBytes(C, off, chunk, decP, len);
+            off += chunk;
+        }
+        len += cipher.doFinal(decP, len);
+
+        if (len != P.length || !areEqual(P, decP))
+        {
+            fail("incorrect decrypt in randomised test");
+        }
+
+        if (!areEqual(encT, cipher.getMac()))
+        {
+            fail("decryption produced different mac from encryption");
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        runTest(new ChaCha20Poly1305Test());
+    }
+}
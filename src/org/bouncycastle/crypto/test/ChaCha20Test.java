@@ -0,0 +1,168 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.engines.ChaCha20Engine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * ChaCha20 Test, vectors from RFC 7539
+ */
+public class ChaCha20Test
+    extends SimpleTest
+{
+    byte[] zeroes = new byte[128];
+
+    // A.1 Test Vectors #1 and #2: all zero key and nonce, blocks 0 and 1
+    String zeroKeyStream = "76b8e0ada0f13d90405d6ae55386bd28"
+        + "bdd219b8a08ded1aa836efcc8b770dc7"
+        + "da41597c5157488d7724e03fb8d84a37"
+        + "6a43b8f41518a11cc387b669b2ee6586"
+        + "9f07e7be5551387a98ba977c732d080d"
+        + "cb0f29a048e3656912c6533e32ee7aed"
+        + "29b721769ce64e43d57133b074d839d5"
+        + "31ed1f28510afb45ace10a1f4b794d6f";
+
+    // 2.4.2 Example and Test Vector for the ChaCha20 Cipher, starting at block 1
+    String sunscreenKey = "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f";
+    String sunscreenNonce = "000000000000004a00000000";
+    String sunscreenPlaintext = "Ladies and Gentlemen of the class of '99: "
+        + "If I could offer you only one tip for the future, sunscreen would be it.";
+    String sunscreenCiphertext = "6e2e359a2568f98041ba0728dd0d6981"
+        + "e97e7aec1d4360c20a27afccfd9fae0b"
+        + "f91b65c5524733ab8f593dabcd62b357"
+        + "1639d624e65152ab8f530c359f0861d8"
+        + "07ca0dbf500d6a6156a38e088a22b65e"
+        + "52bc514d16ccf806818ce91ab7793736"
+        + "5af90bbf74a35be6b40b8eedf2785e42"
+        + "874d";
+
+    public String getName()
+    {
+        return "ChaCha20";
+    }
+
+    public void performTest()
+    {
+        keyStreamTest(new ParametersWithIV(new KeyParameter(new byte[32]), new byte[12]), zeroKeyStream);
+
+        /*
+         * With an 8 byte IV the counter is 64 bits wide; for a zero IV the first blocks are
+         * the same as above.
+         */
+        keyStreamTest(new ParametersWithIV(new KeyParameter(new byte[32]), new byte[8]), zeroKeyStream);
+
+        sunscreenTest();
+        returnByteTest();
+        initTests();
+    }
+
+    private void keyStreamTest(CipherParameters params, String expected)
+    {
+        StreamCipher chacha = new ChaCha20Engine();
+        byte[]       buf = new byte[128];
+
+        chacha.init(true, params);
+        chacha.processBytes(zeroes, 0, 128, buf, 0);
+
+        if (!areEqual(buf, Hex.decode(expected)))
+        {
+            mismatch("key stream", expected, buf);
+        }
+
+        chacha.reset();
+        chacha.processBytes(zeroes, 0, 128, buf, 0);
+
+        if (!areEqual(buf, Hex.decode(expected)))
+        {
+            mismatch("key stream after reset", expected, buf);
+        }
+    }
+
+    private void sunscreenTest()
+    {
+        StreamCipher chacha = new ChaCha20Engine();
+        byte[]       block0 = new byte[64];
+        byte[]       pt = Strings.toByteArray(sunscreenPlaintext);
+        byte[]       ct = new byte[pt.length];
+
+        chacha.init(true, new ParametersWithIV(new KeyParameter(Hex.decode(sunscreenKey)),
+            Hex.decode(sunscreenNonce)));
+
+        // skip block 0
+        chacha.processBytes(block0, 0, 64, block0, 0);
+        chacha.processBytes(pt, 0, pt.length, ct, 0);
+
+        if (!areEqual(ct, Hex.decode(sunscreenCiphertext)))
+        {
+            mismatch("sunscreen", sunscreenCiphertext, ct);
+        }
+    }
+
+    private void returnByteTest()
+    {
+        StreamCipher chacha = new ChaCha20Engine();
+        byte[]       buf = new byte[128];
+
+        chacha.init(true, new ParametersWithIV(new KeyParameter(new byte[32]), new byte[12]));
+
+        chacha.processBytes(zeroes, 0, 7, buf, 0);
+        for (int i = 7; i != 70; i++)
+        {
+            buf[i] = chacha.returnByte(zeroes[i]);
+        }
+        chacha.processBytes(zeroes, 70, 58, buf, 70);
+
+        if (!areEqual(buf, Hex.decode(zeroKeyStream)))
+        {
+            mismatch("returnByte", zeroKeyStream, buf);
+        }
+    }
+
+    private void initTests()
+    {
+        StreamCipher chacha = new ChaCha20Engine();
+
+        try
+        {
+            chacha.init(true, new KeyParameter(new byte[32]));
+            fail("ChaCha20 should throw exception if no IV in Init");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+
+        try
+        {
+            chacha.init(true, new ParametersWithIV(new KeyParameter(new byte[32]), new byte[16]));
+            fail("ChaCha20 should throw exception for a 16 byte IV");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+
+        try
+        {
+            chacha.init(true, new ParametersWithIV(new KeyParameter(new byte[24]), new byte[12]));
+            fail("ChaCha20 should throw exception for a 192 bit key");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    private void mismatch(String name, String expected, byte[] found)
+    {
+        fail("mismatch on " + name, expected, new String(Hex.encode(found)));
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new ChaCha20Test());
+    }
+}
@@ -0,0 +1,187 @@
+package org.bouncycastle.crypto.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.RC4Engine;
+import org.bouncycastle.crypto.io.CipherInputStream;
+import org.bouncycastle.crypto.io.CipherOutputStream;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.CTSBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * CipherInputStream and CipherOutputStream against the ciphers used directly, over a range of
+ * buffer and read/write sizes.
+ */
+public class CipherStreamTest
+    extends SimpleTest
+{
+    private static final KeyParameter KEY = new KeyParameter(Hex.decode("000102030405060708090a0b0c0d0e0f"));
+    private static final ParametersWithIV KEY_IV = new ParametersWithIV(KEY, Hex.decode("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff"));
+
+    private static final int[] BUFFER_SIZES = { 1, 16, 100, CipherOutputStream.DEFAULT_BUFFER_SIZE };
+    private static final int[] PIECE_SIZES = { 1, 15, 17, 1000, 8192 };
+
+    public String getName()
+    {
+        return "CipherStream";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        int[] lengths = { 0, 1, 16, 1000, 10000 };
+
+        for (int i = 0; i < lengths.length; ++i)
+        {
+            byte[] data = new byte[lengths[i]];
+            for (int j = 0; j < data.length; ++j)
+            {
+                data[j] = (byte)(j * 7 + (j >> 8));
+            }
+
+            for (int b = 0; b < BUFFER_SIZES.length; ++b)
+            {
+                int bufferSize = BUFFER_SIZES[b];
+
+                blockTest("padded CBC", new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine())),
+                    new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine())), data, bufferSize);
+                blockTest("SIC", new BufferedBlockCipher(new SICBlockCipher(new AESFastEngine())),
+                    new BufferedBlockCipher(new SICBlockCipher(new AESFastEngine())), data, bufferSize);
+                if (data.length > 16)
+                {
+                    blockTest("CTS", new CTSBlockCipher(new CBCBlockCipher(new AESFastEngine())),
+                        new CTSBlockCipher(new CBCBlockCipher(new AESFastEngine())), data, bufferSize);
+                }
+                streamTest(new RC4Engine(), new RC4Engine(), data, bufferSize);
+            }
+        }
+    }
+
+    private void blockTest(String name, BufferedBlockCipher direct, BufferedBlockCipher cipher, byte[] data,
+        int bufferSize)
+        throws Exception
+    {
+        direct.init(true, KEY_IV);
+        byte[] expected = new byte[direct.getOutputSize(data.length)];
+        int len = direct.processBytes(data, 0, data.length, expected, 0);
+        len += direct.doFinal(expected, len);
+        expected = Arrays.copyOfRange(expected, 0, len);
+
+        for (int p = 0; p < PIECE_SIZES.length; ++p)
+        {
+            int piece = PIECE_SIZES[p];
+            String label = name + " " + data.length + " bytes, buffer " + bufferSize + ", pieces of " + piece;
+
+            cipher.init(true, KEY_IV);
+            ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+            CipherOutputStream cOut = new CipherOutputStream(bOut, cipher, bufferSize);
+            write(cOut, data, piece);
+            cOut.close();
+
+            if (!Arrays.areEqual(expected, bOut.toByteArray()))
+            {
+                fail(label + ": output stream differs");
+            }
+
+            cipher.init(false, KEY_IV);
+            byte[] decrypted = read(new CipherInputStream(new ByteArrayInputStream(expected), cipher, bufferSize), piece);
+            if (!Arrays.areEqual(data, decrypted))
+            {
+                fail(label + ": input stream differs");
+            }
+        }
+    }
+
+    private void streamTest(StreamCipher direct, StreamCipher cipher, byte[] data, int bufferSize)
+        throws Exception
+    {
+        direct.init(true, KEY);
+        byte[] expected = new byte[data.length];
+        direct.processBytes(data, 0, data.length, expected, 0);
+
+        for (int p = 0; p < PIECE_SIZES.length; ++p)
+        {
+            int piece = PIECE_SIZES[p];
+            String label = "RC4 " + data.length + " bytes, buffer " + bufferSize + ", pieces of " + piece;
+
+            cipher.init(true, KEY);
+            ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+            CipherOutputStream cOut = new CipherOutputStream(bOut, cipher, bufferSize);
+            write(cOut, data, piece);
+            cOut.close();
+
+            if (!Arrays.areEqual(expected, bOut.toByteArray()))
+            {
+                fail(label + ": output stream differs");
+            }
+
+            cipher.init(false, KEY);
+            byte[] decrypted = read(new CipherInputStream(new ByteArrayInputStream(expected), cipher, bufferSize), piece);
+            if (!Arrays.areEqual(data, decrypted))
+            {
+                fail(label + ": input stream differs");
+            }
+        }
+    }
+
+    private void write(CipherOutputStream cOut, byte[] data, int piece)
+        throws Exception
+    {
+        for (int off = 0; off < data.length; off += piece)
+        {
+            if (piece == 1)
+            {
+                cOut.write(data[off]);
+            }
+            else
+            {
+                cOut.write(data, off, Math.min(piece, data.length - off));
+            }
+        }
+    }
+
+    private byte[] read(InputStream cIn, int piece)
+        throws Exception
+    {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        byte[] buf = new byte[piece];
+        int len;
+
+        if (piece == 1)
+        {
+            while ((len = cIn.read()) >= 0)
+            {
+                bOut.write(len);
+            }
+        }
+        else
+        {
+            while ((len = cIn.read(buf, 0, buf.length)) >= 0)
+            {
+                bOut.write(buf, 0, len);
+            }
+        }
+
+        cIn.close();
+
+        return bOut.toByteArray();
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new CipherStreamTest());
+    }
+}
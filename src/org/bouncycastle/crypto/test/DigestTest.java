@@ -1,6 +1,7 @@
 package org.bouncycastle.crypto.test;
 
 import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.Memoable;
 import org.bouncycastle.util.encoders.Hex;
 import org.bouncycastle.util.test.SimpleTest;
 
@@ -65,6 +66,68 @@ public abstract class DigestTest
         {
             fail("failing second clone vector test", results[results.length - 1], new String(Hex.encode(resBuf)));
         }
+
+        if (digest instanceof Memoable)
+        {
+            memoTest(lastV, lastDigest, resBuf);
+        }
+    }
+
+    private void memoTest(
+        byte[] lastV,
+        byte[] lastDigest,
+        byte[] resBuf)
+    {
+        int half = lastV.length / 2;
+
+        digest.update(lastV, 0, half);
+
+        Memoable m = ((Memoable)digest).copy();
+
+        digest.update(lastV, half, lastV.length - half);
+        digest.doFinal(resBuf, 0);
+
+        if (!areEqual(lastDigest, resBuf))
+        {
+            fail("failing memo vector test", results[results.length - 1], new String(Hex.encode(resBuf)));
+        }
+
+        // restore into the original, which has been reset by doFinal()
+        ((Memoable)digest).reset(m);
+
+        digest.update(lastV, half, lastV.length - half);
+        digest.doFinal(resBuf, 0);
+
+        if (!areEqual(lastDigest, resBuf))
+        {
+            fail("failing memo reset vector test", results[results.length - 1], new String(Hex.encode(resBuf)));
+        }
+
+        // restore into a digest part way through other input
+        Digest md = (Digest)((Memoable)digest).copy();
+
+        md.update(lastV, 0, lastV.length);
+        md.update((byte)0x42);
+        ((Memoable)md).reset(m);
+
+        md.update(lastV, half, lastV.length - half);
+        md.doFinal(resBuf, 0);
+
+        if (!areEqual(lastDigest, resBuf))
+        {
+            fail("failing memo copy vector test", results[results.length - 1], new String(Hex.encode(resBuf)));
+        }
+
+        // the saved state is unaffected by the digests restored from it
+        ((Memoable)digest).reset(m);
+
+        digest.update(lastV, half, lastV.length - half);
+        digest.doFinal(resBuf, 0);
+
+        if (!areEqual(lastDigest, resBuf))
+        {
+            fail("failing memo reuse vector test", results[results.length - 1], new String(Hex.encode(resBuf)));
+        }
     }
 
     private byte[] toByteArray(String input)
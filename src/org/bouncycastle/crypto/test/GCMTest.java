@@ -485,6 +485,21 @@ public class GCMTest
             fail("decryption produced different mac from encryption");
         }
 
+        //
+        // the same again, fed in pieces of random length
+        //
+        cipher.init(true, parameters);
+        if (!areEqual(C, processInPieces(srng, cipher, P)))
+        {
+            fail("encryption in pieces differs in randomised test");
+        }
+
+        cipher.init(false, parameters);
+        if (!areEqual(P, processInPieces(srng, cipher, C)))
+        {
+            fail("decryption in pieces differs in randomised test");
+        }
+
         //
         // key  reuse test
         //
@@ -505,6 +520,34 @@ public class GCMTest
         }
     }
 
+    private byte[] processInPieces(SecureRandom srng, GCMBlockCipher cipher, byte[] in)
+        throws InvalidCipherTextException
+    {
+        byte[] out = new byte[cipher.getOutputSize(in.length)];
+        int inOff = 0, outOff = 0;
+        while (inOff < in.length)
+        {
+            // mostly short pieces, sometimes a single byte, sometimes several blocks
+            int len = Math.min(in.length - inOff, (srng.nextInt() >>> 24) % 70);
+            if (len == 1)
+            {
+                outOff += cipher.processByte(in[inOff], out, outOff);
+            }
+            else
+            {
+                outOff += cipher.processBytes(in, inOff, len, out, outOff);
+            }
+            inOff += len;
+        }
+        outOff += cipher.doFinal(out, outOff);
+
+        if (outOff != out.length)
+        {
+            fail("processing in pieces reported incorrect length");
+        }
+        return out;
+    }
+
     public static void main(String[] args)
     {
         runTest(new GCMTest());
@@ -0,0 +1,156 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.MultiBlockCipher;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * MultiBlockCipher.processBlocks() against processBlock() for the engines and modes that
+ * implement it, and the buffered ciphers that use it.
+ */
+public class MultiBlockCipherTest
+    extends SimpleTest
+{
+    private static final byte[] KEY = Hex.decode("000102030405060708090a0b0c0d0e0f1011121314151617");
+    private static final byte[] IV = Hex.decode("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff");
+
+    public String getName()
+    {
+        return "MultiBlockCipher";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        KeyParameter key = new KeyParameter(KEY);
+        ParametersWithIV keyIV = new ParametersWithIV(key, IV);
+
+        multiBlockTest("AESFast", new AESFastEngine(), new AESFastEngine(), key);
+        multiBlockTest("AES", new AESEngine(), new AESEngine(), key);
+        multiBlockTest("SIC", new SICBlockCipher(new AESFastEngine()), new SICBlockCipher(new AESFastEngine()), keyIV);
+        multiBlockTest("SIC/DESede", new SICBlockCipher(new DESedeEngine()), new SICBlockCipher(new DESedeEngine()),
+            new ParametersWithIV(key, Arrays.copyOfRange(IV, 0, 8)));
+        multiBlockTest("CBC", new CBCBlockCipher(new AESEngine()), new CBCBlockCipher(new AESEngine()), keyIV);
+
+        // a counter that carries across more than the last byte
+        byte[] iv = Hex.decode("00000000000000000000000000fffff0");
+        multiBlockTest("SIC carry", new SICBlockCipher(new AESEngine()), new SICBlockCipher(new AESEngine()),
+            new ParametersWithIV(key, iv));
+
+        // without padding CBC needs whole blocks, SIC does not
+        bufferedTest("CBC", new BufferedBlockCipher(new CBCBlockCipher(new AESFastEngine())),
+            new BufferedBlockCipher(new CBCBlockCipher(new AESFastEngine())), keyIV, 1008);
+        bufferedTest("SIC", new BufferedBlockCipher(new SICBlockCipher(new AESFastEngine())),
+            new BufferedBlockCipher(new SICBlockCipher(new AESFastEngine())), keyIV, 1000);
+        bufferedTest("padded CBC", new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine())),
+            new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine())), keyIV, 1000);
+    }
+
+    private void multiBlockTest(String name, BlockCipher single, MultiBlockCipher multi, CipherParameters params)
+    {
+        int blockSize = single.getBlockSize();
+        byte[] in = new byte[blockSize * 70];
+        for (int i = 0; i < in.length; ++i)
+        {
+            in[i] = (byte)(i * 13);
+        }
+
+        for (int pass = 0; pass < 2; ++pass)
+        {
+            boolean forEncryption = (pass == 0);
+
+            byte[] expected = new byte[in.length];
+            single.init(forEncryption, params);
+            for (int i = 0; i < in.length; i += blockSize)
+            {
+                single.processBlock(in, i, expected, i);
+            }
+
+            // in runs of different lengths, crossing any internal batches
+            byte[] out = new byte[in.length];
+            multi.init(forEncryption, params);
+            int[] runs = { 1, 0, 17, 3, 32, 16, 1 };
+            int off = 0;
+            for (int i = 0; i < runs.length; ++i)
+            {
+                if (multi.processBlocks(in, off, runs[i], out, off) != runs[i] * blockSize)
+                {
+                    fail(name + " processBlocks() returned the wrong length");
+                }
+                off += runs[i] * blockSize;
+            }
+            if (!Arrays.areEqual(expected, out))
+            {
+                fail(name + " processBlocks() does not match processBlock() " + (forEncryption ? "encrypting" : "decrypting"));
+            }
+
+            // in place
+            byte[] buf = Arrays.clone(in);
+            multi.init(forEncryption, params);
+            multi.processBlocks(buf, 0, 70, buf, 0);
+            if (!Arrays.areEqual(expected, buf))
+            {
+                fail(name + " processBlocks() in place does not match processBlock()");
+            }
+        }
+    }
+
+    private void bufferedTest(String name, BufferedBlockCipher single, BufferedBlockCipher multi, ParametersWithIV params,
+        int length)
+        throws Exception
+    {
+        byte[] in = new byte[length];
+        for (int i = 0; i < in.length; ++i)
+        {
+            in[i] = (byte)(i * 5);
+        }
+
+        // a byte at a time never reaches processBlocks()
+        single.init(true, params);
+        byte[] expected = new byte[single.getOutputSize(in.length)];
+        int len = 0;
+        for (int i = 0; i < in.length; ++i)
+        {
+            len += single.processByte(in[i], expected, len);
+        }
+        len += single.doFinal(expected, len);
+
+        multi.init(true, params);
+        byte[] out = new byte[multi.getOutputSize(in.length)];
+        len = multi.processBytes(in, 0, 3, out, 0);
+        len += multi.processBytes(in, 3, 500, out, len);
+        len += multi.processBytes(in, 503, in.length - 503, out, len);
+        len += multi.doFinal(out, len);
+        if (len != expected.length || !Arrays.areEqual(expected, out))
+        {
+            fail(name + " buffered encryption does not match");
+        }
+
+        multi.init(false, params);
+        byte[] dec = new byte[multi.getOutputSize(out.length)];
+        len = multi.processBytes(out, 0, out.length, dec, 0);
+        len += multi.doFinal(dec, len);
+        if (len != in.length || !Arrays.areEqual(in, Arrays.copyOfRange(dec, 0, len)))
+        {
+            fail(name + " buffered decryption does not match");
+        }
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new MultiBlockCipherTest());
+    }
+}
@@ -0,0 +1,161 @@
+package org.bouncycastle.crypto.test;
+
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.test.SimpleTest;
+
+/**
+ * Poly1305 Test, vectors from RFC 7539 2.5.2 and A.3
+ */
+public class Poly1305Test
+    extends SimpleTest
+{
+    private static final String IETF_TEXT = "Any submission to the IETF intended by the Contributor "
+        + "for publication as all or part of an IETF Internet-Draft or RFC and any statement made "
+        + "within the context of an IETF activity is considered an \"IETF Contribution\". Such "
+        + "statements include oral statements in IETF sessions, as well as written and electronic "
+        + "communications made at any time or place, which are addressed to";
+
+    private static final String[][] TEST_VECTORS = new String[][] {
+        {
+            "2.5.2",
+            "85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b",
+            new String(Hex.encode(Strings.toByteArray("Cryptographic Forum Research Group"))),
+            "a8061dc1305136c6c22b8baf0c0127a9",
+        },
+        {
+            "A.3 #1",
+            "0000000000000000000000000000000000000000000000000000000000000000",
+            "00000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000",
+            "00000000000000000000000000000000",
+        },
+        {
+            "A.3 #2",
+            "0000000000000000000000000000000036e5f6b5c5e06070f0efca96227a863e",
+            new String(Hex.encode(Strings.toByteArray(IETF_TEXT))),
+            "36e5f6b5c5e06070f0efca96227a863e",
+        },
+        {
+            "A.3 #3",
+            "36e5f6b5c5e06070f0efca96227a863e00000000000000000000000000000000",
+            new String(Hex.encode(Strings.toByteArray(IETF_TEXT))),
+            "f3477e7cd95417af89a6b8794c310cf0",
+        },
+        {
+            "A.3 #5",
+            "0200000000000000000000000000000000000000000000000000000000000000",
+            "ffffffffffffffffffffffffffffffff",
+            "03000000000000000000000000000000",
+        },
+        {
+            "A.3 #6",
+            "02000000000000000000000000000000ffffffffffffffffffffffffffffffff",
+            "02000000000000000000000000000000",
+            "03000000000000000000000000000000",
+        },
+        {
+            "A.3 #7",
+            "0100000000000000000000000000000000000000000000000000000000000000",
+            "fffffffffffffffffffffffffffffffff0ffffffffffffffffffffffffffffff11000000000000000000000000000000",
+            "05000000000000000000000000000000",
+        },
+        {
+            "A.3 #8",
+            "0100000000000000000000000000000000000000000000000000000000000000",
+            "fffffffffffffffffffffffffffffffffbfefefefefefefefefefefefefefefe01010101010101010101010101010101",
+            "00000000000000000000000000000000",
+        },
+    };
+
+    public String getName()
+    {
+        return "Poly1305";
+    }
+
+    public void performTest()
+    {
+        for (int i = 0; i < TEST_VECTORS.length; ++i)
+        {
+            runTestCase(TEST_VECTORS[i]);
+        }
+
+        initTests();
+    }
+
+    private void runTestCase(String[] testVector)
+    {
+        String testName = testVector[0];
+        byte[] K = Hex.decode(testVector[1]);
+        byte[] M = Hex.decode(testVector[2]);
+        byte[] T = Hex.decode(testVector[3]);
+
+        Mac mac = new Poly1305();
+        mac.init(new KeyParameter(K));
+
+        byte[] out = new byte[mac.getMacSize()];
+        mac.update(M, 0, M.length);
+        mac.doFinal(out, 0);
+
+        if (!areEqual(T, out))
+        {
+            fail("incorrect mac in: " + testName, testVector[3], new String(Hex.encode(out)));
+        }
+
+        /*
+         * Same again, in uneven pieces, after the implicit reset
+         */
+        int off = 0, step = 1;
+        while (off < M.length)
+        {
+            int len = Math.min(step, M.length - off);
+            if (len == 1)
+            {
+                mac.update(M[off]);
+            }
+            else
+            {
+                mac.update(M, off, len);
+            }
+            off += len;
+            step = step * 3 % 37;
+        }
+        mac.doFinal(out, 0);
+
+        if (!areEqual(T, out))
+        {
+            fail("incorrect incremental mac in: " + testName, testVector[3], new String(Hex.encode(out)));
+        }
+    }
+
+    private void initTests()
+    {
+        Mac mac = new Poly1305();
+
+        try
+        {
+            mac.init(new KeyParameter(new byte[16]));
+            fail("Poly1305 should throw exception for a 128 bit key");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+
+        try
+        {
+            mac.update((byte)0);
+            fail("Poly1305 should throw exception if not initialised");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new Poly1305Test());
+    }
+}
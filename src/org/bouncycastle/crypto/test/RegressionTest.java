@@ -7,9 +7,14 @@ public final class RegressionTest
 {
     public static Test[]    tests = {
             new AESTest(),
+        new AESBitslicedTest(),
+        new AESExpandedKeyTest(),
         new DESTest(),
         new DESedeTest(),
         new ModeTest(),
+        new CBCMultiBlockTest(),
+        new MultiBlockCipherTest(),
+        new CipherStreamTest(),
         new DHTest(),
         new ElGamalTest(),
         new DSATest(),
@@ -18,6 +23,9 @@ public final class RegressionTest
         new MacTest(),
         new RC2Test(),
         new RC4Test(),
+        new ChaCha20Test(),
+        new Poly1305Test(),
+        new ChaCha20Poly1305Test(),
         new RC5Test(),
         new RC6Test(),
         new RijndaelTest(),
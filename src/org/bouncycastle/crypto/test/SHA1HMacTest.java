@@ -1,5 +1,6 @@
 package org.bouncycastle.crypto.test;
 
+import org.bouncycastle.crypto.ExtendedDigest;
 import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.bouncycastle.crypto.macs.HMac;
 import org.bouncycastle.crypto.params.KeyParameter;
@@ -55,7 +56,21 @@ public class SHA1HMacTest
 
     public TestResult perform()
     {
-        HMac hmac = new HMac(new SHA1Digest());
+        TestResult result = perform(new HMac(new SHA1Digest()));
+
+        if (!result.isSuccessful())
+        {
+            return result;
+        }
+
+        //
+        // the same again, through a digest that cannot save its state
+        //
+        return perform(new HMac(new NonMemoableDigest(new SHA1Digest())));
+    }
+
+    private TestResult perform(HMac hmac)
+    {
         byte[] resBuf = new byte[hmac.getMacSize()];
 
         for (int i = 0; i < messages.length; i++)
@@ -97,9 +112,72 @@ public class SHA1HMacTest
                     "Reset with vector " + vector + " failed");
         }
 
+        //
+        // test reset part way through a message, and repeated macs under one key
+        //
+        hmac.update(m, 0, m.length / 2);
+        hmac.reset();
+        for (int i = 0; i < 3; i++)
+        {
+            hmac.update(m, 0, m.length);
+            hmac.doFinal(resBuf, 0);
+
+            if (!Arrays.areEqual(resBuf, Hex.decode(digests[vector])))
+            {
+                return new SimpleTestResult(false, getName() +
+                        "Repeated mac " + i + " with vector " + vector + " failed");
+            }
+        }
+
         return new SimpleTestResult(true, getName() + ": Okay");
     }
 
+    private static class NonMemoableDigest
+        implements ExtendedDigest
+    {
+        private ExtendedDigest digest;
+
+        NonMemoableDigest(ExtendedDigest digest)
+        {
+            this.digest = digest;
+        }
+
+        public String getAlgorithmName()
+        {
+            return digest.getAlgorithmName();
+        }
+
+        public int getDigestSize()
+        {
+            return digest.getDigestSize();
+        }
+
+        public int getByteLength()
+        {
+            return digest.getByteLength();
+        }
+
+        public void update(byte in)
+        {
+            digest.update(in);
+        }
+
+        public void update(byte[] in, int inOff, int len)
+        {
+            digest.update(in, inOff, len);
+        }
+
+        public int doFinal(byte[] out, int outOff)
+        {
+            return digest.doFinal(out, outOff);
+        }
+
+        public void reset()
+        {
+            digest.reset();
+        }
+    }
+
     public static void main(
         String[]    args)
     {
@@ -22,4 +22,17 @@ public class AlwaysValidVerifyer implements CertificateVerifyer
     {
         return true;
     }
+
+    /**
+     * All instances accept the same chains, so a {@link CertificateCache} may treat them as one.
+     */
+    public boolean equals(Object o)
+    {
+        return o instanceof AlwaysValidVerifyer;
+    }
+
+    public int hashCode()
+    {
+        return AlwaysValidVerifyer.class.hashCode();
+    }
 }
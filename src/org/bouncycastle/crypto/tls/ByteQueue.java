@@ -76,7 +76,7 @@ public class ByteQueue
     {
         if ((skipped + available + len) > databuf.length)
         {
-            byte[] tmp = new byte[ByteQueue.nextTwoPow(data.length)];
+            byte[] tmp = new byte[ByteQueue.nextTwoPow(available + len)];
             System.arraycopy(databuf, skipped, tmp, 0, available);
             skipped = 0;
             databuf = tmp;
@@ -0,0 +1,26 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.OutputStream;
+
+/**
+ * An OutputStream collecting everything written to it in a {@link ByteQueue}.
+ */
+class ByteQueueOutputStream extends OutputStream
+{
+    private ByteQueue buffer = new ByteQueue();
+
+    ByteQueue getBuffer()
+    {
+        return buffer;
+    }
+
+    public void write(int b)
+    {
+        buffer.addData(new byte[]{ (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len)
+    {
+        buffer.addData(b, off, len);
+    }
+}
@@ -10,6 +10,8 @@ import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.x509.X509CertificateStructure;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.util.PublicKeyFactory;
 
 /**
  * A representation for a certificate chain as used by a tls server.
@@ -23,6 +25,11 @@ public class Certificate
      */
     protected X509CertificateStructure[] certs;
 
+    /**
+     * The decoded key of the first certificate, see getPublicKey().
+     */
+    private AsymmetricKeyParameter publicKey = null;
+
     /**
      * Parse the ServerCertificate message.
      * 
@@ -114,6 +121,22 @@ public class Certificate
         return result;
     }
 
+    /**
+     * Decode the public key of the end-entity certificate. The key is only decoded once, so a
+     * Certificate shared through a {@link CertificateCache} saves repeat handshakes the work.
+     * 
+     * @return The public key of the first certificate in the chain.
+     * @throws IOException If the key cannot be decoded.
+     */
+    synchronized AsymmetricKeyParameter getPublicKey() throws IOException
+    {
+        if (publicKey == null)
+        {
+            publicKey = PublicKeyFactory.createKey(certs[0].getSubjectPublicKeyInfo());
+        }
+        return publicKey;
+    }
+
     public boolean isEmpty()
     {
         return certs.length == 0;
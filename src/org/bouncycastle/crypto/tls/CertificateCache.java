@@ -0,0 +1,243 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A bounded cache of server certificate chains, for clients that connect to the same few
+ * servers over and over again.
+ * <p/>
+ * Chains are looked up by a SHA-256 digest of the Certificate message as received, so a
+ * repeat handshake skips the ASN.1 parsing, reuses the decoded public key (see
+ * {@link Certificate}) and, if an equal {@link CertificateVerifyer} or
+ * {@link TlsAuthentication} accepted the chain before, the verification as well. Verifiers
+ * are compared with equals(), so they should be shared between connections or define
+ * equals() by their policy; each chain remembers only the last few. When the cache is full
+ * the least recently used chain is dropped.
+ * <p/>
+ * One cache can be shared by any number of {@link TlsProtocolHandler}s, see
+ * {@link TlsProtocolHandler#setCertificateCache(CertificateCache)}.
+ */
+public class CertificateCache
+{
+    /*
+     * The number of verifiers remembered per chain; more than one is rare, and the list must
+     * not grow with the connections if a client makes a verifier for each.
+     */
+    private static final int MAX_VERIFIERS = 4;
+
+    private final int capacity;
+    private final Hashtable entries = new Hashtable();
+
+    /*
+     * The most recently used entry is at head, the least recently used at tail.
+     */
+    private Entry head = null;
+    private Entry tail = null;
+
+    /**
+     * @param capacity The largest number of chains to keep.
+     */
+    public CertificateCache(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("'capacity' must be at least 1");
+        }
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The number of chains currently cached.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Remove all chains from the cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        head = null;
+        tail = null;
+    }
+
+    /**
+     * Look up, or parse and add, the chain in a Certificate message.
+     *
+     * @param message The body of the Certificate handshake message.
+     * @return The cache entry for the chain.
+     * @throws IOException If the message could not be parsed.
+     */
+    Entry get(byte[] message) throws IOException
+    {
+        Key key = new Key(message);
+
+        synchronized (this)
+        {
+            Entry entry = (Entry)entries.get(key);
+            if (entry != null)
+            {
+                unlink(entry);
+                link(entry);
+                return entry;
+            }
+        }
+
+        /*
+         * Parse outside the lock; if another thread got there first, its entry is used.
+         */
+        ByteArrayInputStream is = new ByteArrayInputStream(message);
+        Certificate certificate = Certificate.parse(is);
+        if (is.available() > 0)
+        {
+            throw new TlsFatalAlert(AlertDescription.decode_error);
+        }
+
+        synchronized (this)
+        {
+            Entry entry = (Entry)entries.get(key);
+            if (entry == null)
+            {
+                entry = new Entry(key, certificate);
+                entries.put(key, entry);
+
+                if (entries.size() > capacity)
+                {
+                    Entry eldest = tail;
+                    unlink(eldest);
+                    entries.remove(eldest.key);
+                }
+            }
+            else
+            {
+                unlink(entry);
+            }
+            link(entry);
+            return entry;
+        }
+    }
+
+    private void link(Entry entry)
+    {
+        entry.previous = null;
+        entry.next = head;
+        if (head != null)
+        {
+            head.previous = entry;
+        }
+        head = entry;
+        if (tail == null)
+        {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry entry)
+    {
+        if (entry.previous != null)
+        {
+            entry.previous.next = entry.next;
+        }
+        else
+        {
+            head = entry.next;
+        }
+        if (entry.next != null)
+        {
+            entry.next.previous = entry.previous;
+        }
+        else
+        {
+            tail = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    /**
+     * A cached chain, with the verifiers that have accepted it.
+     */
+    static class Entry
+    {
+        private final Key key;
+        private final Certificate certificate;
+        private final Vector acceptedBy = new Vector();
+
+        private Entry previous = null;
+        private Entry next = null;
+
+        Entry(Key key, Certificate certificate)
+        {
+            this.key = key;
+            this.certificate = certificate;
+        }
+
+        Certificate getCertificate()
+        {
+            return certificate;
+        }
+
+        /**
+         * @param verifier A CertificateVerifyer or TlsAuthentication.
+         * @return true if an equal verifier has accepted this chain before.
+         */
+        boolean isAcceptedBy(Object verifier)
+        {
+            synchronized (acceptedBy)
+            {
+                return acceptedBy.contains(verifier);
+            }
+        }
+
+        void setAcceptedBy(Object verifier)
+        {
+            synchronized (acceptedBy)
+            {
+                if (!acceptedBy.contains(verifier))
+                {
+                    if (acceptedBy.size() >= MAX_VERIFIERS)
+                    {
+                        acceptedBy.removeElementAt(0);
+                    }
+                    acceptedBy.addElement(verifier);
+                }
+            }
+        }
+    }
+
+    private static class Key
+    {
+        private final byte[] digest;
+        private final int hashCode;
+
+        Key(byte[] message)
+        {
+            Digest d = new SHA256Digest();
+            d.update(message, 0, message.length);
+            this.digest = new byte[d.getDigestSize()];
+            d.doFinal(digest, 0);
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && Arrays.areEqual(digest, ((Key)o).digest);
+        }
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+}
@@ -128,6 +128,13 @@ public class CipherSuite
     public static final int TLS_ECDH_RSA_WITH_AES_128_GCM_SHA256 = 0xC031;
     public static final int TLS_ECDH_RSA_WITH_AES_256_GCM_SHA384 = 0xC032;
 
+    /*
+     * RFC 7905
+     */
+    public static final int TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256 = 0xCCA8;
+    public static final int TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256 = 0xCCA9;
+    public static final int TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256 = 0xCCAA;
+
     /*
      * RFC 5746
      */
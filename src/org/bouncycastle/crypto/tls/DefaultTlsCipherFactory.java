@@ -14,6 +14,19 @@ import org.bouncycastle.crypto.modes.CBCBlockCipher;
 
 public class DefaultTlsCipherFactory implements TlsCipherFactory
 {
+    protected TlsDecryptionPool decryptionPool = null;
+
+    /**
+     * Decrypt large CBC records with the help of the given threads.
+     * 
+     * @param decryptionPool The pool, which may be shared with other factories, or null for
+     *            none (the default).
+     */
+    public void setDecryptionPool(TlsDecryptionPool decryptionPool)
+    {
+        this.decryptionPool = decryptionPool;
+    }
+
     public TlsCipher createCipher(TlsClientContext context, int encryptionAlgorithm, int digestAlgorithm) throws IOException
     {
         switch (encryptionAlgorithm)
@@ -24,6 +37,8 @@ public class DefaultTlsCipherFactory implements TlsCipherFactory
                 return createAESCipher(context, 16, digestAlgorithm);
             case EncryptionAlgorithm.AES_256_CBC:
                 return createAESCipher(context, 32, digestAlgorithm);
+            case EncryptionAlgorithm.CHACHA20_POLY1305:
+                return createChaCha20Poly1305Cipher(context);
             default:
                 throw new TlsFatalAlert(AlertDescription.internal_error);
         }
@@ -31,14 +46,23 @@ public class DefaultTlsCipherFactory implements TlsCipherFactory
 
     protected TlsCipher createAESCipher(TlsClientContext context, int cipherKeySize, int digestAlgorithm) throws IOException
     {
-        return new TlsBlockCipher(context, createAESBlockCipher(),
-            createAESBlockCipher(), createDigest(digestAlgorithm), createDigest(digestAlgorithm), cipherKeySize);
+        CBCBlockCipher[] helpers = createDecryptHelpers(false);
+        return new TlsBlockCipher(context, createAESBlockCipher(), createAESBlockCipher(),
+            createDigest(digestAlgorithm), createDigest(digestAlgorithm), cipherKeySize,
+            helpers == null ? null : decryptionPool, helpers);
     }
 
     protected TlsCipher createDESedeCipher(TlsClientContext context, int cipherKeySize, int digestAlgorithm) throws IOException
     {
-        return new TlsBlockCipher(context, createDESedeBlockCipher(),
-            createDESedeBlockCipher(), createDigest(digestAlgorithm), createDigest(digestAlgorithm), cipherKeySize);
+        CBCBlockCipher[] helpers = createDecryptHelpers(true);
+        return new TlsBlockCipher(context, createDESedeBlockCipher(), createDESedeBlockCipher(),
+            createDigest(digestAlgorithm), createDigest(digestAlgorithm), cipherKeySize,
+            helpers == null ? null : decryptionPool, helpers);
+    }
+
+    protected TlsCipher createChaCha20Poly1305Cipher(TlsClientContext context) throws IOException
+    {
+        return new TlsChaCha20Poly1305(context);
     }
 
     protected BlockCipher createAESBlockCipher()
@@ -51,6 +75,33 @@ public class DefaultTlsCipherFactory implements TlsCipherFactory
         return new CBCBlockCipher(new DESedeEngine());
     }
 
+    /**
+     * Make the ciphers that decrypt the parts of large records, through the same factory
+     * methods as the record ciphers, so a subclass's choice of engine holds for them too.
+     * 
+     * @return the helpers, or null if there is no pool or the factory does not make
+     *         CBCBlockCiphers, in which case records are decrypted by the reading thread alone.
+     */
+    private CBCBlockCipher[] createDecryptHelpers(boolean desede)
+    {
+        if (decryptionPool == null)
+        {
+            return null;
+        }
+
+        CBCBlockCipher[] helpers = new CBCBlockCipher[decryptionPool.getThreadCount() + 1];
+        for (int i = 0; i < helpers.length; ++i)
+        {
+            BlockCipher cipher = desede ? createDESedeBlockCipher() : createAESBlockCipher();
+            if (!(cipher instanceof CBCBlockCipher))
+            {
+                return null;
+            }
+            helpers[i] = (CBCBlockCipher)cipher;
+        }
+        return helpers;
+    }
+
     protected Digest createDigest(int digestAlgorithm) throws IOException
     {
         switch (digestAlgorithm)
@@ -29,11 +29,29 @@ public abstract class DefaultTlsClient implements TlsClient
 
     public ProtocolVersion getClientVersion()
     {
-        return ProtocolVersion.TLSv10;
+        return ProtocolVersion.TLSv12;
     }
 
     public int[] getCipherSuites()
     {
+        if (getClientVersion().getFullVersion() >= ProtocolVersion.TLSv12.getFullVersion())
+        {
+            return new int[] {
+                CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256,
+                CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256,
+                CipherSuite.TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256,
+                CipherSuite.TLS_DHE_RSA_WITH_AES_256_CBC_SHA,
+                CipherSuite.TLS_DHE_DSS_WITH_AES_256_CBC_SHA,
+                CipherSuite.TLS_DHE_RSA_WITH_AES_128_CBC_SHA,
+                CipherSuite.TLS_DHE_DSS_WITH_AES_128_CBC_SHA,
+                CipherSuite.TLS_DHE_RSA_WITH_3DES_EDE_CBC_SHA,
+                CipherSuite.TLS_DHE_DSS_WITH_3DES_EDE_CBC_SHA,
+                CipherSuite.TLS_RSA_WITH_AES_256_CBC_SHA,
+                CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA,
+                CipherSuite.TLS_RSA_WITH_3DES_EDE_CBC_SHA,
+            };
+        }
+
         return new int[] {
             CipherSuite.TLS_DHE_RSA_WITH_AES_256_CBC_SHA,
             CipherSuite.TLS_DHE_DSS_WITH_AES_256_CBC_SHA,
@@ -47,9 +65,29 @@ public abstract class DefaultTlsClient implements TlsClient
         };
     }
 
-    public Hashtable getClientExtensions()
+    public Hashtable getClientExtensions() throws IOException
     {
-        return null;
+        Hashtable clientExtensions = null;
+
+        /*
+         * RFC 5246 7.4.1.4.1. Note: this extension is not meaningful for TLS versions prior
+         * to 1.2. Clients MUST NOT offer it if they are offering prior versions.
+         */
+        if (getClientVersion().getFullVersion() >= ProtocolVersion.TLSv12.getFullVersion())
+        {
+            clientExtensions = new Hashtable();
+            TlsUtils.addSignatureAlgorithmsExtension(clientExtensions,
+                TlsUtils.getDefaultSupportedSignatureAlgorithms());
+
+            /*
+             * RFC 4492 4. The ECDHE ChaCha20-Poly1305 suites are only offered along with TLS 1.2.
+             */
+            TlsUtils.addSupportedEllipticCurvesExtensions(clientExtensions,
+                new int[] { NamedCurve.secp256r1, NamedCurve.secp384r1 },
+                new short[] { ECPointFormat.uncompressed });
+        }
+
+        return clientExtensions;
     }
 
     public short[] getCompressionMethods()
@@ -59,7 +97,11 @@ public abstract class DefaultTlsClient implements TlsClient
 
     public void notifyServerVersion(ProtocolVersion serverVersion) throws IOException
     {
-        if (!ProtocolVersion.TLSv10.equals(serverVersion))
+        /*
+         * TLS 1.0 up to the offered version; the TlsProtocolHandler has already rejected
+         * anything newer than getClientVersion().
+         */
+        if (serverVersion.getFullVersion() < ProtocolVersion.TLSv10.getFullVersion())
         {
             throw new TlsFatalAlert(AlertDescription.illegal_parameter);
         }
@@ -147,6 +189,15 @@ public abstract class DefaultTlsClient implements TlsClient
             case CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA:
                 return createECDHEKeyExchange(KeyExchangeAlgorithm.ECDHE_RSA);
 
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256:
+                return createECDHEKeyExchange(KeyExchangeAlgorithm.ECDHE_ECDSA);
+
+            case CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256:
+                return createECDHEKeyExchange(KeyExchangeAlgorithm.ECDHE_RSA);
+
+            case CipherSuite.TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256:
+                return createDHEKeyExchange(KeyExchangeAlgorithm.DHE_RSA);
+
             default:
                 /*
                  * Note: internal error here; the TlsProtocolHandler verifies that the
@@ -213,6 +264,11 @@ public abstract class DefaultTlsClient implements TlsClient
             case CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA:
                 return cipherFactory.createCipher(context, EncryptionAlgorithm.AES_256_CBC, DigestAlgorithm.SHA);
 
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256:
+            case CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256:
+            case CipherSuite.TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256:
+                return cipherFactory.createCipher(context, EncryptionAlgorithm.CHACHA20_POLY1305, DigestAlgorithm.NULL);
+
             default:
                 /*
                  * Note: internal error here; the TlsProtocolHandler verifies that the
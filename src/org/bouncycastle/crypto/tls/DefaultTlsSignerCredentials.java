@@ -76,4 +76,23 @@ public class DefaultTlsSignerCredentials implements TlsSignerCredentials
             throw new TlsFatalAlert(AlertDescription.internal_error);
         }
     }
+
+    public byte[] generateCertificateSignature(SignatureAndHashAlgorithm algorithm, byte[] hash)
+        throws IOException
+    {
+        try
+        {
+            return clientSigner.calculateRawSignature(algorithm, context.getSecureRandom(),
+                clientPrivateKey, hash);
+        }
+        catch (CryptoException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+    }
+
+    public short getSignatureAlgorithm()
+    {
+        return clientSigner.getSignatureAlgorithm();
+    }
 }
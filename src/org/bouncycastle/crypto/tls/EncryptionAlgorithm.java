@@ -26,4 +26,9 @@ public class EncryptionAlgorithm
      */
     public static final int AES_128_GCM = 10;
     public static final int AES_256_GCM = 11;
+
+    /*
+     * RFC 7905
+     */
+    public static final int CHACHA20_POLY1305 = 12;
 }
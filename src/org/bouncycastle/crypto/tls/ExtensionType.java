@@ -23,6 +23,11 @@ public class ExtensionType
      */
     public static final int srp = 12;
 
+    /*
+     * RFC 5246 7.4.1.4
+     */
+    public static final int signature_algorithms = 13;
+
     /*
      * RFC 5746 6
      */
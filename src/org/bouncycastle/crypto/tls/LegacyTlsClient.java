@@ -22,6 +22,16 @@ public class LegacyTlsClient extends DefaultTlsClient
         this.verifyer = verifyer;
     }
 
+    /**
+     * @deprecated
+     */
+    public LegacyTlsClient(CertificateVerifyer verifyer, TlsCipherFactory cipherFactory)
+    {
+        super(cipherFactory);
+
+        this.verifyer = verifyer;
+    }
+
     public TlsAuthentication getAuthentication() throws IOException
     {
         return new LegacyTlsAuthentication(verifyer);
@@ -1,14 +1,18 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 
 /**
- * An implementation of the TLS 1.0 record layer, allowing downgrade to SSLv3.
+ * An implementation of the TLS 1.0-1.2 record layer, allowing downgrade to SSLv3.
  */
 class RecordStream
 {
@@ -23,6 +27,28 @@ class RecordStream
 
     private TlsClientContext context = null;
     private CombinedHash hash = null;
+
+    /*
+     * The server version isn't known until the ServerHello, so the handshake messages are
+     * also hashed for the TLS 1.2 PRF in case it gets negotiated.
+     */
+    private SHA256Digest prfHash = null;
+
+    /*
+     * Until the ServerHello arrives any TLS record version is accepted, and records are
+     * sent as TLS 1.0, which is what servers expect to see on a ClientHello.
+     */
+    private ProtocolVersion readVersion = null;
+    private ProtocolVersion writeVersion = ProtocolVersion.TLSv10;
+
+    /*
+     * While a flight is open, handshake messages are packed into as few records as possible
+     * and all records are held back until the flight is complete (see beginFlight()).
+     */
+    private ByteArrayOutputStream flightHandshake = null;
+    private ByteArrayOutputStream flightRecords = null;
+
+    private TlsMetricsListener metricsListener = null;
     
     RecordStream(TlsProtocolHandler handler, InputStream is, OutputStream os)
     {
@@ -39,10 +65,30 @@ class RecordStream
     {
         this.context = context;
         this.hash = new CombinedHash(context);
+        this.prfHash = new SHA256Digest();
+    }
+
+    void setReadVersion(ProtocolVersion readVersion)
+    {
+        this.readVersion = readVersion;
+    }
+
+    void setWriteVersion(ProtocolVersion writeVersion)
+    {
+        this.writeVersion = writeVersion;
+    }
+
+    void setMetricsListener(TlsMetricsListener metricsListener)
+    {
+        this.metricsListener = metricsListener;
     }
 
     void clientCipherSpecDecided(TlsCompression tlsCompression, TlsCipher tlsCipher)
+        throws IOException
     {
+        // Handshake messages queued so far must still go out under the old cipher spec
+        writeFlightHandshake();
+
         this.writeCompression = tlsCompression;
         this.writeCipher = tlsCipher;
     }
@@ -54,12 +100,46 @@ class RecordStream
     }
 
     public void readData() throws IOException
+    {
+        readRecord(is);
+    }
+
+    /**
+     * Non-blocking variant of {@link #readData()}: process the next record, but only if it is
+     * already complete in the queue.
+     * 
+     * @return false if more data has to arrive first.
+     */
+    boolean readRecord(ByteQueue queue) throws IOException
+    {
+        if (queue.size() < 5)
+        {
+            return false;
+        }
+
+        byte[] header = new byte[5];
+        queue.read(header, 0, 5, 0);
+
+        int size = ((header[3] & 0xff) << 8) | (header[4] & 0xff);
+        if (queue.size() < 5 + size)
+        {
+            return false;
+        }
+
+        byte[] record = new byte[5 + size];
+        queue.read(record, 0, record.length, 0);
+        queue.removeData(record.length);
+
+        readRecord(new ByteArrayInputStream(record));
+        return true;
+    }
+
+    private void readRecord(InputStream is) throws IOException
     {
         short type = TlsUtils.readUint8(is);
 
-        // TODO In light of versioning and SSLv3, what should we expect here?
-        ProtocolVersion expectedVersion = ProtocolVersion.TLSv10; //context.getServerVersion();
-        if (!expectedVersion.equals(TlsUtils.readVersion(is)))
+        ProtocolVersion version = TlsUtils.readVersion(is);
+        if (readVersion != null && !readVersion.equals(version))
         {
             throw new TlsFatalAlert(AlertDescription.illegal_parameter);
         }
@@ -73,7 +153,18 @@ class RecordStream
     {
         byte[] buf = new byte[len];
         TlsUtils.readFully(buf, is);
-        byte[] decoded = readCipher.decodeCiphertext(type, buf, 0, buf.length);
+
+        byte[] decoded;
+        if (metricsListener == null)
+        {
+            decoded = readCipher.decodeCiphertext(type, buf, 0, buf.length);
+        }
+        else
+        {
+            long start = metricsListener.currentTime();
+            decoded = readCipher.decodeCiphertext(type, buf, 0, buf.length);
+            metricsListener.notifyRecordRead(type, len, metricsListener.currentTime() - start);
+        }
 
         OutputStream cOut = readCompression.decompress(buffer);
 
@@ -88,41 +179,145 @@ class RecordStream
     }
 
     protected void writeMessage(short type, byte[] message, int offset, int len) throws IOException
+    {
+        writeMessage(type, message, offset, len, true);
+    }
+
+    /**
+     * Write a single record.
+     * 
+     * @param flush if false, the record is left in the underlying stream and only goes out
+     *            with a later {@link #flush()}.
+     */
+    protected void writeMessage(short type, byte[] message, int offset, int len, boolean flush)
+        throws IOException
     {
         if (type == ContentType.handshake)
         {
             updateHandshakeData(message, offset, len);
+
+            if (flightHandshake != null)
+            {
+                flightHandshake.write(message, offset, len);
+                return;
+            }
+        }
+        else
+        {
+            writeFlightHandshake();
+        }
+
+        writeRecord(type, message, offset, len);
+
+        if (flush && flightRecords == null)
+        {
+            os.flush();
+        }
+    }
+
+    /**
+     * Start collecting a flight of messages. Until {@link #endFlight()}, consecutive handshake
+     * messages share records, and nothing is written to the network.
+     */
+    void beginFlight()
+    {
+        this.flightHandshake = new ByteArrayOutputStream();
+        this.flightRecords = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Send the whole flight with a single write and flush.
+     */
+    void endFlight() throws IOException
+    {
+        if (flightRecords == null)
+        {
+            return;
         }
 
+        writeFlightHandshake();
+
+        byte[] records = flightRecords.toByteArray();
+        cancelFlight();
+
+        os.write(records);
+        os.flush();
+    }
+
+    /**
+     * Drop a flight that could not be completed. Nothing of it has reached the network.
+     */
+    void cancelFlight()
+    {
+        this.flightHandshake = null;
+        this.flightRecords = null;
+    }
+
+    private void writeFlightHandshake() throws IOException
+    {
+        if (flightHandshake == null || flightHandshake.size() == 0)
+        {
+            return;
+        }
+
+        byte[] messages = flightHandshake.toByteArray();
+        flightHandshake.reset();
+
+        int offset = 0;
+        do
+        {
+            int len = Math.min(messages.length - offset, TlsProtocolHandler.MAX_FRAGMENT_LENGTH);
+            writeRecord(ContentType.handshake, messages, offset, len);
+            offset += len;
+        }
+        while (offset < messages.length);
+    }
+
+    private void writeRecord(short type, byte[] message, int offset, int len) throws IOException
+    {
         OutputStream cOut = writeCompression.compress(buffer);
 
+        if (cOut != buffer)
+        {
+            cOut.write(message, offset, len);
+            cOut.flush();
+            message = getBufferContents();
+            offset = 0;
+            len = message.length;
+        }
+
         byte[] ciphertext;
-        if (cOut == buffer)
+        if (metricsListener == null)
         {
             ciphertext = writeCipher.encodePlaintext(type, message, offset, len);
         }
         else
         {
-            cOut.write(message, offset, len);
-            cOut.flush();
-            byte[] compressed = getBufferContents();
-            ciphertext = writeCipher.encodePlaintext(type, compressed, 0, compressed.length);
+            long start = metricsListener.currentTime();
+            ciphertext = writeCipher.encodePlaintext(type, message, offset, len);
+            metricsListener.notifyRecordWritten(type, ciphertext.length, metricsListener.currentTime() - start);
         }
 
         byte[] writeMessage = new byte[ciphertext.length + 5];
         TlsUtils.writeUint8(type, writeMessage, 0);
-        // TODO In light of versioning, what should we send here?
-//        TlsUtils.writeVersion(context.getServerVersion(), writeMessage, 1);
-        TlsUtils.writeVersion(ProtocolVersion.TLSv10, writeMessage, 1);
+        TlsUtils.writeVersion(writeVersion, writeMessage, 1);
         TlsUtils.writeUint16(ciphertext.length, writeMessage, 3);
         System.arraycopy(ciphertext, 0, writeMessage, 5, ciphertext.length);
-        os.write(writeMessage);
-        os.flush();
+
+        if (flightRecords != null)
+        {
+            flightRecords.write(writeMessage);
+        }
+        else
+        {
+            os.write(writeMessage);
+        }
     }
 
     void updateHandshakeData(byte[] message, int offset, int len)
     {
         hash.update(message, offset, len);
+        prfHash.update(message, offset, len);
     }
 
     /**
@@ -130,6 +325,11 @@ class RecordStream
      */
     byte[] getCurrentHash(byte[] sender)
     {
+        if (TlsUtils.isTLSv12(context))
+        {
+            return doFinal(new SHA256Digest(prfHash));
+        }
+
         Digest d = new CombinedHash(hash);
 
         boolean isTls = context.getServerVersion().getFullVersion() >= ProtocolVersion.TLSv10.getFullVersion();
@@ -145,12 +345,36 @@ class RecordStream
         return doFinal(d);
     }
 
+    /**
+     * TLS 1.2: the hash of the handshake messages so far, using the given hash algorithm.
+     * 
+     * @param hashAlgorithm one of the {@link HashAlgorithm} values for which a running hash is
+     *            kept, i.e. md5, sha1 or sha256.
+     */
+    byte[] getCurrentHash(short hashAlgorithm) throws IOException
+    {
+        switch (hashAlgorithm)
+        {
+            case HashAlgorithm.md5:
+                return doFinal(new MD5Digest(hash.md5));
+            case HashAlgorithm.sha1:
+                return doFinal(new SHA1Digest(hash.sha1));
+            case HashAlgorithm.sha256:
+                return doFinal(new SHA256Digest(prfHash));
+            default:
+                throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+    }
+
     protected void close() throws IOException
     {
         IOException e = null;
         try
         {
-            is.close();
+            if (is != null)
+            {
+                is.close();
+            }
         }
         catch (IOException ex)
         {
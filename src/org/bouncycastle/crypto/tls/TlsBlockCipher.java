@@ -6,16 +6,28 @@ import javaaddin.security.SecureRandom;
 
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.util.Arrays;
 
 /**
- * A generic TLS 1.0 / SSLv3 block cipher.
+ * A generic TLS 1.0-1.2 / SSLv3 block cipher.
  * This can be used for AES or 3DES for example.
+ * <p/>
+ * Given a {@link TlsDecryptionPool}, large records are decrypted in parts at the same time.
+ * In CBC decryption each block depends only on the ciphertext, so the parts need nothing but
+ * the ciphertext block in front of them. The reading thread decrypts the end of the record
+ * first, to learn the padding and so the length to MAC, then decrypts the start and MACs
+ * each part as soon as it is done, while the pool's threads decrypt the middle.
  */
 public class TlsBlockCipher implements TlsCipher
 {
+    /*
+     * Records shorter than this are not worth handing out to other threads
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
     protected TlsClientContext context;
 
     protected BlockCipher encryptCipher;
@@ -24,6 +36,11 @@ public class TlsBlockCipher implements TlsCipher
     protected TlsMac writeMac;
     protected TlsMac readMac;
 
+    protected boolean useExplicitIV;
+
+    protected TlsDecryptionPool decryptionPool = null;
+    protected CBCBlockCipher[] decryptHelpers = null;
+
 	public TlsMac getWriteMac()
 	{
 		return writeMac;
@@ -36,14 +53,33 @@ public class TlsBlockCipher implements TlsCipher
 
     public TlsBlockCipher(TlsClientContext context, BlockCipher encryptCipher,
         BlockCipher decryptCipher, Digest writeDigest, Digest readDigest, int cipherKeySize)
+    {
+        this(context, encryptCipher, decryptCipher, writeDigest, readDigest, cipherKeySize, null, null);
+    }
+
+    /**
+     * @param decryptionPool The threads to decrypt large records with, or null.
+     * @param decryptHelpers Ciphers of the same kind as decryptCipher, one more than the pool
+     *            has threads; they are keyed here.
+     */
+    public TlsBlockCipher(TlsClientContext context, BlockCipher encryptCipher,
+        BlockCipher decryptCipher, Digest writeDigest, Digest readDigest, int cipherKeySize,
+        TlsDecryptionPool decryptionPool, CBCBlockCipher[] decryptHelpers)
     {
         this.context = context;
         this.encryptCipher = encryptCipher;
         this.decryptCipher = decryptCipher;
 
+        this.useExplicitIV = TlsUtils.isTLSv11(context);
+
         int key_block_size = (2 * cipherKeySize) + writeDigest.getDigestSize()
-            + readDigest.getDigestSize() + encryptCipher.getBlockSize()
-            + decryptCipher.getBlockSize();
+            + readDigest.getDigestSize();
+
+        // From TLS 1.1 onwards, block ciphers don't need client_write_IV or server_write_IV
+        if (!useExplicitIV)
+        {
+            key_block_size += encryptCipher.getBlockSize() + decryptCipher.getBlockSize();
+        }
 
         byte[] key_block = TlsUtils.calculateKeyBlock(context, key_block_size);
 
@@ -56,19 +92,52 @@ public class TlsBlockCipher implements TlsCipher
         offset += readDigest.getDigestSize();
 
         // Init Ciphers
-        this.initCipher(true, encryptCipher, key_block, cipherKeySize, offset, offset
-            + (cipherKeySize * 2));
-        offset += cipherKeySize;
-        this.initCipher(false, decryptCipher, key_block, cipherKeySize, offset, offset
-            + cipherKeySize + encryptCipher.getBlockSize());
+        if (useExplicitIV)
+        {
+            /*
+             * The IV passed here is never used for a record; encodePlaintext and
+             * decodeCiphertext replace it with the explicit IV of each record.
+             */
+            this.initCipher(true, encryptCipher, key_block, cipherKeySize, offset,
+                new byte[encryptCipher.getBlockSize()], 0);
+            offset += cipherKeySize;
+            this.initCipher(false, decryptCipher, key_block, cipherKeySize, offset,
+                new byte[decryptCipher.getBlockSize()], 0);
+        }
+        else
+        {
+            this.initCipher(true, encryptCipher, key_block, cipherKeySize, offset, offset
+                + (cipherKeySize * 2));
+            offset += cipherKeySize;
+            this.initCipher(false, decryptCipher, key_block, cipherKeySize, offset, offset
+                + cipherKeySize + encryptCipher.getBlockSize());
+        }
 
+        // Each part of a record gets its IV when it is decrypted; only the key matters here
+        if (decryptionPool != null && decryptHelpers != null && decryptHelpers.length >= 2
+            && decryptCipher instanceof CBCBlockCipher)
+        {
+            for (int i = 0; i < decryptHelpers.length; ++i)
+            {
+                this.initCipher(false, decryptHelpers[i], key_block, cipherKeySize, offset,
+                    new byte[decryptCipher.getBlockSize()], 0);
+            }
+            this.decryptionPool = decryptionPool;
+            this.decryptHelpers = decryptHelpers;
+        }
     }
 
     protected void initCipher(boolean forEncryption, BlockCipher cipher, byte[] key_block,
         int key_size, int key_offset, int iv_offset)
+    {
+        initCipher(forEncryption, cipher, key_block, key_size, key_offset, key_block, iv_offset);
+    }
+
+    protected void initCipher(boolean forEncryption, BlockCipher cipher, byte[] key_block,
+        int key_size, int key_offset, byte[] iv, int iv_offset)
     {
         KeyParameter key_parameter = new KeyParameter(key_block, key_offset, key_size);
-        ParametersWithIV parameters_with_iv = new ParametersWithIV(key_parameter, key_block,
+        ParametersWithIV parameters_with_iv = new ParametersWithIV(key_parameter, iv,
             iv_offset, cipher.getBlockSize());
         cipher.init(forEncryption, parameters_with_iv);
     }
@@ -90,16 +159,38 @@ public class TlsBlockCipher implements TlsCipher
         }
 
         int totalsize = len + writeMac.getSize() + paddingSize + 1;
+        int outOff = 0;
+
+        if (useExplicitIV)
+        {
+            totalsize += blocksize;
+            outOff = blocksize;
+        }
+
         byte[] outbuf = new byte[totalsize];
-        System.arraycopy(plaintext, offset, outbuf, 0, len);
-        byte[] mac = writeMac.calculateMac(type, plaintext, offset, len);
-        System.arraycopy(mac, 0, outbuf, len, mac.length);
-        int paddoffset = len + mac.length;
+
+        if (useExplicitIV)
+        {
+            /*
+             * RFC 4346 6.2.3.2. Each record carries its own random IV, which is sent in the
+             * clear in front of the encrypted data.
+             */
+            byte[] explicitIV = new byte[blocksize];
+            context.getSecureRandom().nextBytes(explicitIV);
+
+            encryptCipher.init(true, new ParametersWithIV(null, explicitIV));
+
+            System.arraycopy(explicitIV, 0, outbuf, 0, blocksize);
+        }
+
+        System.arraycopy(plaintext, offset, outbuf, outOff, len);
+        int macSize = writeMac.calculateMac(type, plaintext, offset, len, outbuf, outOff + len);
+        int paddoffset = outOff + len + macSize;
         for (int i = 0; i <= paddingSize; i++)
         {
             outbuf[i + paddoffset] = (byte)paddingSize;
         }
-        for (int i = 0; i < totalsize; i += blocksize)
+        for (int i = outOff; i < totalsize; i += blocksize)
         {
             encryptCipher.processBlock(outbuf, i, outbuf, i);
         }
@@ -109,16 +200,15 @@ public class TlsBlockCipher implements TlsCipher
     public byte[] decodeCiphertext(short type, byte[] ciphertext, int offset, int len)
         throws IOException
     {
-        // TODO TLS 1.1 (RFC 4346) introduces an explicit IV
-
         int minLength = readMac.getSize() + 1;
         int blocksize = decryptCipher.getBlockSize();
         boolean decrypterror = false;
 
         /*
-         * ciphertext must be at least (macsize + 1) bytes long
+         * ciphertext must be at least (macsize + 1) bytes long, plus the explicit IV from
+         * TLS 1.1 onwards
          */
-        if (len < minLength)
+        if (len < (useExplicitIV ? minLength + blocksize : minLength))
         {
             throw new TlsFatalAlert(AlertDescription.decode_error);
         }
@@ -131,12 +221,36 @@ public class TlsBlockCipher implements TlsCipher
             throw new TlsFatalAlert(AlertDescription.decryption_failed);
         }
 
+        if (useExplicitIV)
+        {
+            /*
+             * RFC 4346 6.2.3.2. The first block of the record is the IV for the rest of it.
+             */
+            decryptCipher.init(false, new ParametersWithIV(null, ciphertext, offset, blocksize));
+
+            offset += blocksize;
+            len -= blocksize;
+        }
+
         /*
-         * Decrypt all the ciphertext using the blockcipher
+         * Decrypt all the ciphertext using the blockcipher, or just its end if the rest is
+         * done in parallel
          */
-        for (int i = 0; i < len; i += blocksize)
+        DecryptTask[] tasks = null;
+        if (decryptionPool != null && len >= PARALLEL_THRESHOLD)
         {
-            decryptCipher.processBlock(ciphertext, i + offset, ciphertext, i + offset);
+            tasks = startParallelDecryption(ciphertext, offset, len);
+        }
+        else if (decryptCipher instanceof CBCBlockCipher)
+        {
+            ((CBCBlockCipher)decryptCipher).processBlocks(ciphertext, offset, len / blocksize, ciphertext, offset);
+        }
+        else
+        {
+            for (int i = 0; i < len; i += blocksize)
+            {
+                decryptCipher.processBlock(ciphertext, i + offset, ciphertext, i + offset);
+            }
         }
 
         /*
@@ -187,16 +301,22 @@ public class TlsBlockCipher implements TlsCipher
          * mac verification failed or padding verification failed.
          */
         int plaintextlength = len - minLength - paddingsize;
-        byte[] calculatedMac = readMac.calculateMac(type, ciphertext, offset, plaintextlength);
+        boolean macOk;
+        if (tasks == null)
+        {
+            macOk = readMac.verifyMac(type, ciphertext, offset, plaintextlength, ciphertext, offset
+                + plaintextlength);
+        }
+        else
+        {
+            macOk = finishParallelDecryption(tasks, type, ciphertext, offset, plaintextlength);
+        }
 
         /*
-         * Check all bytes in the mac (constant-time comparison).
+         * Check all bytes in the mac (constant-time comparison, against the mac still in place
+         * after the plaintext).
          */
-        byte[] decryptedMac = new byte[calculatedMac.length];
-        System.arraycopy(ciphertext, offset + plaintextlength, decryptedMac, 0,
-            calculatedMac.length);
-
-        if (!Arrays.constantTimeAreEqual(calculatedMac, decryptedMac))
+        if (!macOk)
         {
             decrypterror = true;
         }
@@ -214,6 +334,166 @@ public class TlsBlockCipher implements TlsCipher
         return plaintext;
     }
 
+    /**
+     * Split the record into parts: the start, for the calling thread; one part for each
+     * thread of the pool; and the end, which takes in all the padding and is decrypted
+     * straight away.
+     */
+    private DecryptTask[] startParallelDecryption(byte[] buf, int offset, int len)
+    {
+        int blocksize = decryptCipher.getBlockSize();
+        int blockCount = len / blocksize;
+
+        // at most 256 bytes of padding, including the length byte
+        int tailBlocks = 256 / blocksize + 1;
+        int parts = decryptHelpers.length;
+        int partBlocks = (blockCount - tailBlocks) / parts;
+
+        /*
+         * Each part starts from the ciphertext block in front of it, which has to be copied
+         * before the part in front is decrypted over it. The first part carries on from
+         * where decryptCipher is.
+         */
+        DecryptTask[] tasks = new DecryptTask[parts + 1];
+        int start = 0;
+        for (int i = 0; i <= parts; ++i)
+        {
+            int count = i == 0 ? blockCount - tailBlocks - (parts - 1) * partBlocks
+                : (i == parts ? tailBlocks : partBlocks);
+            int partOff = offset + start * blocksize;
+
+            if (i == 0)
+            {
+                tasks[i] = new DecryptTask((CBCBlockCipher)decryptCipher, null, buf, partOff, count);
+            }
+            else
+            {
+                tasks[i] = new DecryptTask(decryptHelpers[i - 1], Arrays.copyOfRange(buf, partOff
+                    - blocksize, partOff), buf, partOff, count);
+            }
+            start += count;
+        }
+
+        // the next record (TLS 1.0) chains on from the last ciphertext block
+        tasks[0].nextIV = Arrays.copyOfRange(buf, offset + len - blocksize, offset + len);
+
+        for (int i = 1; i < parts; ++i)
+        {
+            if (!decryptionPool.submit(tasks[i]))
+            {
+                tasks[i].run();
+            }
+        }
+        tasks[parts].run();
+        return tasks;
+    }
+
+    /**
+     * Decrypt the start of the record and MAC the parts as they are done, in order.
+     * 
+     * @return true if the mac following the plaintext is correct.
+     */
+    private boolean finishParallelDecryption(DecryptTask[] tasks, short type, byte[] buf, int offset,
+        int plaintextlength)
+        throws IOException
+    {
+        readMac.startMac(type, plaintextlength);
+
+        tasks[0].run();
+
+        boolean failed = false;
+        int end = offset + plaintextlength;
+        for (int i = 0; i < tasks.length; ++i)
+        {
+            DecryptTask task = tasks[i];
+            failed |= !task.waitFor();
+
+            int macEnd = Math.min(end, task.offset + task.length);
+            if (macEnd > task.offset)
+            {
+                readMac.updateMac(buf, task.offset, macEnd - task.offset);
+            }
+        }
+
+        decryptCipher.init(false, new ParametersWithIV(null, tasks[0].nextIV));
+
+        if (failed)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+        return readMac.finishAndVerifyMac(buf, end);
+    }
+
+    /**
+     * Decrypts one part of a record, in place.
+     */
+    private static class DecryptTask implements Runnable
+    {
+        private final CBCBlockCipher cipher;
+        private final byte[] iv;
+        private final byte[] buf;
+        final int offset;
+        final int length;
+
+        byte[] nextIV = null;
+
+        private boolean done = false;
+        private boolean failed = false;
+
+        DecryptTask(CBCBlockCipher cipher, byte[] iv, byte[] buf, int offset, int blockCount)
+        {
+            this.cipher = cipher;
+            this.iv = iv;
+            this.buf = buf;
+            this.offset = offset;
+            this.length = blockCount * cipher.getBlockSize();
+        }
+
+        public void run()
+        {
+            boolean ok = false;
+            try
+            {
+                if (iv != null)
+                {
+                    cipher.init(false, new ParametersWithIV(null, iv));
+                }
+                cipher.processBlocks(buf, offset, length / cipher.getBlockSize(), buf, offset);
+                ok = true;
+            }
+            catch (RuntimeException e)
+            {
+                // reported by waitFor()
+            }
+
+            synchronized (this)
+            {
+                done = true;
+                failed = !ok;
+                notifyAll();
+            }
+        }
+
+        /**
+         * @return false if the decryption failed
+         */
+        synchronized boolean waitFor()
+        {
+            while (!done)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    // the part is in use until done
+                }
+            }
+            return !failed;
+        }
+    }
+
     protected int chooseExtraPadBlocks(SecureRandom r, int max)
     {
 //        return r.nextInt(max + 1);
@@ -0,0 +1,150 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.util.Pack;
+
+/**
+ * The ChaCha20-Poly1305 AEAD cipher for TLS 1.2 (RFC 7905).
+ * <p/>
+ * Records carry no explicit nonce; the nonce is the fixed write IV XORed with the 64 bit
+ * sequence number, and the additional data is the same header the MAC of a block cipher
+ * suite covers.
+ */
+public class TlsChaCha20Poly1305 implements TlsCipher
+{
+    private static final int KEY_SIZE = 32;
+    private static final int IV_SIZE = 12;
+    private static final int MAC_SIZE = 16;
+
+    protected TlsClientContext context;
+
+    protected ChaCha20Poly1305 encryptCipher;
+    protected ChaCha20Poly1305 decryptCipher;
+
+    protected KeyParameter encryptKey;
+    protected KeyParameter decryptKey;
+    protected byte[] encryptIV;
+    protected byte[] decryptIV;
+
+    protected long writeSeqNo = 0;
+    protected long readSeqNo = 0;
+
+    public TlsChaCha20Poly1305(TlsClientContext context) throws IOException
+    {
+        if (!TlsUtils.isTLSv12(context))
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        this.context = context;
+
+        byte[] key_block = TlsUtils.calculateKeyBlock(context, (2 * KEY_SIZE) + (2 * IV_SIZE));
+
+        int offset = 0;
+
+        KeyParameter client_write_key = new KeyParameter(key_block, offset, KEY_SIZE);
+        offset += KEY_SIZE;
+        KeyParameter server_write_key = new KeyParameter(key_block, offset, KEY_SIZE);
+        offset += KEY_SIZE;
+
+        byte[] client_write_IV = new byte[IV_SIZE];
+        System.arraycopy(key_block, offset, client_write_IV, 0, IV_SIZE);
+        offset += IV_SIZE;
+        byte[] server_write_IV = new byte[IV_SIZE];
+        System.arraycopy(key_block, offset, server_write_IV, 0, IV_SIZE);
+
+        this.encryptCipher = new ChaCha20Poly1305();
+        this.decryptCipher = new ChaCha20Poly1305();
+
+        this.encryptKey = client_write_key;
+        this.decryptKey = server_write_key;
+        this.encryptIV = client_write_IV;
+        this.decryptIV = server_write_IV;
+    }
+
+    public byte[] encodePlaintext(short type, byte[] plaintext, int offset, int len) throws IOException
+    {
+        long seqNo = writeSeqNo++;
+
+        encryptCipher.init(true, new AEADParameters(encryptKey, MAC_SIZE * 8, calculateNonce(seqNo, encryptIV),
+            getAdditionalData(seqNo, type, len)));
+
+        byte[] output = new byte[len + MAC_SIZE];
+        int outputPos = encryptCipher.processBytes(plaintext, offset, len, output, 0);
+
+        try
+        {
+            encryptCipher.doFinal(output, outputPos);
+        }
+        catch (InvalidCipherTextException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.internal_error);
+        }
+
+        return output;
+    }
+
+    public byte[] decodeCiphertext(short type, byte[] ciphertext, int offset, int len) throws IOException
+    {
+        if (len < MAC_SIZE)
+        {
+            throw new TlsFatalAlert(AlertDescription.decode_error);
+        }
+
+        long seqNo = readSeqNo++;
+        int plaintextLength = len - MAC_SIZE;
+
+        decryptCipher.init(false, new AEADParameters(decryptKey, MAC_SIZE * 8, calculateNonce(seqNo, decryptIV),
+            getAdditionalData(seqNo, type, plaintextLength)));
+
+        byte[] output = new byte[plaintextLength];
+        int outputPos = decryptCipher.processBytes(ciphertext, offset, len, output, 0);
+
+        try
+        {
+            decryptCipher.doFinal(output, outputPos);
+        }
+        catch (InvalidCipherTextException e)
+        {
+            throw new TlsFatalAlert(AlertDescription.bad_record_mac);
+        }
+
+        return output;
+    }
+
+    /*
+     * RFC 7905 2. The 64 bit sequence number, padded on the left to 96 bits, XORed with the
+     * write IV.
+     */
+    protected byte[] calculateNonce(long seqNo, byte[] iv)
+    {
+        byte[] nonce = new byte[IV_SIZE];
+        Pack.longToBigEndian(seqNo, nonce, 4);
+
+        for (int i = 0; i < IV_SIZE; ++i)
+        {
+            nonce[i] ^= iv[i];
+        }
+
+        return nonce;
+    }
+
+    /*
+     * RFC 5246 6.2.3.3. seq_num + TLSCompressed.type + TLSCompressed.version + TLSCompressed.length
+     */
+    protected byte[] getAdditionalData(long seqNo, short type, int len) throws IOException
+    {
+        byte[] additional_data = new byte[13];
+        TlsUtils.writeUint64(seqNo, additional_data, 0);
+        TlsUtils.writeUint8(type, additional_data, 8);
+        TlsUtils.writeVersion(context.getServerVersion(), additional_data, 9);
+        TlsUtils.writeUint16(len, additional_data, 11);
+
+        return additional_data;
+    }
+}
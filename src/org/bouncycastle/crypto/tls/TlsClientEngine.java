@@ -0,0 +1,169 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.IOException;
+
+import javaaddin.security.SecureRandom;
+
+/**
+ * A non-blocking TLS client.
+ * <p/>
+ * Unlike {@link TlsProtocolHandler}, which reads from and writes to streams itself, the
+ * engine does no I/O at all, so a single thread can drive many connections. Data read from
+ * the network is handed to {@link #unwrap(byte[], int, int)}; everything the engine wants to
+ * send (handshake messages, records and alerts) is taken with
+ * {@link #readOutput(byte[], int, int)} and written to the network by the caller. Application
+ * data goes in through {@link #wrap(byte[], int, int)} and comes out of
+ * {@link #readInput(byte[], int, int)}.
+ * <p/>
+ * The handshake, cipher suites and key exchanges are those of {@link TlsProtocolHandler}, set
+ * up by the given {@link TlsClient}.
+ */
+public class TlsClientEngine
+{
+    /**
+     * The handshake has not been started yet.
+     */
+    public static final int NOT_STARTED = 0;
+
+    /**
+     * The handshake is in progress; output has to be sent and more input is needed.
+     */
+    public static final int HANDSHAKING = 1;
+
+    /**
+     * Application data may be sent with wrap() and received with readInput().
+     */
+    public static final int FINISHED = 2;
+
+    /**
+     * The connection has been closed.
+     */
+    public static final int CLOSED = 3;
+
+    private TlsProtocolHandler handler;
+    private boolean started = false;
+
+    public TlsClientEngine()
+    {
+        this.handler = new TlsProtocolHandler();
+    }
+
+    public TlsClientEngine(SecureRandom sr)
+    {
+        this.handler = new TlsProtocolHandler(sr);
+    }
+
+    /**
+     * @see TlsProtocolHandler#setFalseStart(boolean)
+     */
+    public void setFalseStart(boolean enabled)
+    {
+        handler.setFalseStart(enabled);
+    }
+
+    /**
+     * Start the handshake. The ClientHello is then available from readOutput().
+     * 
+     * @param tlsClient The client to negotiate the connection with.
+     * @throws IOException If the ClientHello could not be created.
+     */
+    public void beginHandshake(TlsClient tlsClient) throws IOException
+    {
+        handler.beginHandshake(tlsClient);
+        this.started = true;
+    }
+
+    /**
+     * @return One of NOT_STARTED, HANDSHAKING, FINISHED or CLOSED.
+     */
+    public int getHandshakeStatus()
+    {
+        if (handler.isClosed())
+        {
+            return CLOSED;
+        }
+        if (!started)
+        {
+            return NOT_STARTED;
+        }
+        return handler.isApplicationDataWritable() ? FINISHED : HANDSHAKING;
+    }
+
+    /**
+     * Process data received from the network. It does not have to be a whole number of
+     * records; incomplete records are kept until the rest arrives.
+     * 
+     * @throws IOException If the data is invalid or the server sent a fatal alert. Any
+     *             alert to tell the server about the failure is left in the output.
+     */
+    public void unwrap(byte[] buf, int offset, int len) throws IOException
+    {
+        if (!started)
+        {
+            throw new IllegalStateException("beginHandshake must be called first");
+        }
+
+        handler.offerInput(buf, offset, len);
+    }
+
+    /**
+     * Encrypt application data; the records are then available from readOutput().
+     * 
+     * @throws IOException If the connection has been closed.
+     */
+    public void wrap(byte[] buf, int offset, int len) throws IOException
+    {
+        if (!handler.isClosed() && !handler.isApplicationDataWritable())
+        {
+            throw new IllegalStateException("handshake is not finished");
+        }
+
+        handler.writeData(buf, offset, len);
+    }
+
+    /**
+     * @return The number of bytes of application data waiting in readInput().
+     */
+    public int getAvailableInputBytes()
+    {
+        return handler.getAvailableInputBytes();
+    }
+
+    /**
+     * Take received application data.
+     * 
+     * @return The number of bytes copied, 0 if there was none, -1 once the server closed the
+     *         connection.
+     * @throws IOException If the connection failed with an error.
+     */
+    public int readInput(byte[] buf, int offset, int len) throws IOException
+    {
+        return handler.readInput(buf, offset, len);
+    }
+
+    /**
+     * @return The number of bytes waiting to be sent to the network.
+     */
+    public int getAvailableOutputBytes()
+    {
+        return handler.getAvailableOutputBytes();
+    }
+
+    /**
+     * Take data to be sent to the network.
+     * 
+     * @return The number of bytes copied.
+     */
+    public int readOutput(byte[] buf, int offset, int len)
+    {
+        return handler.readOutput(buf, offset, len);
+    }
+
+    /**
+     * Close the connection. The close_notify alert is left in the output.
+     */
+    public void close() throws IOException
+    {
+        handler.close();
+    }
+}
@@ -1,14 +1,15 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import javaaddin.math.BigInteger;
 
 import org.bouncycastle.crypto.Signer;
-import org.bouncycastle.crypto.io.SignerInputStream;
 import org.bouncycastle.crypto.params.DHParameters;
 import org.bouncycastle.crypto.params.DHPublicKeyParameters;
+import org.bouncycastle.util.io.TeeInputStream;
 
 class TlsDHEKeyExchange extends TlsDHKeyExchange
 {
@@ -27,14 +28,29 @@ class TlsDHEKeyExchange extends TlsDHKeyExchange
     {
         SecurityParameters securityParameters = context.getSecurityParameters();
 
-        Signer signer = initSigner(tlsSigner, securityParameters);
-        InputStream sigIn = new SignerInputStream(is, signer);
+        /*
+         * The params are kept aside, since with TLS 1.2 the signature algorithm to verify
+         * them with only follows after them.
+         */
+        ByteArrayOutputStream params = new ByteArrayOutputStream();
+        InputStream sigIn = new TeeInputStream(is, params);
 
         byte[] pBytes = TlsUtils.readOpaque16(sigIn);
         byte[] gBytes = TlsUtils.readOpaque16(sigIn);
         byte[] YsBytes = TlsUtils.readOpaque16(sigIn);
 
+        SignatureAndHashAlgorithm signatureAlgorithm = null;
+        if (TlsUtils.isTLSv12(context))
+        {
+            signatureAlgorithm = SignatureAndHashAlgorithm.parse(is);
+            TlsUtils.checkSignatureAlgorithm(signatureAlgorithm, tlsSigner);
+        }
+
         byte[] sigByte = TlsUtils.readOpaque16(is);
+
+        Signer signer = initSigner(tlsSigner, signatureAlgorithm, securityParameters);
+        byte[] paramBytes = params.toByteArray();
+        signer.update(paramBytes, 0, paramBytes.length);
         if (!signer.verifySignature(sigByte))
         {
             throw new TlsFatalAlert(AlertDescription.bad_certificate);
@@ -48,9 +64,12 @@ class TlsDHEKeyExchange extends TlsDHKeyExchange
             new DHParameters(p, g)));
     }
 
-    protected Signer initSigner(TlsSigner tlsSigner, SecurityParameters securityParameters)
+    protected Signer initSigner(TlsSigner tlsSigner, SignatureAndHashAlgorithm signatureAlgorithm,
+        SecurityParameters securityParameters) throws IOException
     {
-        Signer signer = tlsSigner.createVerifyer(this.serverPublicKey);
+        Signer signer = signatureAlgorithm == null
+            ? tlsSigner.createVerifyer(this.serverPublicKey)
+            : tlsSigner.createVerifyer(signatureAlgorithm, this.serverPublicKey);
         signer.update(securityParameters.clientRandom, 0, securityParameters.clientRandom.length);
         signer.update(securityParameters.serverRandom, 0, securityParameters.serverRandom.length);
         return signer;
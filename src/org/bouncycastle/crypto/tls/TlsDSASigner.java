@@ -1,5 +1,7 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.IOException;
+
 import javaaddin.security.SecureRandom;
 
 import org.bouncycastle.crypto.CryptoException;
@@ -23,6 +25,17 @@ abstract class TlsDSASigner implements TlsSigner
         return signer.generateSignature();
     }
 
+    public byte[] calculateRawSignature(SignatureAndHashAlgorithm algorithm, SecureRandom secureRandom,
+        AsymmetricKeyParameter privateKey, byte[] hash) throws CryptoException, IOException
+    {
+        checkSignatureAlgorithm(algorithm);
+
+        Signer signer = new DSADigestSigner(createDSAImpl(), new NullDigest());
+        signer.init(true, new ParametersWithRandom(privateKey, secureRandom));
+        signer.update(hash, 0, hash.length);
+        return signer.generateSignature();
+    }
+
     public Signer createVerifyer(AsymmetricKeyParameter publicKey)
     {
         Signer verifyer = new DSADigestSigner(createDSAImpl(), new SHA1Digest());
@@ -30,5 +43,23 @@ abstract class TlsDSASigner implements TlsSigner
         return verifyer;
     }
 
+    public Signer createVerifyer(SignatureAndHashAlgorithm algorithm, AsymmetricKeyParameter publicKey)
+        throws IOException
+    {
+        checkSignatureAlgorithm(algorithm);
+
+        Signer verifyer = new DSADigestSigner(createDSAImpl(), TlsUtils.createHash(algorithm.getHash()));
+        verifyer.init(false, publicKey);
+        return verifyer;
+    }
+
+    private void checkSignatureAlgorithm(SignatureAndHashAlgorithm algorithm) throws IOException
+    {
+        if (algorithm.getSignature() != getSignatureAlgorithm())
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+    }
+
     protected abstract DSA createDSAImpl();
 }
@@ -7,6 +7,11 @@ import org.bouncycastle.crypto.signers.DSASigner;
 
 class TlsDSSSigner extends TlsDSASigner
 {
+    public short getSignatureAlgorithm()
+    {
+        return SignatureAlgorithm.dsa;
+    }
+
     public boolean isValidPublicKey(AsymmetricKeyParameter publicKey)
     {
         return publicKey instanceof DSAPublicKeyParameters;
@@ -0,0 +1,106 @@
+package org.bouncycastle.crypto.tls;
+
+import java.util.Vector;
+
+/**
+ * A fixed set of threads that decrypt parts of large CBC records while the reading thread
+ * decrypts and MACs the rest, see {@link TlsBlockCipher}. One pool can be shared by any
+ * number of connections; give it about one thread less than there are cores.
+ * <p/>
+ * The threads keep running until {@link #close()} is called.
+ */
+public class TlsDecryptionPool
+{
+    private final Vector queue = new Vector();
+    private final int threadCount;
+    private boolean closed = false;
+
+    /**
+     * @param threadCount The number of threads, at least 1.
+     */
+    public TlsDecryptionPool(int threadCount)
+    {
+        if (threadCount < 1)
+        {
+            throw new IllegalArgumentException("'threadCount' must be at least 1");
+        }
+
+        this.threadCount = threadCount;
+
+        for (int i = 0; i < threadCount; ++i)
+        {
+            new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    Runnable task;
+                    while ((task = take()) != null)
+                    {
+                        task.run();
+                    }
+                }
+            }).start();
+        }
+    }
+
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * Stop the threads once the tasks already submitted are done.
+     */
+    public void close()
+    {
+        synchronized (queue)
+        {
+            closed = true;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Run the task on one of the threads. The task must not throw.
+     *
+     * @return false if the pool is closed, in which case the caller has to run it.
+     */
+    boolean submit(Runnable task)
+    {
+        synchronized (queue)
+        {
+            if (closed)
+            {
+                return false;
+            }
+            queue.addElement(task);
+            queue.notify();
+            return true;
+        }
+    }
+
+    private Runnable take()
+    {
+        synchronized (queue)
+        {
+            while (queue.isEmpty())
+            {
+                if (closed)
+                {
+                    return null;
+                }
+                try
+                {
+                    queue.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    // check again
+                }
+            }
+            Runnable task = (Runnable)queue.elementAt(0);
+            queue.removeElementAt(0);
+            return task;
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import org.bouncycastle.crypto.Signer;
-import org.bouncycastle.crypto.io.SignerInputStream;
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.io.TeeInputStream;
 
 /**
  * ECDHE key exchange (see RFC 4492)
@@ -29,8 +30,12 @@ class TlsECDHEKeyExchange extends TlsECDHKeyExchange
     {
         SecurityParameters securityParameters = context.getSecurityParameters();
 
-        Signer signer = initSigner(tlsSigner, securityParameters);
-        InputStream sigIn = new SignerInputStream(is, signer);
+        /*
+         * The params are kept aside, since with TLS 1.2 the signature algorithm to verify
+         * them with only follows after them.
+         */
+        ByteArrayOutputStream params = new ByteArrayOutputStream();
+        InputStream sigIn = new TeeInputStream(is, params);
 
         short curveType = TlsUtils.readUint8(sigIn);
         ECDomainParameters curve_params;
@@ -53,7 +58,18 @@ class TlsECDHEKeyExchange extends TlsECDHKeyExchange
 
         byte[] publicBytes = TlsUtils.readOpaque8(sigIn);
 
+        SignatureAndHashAlgorithm signatureAlgorithm = null;
+        if (TlsUtils.isTLSv12(context))
+        {
+            signatureAlgorithm = SignatureAndHashAlgorithm.parse(is);
+            TlsUtils.checkSignatureAlgorithm(signatureAlgorithm, tlsSigner);
+        }
+
         byte[] sigByte = TlsUtils.readOpaque16(is);
+
+        Signer signer = initSigner(tlsSigner, signatureAlgorithm, securityParameters);
+        byte[] paramBytes = params.toByteArray();
+        signer.update(paramBytes, 0, paramBytes.length);
         if (!signer.verifySignature(sigByte))
         {
             throw new TlsFatalAlert(AlertDescription.bad_certificate);
@@ -102,9 +118,12 @@ class TlsECDHEKeyExchange extends TlsECDHKeyExchange
         }
     }
 
-    protected Signer initSigner(TlsSigner tlsSigner, SecurityParameters securityParameters)
+    protected Signer initSigner(TlsSigner tlsSigner, SignatureAndHashAlgorithm signatureAlgorithm,
+        SecurityParameters securityParameters) throws IOException
     {
-        Signer signer = tlsSigner.createVerifyer(this.serverPublicKey);
+        Signer signer = signatureAlgorithm == null
+            ? tlsSigner.createVerifyer(this.serverPublicKey)
+            : tlsSigner.createVerifyer(signatureAlgorithm, this.serverPublicKey);
         signer.update(securityParameters.clientRandom, 0, securityParameters.clientRandom.length);
         signer.update(securityParameters.serverRandom, 0, securityParameters.serverRandom.length);
         return signer;
@@ -7,6 +7,11 @@ import org.bouncycastle.crypto.signers.ECDSASigner;
 
 class TlsECDSASigner extends TlsDSASigner
 {
+    public short getSignatureAlgorithm()
+    {
+        return SignatureAlgorithm.ecdsa;
+    }
+
     public boolean isValidPublicKey(AsymmetricKeyParameter publicKey)
     {
         return publicKey instanceof ECPublicKeyParameters;
@@ -1,6 +1,5 @@
 package org.bouncycastle.crypto.tls;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import org.bouncycastle.crypto.Digest;
@@ -20,6 +19,13 @@ public class TlsMac
     protected byte[] secret;
     protected Mac mac;
 
+    /*
+     * Scratch space for the header of each record and for the mac being verified, so that
+     * steady-state record processing allocates nothing.
+     */
+    protected byte[] macHeader = new byte[13];
+    protected byte[] macBuf;
+
     /**
      * Generate a new instance of an TlsMac.
      * 
@@ -50,6 +56,7 @@ public class TlsMac
         }
 
         this.mac.init(param);
+        this.macBuf = new byte[mac.getMacSize()];
     }
 
 	/**
@@ -96,35 +103,131 @@ public class TlsMac
      * @return A new byte-buffer containing the mac value.
      */
     public byte[] calculateMac(short type, byte[] message, int offset, int len)
+    {
+        startMac(type, len);
+        updateMac(message, offset, len);
+        return finishMac();
+    }
+
+    /**
+     * Calculate the mac for some given data into a buffer supplied by the caller.
+     * 
+     * @param type The message type of the message.
+     * @param message A byte-buffer containing the message.
+     * @param offset The number of bytes to skip, before the message starts.
+     * @param len The length of the message.
+     * @param out The buffer to write the mac to.
+     * @param outOff The offset in out to write the mac at.
+     * @return The number of bytes written, {@link #getSize()}.
+     */
+    public int calculateMac(short type, byte[] message, int offset, int len, byte[] out, int outOff)
+    {
+        startMac(type, len);
+        updateMac(message, offset, len);
+        return finishMac(out, outOff);
+    }
+
+    /**
+     * Calculate the mac for some given data and compare it, in constant time, with the mac
+     * received for it.
+     * 
+     * @param type The message type of the message.
+     * @param message A byte-buffer containing the message.
+     * @param offset The number of bytes to skip, before the message starts.
+     * @param len The length of the message.
+     * @param expected A byte-buffer containing the received mac.
+     * @param expectedOff The number of bytes to skip, before the received mac starts.
+     * @return true if the macs are equal.
+     */
+    public boolean verifyMac(short type, byte[] message, int offset, int len, byte[] expected,
+        int expectedOff)
+    {
+        startMac(type, len);
+        updateMac(message, offset, len);
+        return finishAndVerifyMac(expected, expectedOff);
+    }
+
+    /**
+     * Start the mac of a message whose length is known before all of it is, e.g. one still
+     * being decrypted. Pass the message to {@link #updateMac(byte[], int, int)} in order,
+     * then call {@link #finishMac()}.
+     * 
+     * @param type The message type of the message.
+     * @param len The length of the whole message.
+     */
+    public void startMac(short type, int len)
     {
         ProtocolVersion serverVersion = context.getServerVersion();
         boolean isTls = serverVersion.getFullVersion() >= ProtocolVersion.TLSv10.getFullVersion();
 
-        ByteArrayOutputStream bosMac = new ByteArrayOutputStream(isTls ? 13 : 11);
-        try
-        {
-            TlsUtils.writeUint64(seqNo++, bosMac);
-            TlsUtils.writeUint8(type, bosMac);
+        TlsUtils.writeUint64(seqNo++, macHeader, 0);
+        TlsUtils.writeUint8(type, macHeader, 8);
 
-            if (isTls)
+        int headerLen = 9;
+        if (isTls)
+        {
+            try
             {
-                TlsUtils.writeVersion(serverVersion, bosMac);
+                TlsUtils.writeVersion(serverVersion, macHeader, headerLen);
             }
-
-            TlsUtils.writeUint16(len, bosMac);
-        }
-        catch (IOException e)
-        {
-            // This should never happen
-            throw new IllegalStateException("Internal error during mac calculation");
+            catch (IOException e)
+            {
+                // This should never happen
+                throw new IllegalStateException("Internal error during mac calculation");
+            }
+            headerLen += 2;
         }
 
-        byte[] macHeader = bosMac.toByteArray();
-        mac.update(macHeader, 0, macHeader.length);
+        TlsUtils.writeUint16(len, macHeader, headerLen);
+        headerLen += 2;
+
+        mac.update(macHeader, 0, headerLen);
+    }
+
+    /**
+     * Add the next part of the message started with {@link #startMac(short, int)}.
+     */
+    public void updateMac(byte[] message, int offset, int len)
+    {
         mac.update(message, offset, len);
+    }
 
+    /**
+     * @return A new byte-buffer containing the mac value of the message.
+     */
+    public byte[] finishMac()
+    {
         byte[] result = new byte[mac.getMacSize()];
         mac.doFinal(result, 0);
         return result;
     }
+
+    /**
+     * Write the mac value of the message to a buffer supplied by the caller.
+     * 
+     * @return The number of bytes written, {@link #getSize()}.
+     */
+    public int finishMac(byte[] out, int outOff)
+    {
+        return mac.doFinal(out, outOff);
+    }
+
+    /**
+     * Compare the mac value of the message, in constant time, with the mac received for it.
+     * 
+     * @param expected A byte-buffer containing the received mac.
+     * @param expectedOff The number of bytes to skip, before the received mac starts.
+     * @return true if the macs are equal.
+     */
+    public boolean finishAndVerifyMac(byte[] expected, int expectedOff)
+    {
+        mac.doFinal(macBuf, 0);
+
+        int diff = 0;
+        for (int i = 0; i < macBuf.length; ++i)
+        {
+            diff |= macBuf[i] ^ expected[expectedOff + i];
+        }
+        return diff == 0;
+    }
 }
@@ -0,0 +1,342 @@
+package org.bouncycastle.crypto.tls;
+
+import java.io.PrintStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * A {@link TlsMetricsListener} keeping everything in fixed size histograms, so it can stay
+ * attached to every connection of a long running process and be dumped when wanted.
+ * <p/>
+ * Each histogram has one bucket per power of two, so a percentile is only known to within a
+ * factor of two, but recording a value costs a few shifts and an increment and nothing is
+ * allocated. One instance may be shared by any number of handlers.
+ * <p/>
+ * Times are in milliseconds from System.currentTimeMillis(), which is all CLDC offers. On
+ * platforms with a better clock, override {@link #currentTime()}, e.g. with System.nanoTime()
+ * in microseconds, so per-record times do not all round to 0. Timed samples given to
+ * {@link #addSample(String, long)} should be measured with currentTime() too, so every
+ * histogram has the same unit.
+ */
+public class TlsMetricsHistogram implements TlsMetricsListener
+{
+    // Handshake states are small numbers, see TlsProtocolHandler.getStateName()
+    private static final int MAX_STATE = 15;
+
+    // ContentType.change_cipher_spec .. ContentType.application_data
+    private static final short FIRST_TYPE = ContentType.change_cipher_spec;
+    private static final int TYPES = ContentType.application_data - FIRST_TYPE + 1;
+
+    private static final int[] PERCENTILES = { 50, 90, 99 };
+
+    private final Histogram[] stateTimes = new Histogram[MAX_STATE + 1];
+    private final Histogram[] readSizes = new Histogram[TYPES];
+    private final Histogram[] readTimes = new Histogram[TYPES];
+    private final Histogram[] writtenSizes = new Histogram[TYPES];
+    private final Histogram[] writtenTimes = new Histogram[TYPES];
+    private final Histogram inputQueue = new Histogram();
+    private final Histogram handshakeQueue = new Histogram();
+    private final Histogram applicationDataQueue = new Histogram();
+    private final Histogram outputQueue = new Histogram();
+
+    // Samples added by the application, see addSample()
+    private final Hashtable samples = new Hashtable();
+
+    private long lastTime = 0;
+
+    public TlsMetricsHistogram()
+    {
+        for (int i = 0; i < stateTimes.length; ++i)
+        {
+            stateTimes[i] = new Histogram();
+        }
+        for (int i = 0; i < TYPES; ++i)
+        {
+            readSizes[i] = new Histogram();
+            readTimes[i] = new Histogram();
+            writtenSizes[i] = new Histogram();
+            writtenTimes[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @return System.currentTimeMillis(), but never less than a value returned before.
+     */
+    public synchronized long currentTime()
+    {
+        long time = System.currentTimeMillis();
+        if (time > lastTime)
+        {
+            lastTime = time;
+        }
+        return lastTime;
+    }
+
+    /**
+     * Records the time taken to get from the previous state to this one.
+     */
+    public void notifyStateChanged(short previousState, long previousTime, short state, long time)
+    {
+        if (state >= 0 && state <= MAX_STATE)
+        {
+            stateTimes[state].add(time - previousTime);
+        }
+    }
+
+    public void notifyRecordRead(short type, int length, long cipherTime)
+    {
+        int i = type - FIRST_TYPE;
+        if (i >= 0 && i < TYPES)
+        {
+            readSizes[i].add(length);
+            readTimes[i].add(cipherTime);
+        }
+    }
+
+    public void notifyRecordWritten(short type, int length, long cipherTime)
+    {
+        int i = type - FIRST_TYPE;
+        if (i >= 0 && i < TYPES)
+        {
+            writtenSizes[i].add(length);
+            writtenTimes[i].add(cipherTime);
+        }
+    }
+
+    public void notifyQueueDepths(int inputQueue, int handshakeQueue, int applicationDataQueue, int outputQueue)
+    {
+        this.inputQueue.add(inputQueue);
+        this.handshakeQueue.add(handshakeQueue);
+        this.applicationDataQueue.add(applicationDataQueue);
+        this.outputQueue.add(outputQueue);
+    }
+
+    /**
+     * Record a value measured outside the TLS layer, e.g. the time taken by the TCP connect,
+     * in a histogram of its own.
+     *
+     * @param name The name of the histogram, created on first use.
+     * @param value The value to record.
+     */
+    public void addSample(String name, long value)
+    {
+        Histogram histogram;
+        synchronized (samples)
+        {
+            histogram = (Histogram)samples.get(name);
+            if (histogram == null)
+            {
+                histogram = new Histogram();
+                samples.put(name, histogram);
+            }
+        }
+        histogram.add(value);
+    }
+
+    /**
+     * @param state A handshake state, see {@link TlsProtocolHandler#getStateName(short)}.
+     * @param percentile The percentile wanted, from 0 to 100.
+     * @return An upper bound for the given percentile of the time taken to reach the state,
+     *         or 0 if it was never reached.
+     */
+    public long getStateTimePercentile(short state, int percentile)
+    {
+        if (state < 0 || state > MAX_STATE)
+        {
+            throw new IllegalArgumentException("'state' is not a handshake state");
+        }
+        return stateTimes[state].getPercentile(percentile);
+    }
+
+    /**
+     * Write the count and percentiles of every non-empty histogram, one per line.
+     */
+    public void dump(PrintStream out)
+    {
+        for (short state = 0; state <= MAX_STATE; ++state)
+        {
+            stateTimes[state].dump(out, "state " + TlsProtocolHandler.getStateName(state) + " time");
+        }
+        for (int i = 0; i < TYPES; ++i)
+        {
+            String type = getTypeName((short)(FIRST_TYPE + i));
+            readSizes[i].dump(out, "read " + type + " bytes");
+            readTimes[i].dump(out, "read " + type + " cipher time");
+            writtenSizes[i].dump(out, "written " + type + " bytes");
+            writtenTimes[i].dump(out, "written " + type + " cipher time");
+        }
+        inputQueue.dump(out, "input queue");
+        handshakeQueue.dump(out, "handshake queue");
+        applicationDataQueue.dump(out, "application data queue");
+        outputQueue.dump(out, "output queue");
+
+        synchronized (samples)
+        {
+            Enumeration names = samples.keys();
+            while (names.hasMoreElements())
+            {
+                String name = (String)names.nextElement();
+                ((Histogram)samples.get(name)).dump(out, name);
+            }
+        }
+    }
+
+    /**
+     * Empty all histograms.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < stateTimes.length; ++i)
+        {
+            stateTimes[i].reset();
+        }
+        for (int i = 0; i < TYPES; ++i)
+        {
+            readSizes[i].reset();
+            readTimes[i].reset();
+            writtenSizes[i].reset();
+            writtenTimes[i].reset();
+        }
+        inputQueue.reset();
+        handshakeQueue.reset();
+        applicationDataQueue.reset();
+        outputQueue.reset();
+
+        synchronized (samples)
+        {
+            samples.clear();
+        }
+    }
+
+    private static String getTypeName(short type)
+    {
+        switch (type)
+        {
+            case ContentType.change_cipher_spec:
+                return "change_cipher_spec";
+            case ContentType.alert:
+                return "alert";
+            case ContentType.handshake:
+                return "handshake";
+            case ContentType.application_data:
+                return "application_data";
+            default:
+                return "type " + type;
+        }
+    }
+
+    /**
+     * Counts of non-negative values in buckets [0], [1], [2, 3], [4, 7], ..
+     */
+    private static class Histogram
+    {
+        private final int[] buckets = new int[65];
+        private int count = 0;
+        private long max = 0;
+
+        synchronized void add(long value)
+        {
+            if (value < 0)
+            {
+                value = 0;
+            }
+
+            ++buckets[bitLength(value)];
+            ++count;
+            if (value > max)
+            {
+                max = value;
+            }
+        }
+
+        synchronized long getPercentile(int percentile)
+        {
+            if (percentile < 0 || percentile > 100)
+            {
+                throw new IllegalArgumentException("'percentile' must be from 0 to 100");
+            }
+            if (count == 0)
+            {
+                return 0;
+            }
+
+            // The smallest rank (1-based) with at least 'percentile' percent of values at or below it
+            long rank = Math.max(1, ((long)count * percentile + 99) / 100);
+
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i)
+            {
+                seen += buckets[i];
+                if (seen >= rank)
+                {
+                    long upper = i == 0 ? 0 : (i >= 64 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+
+        synchronized void dump(PrintStream out, String name)
+        {
+            if (count == 0)
+            {
+                return;
+            }
+
+            StringBuffer sb = new StringBuffer(name);
+            sb.append(": count=").append(count);
+            for (int i = 0; i < PERCENTILES.length; ++i)
+            {
+                sb.append(" p").append(PERCENTILES[i]).append("<=").append(getPercentile(PERCENTILES[i]));
+            }
+            sb.append(" max=").append(max);
+            out.println(sb.toString());
+        }
+
+        synchronized void reset()
+        {
+            for (int i = 0; i < buckets.length; ++i)
+            {
+                buckets[i] = 0;
+            }
+            count = 0;
+            max = 0;
+        }
+
+        private static int bitLength(long value)
+        {
+            int n = 0;
+            if ((value >>> 32) != 0)
+            {
+                value >>>= 32;
+                n += 32;
+            }
+            if ((value >>> 16) != 0)
+            {
+                value >>>= 16;
+                n += 16;
+            }
+            if ((value >>> 8) != 0)
+            {
+                value >>>= 8;
+                n += 8;
+            }
+            if ((value >>> 4) != 0)
+            {
+                value >>>= 4;
+                n += 4;
+            }
+            if ((value >>> 2) != 0)
+            {
+                value >>>= 2;
+                n += 2;
+            }
+            if ((value >>> 1) != 0)
+            {
+                value >>>= 1;
+                n += 1;
+            }
+            return n + (int)value;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.bouncycastle.crypto.tls;
+
+/**
+ * Receives timing and size information from a {@link TlsProtocolHandler} and its record
+ * layer, see {@link TlsProtocolHandler#setMetricsListener(TlsMetricsListener)}.
+ * <p/>
+ * All times come from {@link #currentTime()}, so the listener decides on the clock and its
+ * unit. The notifications are made on the thread driving the connection and should return
+ * quickly; one listener may be shared by several handlers.
+ */
+public interface TlsMetricsListener
+{
+    /**
+     * @return The current time of a clock that never goes backwards, e.g. System.nanoTime()
+     *         where it is available.
+     */
+    long currentTime();
+
+    /**
+     * The handshake moved on to a new state. The first notification of a handshake has
+     * previousState 0 and marks the start of the ClientHello, i.e. it includes the Telex
+     * tag generation.
+     *
+     * @param previousState The state left, see {@link TlsProtocolHandler#getStateName(short)}.
+     * @param previousTime The time the previous state was entered.
+     * @param state The state entered.
+     * @param time The time the state was entered.
+     */
+    void notifyStateChanged(short previousState, long previousTime, short state, long time);
+
+    /**
+     * A record was read and decrypted.
+     *
+     * @param type The {@link ContentType} of the record.
+     * @param length The length of the record fragment, as received.
+     * @param cipherTime The time spent in the {@link TlsCipher}, i.e. decryption and MAC
+     *            verification together.
+     */
+    void notifyRecordRead(short type, int length, long cipherTime);
+
+    /**
+     * A record was encrypted for sending.
+     *
+     * @param type The {@link ContentType} of the record.
+     * @param length The length of the record fragment, as sent.
+     * @param cipherTime The time spent in the {@link TlsCipher}, i.e. MAC calculation and
+     *            encryption together.
+     */
+    void notifyRecordWritten(short type, int length, long cipherTime);
+
+    /**
+     * The number of bytes waiting in the handler's queues, after a record was processed.
+     *
+     * @param inputQueue Received bytes not yet making up a complete record (non-blocking mode
+     *            only, 0 otherwise).
+     * @param handshakeQueue Received bytes not yet making up a complete handshake message.
+     * @param applicationDataQueue Application data not yet read by the application.
+     * @param outputQueue Bytes waiting to be sent (non-blocking mode only, 0 otherwise).
+     */
+    void notifyQueueDepths(int inputQueue, int handshakeQueue, int applicationDataQueue, int outputQueue);
+}
@@ -2,23 +2,89 @@ package org.bouncycastle.crypto.tls;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * An OutputStream for an TLS connection.
+ * <p/>
+ * By default every write() goes out as its own record(s). With coalescing turned on (see
+ * {@link TlsProtocolHandler#setWriteCoalescing(int, long)}) writes are gathered into full
+ * records, and the network is only flushed on flush(), close() or when the delay runs out.
+ * <p/>
+ * Closing the stream only closes the sending half of the connection, see
+ * {@link TlsProtocolHandler#shutdownOutput()}.
  */
 class TlsOutputStream extends OutputStream
 {
+    /*
+     * One timer thread runs the delayed flushes of all streams. MIDP's Timer cannot be made a
+     * daemon, so instead the thread is stopped once no flush has been pending for this long,
+     * and never keeps a process alive.
+     */
+    private static final long TIMER_IDLE_MILLIS = 1000;
+
+    private static Timer timer = null;
+    private static int pendingDeadlines = 0;
+
     private byte[] buf = new byte[1];
     private TlsProtocolHandler handler;
 
+    private byte[] pending = null;
+    private int pendingLen = 0;
+    private long maxDelay = 0;
+    private TimerTask deadline = null;
+
     TlsOutputStream(TlsProtocolHandler handler)
     {
         this.handler = handler;
     }
 
-    public void write(byte buf[], int offset, int len) throws IOException
+    synchronized void setCoalescing(int recordSize, long maxDelayMillis) throws IOException
+    {
+        flushPending(true);
+
+        this.pending = recordSize > 0 ? new byte[recordSize] : null;
+        this.maxDelay = maxDelayMillis;
+    }
+
+    public synchronized void write(byte buf[], int offset, int len) throws IOException
     {
-        this.handler.writeData(buf, offset, len);
+        if (pending == null)
+        {
+            this.handler.writeData(buf, offset, len);
+            return;
+        }
+
+        /*
+         * Whole records can go straight from the caller's buffer.
+         */
+        if (pendingLen == 0 && len >= pending.length)
+        {
+            int direct = len - (len % pending.length);
+            this.handler.writeData(buf, offset, direct, pending.length, false);
+            offset += direct;
+            len -= direct;
+        }
+
+        while (len > 0)
+        {
+            int count = Math.min(len, pending.length - pendingLen);
+            System.arraycopy(buf, offset, pending, pendingLen, count);
+            pendingLen += count;
+            offset += count;
+            len -= count;
+
+            if (pendingLen == pending.length)
+            {
+                flushPending(false);
+            }
+        }
+
+        if (pendingLen > 0 && maxDelay > 0 && deadline == null)
+        {
+            scheduleDeadline();
+        }
     }
 
     public void write(int arg0) throws IOException
@@ -29,11 +95,119 @@ class TlsOutputStream extends OutputStream
 
     public void close() throws IOException
     {
-        handler.close();
+        synchronized (this)
+        {
+            flushPending(true);
+        }
+        handler.shutdownOutput();
     }
 
-    public void flush() throws IOException
+    public synchronized void flush() throws IOException
     {
+        flushPending(false);
         handler.flush();
     }
+
+    /**
+     * The connection has failed or been closed, so a pending delayed flush can only fail;
+     * drop it now rather than leave it to the timer. Called by the handler, which may hold
+     * its own locks, so this does not wait for the stream's.
+     */
+    void cancelDeadline()
+    {
+        TimerTask task = deadline;
+        if (task != null && task.cancel())
+        {
+            deadlineDone();
+        }
+    }
+
+    private void flushPending(boolean flush) throws IOException
+    {
+        if (deadline != null)
+        {
+            if (deadline.cancel())
+            {
+                deadlineDone();
+            }
+            deadline = null;
+        }
+
+        if (pendingLen > 0)
+        {
+            int len = pendingLen;
+            pendingLen = 0;
+            this.handler.writeData(pending, 0, len, pending.length, flush);
+        }
+    }
+
+    private void scheduleDeadline()
+    {
+        deadline = new TimerTask()
+        {
+            public void run()
+            {
+                deadlineDone();
+
+                synchronized (TlsOutputStream.this)
+                {
+                    if (deadline != this)
+                    {
+                        return;
+                    }
+                    deadline = null;
+
+                    try
+                    {
+                        flush();
+                    }
+                    catch (IOException e)
+                    {
+                        /*
+                         * The handler is closed now; the next write() or flush() will
+                         * report the failure to the application.
+                         */
+                    }
+                }
+            }
+        };
+        schedule(deadline, maxDelay);
+    }
+
+    private static synchronized void schedule(TimerTask task, long delay)
+    {
+        if (timer == null)
+        {
+            timer = new Timer();
+        }
+        timer.schedule(task, delay);
+        ++pendingDeadlines;
+    }
+
+    /**
+     * A deadline ran or was cancelled before running; called exactly once for each.
+     */
+    private static synchronized void deadlineDone()
+    {
+        if (--pendingDeadlines == 0)
+        {
+            final Timer idle = timer;
+            idle.schedule(new TimerTask()
+            {
+                public void run()
+                {
+                    stopIfIdle(idle);
+                }
+            }, TIMER_IDLE_MILLIS);
+        }
+    }
+
+    private static synchronized void stopIfIdle(Timer idle)
+    {
+        if (pendingDeadlines == 0 && timer == idle)
+        {
+            timer.cancel();
+            timer = null;
+        }
+    }
 }
@@ -19,7 +19,7 @@ import org.bouncycastle.util.Arrays;
 import telexme.tag.TagGenerator;
 
 /**
- * An implementation of all high level protocols in TLS 1.0.
+ * An implementation of all high level protocols in TLS 1.0, 1.1 and 1.2.
  */
 public class TlsProtocolHandler
 {
@@ -43,6 +43,11 @@ public class TlsProtocolHandler
 
     private static final byte[] emptybuf = new byte[0];
 
+    /**
+     * The largest amount of plaintext allowed in one record (RFC 2246 6.2.1).
+     */
+    public static final int MAX_FRAGMENT_LENGTH = 1 << 14;
+
     private static final String TLS_ERROR_MESSAGE = "Internal TLS error, this could be an attack";
 
     /*
@@ -64,6 +69,13 @@ public class TlsProtocolHandler
 
     private boolean closed = false;
     private boolean failedWithError = false;
+    private boolean outputShutdown = false;
+
+    /*
+     * The InputStream and OutputStream may be used from different threads; records are
+     * written under this lock so their order matches their sequence numbers.
+     */
+    private final Object writeLock = new Object();
     private boolean appDataReady = false;
     private Hashtable clientExtensions;
 
@@ -79,6 +91,32 @@ public class TlsProtocolHandler
 
     private short connection_state = 0;
 
+    /*
+     * Write coalescing for the application data OutputStream, see setWriteCoalescing()
+     */
+    private int coalesceRecordSize = 0;
+    private long coalesceMaxDelay = 0;
+
+    private boolean falseStartEnabled = false;
+
+    /*
+     * Telex: the IPv4 address of the server, the start of the tag context. The default is
+     * notblocked.telex.cc.
+     */
+    private byte[] tagContextAddress = new byte[]{ (byte)141, (byte)212, (byte)109, (byte)161 };
+
+    private CertificateCache certificateCache = null;
+
+    private TlsMetricsListener metricsListener = null;
+    private long connectionStateTime = 0;
+
+    /*
+     * Non-blocking mode (see TlsClientEngine): records are read from inputBuffer once they
+     * are complete, and everything sent is left in outputBuffer.
+     */
+    private ByteQueue inputBuffer = null;
+    private ByteQueueOutputStream outputBuffer = null;
+
     private static SecureRandom createSecureRandom()
     {
         /*
@@ -107,6 +145,22 @@ public class TlsProtocolHandler
         this.random = sr;
     }
 
+    /**
+     * Create a handler in non-blocking mode, driven through offerInput() and readOutput().
+     */
+    TlsProtocolHandler(SecureRandom sr)
+    {
+        this.inputBuffer = new ByteQueue();
+        this.outputBuffer = new ByteQueueOutputStream();
+        this.rs = new RecordStream(this, null, outputBuffer);
+        this.random = sr;
+    }
+
+    TlsProtocolHandler()
+    {
+        this(createSecureRandom());
+    }
+
     protected void processData(short protocol, byte[] buf, int offset, int len) throws IOException
     {
         /*
@@ -141,6 +195,64 @@ public class TlsProtocolHandler
                  * RFC2246 defines on page 13, that we should ignore this.
                  */
         }
+
+        if (metricsListener != null)
+        {
+            metricsListener.notifyQueueDepths(inputBuffer == null ? 0 : inputBuffer.size(),
+                handshakeQueue.size(), applicationDataQueue.size(),
+                outputBuffer == null ? 0 : outputBuffer.getBuffer().size());
+        }
+    }
+
+    private void setConnectionState(short state)
+    {
+        if (metricsListener != null)
+        {
+            long time = metricsListener.currentTime();
+            metricsListener.notifyStateChanged(connection_state, connectionStateTime, state, time);
+            this.connectionStateTime = time;
+        }
+
+        this.connection_state = state;
+    }
+
+    /**
+     * @param state A handshake state, as passed to a {@link TlsMetricsListener}.
+     * @return A name for the state, for logging.
+     */
+    public static String getStateName(short state)
+    {
+        switch (state)
+        {
+            case 0:
+                return "START";
+            case CS_CLIENT_HELLO_SEND:
+                return "CLIENT_HELLO_SEND";
+            case CS_SERVER_HELLO_RECEIVED:
+                return "SERVER_HELLO_RECEIVED";
+            case CS_SERVER_CERTIFICATE_RECEIVED:
+                return "SERVER_CERTIFICATE_RECEIVED";
+            case CS_SERVER_KEY_EXCHANGE_RECEIVED:
+                return "SERVER_KEY_EXCHANGE_RECEIVED";
+            case CS_CERTIFICATE_REQUEST_RECEIVED:
+                return "CERTIFICATE_REQUEST_RECEIVED";
+            case CS_SERVER_HELLO_DONE_RECEIVED:
+                return "SERVER_HELLO_DONE_RECEIVED";
+            case CS_CLIENT_KEY_EXCHANGE_SEND:
+                return "CLIENT_KEY_EXCHANGE_SEND";
+            case CS_CERTIFICATE_VERIFY_SEND:
+                return "CERTIFICATE_VERIFY_SEND";
+            case CS_CLIENT_CHANGE_CIPHER_SPEC_SEND:
+                return "CLIENT_CHANGE_CIPHER_SPEC_SEND";
+            case CS_CLIENT_FINISHED_SEND:
+                return "CLIENT_FINISHED_SEND";
+            case CS_SERVER_CHANGE_CIPHER_SPEC_RECEIVED:
+                return "SERVER_CHANGE_CIPHER_SPEC_RECEIVED";
+            case CS_DONE:
+                return "DONE";
+            default:
+                return "UNKNOWN(" + state + ")";
+        }
     }
 
     private void processHandshake() throws IOException
@@ -214,14 +326,43 @@ public class TlsProtocolHandler
                     {
                         // Parse the Certificate message and send to cipher suite
 
-                        Certificate serverCertificate = Certificate.parse(is);
+                        CertificateCache.Entry cached = null;
+                        Certificate serverCertificate;
+                        if (certificateCache != null)
+                        {
+                            cached = certificateCache.get(buf);
+                            serverCertificate = cached.getCertificate();
+                        }
+                        else
+                        {
+                            serverCertificate = Certificate.parse(is);
 
-                        assertEmpty(is);
+                            assertEmpty(is);
+                        }
 
                         this.keyExchange.processServerCertificate(serverCertificate);
 
                         this.authentication = tlsClient.getAuthentication();
-                        this.authentication.notifyServerCertificate(serverCertificate);
+
+                        /*
+                         * A chain that this verifier has accepted before is not checked
+                         * again.
+                         */
+                        Object verifier = authentication;
+                        if (authentication instanceof LegacyTlsAuthentication)
+                        {
+                            verifier = ((LegacyTlsAuthentication)authentication).verifyer;
+                        }
+
+                        if (cached == null || !cached.isAcceptedBy(verifier))
+                        {
+                            this.authentication.notifyServerCertificate(serverCertificate);
+
+                            if (cached != null)
+                            {
+                                cached.setAcceptedBy(verifier);
+                            }
+                        }
 
                         break;
                     }
@@ -229,7 +370,7 @@ public class TlsProtocolHandler
                         this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
                 }
 
-                connection_state = CS_SERVER_CERTIFICATE_RECEIVED;
+                setConnectionState(CS_SERVER_CERTIFICATE_RECEIVED);
                 break;
             }
             case HandshakeType.finished:
@@ -265,7 +406,7 @@ public class TlsProtocolHandler
                             this.failWithError(AlertLevel.fatal, AlertDescription.handshake_failure);
                         }
 
-                        connection_state = CS_DONE;
+                        setConnectionState(CS_DONE);
 
                         /*
                          * We are now ready to receive application data.
@@ -293,6 +434,12 @@ public class TlsProtocolHandler
                         this.tlsClientContext.setServerVersion(server_version);
                         this.tlsClient.notifyServerVersion(server_version);
 
+                        /*
+                         * From here on, all records must carry the negotiated version.
+                         */
+                        rs.setReadVersion(server_version);
+                        rs.setWriteVersion(server_version);
+
                         /*
                          * Read the server random
                          */
@@ -313,7 +460,9 @@ public class TlsProtocolHandler
                          */
                         int selectedCipherSuite = TlsUtils.readUint16(is);
                         if (!arrayContains(offeredCipherSuites, selectedCipherSuite)
-                            || selectedCipherSuite == CipherSuite.TLS_EMPTY_RENEGOTIATION_INFO_SCSV)
+                            || selectedCipherSuite == CipherSuite.TLS_EMPTY_RENEGOTIATION_INFO_SCSV
+                            || !TlsUtils.isValidCipherSuiteForVersion(selectedCipherSuite,
+                                tlsClientContext.getServerVersion()))
                         {
                             this.failWithError(AlertLevel.fatal, AlertDescription.illegal_parameter);
                         }
@@ -447,7 +596,7 @@ public class TlsProtocolHandler
 
                         this.keyExchange = tlsClient.getKeyExchange();
 
-                        connection_state = CS_SERVER_HELLO_RECEIVED;
+                        setConnectionState(CS_SERVER_HELLO_RECEIVED);
                         break;
                     default:
                         this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
@@ -476,103 +625,21 @@ public class TlsProtocolHandler
 
                         assertEmpty(is);
 
-                        connection_state = CS_SERVER_HELLO_DONE_RECEIVED;
-
-                        TlsCredentials clientCreds = null;
-                        if (certificateRequest == null)
-                        {
-                            this.keyExchange.skipClientCredentials();
-                        }
-                        else
-                        {
-                            clientCreds = this.authentication.getClientCredentials(certificateRequest);
-
-                            if (clientCreds == null)
-                            {
-                                this.keyExchange.skipClientCredentials();
-
-                                boolean isTls = tlsClientContext.getServerVersion().getFullVersion() >= ProtocolVersion.TLSv10.getFullVersion();
-
-                                if (isTls)
-                                {
-                                    sendClientCertificate(Certificate.EMPTY_CHAIN);
-                                }
-                                else
-                                {
-                                    sendAlert(AlertLevel.warning, AlertDescription.no_certificate);
-                                }
-                            }
-                            else
-                            {
-                                this.keyExchange.processClientCredentials(clientCreds);
-
-                                sendClientCertificate(clientCreds.getCertificate());
-                            }
-                        }
+                        setConnectionState(CS_SERVER_HELLO_DONE_RECEIVED);
 
                         /*
-                         * Send the client key exchange message, depending on the key
-                         * exchange we are using in our CipherSuite.
+                         * Our whole reply goes out as one flight, see RecordStream.beginFlight()
                          */
-                        sendClientKeyExchange();
-
-                        connection_state = CS_CLIENT_KEY_EXCHANGE_SEND;
-
-                        /*
-                         * Calculate the master_secret
-                         */
-                        byte[] pms = this.keyExchange.generatePremasterSecret();
-
-                        securityParameters.masterSecret = TlsUtils.calculateMasterSecret(
-                            this.tlsClientContext, pms);
-
-                        // TODO Is there a way to ensure the data is really overwritten?
-                        /*
-                         * RFC 2246 8.1. The pre_master_secret should be deleted from
-                         * memory once the master_secret has been computed.
-                         */
-                        Arrays.fill(pms, (byte)0);
-
-                        if (clientCreds != null && clientCreds instanceof TlsSignerCredentials)
+                        rs.beginFlight();
+                        try
                         {
-                            TlsSignerCredentials signerCreds = (TlsSignerCredentials)clientCreds;
-                            byte[] md5andsha1 = rs.getCurrentHash(null);
-                            byte[] clientCertificateSignature = signerCreds.generateCertificateSignature(
-                                md5andsha1);
-                            sendCertificateVerify(clientCertificateSignature);
-
-                            connection_state = CS_CERTIFICATE_VERIFY_SEND;
+                            sendClientFlight();
+                            rs.endFlight();
+                        }
+                        finally
+                        {
+                            rs.cancelFlight();
                         }
-
-                        /*
-                         * Now, we send change cipher state
-                         */
-                        byte[] cmessage = new byte[1];
-                        cmessage[0] = 1;
-                        rs.writeMessage(ContentType.change_cipher_spec, cmessage, 0,
-                            cmessage.length);
-
-                        connection_state = CS_CLIENT_CHANGE_CIPHER_SPEC_SEND;
-
-                        /*
-                         * Initialize our cipher suite
-                         */
-                        rs.clientCipherSpecDecided(tlsClient.getCompression(), tlsClient.getCipher());
-
-                        /*
-                         * Send our finished message.
-                         */
-                        byte[] clientVerifyData = TlsUtils.calculateVerifyData(tlsClientContext,
-                            "client finished", rs.getCurrentHash(TlsUtils.SSL_CLIENT));
-
-                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                        TlsUtils.writeUint8(HandshakeType.finished, bos);
-                        TlsUtils.writeOpaque24(clientVerifyData, bos);
-                        byte[] message = bos.toByteArray();
-
-                        rs.writeMessage(ContentType.handshake, message, 0, message.length);
-
-                        this.connection_state = CS_CLIENT_FINISHED_SEND;
                         break;
                     default:
                         this.failWithError(AlertLevel.fatal, AlertDescription.handshake_failure);
@@ -601,7 +668,7 @@ public class TlsProtocolHandler
                         this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
                 }
 
-                this.connection_state = CS_SERVER_KEY_EXCHANGE_RECEIVED;
+                setConnectionState(CS_SERVER_KEY_EXCHANGE_RECEIVED);
                 break;
             }
             case HandshakeType.certificate_request:
@@ -633,6 +700,13 @@ public class TlsProtocolHandler
                             certificateTypes[i] = TlsUtils.readUint8(is);
                         }
 
+                        Vector supportedSignatureAlgorithms = null;
+                        if (TlsUtils.isTLSv12(tlsClientContext))
+                        {
+                            // RFC 5246 7.4.4. The hash/signature algorithm pairs the server can verify
+                            supportedSignatureAlgorithms = TlsUtils.parseSupportedSignatureAlgorithms(is);
+                        }
+
                         byte[] authorities = TlsUtils.readOpaque16(is);
 
                         assertEmpty(is);
@@ -647,7 +721,7 @@ public class TlsProtocolHandler
                         }
 
                         this.certificateRequest = new CertificateRequest(certificateTypes,
-                            authorityDNs);
+                            supportedSignatureAlgorithms, authorityDNs);
                         this.keyExchange.validateCertificateRequest(this.certificateRequest);
 
                         break;
@@ -656,7 +730,7 @@ public class TlsProtocolHandler
                         this.failWithError(AlertLevel.fatal, AlertDescription.unexpected_message);
                 }
 
-                this.connection_state = CS_CERTIFICATE_REQUEST_RECEIVED;
+                setConnectionState(CS_CERTIFICATE_REQUEST_RECEIVED);
                 break;
             }
             case HandshakeType.hello_request:
@@ -712,6 +786,7 @@ public class TlsProtocolHandler
                  */
                 this.failedWithError = true;
                 this.closed = true;
+                cancelDelayedFlush();
                 /*
                  * Now try to close the stream, ignore errors.
                  */
@@ -778,10 +853,126 @@ public class TlsProtocolHandler
 
             rs.serverClientSpecReceived();
 
-            this.connection_state = CS_SERVER_CHANGE_CIPHER_SPEC_RECEIVED;
+            setConnectionState(CS_SERVER_CHANGE_CIPHER_SPEC_RECEIVED);
         }
     }
 
+    /**
+     * Send our reply to the server's hello flight: the optional Certificate,
+     * ClientKeyExchange and CertificateVerify, ChangeCipherSpec and Finished.
+     */
+    private void sendClientFlight() throws IOException
+    {
+        TlsCredentials clientCreds = null;
+        if (certificateRequest == null)
+        {
+            this.keyExchange.skipClientCredentials();
+        }
+        else
+        {
+            clientCreds = this.authentication.getClientCredentials(certificateRequest);
+
+            if (clientCreds == null)
+            {
+                this.keyExchange.skipClientCredentials();
+
+                boolean isTls = tlsClientContext.getServerVersion().getFullVersion() >= ProtocolVersion.TLSv10.getFullVersion();
+
+                if (isTls)
+                {
+                    sendClientCertificate(Certificate.EMPTY_CHAIN);
+                }
+                else
+                {
+                    sendAlert(AlertLevel.warning, AlertDescription.no_certificate);
+                }
+            }
+            else
+            {
+                this.keyExchange.processClientCredentials(clientCreds);
+
+                sendClientCertificate(clientCreds.getCertificate());
+            }
+        }
+
+        /*
+         * Send the client key exchange message, depending on the key
+         * exchange we are using in our CipherSuite.
+         */
+        sendClientKeyExchange();
+
+        setConnectionState(CS_CLIENT_KEY_EXCHANGE_SEND);
+
+        /*
+         * Calculate the master_secret
+         */
+        byte[] pms = this.keyExchange.generatePremasterSecret();
+
+        securityParameters.masterSecret = TlsUtils.calculateMasterSecret(
+            this.tlsClientContext, pms);
+
+        // TODO Is there a way to ensure the data is really overwritten?
+        /*
+         * RFC 2246 8.1. The pre_master_secret should be deleted from
+         * memory once the master_secret has been computed.
+         */
+        Arrays.fill(pms, (byte)0);
+
+        if (clientCreds != null && clientCreds instanceof TlsSignerCredentials)
+        {
+            TlsSignerCredentials signerCreds = (TlsSignerCredentials)clientCreds;
+
+            if (TlsUtils.isTLSv12(tlsClientContext))
+            {
+                SignatureAndHashAlgorithm signatureAlgorithm = chooseCertificateVerifyAlgorithm(
+                    signerCreds.getSignatureAlgorithm());
+                byte[] hash = rs.getCurrentHash(signatureAlgorithm.getHash());
+                byte[] clientCertificateSignature = signerCreds.generateCertificateSignature(
+                    signatureAlgorithm, hash);
+                sendCertificateVerify(signatureAlgorithm, clientCertificateSignature);
+            }
+            else
+            {
+                byte[] md5andsha1 = rs.getCurrentHash(null);
+                byte[] clientCertificateSignature = signerCreds.generateCertificateSignature(
+                    md5andsha1);
+                sendCertificateVerify(null, clientCertificateSignature);
+            }
+
+            setConnectionState(CS_CERTIFICATE_VERIFY_SEND);
+        }
+
+        /*
+         * Now, we send change cipher state
+         */
+        byte[] cmessage = new byte[1];
+        cmessage[0] = 1;
+        rs.writeMessage(ContentType.change_cipher_spec, cmessage, 0,
+            cmessage.length);
+
+        setConnectionState(CS_CLIENT_CHANGE_CIPHER_SPEC_SEND);
+
+        /*
+         * Initialize our cipher suite
+         */
+        rs.clientCipherSpecDecided(tlsClient.getCompression(), tlsClient.getCipher());
+
+        /*
+         * Send our finished message.
+         */
+        byte[] clientVerifyData = TlsUtils.calculateVerifyData(tlsClientContext,
+            "client finished", rs.getCurrentHash(TlsUtils.SSL_CLIENT));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TlsUtils.writeUint8(HandshakeType.finished, bos);
+        TlsUtils.writeOpaque24(clientVerifyData, bos);
+        byte[] message = bos.toByteArray();
+
+        rs.writeMessage(ContentType.handshake, message, 0, message.length);
+
+        setConnectionState(CS_CLIENT_FINISHED_SEND);
+    }
+
     private void sendClientCertificate(Certificate clientCert) throws IOException
     {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -817,7 +1008,8 @@ public class TlsProtocolHandler
         rs.writeMessage(ContentType.handshake, message, 0, message.length);
     }
 
-    private void sendCertificateVerify(byte[] data) throws IOException
+    private void sendCertificateVerify(SignatureAndHashAlgorithm signatureAlgorithm, byte[] data)
+        throws IOException
     {
         /*
          * Send signature of handshake messages so far to prove we are the owner of the
@@ -825,13 +1017,49 @@ public class TlsProtocolHandler
          */
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         TlsUtils.writeUint8(HandshakeType.certificate_verify, bos);
-        TlsUtils.writeUint24(data.length + 2, bos);
+
+        // Reserve space for length
+        TlsUtils.writeUint24(0, bos);
+
+        /*
+         * RFC 5246 4.7. In TLS 1.2 a digitally-signed element names its algorithms.
+         */
+        if (signatureAlgorithm != null)
+        {
+            signatureAlgorithm.encode(bos);
+        }
         TlsUtils.writeOpaque16(data, bos);
         byte[] message = bos.toByteArray();
 
+        // Patch actual length back in
+        TlsUtils.writeUint24(message.length - 4, message, 1);
+
         rs.writeMessage(ContentType.handshake, message, 0, message.length);
     }
 
+    /**
+     * RFC 5246 7.4.8. Pick the hash for the CertificateVerify signature from the algorithms
+     * the server listed in its CertificateRequest. Only hashes that RecordStream keeps a
+     * running copy of can be used.
+     */
+    private SignatureAndHashAlgorithm chooseCertificateVerifyAlgorithm(short signatureAlgorithm)
+        throws IOException
+    {
+        Vector supported = certificateRequest.getSupportedSignatureAlgorithms();
+        short[] preferredHashes = new short[] { HashAlgorithm.sha256, HashAlgorithm.sha1 };
+        for (int i = 0; i < preferredHashes.length; ++i)
+        {
+            SignatureAndHashAlgorithm candidate = new SignatureAndHashAlgorithm(preferredHashes[i],
+                signatureAlgorithm);
+            if (supported != null && supported.contains(candidate))
+            {
+                return candidate;
+            }
+        }
+
+        throw new TlsFatalAlert(AlertDescription.handshake_failure);
+    }
+
     /**
      * Connects to the remote system.
      * 
@@ -853,6 +1081,36 @@ public class TlsProtocolHandler
      * @throws IOException If handshake was not successful.
      */
     public void connect(TlsClient tlsClient) throws IOException
+    {
+        beginHandshake(tlsClient);
+
+        /*
+         * We will now read data, until we have completed the handshake.
+         */
+        while (connection_state != CS_DONE)
+        {
+            if (connection_state == CS_CLIENT_FINISHED_SEND && isFalseStartAllowed())
+            {
+                /*
+                 * The server's ChangeCipherSpec and Finished are read (and checked) by the
+                 * first read from the InputStream, before any application data is
+                 * delivered.
+                 */
+                break;
+            }
+
+            safeReadData();
+        }
+
+        this.tlsInputStream = new TlsInputStream(this);
+        this.tlsOutputStream = new TlsOutputStream(this);
+        this.tlsOutputStream.setCoalescing(coalesceRecordSize, coalesceMaxDelay);
+    }
+
+    /**
+     * Send the ClientHello; the rest of the handshake is driven by the server's replies.
+     */
+    void beginHandshake(TlsClient tlsClient) throws IOException
     {
         if (tlsClient == null)
         {
@@ -863,6 +1121,11 @@ public class TlsProtocolHandler
             throw new IllegalStateException("connect can only be called once");
         }
 
+        if (metricsListener != null)
+        {
+            this.connectionStateTime = metricsListener.currentTime();
+        }
+
         /*
          * Send Client hello
          * 
@@ -875,9 +1138,7 @@ public class TlsProtocolHandler
         
         // Telex: construct context string and run gen_tag()
         byte[] context = new byte[9];
-        // TODO: remove harcoded ip address of notblocked.telex.cc
-        context[0] = (byte) 141; context[1] = (byte) 212;
-        context[2] = (byte) 109; context[3] = (byte) 161;
+        System.arraycopy(tagContextAddress, 0, context, 0, 4);
         // TlsUtils.writeGMTUnixTime(context, 4); // timestamp may be different between calls, use previous one
         System.arraycopy(securityParameters.clientRandom, 0, context, 4, 4);
         context[8] = 0; // session ID, Telex doesn't support reneg so leave it as 0
@@ -974,18 +1235,7 @@ public class TlsProtocolHandler
 
         safeWriteMessage(ContentType.handshake, message, 0, message.length);
 
-        connection_state = CS_CLIENT_HELLO_SEND;
-
-        /*
-         * We will now read data, until we have completed the handshake.
-         */
-        while (connection_state != CS_DONE)
-        {
-            safeReadData();
-        }
-
-        this.tlsInputStream = new TlsInputStream(this);
-        this.tlsOutputStream = new TlsOutputStream(this);
+        setConnectionState(CS_CLIENT_HELLO_SEND);
     }
 
     /**
@@ -1030,11 +1280,22 @@ public class TlsProtocolHandler
         return len;
     }
 
-    private void safeReadData() throws IOException
+    /**
+     * Read and process one record.
+     * 
+     * @return false if in non-blocking mode and no complete record was buffered.
+     */
+    private boolean safeReadData() throws IOException
     {
         try
         {
-            rs.readData();
+            if (inputBuffer == null)
+            {
+                rs.readData();
+                return true;
+            }
+
+            return rs.readRecord(inputBuffer);
         }
         catch (TlsFatalAlert e)
         {
@@ -1063,10 +1324,19 @@ public class TlsProtocolHandler
     }
 
     private void safeWriteMessage(short type, byte[] buf, int offset, int len) throws IOException
+    {
+        safeWriteMessage(type, buf, offset, len, true);
+    }
+
+    private void safeWriteMessage(short type, byte[] buf, int offset, int len, boolean flush)
+        throws IOException
     {
         try
         {
-            rs.writeMessage(type, buf, offset, len);
+            synchronized (writeLock)
+            {
+                rs.writeMessage(type, buf, offset, len, flush);
+            }
         }
         catch (TlsFatalAlert e)
         {
@@ -1105,6 +1375,24 @@ public class TlsProtocolHandler
      * @throws IOException If something goes wrong during sending.
      */
     protected void writeData(byte[] buf, int offset, int len) throws IOException
+    {
+        writeData(buf, offset, len, MAX_FRAGMENT_LENGTH, true);
+    }
+
+    /**
+     * Send some application data to the remote system.
+     * <p/>
+     * The method will handle fragmentation internally.
+     * 
+     * @param buf The buffer with the data.
+     * @param offset The position in the buffer where the data is placed.
+     * @param len The length of the data.
+     * @param fragmentLength The largest amount of data to put in one record.
+     * @param flush Whether the records should be flushed to the network before returning.
+     * @throws IOException If something goes wrong during sending.
+     */
+    protected void writeData(byte[] buf, int offset, int len, int fragmentLength, boolean flush)
+        throws IOException
     {
         if (this.closed)
         {
@@ -1116,27 +1404,253 @@ public class TlsProtocolHandler
             throw new IOException("Sorry, connection has been closed, you cannot write more data");
         }
 
+        if (this.outputShutdown)
+        {
+            throw new IOException("Sorry, output has been shut down, you cannot write more data");
+        }
+
         /*
          * Protect against known IV attack!
          * 
-         * DO NOT REMOVE THIS LINE, EXCEPT YOU KNOW EXACTLY WHAT YOU ARE DOING HERE.
+         * DO NOT REMOVE THIS, EXCEPT YOU KNOW EXACTLY WHAT YOU ARE DOING HERE.
+         * 
+         * With TLS 1.0 the IV of a CBC record is the last ciphertext block of the previous
+         * one. Sending the first byte in a record of its own (1/n-1 record splitting) means
+         * the first block of what follows is mostly MAC, which an attacker cannot choose.
+         * Unlike an empty record this costs no extra cipher block for the data itself.
+         * 
+         * From TLS 1.1 onwards every record has its own explicit IV, so no split is needed.
          */
-        safeWriteMessage(ContentType.application_data, emptybuf, 0, 0);
+        if (len > 1 && !TlsUtils.isTLSv11(tlsClientContext))
+        {
+            safeWriteMessage(ContentType.application_data, buf, offset, 1, false);
+
+            ++offset;
+            --len;
+        }
 
         do
         {
             /*
              * We are only allowed to write fragments up to 2^14 bytes.
              */
-            int toWrite = Math.min(len, 1 << 14);
+            int toWrite = Math.min(len, Math.min(fragmentLength, MAX_FRAGMENT_LENGTH));
 
-            safeWriteMessage(ContentType.application_data, buf, offset, toWrite);
+            safeWriteMessage(ContentType.application_data, buf, offset, toWrite, false);
 
             offset += toWrite;
             len -= toWrite;
         }
         while (len > 0);
 
+        if (flush)
+        {
+            this.flush();
+        }
+    }
+
+    /**
+     * Enable TLS False Start: connect() returns as soon as the client Finished has been
+     * sent, so the application can send its first data without waiting for the server's
+     * Finished.
+     * <p/>
+     * This is only done if a forward-secret (DHE or ECDHE) key exchange was negotiated,
+     * otherwise connect() waits for the full handshake as usual. The server's Finished is
+     * verified on the first read from the InputStream; no application data is returned
+     * before it has been checked.
+     * 
+     * @param enabled Whether False Start may be used, off by default.
+     */
+    public void setFalseStart(boolean enabled)
+    {
+        if (this.tlsClient != null)
+        {
+            throw new IllegalStateException("False Start must be set before connect");
+        }
+
+        this.falseStartEnabled = enabled;
+    }
+
+    /**
+     * Telex: set the IPv4 address of the server connected to, which the tag is bound to.
+     * The default is the address of notblocked.telex.cc.
+     * 
+     * @param address The 4 bytes of the address, most significant first.
+     */
+    public void setTagContextAddress(byte[] address)
+    {
+        if (address == null || address.length != 4)
+        {
+            throw new IllegalArgumentException("'address' must be an IPv4 address");
+        }
+        if (this.tlsClient != null)
+        {
+            throw new IllegalStateException("tag context address must be set before connect");
+        }
+
+        this.tagContextAddress = Arrays.clone(address);
+    }
+
+    /**
+     * Use a cache for the server's certificate chain. Chains found in the cache are not
+     * parsed again, and not verified again if an equal CertificateVerifyer (or
+     * TlsAuthentication) accepted them before.
+     * 
+     * @param certificateCache The cache, which may be shared between handlers, or null for
+     *            none (the default).
+     */
+    public void setCertificateCache(CertificateCache certificateCache)
+    {
+        this.certificateCache = certificateCache;
+    }
+
+    /**
+     * Report handshake state changes, record sizes and cipher times, and queue depths for
+     * this connection. Set it before connecting to see the whole handshake.
+     * 
+     * @param metricsListener The listener, which may be shared between handlers, or null for
+     *            none (the default).
+     */
+    public void setMetricsListener(TlsMetricsListener metricsListener)
+    {
+        this.metricsListener = metricsListener;
+        this.rs.setMetricsListener(metricsListener);
+    }
+
+    /**
+     * @return true if the handshake, including the check of the server's Finished, is
+     *         complete.
+     */
+    public boolean isHandshakeComplete()
+    {
+        return connection_state == CS_DONE;
+    }
+
+    /**
+     * @return true once application data may be sent: after the full handshake, or with
+     *         False Start after the client Finished.
+     */
+    boolean isApplicationDataWritable()
+    {
+        return connection_state == CS_DONE
+            || (connection_state >= CS_CLIENT_FINISHED_SEND && isFalseStartAllowed());
+    }
+
+    /**
+     * @return true once the connection has been closed, by either side or by an error.
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Non-blocking mode: hand over data received from the network. All complete records are
+     * processed, any reply (handshake messages, alerts) is left for readOutput().
+     */
+    void offerInput(byte[] buf, int offset, int len) throws IOException
+    {
+        if (this.closed)
+        {
+            throw new IOException("Sorry, connection has been closed, you cannot read more data");
+        }
+
+        inputBuffer.addData(buf, offset, len);
+
+        boolean read;
+        do
+        {
+            read = !this.closed && safeReadData();
+        }
+        while (read);
+    }
+
+    /**
+     * Non-blocking mode: take application data that has been received, without waiting.
+     * 
+     * @return The number of bytes read, 0 if none are available, -1 if the connection has
+     *         been closed.
+     */
+    int readInput(byte[] buf, int offset, int len) throws IOException
+    {
+        int avail = applicationDataQueue.size();
+        if (avail == 0)
+        {
+            if (this.closed)
+            {
+                if (this.failedWithError)
+                {
+                    throw new IOException(TLS_ERROR_MESSAGE);
+                }
+                return -1;
+            }
+            return 0;
+        }
+
+        len = Math.min(len, avail);
+        applicationDataQueue.read(buf, offset, len, 0);
+        applicationDataQueue.removeData(len);
+        return len;
+    }
+
+    int getAvailableInputBytes()
+    {
+        return applicationDataQueue.size();
+    }
+
+    /**
+     * Non-blocking mode: take data to be sent to the network.
+     */
+    int readOutput(byte[] buf, int offset, int len)
+    {
+        ByteQueue output = outputBuffer.getBuffer();
+        len = Math.min(len, output.size());
+        output.read(buf, offset, len, 0);
+        output.removeData(len);
+        return len;
+    }
+
+    int getAvailableOutputBytes()
+    {
+        return outputBuffer.getBuffer().size();
+    }
+
+    private boolean isFalseStartAllowed()
+    {
+        return falseStartEnabled
+            && (keyExchange instanceof TlsDHEKeyExchange || keyExchange instanceof TlsECDHEKeyExchange);
+    }
+
+    /**
+     * Make the OutputStream coalesce writes into full records instead of sending at least
+     * one record (and one network write) per write() call.
+     * <p/>
+     * Buffered data goes out once a record is full, on an explicit flush() or close(), or
+     * when it has been waiting for longer than maxDelayMillis.
+     * 
+     * @param recordSize The amount of data per record, 1 to MAX_FRAGMENT_LENGTH; 0 turns
+     *            coalescing off (the default).
+     * @param maxDelayMillis The longest time data may stay buffered, 0 for no limit.
+     * @throws IOException If turning coalescing off fails to write out buffered data.
+     */
+    public void setWriteCoalescing(int recordSize, long maxDelayMillis) throws IOException
+    {
+        if (recordSize < 0 || recordSize > MAX_FRAGMENT_LENGTH)
+        {
+            throw new IllegalArgumentException("'recordSize' must be from 0 to " + MAX_FRAGMENT_LENGTH);
+        }
+        if (maxDelayMillis < 0)
+        {
+            throw new IllegalArgumentException("'maxDelayMillis' cannot be negative");
+        }
+
+        this.coalesceRecordSize = recordSize;
+        this.coalesceMaxDelay = maxDelayMillis;
+
+        if (this.tlsOutputStream != null)
+        {
+            this.tlsOutputStream.setCoalescing(recordSize, maxDelayMillis);
+        }
     }
 
     /**
@@ -1175,6 +1689,7 @@ public class TlsProtocolHandler
              * Prepare the message
              */
             this.closed = true;
+            cancelDelayedFlush();
 
             if (alertLevel == AlertLevel.fatal)
             {
@@ -1183,7 +1698,14 @@ public class TlsProtocolHandler
                  */
                 this.failedWithError = true;
             }
-            sendAlert(alertLevel, alertDescription);
+
+            /*
+             * RFC 5246 7.2.1. Nothing may be sent after our close_notify.
+             */
+            if (!outputShutdown)
+            {
+                sendAlert(alertLevel, alertDescription);
+            }
             rs.close();
             if (alertLevel == AlertLevel.fatal)
             {
@@ -1196,13 +1718,28 @@ public class TlsProtocolHandler
         }
     }
 
+    /**
+     * A closed connection sends nothing more, so a coalesced write waiting for its delay is
+     * dropped, rather than left for the timer.
+     */
+    private void cancelDelayedFlush()
+    {
+        if (this.tlsOutputStream != null)
+        {
+            this.tlsOutputStream.cancelDeadline();
+        }
+    }
+
     private void sendAlert(short alertLevel, short alertDescription) throws IOException
     {
         byte[] error = new byte[2];
         error[0] = (byte)alertLevel;
         error[1] = (byte)alertDescription;
 
-        rs.writeMessage(ContentType.alert, error, 0, 2);
+        synchronized (writeLock)
+        {
+            rs.writeMessage(ContentType.alert, error, 0, 2);
+        }
     }
 
     /**
@@ -1234,7 +1771,36 @@ public class TlsProtocolHandler
 
     protected void flush() throws IOException
     {
-        rs.flush();
+        synchronized (writeLock)
+        {
+            rs.flush();
+        }
+    }
+
+    /**
+     * Close the sending half of this connection: a close_notify alert is sent, but data
+     * from the server can still be read until it closes the connection in turn.
+     * <p/>
+     * This is what closing the OutputStream does. The connection is closed completely by
+     * {@link #close()}, closing the InputStream, or the server's close_notify.
+     * 
+     * @throws IOException If the alert could not be sent.
+     */
+    public void shutdownOutput() throws IOException
+    {
+        if (closed || outputShutdown)
+        {
+            return;
+        }
+
+        try
+        {
+            sendAlert(AlertLevel.warning, AlertDescription.close_notify);
+        }
+        finally
+        {
+            this.outputShutdown = true;
+        }
     }
 
     private static boolean arrayContains(short[] a, short n)
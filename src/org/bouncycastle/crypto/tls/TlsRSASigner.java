@@ -1,7 +1,13 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.IOException;
+
 import javaaddin.security.SecureRandom;
 
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
 import org.bouncycastle.crypto.CryptoException;
 import org.bouncycastle.crypto.Signer;
 import org.bouncycastle.crypto.digests.NullDigest;
@@ -11,9 +17,15 @@ import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithRandom;
 import org.bouncycastle.crypto.params.RSAKeyParameters;
 import org.bouncycastle.crypto.signers.GenericSigner;
+import org.bouncycastle.crypto.signers.RSADigestSigner;
 
 class TlsRSASigner implements TlsSigner
 {
+    public short getSignatureAlgorithm()
+    {
+        return SignatureAlgorithm.rsa;
+    }
+
     public byte[] calculateRawSignature(SecureRandom random, AsymmetricKeyParameter privateKey, byte[] md5andsha1)
         throws CryptoException
     {
@@ -23,6 +35,25 @@ class TlsRSASigner implements TlsSigner
         return sig.generateSignature();
     }
 
+    public byte[] calculateRawSignature(SignatureAndHashAlgorithm algorithm, SecureRandom random,
+        AsymmetricKeyParameter privateKey, byte[] hash) throws CryptoException, IOException
+    {
+        checkSignatureAlgorithm(algorithm);
+
+        /*
+         * RFC 5246 4.7. In RSA signing, the opaque vector contains the signature generated
+         * using the RSASSA-PKCS1-v1_5 signature scheme, i.e. over a DigestInfo.
+         */
+        AlgorithmIdentifier digAlgId = new AlgorithmIdentifier(
+            TlsUtils.getOIDForHashAlgorithm(algorithm.getHash()), DERNull.INSTANCE);
+        byte[] digestInfo = new DigestInfo(digAlgId, hash).getEncoded(ASN1Encoding.DER);
+
+        Signer sig = new GenericSigner(new PKCS1Encoding(new RSABlindedEngine()), new NullDigest());
+        sig.init(true, new ParametersWithRandom(privateKey, random));
+        sig.update(digestInfo, 0, digestInfo.length);
+        return sig.generateSignature();
+    }
+
     public Signer createVerifyer(AsymmetricKeyParameter publicKey)
     {
         Signer s = new GenericSigner(new PKCS1Encoding(new RSABlindedEngine()), new CombinedHash());
@@ -30,8 +61,26 @@ class TlsRSASigner implements TlsSigner
         return s;
     }
 
+    public Signer createVerifyer(SignatureAndHashAlgorithm algorithm, AsymmetricKeyParameter publicKey)
+        throws IOException
+    {
+        checkSignatureAlgorithm(algorithm);
+
+        Signer s = new RSADigestSigner(TlsUtils.createHash(algorithm.getHash()));
+        s.init(false, publicKey);
+        return s;
+    }
+
     public boolean isValidPublicKey(AsymmetricKeyParameter publicKey)
     {
         return publicKey instanceof RSAKeyParameters && !publicKey.isPrivate();
     }
+
+    private void checkSignatureAlgorithm(SignatureAndHashAlgorithm algorithm) throws IOException
+    {
+        if (algorithm.getSignature() != SignatureAlgorithm.rsa)
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.IOException;
+
 import javaaddin.security.SecureRandom;
 
 import org.bouncycastle.crypto.CryptoException;
@@ -8,10 +10,28 @@ import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 
 interface TlsSigner
 {
+    /**
+     * @return the {@link SignatureAlgorithm} this signer produces and verifies
+     */
+    short getSignatureAlgorithm();
+
     byte[] calculateRawSignature(SecureRandom random, AsymmetricKeyParameter privateKey, byte[] md5andsha1)
         throws CryptoException;
 
+    /**
+     * TLS 1.2: sign an already computed hash using the given signature and hash algorithm.
+     */
+    byte[] calculateRawSignature(SignatureAndHashAlgorithm algorithm, SecureRandom random,
+        AsymmetricKeyParameter privateKey, byte[] hash) throws CryptoException, IOException;
+
     Signer createVerifyer(AsymmetricKeyParameter publicKey);
 
+    /**
+     * TLS 1.2: create a verifyer for the signature and hash algorithm named in a
+     * digitally-signed element.
+     */
+    Signer createVerifyer(SignatureAndHashAlgorithm algorithm, AsymmetricKeyParameter publicKey)
+        throws IOException;
+
     boolean isValidPublicKey(AsymmetricKeyParameter publicKey);
 }
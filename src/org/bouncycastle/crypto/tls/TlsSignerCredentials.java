@@ -5,4 +5,18 @@ import java.io.IOException;
 public interface TlsSignerCredentials extends TlsCredentials
 {
     byte[] generateCertificateSignature(byte[] md5andsha1) throws IOException;
+
+    /**
+     * TLS 1.2: sign the handshake hash for a CertificateVerify message.
+     *
+     * @param algorithm the signature and hash algorithm, whose hash produced 'hash'
+     * @param hash the handshake hash
+     */
+    byte[] generateCertificateSignature(SignatureAndHashAlgorithm algorithm, byte[] hash)
+        throws IOException;
+
+    /**
+     * @return the {@link SignatureAlgorithm} of the private key
+     */
+    short getSignatureAlgorithm();
 }
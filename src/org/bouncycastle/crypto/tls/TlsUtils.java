@@ -1,11 +1,18 @@
 package org.bouncycastle.crypto.tls;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
 
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.X509ObjectIdentifiers;
 import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.asn1.x509.X509CertificateStructure;
 import org.bouncycastle.asn1.x509.X509Extension;
@@ -13,6 +20,10 @@ import org.bouncycastle.asn1.x509.X509Extensions;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.digests.MD5Digest;
 import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA224Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
 import org.bouncycastle.crypto.macs.HMac;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.util.Arrays;
@@ -24,6 +35,33 @@ import org.bouncycastle.util.io.Streams;
  */
 public class TlsUtils
 {
+    static final Integer EXT_elliptic_curves = new Integer(ExtensionType.elliptic_curves);
+    static final Integer EXT_ec_point_formats = new Integer(ExtensionType.ec_point_formats);
+    static final Integer EXT_signature_algorithms = new Integer(ExtensionType.signature_algorithms);
+
+    protected static boolean isValidUint8(short i)
+    {
+        return (i & 0xFF) == i;
+    }
+
+    /**
+     * @return true if the negotiated version is TLS 1.1 or later, i.e. each CBC record carries
+     *         an explicit IV (RFC 4346 6.2.3.2)
+     */
+    static boolean isTLSv11(TlsClientContext context)
+    {
+        return context.getServerVersion().getFullVersion() >= ProtocolVersion.TLSv11.getFullVersion();
+    }
+
+    /**
+     * @return true if the negotiated version is TLS 1.2 or later, i.e. the SHA-256 PRF and
+     *         explicit signature algorithms are in use (RFC 5246)
+     */
+    static boolean isTLSv12(TlsClientContext context)
+    {
+        return context.getServerVersion().getFullVersion() >= ProtocolVersion.TLSv12.getFullVersion();
+    }
+
     protected static void writeUint8(short i, OutputStream os) throws IOException
     {
         os.write(i);
@@ -247,13 +285,12 @@ public class TlsUtils
         int iterations = (out.length + size - 1) / size;
         byte[] buf = new byte[mac.getMacSize()];
         byte[] buf2 = new byte[mac.getMacSize()];
+        mac.init(param);
         for (int i = 0; i < iterations; i++)
         {
-            mac.init(param);
             mac.update(a, 0, a.length);
             mac.doFinal(buf, 0);
             a = buf;
-            mac.init(param);
             mac.update(a, 0, a.length);
             mac.update(seed, 0, seed.length);
             mac.doFinal(buf2, 0);
@@ -294,6 +331,20 @@ public class TlsUtils
         return buf;
     }
 
+    /**
+     * The PRF for the negotiated version: P_SHA256 for TLS 1.2 (RFC 5246 5), the MD5/SHA-1
+     * combination for TLS 1.0 and 1.1.
+     */
+    static byte[] PRF(TlsClientContext context, byte[] secret, String asciiLabel, byte[] seed, int size)
+    {
+        if (isTLSv12(context))
+        {
+            return PRF_1_2(new SHA256Digest(), secret, asciiLabel, seed, size);
+        }
+
+        return PRF(secret, asciiLabel, seed, size);
+    }
+
     static byte[] concat(byte[] a, byte[] b)
     {
         byte[] c = new byte[a.length + b.length];
@@ -330,7 +381,7 @@ public class TlsUtils
 
         if (isTls)
         {
-            return PRF(sp.masterSecret, "key expansion", random, size);
+            return PRF(context, sp.masterSecret, "key expansion", random, size);
         }
 
         Digest md5 = new MD5Digest();
@@ -372,7 +423,7 @@ public class TlsUtils
 
         if (isTls)
         {
-            return PRF(pms, "master secret", random, 48);
+            return PRF(context, pms, "master secret", random, 48);
         }
 
         Digest md5 = new MD5Digest();
@@ -411,12 +462,243 @@ public class TlsUtils
 
         if (isTls)
         {
-            return PRF(sp.masterSecret, asciiLabel, handshakeHash, 12);
+            return PRF(context, sp.masterSecret, asciiLabel, handshakeHash, 12);
         }
 
         return handshakeHash;
     }
 
+    static Digest createHash(short hashAlgorithm) throws IOException
+    {
+        switch (hashAlgorithm)
+        {
+            case HashAlgorithm.md5:
+                return new MD5Digest();
+            case HashAlgorithm.sha1:
+                return new SHA1Digest();
+            case HashAlgorithm.sha224:
+                return new SHA224Digest();
+            case HashAlgorithm.sha256:
+                return new SHA256Digest();
+            case HashAlgorithm.sha384:
+                return new SHA384Digest();
+            case HashAlgorithm.sha512:
+                return new SHA512Digest();
+            default:
+                throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+    }
+
+    static ASN1ObjectIdentifier getOIDForHashAlgorithm(short hashAlgorithm) throws IOException
+    {
+        switch (hashAlgorithm)
+        {
+            case HashAlgorithm.md5:
+                return PKCSObjectIdentifiers.md5;
+            case HashAlgorithm.sha1:
+                return X509ObjectIdentifiers.id_SHA1;
+            case HashAlgorithm.sha224:
+                return NISTObjectIdentifiers.id_sha224;
+            case HashAlgorithm.sha256:
+                return NISTObjectIdentifiers.id_sha256;
+            case HashAlgorithm.sha384:
+                return NISTObjectIdentifiers.id_sha384;
+            case HashAlgorithm.sha512:
+                return NISTObjectIdentifiers.id_sha512;
+            default:
+                throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+    }
+
+    /**
+     * @return Vector of SignatureAndHashAlgorithm, in order of preference
+     */
+    public static Vector getDefaultSupportedSignatureAlgorithms()
+    {
+        short[] hashAlgorithms = new short[] { HashAlgorithm.sha256, HashAlgorithm.sha1 };
+        short[] signatureAlgorithms = new short[] { SignatureAlgorithm.rsa, SignatureAlgorithm.dsa,
+            SignatureAlgorithm.ecdsa };
+
+        Vector result = new Vector();
+        for (int i = 0; i < hashAlgorithms.length; ++i)
+        {
+            for (int j = 0; j < signatureAlgorithms.length; ++j)
+            {
+                result.addElement(new SignatureAndHashAlgorithm(hashAlgorithms[i], signatureAlgorithms[j]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check a peer's TLS 1.2 signature algorithm choice before verifying with it. The pair must
+     * be one we offer in {@link #getDefaultSupportedSignatureAlgorithms()} (so e.g. MD5 cannot be
+     * forced on us) and must match the type of key the signer was chosen for.
+     */
+    static void checkSignatureAlgorithm(SignatureAndHashAlgorithm signatureAlgorithm, TlsSigner tlsSigner)
+        throws IOException
+    {
+        if (signatureAlgorithm.getSignature() != tlsSigner.getSignatureAlgorithm()
+            || !getDefaultSupportedSignatureAlgorithms().contains(signatureAlgorithm))
+        {
+            throw new TlsFatalAlert(AlertDescription.illegal_parameter);
+        }
+    }
+
+    /**
+     * Add a 'signature_algorithms' extension to existing extensions.
+     *
+     * @param extensions                   A {@link Hashtable} to add the extension to.
+     * @param supportedSignatureAlgorithms {@link Vector} containing at least 1 {@link SignatureAndHashAlgorithm}.
+     * @throws IOException
+     */
+    public static void addSignatureAlgorithmsExtension(Hashtable extensions, Vector supportedSignatureAlgorithms)
+        throws IOException
+    {
+        extensions.put(EXT_signature_algorithms, createSignatureAlgorithmsExtension(supportedSignatureAlgorithms));
+    }
+
+    /**
+     * Create a 'signature_algorithms' extension value.
+     *
+     * @param supportedSignatureAlgorithms A {@link Vector} containing at least 1 {@link SignatureAndHashAlgorithm}.
+     * @return A byte array suitable for use as an extension value.
+     * @throws IOException
+     */
+    public static byte[] createSignatureAlgorithmsExtension(Vector supportedSignatureAlgorithms)
+        throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        encodeSupportedSignatureAlgorithms(supportedSignatureAlgorithms, buf);
+        return buf.toByteArray();
+    }
+
+    static void encodeSupportedSignatureAlgorithms(Vector supportedSignatureAlgorithms, OutputStream output)
+        throws IOException
+    {
+        if (supportedSignatureAlgorithms == null || supportedSignatureAlgorithms.size() < 1
+            || supportedSignatureAlgorithms.size() >= (1 << 15))
+        {
+            throw new IllegalArgumentException(
+                "'supportedSignatureAlgorithms' must have length from 1 to (2^15 - 1)");
+        }
+
+        // supported_signature_algorithms
+        writeUint16(2 * supportedSignatureAlgorithms.size(), output);
+        for (int i = 0; i < supportedSignatureAlgorithms.size(); ++i)
+        {
+            SignatureAndHashAlgorithm entry = (SignatureAndHashAlgorithm)supportedSignatureAlgorithms.elementAt(i);
+            entry.encode(output);
+        }
+    }
+
+    static Vector parseSupportedSignatureAlgorithms(InputStream input) throws IOException
+    {
+        // supported_signature_algorithms
+        int length = readUint16(input);
+        if (length < 2 || (length & 1) != 0)
+        {
+            throw new TlsFatalAlert(AlertDescription.decode_error);
+        }
+        int count = length / 2;
+        Vector result = new Vector(count);
+        for (int i = 0; i < count; ++i)
+        {
+            result.addElement(SignatureAndHashAlgorithm.parse(input));
+        }
+        return result;
+    }
+
+    /**
+     * Add 'elliptic_curves' and 'ec_point_formats' extensions (RFC 4492 5.1) to existing
+     * extensions.
+     *
+     * @param extensions      A {@link Hashtable} to add the extensions to.
+     * @param namedCurves     The {@link NamedCurve}s supported, in order of preference.
+     * @param ecPointFormats  The {@link ECPointFormat}s supported.
+     * @throws IOException
+     */
+    public static void addSupportedEllipticCurvesExtensions(Hashtable extensions, int[] namedCurves,
+        short[] ecPointFormats) throws IOException
+    {
+        extensions.put(EXT_elliptic_curves, createSupportedEllipticCurvesExtension(namedCurves));
+        extensions.put(EXT_ec_point_formats, createSupportedPointFormatsExtension(ecPointFormats));
+    }
+
+    /**
+     * Create an 'elliptic_curves' extension value.
+     *
+     * @param namedCurves At least 1 {@link NamedCurve}.
+     * @return A byte array suitable for use as an extension value.
+     * @throws IOException
+     */
+    public static byte[] createSupportedEllipticCurvesExtension(int[] namedCurves) throws IOException
+    {
+        if (namedCurves == null || namedCurves.length < 1 || namedCurves.length >= (1 << 15))
+        {
+            throw new IllegalArgumentException("'namedCurves' must have length from 1 to (2^15 - 1)");
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        writeUint16(2 * namedCurves.length, buf);
+        writeUint16Array(namedCurves, buf);
+        return buf.toByteArray();
+    }
+
+    /**
+     * Create an 'ec_point_formats' extension value.
+     *
+     * @param ecPointFormats At least 1 {@link ECPointFormat}.
+     * @return A byte array suitable for use as an extension value.
+     * @throws IOException
+     */
+    public static byte[] createSupportedPointFormatsExtension(short[] ecPointFormats) throws IOException
+    {
+        if (ecPointFormats == null || ecPointFormats.length < 1 || ecPointFormats.length >= (1 << 8))
+        {
+            throw new IllegalArgumentException("'ecPointFormats' must have length from 1 to (2^8 - 1)");
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        writeUint8((short)ecPointFormats.length, buf);
+        writeUint8Array(ecPointFormats, buf);
+        return buf.toByteArray();
+    }
+
+    /**
+     * @return true if the cipher suite can be used with the given protocol version; the AEAD
+     *         suites (RFC 5288, RFC 5289, RFC 7905) need TLS 1.2 or later.
+     */
+    static boolean isValidCipherSuiteForVersion(int cipherSuite, ProtocolVersion version)
+    {
+        switch (cipherSuite)
+        {
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256:
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA384:
+            case CipherSuite.TLS_ECDH_ECDSA_WITH_AES_128_CBC_SHA256:
+            case CipherSuite.TLS_ECDH_ECDSA_WITH_AES_256_CBC_SHA384:
+            case CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256:
+            case CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384:
+            case CipherSuite.TLS_ECDH_RSA_WITH_AES_128_CBC_SHA256:
+            case CipherSuite.TLS_ECDH_RSA_WITH_AES_256_CBC_SHA384:
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256:
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384:
+            case CipherSuite.TLS_ECDH_ECDSA_WITH_AES_128_GCM_SHA256:
+            case CipherSuite.TLS_ECDH_ECDSA_WITH_AES_256_GCM_SHA384:
+            case CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256:
+            case CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384:
+            case CipherSuite.TLS_ECDH_RSA_WITH_AES_128_GCM_SHA256:
+            case CipherSuite.TLS_ECDH_RSA_WITH_AES_256_GCM_SHA384:
+            case CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256:
+            case CipherSuite.TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256:
+            case CipherSuite.TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256:
+                return version.getFullVersion() >= ProtocolVersion.TLSv12.getFullVersion();
+
+            default:
+                return true;
+        }
+    }
+
     static final byte[] SSL_CLIENT = { 0x43, 0x4C, 0x4E, 0x54 };
     static final byte[] SSL_SERVER = { 0x53, 0x52, 0x56, 0x52 };
 
@@ -0,0 +1,69 @@
+package org.bouncycastle.openpgp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.CompressedDataPacket;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.util.zip.Inflater;
+import org.bouncycastle.util.zip.InflaterInputStream;
+
+/**
+ * Compressed data objects.
+ */
+public class PGPCompressedData 
+    implements CompressionAlgorithmTags
+{
+    CompressedDataPacket    data;
+    
+    public PGPCompressedData(
+        BCPGInputStream    pIn)
+        throws IOException
+    {
+        data = (CompressedDataPacket)pIn.readPacket();
+    }
+    
+    /**
+     * Return the algorithm used for compression
+     * 
+     * @return algorithm code
+     */
+    public int getAlgorithm()
+    {
+        return data.getAlgorithm();
+    }
+    
+    /**
+     * Return the raw input stream contained in the object.
+     * 
+     * @return InputStream
+     */
+    public InputStream getInputStream()
+    {
+        return data.getInputStream();
+    }
+    
+    /**
+     * Return an uncompressed input stream which allows reading of the 
+     * compressed data.
+     * 
+     * @return InputStream
+     * @throws PGPException
+     */
+    public InputStream getDataStream()
+        throws PGPException
+    {
+        switch (this.getAlgorithm())
+        {
+        case UNCOMPRESSED:
+            return this.getInputStream();
+        case ZIP:
+            return new InflaterInputStream(this.getInputStream(), new Inflater(true));
+        case ZLIB:
+            return new InflaterInputStream(this.getInputStream(), new Inflater(false));
+        default:
+            throw new PGPException("can't recognise compression algorithm: " + this.getAlgorithm());
+        }
+    }
+}
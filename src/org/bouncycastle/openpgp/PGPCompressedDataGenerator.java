@@ -0,0 +1,175 @@
+package org.bouncycastle.openpgp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.util.zip.Deflater;
+import org.bouncycastle.util.zip.DeflaterOutputStream;
+
+/**
+ * class for producing compressed data packets.
+ */
+public class PGPCompressedDataGenerator 
+    implements CompressionAlgorithmTags, StreamGenerator
+{
+    private int                     algorithm;
+    private int                     compression;
+
+    private OutputStream            dOut;
+    private BCPGOutputStream        pkOut;
+    
+    public PGPCompressedDataGenerator(
+        int                    algorithm)
+    {
+        this(algorithm, Deflater.DEFAULT_COMPRESSION);
+    }
+                    
+    /**
+     * Create a generator for the passed in algorithm - BZIP2 is not supported.
+     * 
+     * @param algorithm UNCOMPRESSED, ZIP or ZLIB.
+     * @param compression compression level, 0 to 9 or Deflater.DEFAULT_COMPRESSION.
+     */
+    public PGPCompressedDataGenerator(
+        int                    algorithm,
+        int                    compression)
+    {
+        switch (algorithm)
+        {
+        case UNCOMPRESSED:
+        case ZIP:
+        case ZLIB:
+            break;
+        case BZIP2:
+            throw new IllegalArgumentException("BZIP2 compression not supported");
+        default:
+            throw new IllegalArgumentException("unknown compression algorithm");
+        }
+
+        if (compression != Deflater.DEFAULT_COMPRESSION)
+        {
+            if ((compression < Deflater.NO_COMPRESSION) || (compression > Deflater.BEST_COMPRESSION))
+            {
+                throw new IllegalArgumentException("unknown compression level: " + compression);
+            }
+        }
+
+        this.algorithm = algorithm;
+        this.compression = compression;
+    }
+
+    /**
+     * Return an OutputStream which will save the data being written to 
+     * the compressed object.
+     * <p>
+     * The stream created can be closed off by either calling close()
+     * on the stream or close() on the generator. Closing the returned
+     * stream does not close off the OutputStream parameter out.
+     * 
+     * @param out underlying OutputStream to be used.
+     * @return OutputStream
+     * @throws IOException
+     * @throws IllegalStateException
+     */        
+    public OutputStream open(
+        OutputStream    out)
+        throws IOException
+    {
+        if (dOut != null)
+        {
+            throw new IllegalStateException("generator already in open state");
+        }
+
+        this.pkOut = new BCPGOutputStream(out, PacketTags.COMPRESSED_DATA);
+
+        doOpen();
+
+        return new WrappedGeneratorStream(dOut, this);
+    }
+    
+    /**
+     * Return an OutputStream which will compress the data as it is written
+     * to it. The stream will be written out in chunks according to the size of the
+     * passed in buffer.
+     * <p>
+     * The stream created can be closed off by either calling close()
+     * on the stream or close() on the generator. Closing the returned
+     * stream does not close off the OutputStream parameter out.
+     * <p>
+     * <b>Note</b>: if the buffer is not a power of 2 in length only the largest power of 2
+     * bytes worth of the buffer will be used.
+     * 
+     * @param out underlying OutputStream to be used.
+     * @param buffer the buffer to use.
+     * @return OutputStream
+     * @throws IOException
+     * @throws IllegalStateException
+     */
+    public OutputStream open(
+        OutputStream    out,
+        byte[]          buffer)
+        throws IOException
+    {
+        if (dOut != null)
+        {
+            throw new IllegalStateException("generator already in open state");
+        }
+
+        this.pkOut = new BCPGOutputStream(out, PacketTags.COMPRESSED_DATA, buffer);
+
+        doOpen();
+
+        return new WrappedGeneratorStream(dOut, this);
+    }
+
+    private void doOpen()
+        throws IOException
+    {
+        pkOut.write(algorithm);
+
+        switch (algorithm)
+        {
+        case UNCOMPRESSED:
+            dOut = pkOut;
+            break;
+        case ZIP:
+            dOut = new DeflaterOutputStream(pkOut, new Deflater(compression, true));
+            break;
+        case ZLIB:
+            dOut = new DeflaterOutputStream(pkOut, new Deflater(compression, false));
+            break;
+        default:
+            // Constructor should guard against this possibility
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Close the compressed object - this is equivalent to calling close on the stream
+     * returned by the open() method.
+     * 
+     * @throws IOException
+     */
+    public void close()
+        throws IOException
+    {
+        if (dOut != null)
+        {
+            if (dOut instanceof DeflaterOutputStream)
+            {
+                ((DeflaterOutputStream)dOut).finish();
+            }
+
+            dOut.flush();
+
+            pkOut.finish();
+            pkOut.flush();
+
+            dOut = null;
+            pkOut = null;
+        }
+    }
+}
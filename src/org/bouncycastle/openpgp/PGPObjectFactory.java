@@ -116,7 +116,7 @@ public class PGPObjectFactory
                 throw new IOException("processing error: " + e.getMessage());
             }
         case PacketTags.COMPRESSED_DATA:
-            throw new IOException("processing error: " + "compressed data not supported");
+            return new PGPCompressedData(in);
         case PacketTags.LITERAL_DATA:
             return new PGPLiteralData(in);
         case PacketTags.PUBLIC_KEY_ENC_SESSION:
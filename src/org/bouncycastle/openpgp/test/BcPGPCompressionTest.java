@@ -0,0 +1,145 @@
+package org.bouncycastle.openpgp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.bouncycastle.util.io.Streams;
+import org.bouncycastle.util.test.SimpleTest;
+import org.bouncycastle.util.test.UncloseableOutputStream;
+import org.bouncycastle.util.zip.Deflater;
+
+public class BcPGPCompressionTest
+    extends SimpleTest
+{
+    public void performTest()
+        throws Exception
+    {
+        byte[] data = new byte[20000];
+        for (int i = 0; i != data.length; i++)
+        {
+            data[i] = (byte)("hello world! ".charAt(i % 13) + (i / 1000));
+        }
+
+        testCompression(CompressionAlgorithmTags.UNCOMPRESSED, Deflater.DEFAULT_COMPRESSION, data);
+        testCompression(CompressionAlgorithmTags.ZIP, Deflater.DEFAULT_COMPRESSION, data);
+        testCompression(CompressionAlgorithmTags.ZLIB, Deflater.DEFAULT_COMPRESSION, data);
+        testCompression(CompressionAlgorithmTags.ZIP, Deflater.BEST_SPEED, data);
+        testCompression(CompressionAlgorithmTags.ZLIB, Deflater.BEST_COMPRESSION, data);
+        testCompression(CompressionAlgorithmTags.ZLIB, Deflater.NO_COMPRESSION, data);
+        testCompression(CompressionAlgorithmTags.ZIP, Deflater.DEFAULT_COMPRESSION, new byte[0]);
+
+        try
+        {
+            new PGPCompressedDataGenerator(CompressionAlgorithmTags.BZIP2);
+            fail("BZIP2 generator created");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            new PGPCompressedDataGenerator(CompressionAlgorithmTags.ZIP, 10);
+            fail("bad compression level accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        // an old style indefinite length compressed data packet holding BZIP2 data
+        PGPObjectFactory pgpF = new PGPObjectFactory(new byte[] { (byte)0xa3, CompressionAlgorithmTags.BZIP2, 'B', 'Z', 'h' });
+        PGPCompressedData c1 = (PGPCompressedData)pgpF.nextObject();
+        try
+        {
+            c1.getDataStream();
+            fail("BZIP2 data stream returned");
+        }
+        catch (PGPException e)
+        {
+            // expected
+        }
+    }
+
+    private void testCompression(int algorithm, int level, byte[] data)
+        throws IOException, PGPException
+    {
+        // indefinite length packet, closed through the generator
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        PGPCompressedDataGenerator cPacket = new PGPCompressedDataGenerator(algorithm, level);
+
+        writeData(cPacket.open(new UncloseableOutputStream(bOut)), data);
+        cPacket.close();
+
+        validateData(bOut.toByteArray(), algorithm, data);
+
+        // partial packets, closed through the stream
+        bOut = new ByteArrayOutputStream();
+
+        OutputStream out = cPacket.open(new UncloseableOutputStream(bOut), new byte[512]);
+        writeData(out, data);
+        out.close();
+
+        validateData(bOut.toByteArray(), algorithm, data);
+
+        if (algorithm != CompressionAlgorithmTags.UNCOMPRESSED && level != Deflater.NO_COMPRESSION
+            && data.length != 0 && bOut.size() > data.length / 4)
+        {
+            fail("data not compressed by algorithm " + algorithm);
+        }
+    }
+
+    private void writeData(OutputStream cOut, byte[] data)
+        throws IOException
+    {
+        PGPLiteralDataGenerator lData = new PGPLiteralDataGenerator();
+        OutputStream ldOut = lData.open(cOut, PGPLiteralData.BINARY, PGPLiteralData.CONSOLE, data.length, new Date());
+
+        ldOut.write(data);
+        ldOut.close();
+    }
+
+    private void validateData(byte[] encoding, int algorithm, byte[] data)
+        throws IOException, PGPException
+    {
+        PGPObjectFactory pgpFact = new PGPObjectFactory(encoding);
+        PGPCompressedData c1 = (PGPCompressedData)pgpFact.nextObject();
+
+        if (c1.getAlgorithm() != algorithm)
+        {
+            fail("wrong compression algorithm: " + c1.getAlgorithm());
+        }
+
+        pgpFact = new PGPObjectFactory(c1.getDataStream());
+
+        PGPLiteralData ld = (PGPLiteralData)pgpFact.nextObject();
+        InputStream in = ld.getInputStream();
+
+        if (!areEqual(data, Streams.readAll(in)))
+        {
+            fail("compression test failed for algorithm " + algorithm);
+        }
+    }
+
+    public String getName()
+    {
+        return "BcPGPCompressionTest";
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new BcPGPCompressionTest());
+    }
+}
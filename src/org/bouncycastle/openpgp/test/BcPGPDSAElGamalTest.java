@@ -20,6 +20,7 @@ import org.bouncycastle.crypto.generators.ElGamalKeyPairGenerator;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.ElGamalKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ElGamalParameters;
+import org.bouncycastle.openpgp.PGPCompressedData;
 import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
 import org.bouncycastle.openpgp.PGPEncryptedDataList;
 import org.bouncycastle.openpgp.PGPException;
@@ -289,7 +290,11 @@ public class BcPGPDSAElGamalTest
             InputStream clear = encP.getDataStream(new BcPublicKeyDataDecryptorFactory(pgpPrivKey));
                      
             pgpFact = new PGPObjectFactory(clear);
-            /* No compressed data support
+
+            PGPCompressedData c1 = (PGPCompressedData)pgpFact.nextObject();
+
+            pgpFact = new PGPObjectFactory(c1.getDataStream());
+
             PGPLiteralData    ld = (PGPLiteralData)pgpFact.nextObject();
         
             bOut = new ByteArrayOutputStream();
@@ -323,7 +328,11 @@ public class BcPGPDSAElGamalTest
             clear = encP.getDataStream(new BcPublicKeyDataDecryptorFactory(pgpPrivKey));
                      
             pgpFact = new PGPObjectFactory(clear);
-            
+
+            c1 = (PGPCompressedData)pgpFact.nextObject();
+
+            pgpFact = new PGPObjectFactory(c1.getDataStream());
+
             p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
             
             ops = p1.get(0);
@@ -361,7 +370,7 @@ public class BcPGPDSAElGamalTest
             {
                 fail("wrong plain text in decrypted packet");
             }
-            */
+
             //
             // encrypt
             //
@@ -388,19 +397,18 @@ public class BcPGPDSAElGamalTest
             clear = encP.getDataStream(new BcPublicKeyDataDecryptorFactory(pgpPrivKey));
             
             bOut.reset();
-//           compressed data not supported
-//            while ((ch = clear.read()) >= 0)
-//            {
-//                bOut.write(ch);
-//            }
-//
-//            out = bOut.toByteArray();
-//
-//            if (!areEqual(out, text))
-//            {
-//                fail("wrong plain text in generated packet");
-//            }
-            
+            while ((ch = clear.read()) >= 0)
+            {
+                bOut.write(ch);
+            }
+
+            out = bOut.toByteArray();
+
+            if (!areEqual(out, text))
+            {
+                fail("wrong plain text in generated packet");
+            }
+
             //
             // use of PGPKeyPair
             //
@@ -16,6 +16,7 @@ import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
 import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPCompressedData;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPLiteralData;
 import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
@@ -399,40 +400,34 @@ public class BcPGPDSATest
         //
         // test signature message
         //
-        PGPOnePassSignatureList p1;
+        PGPObjectFactory        pgpFact = new PGPObjectFactory(sig1);
 
-        PGPOnePassSignature ops;
+        PGPCompressedData       c1 = (PGPCompressedData)pgpFact.nextObject();
 
-        PGPLiteralData p2;
+        pgpFact = new PGPObjectFactory(c1.getDataStream());
 
-        InputStream dIn;
-        int ch;
+        PGPOnePassSignatureList p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
 
+        PGPOnePassSignature     ops = p1.get(0);
 
-        PGPObjectFactory        pgpFact = new PGPObjectFactory(sig1);
-//          compressed data not supported
-//        PGPOnePassSignatureList p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
-//
-//        PGPOnePassSignature     ops = p1.get(0);
-//
-//        PGPLiteralData          p2 = (PGPLiteralData)pgpFact.nextObject();
-//
-//        InputStream             dIn = p2.getInputStream();
-//        int                     ch;
-//
-//        ops.init(new BcPGPContentVerifierBuilderProvider(), pubKey);
-//
-//        while ((ch = dIn.read()) >= 0)
-//        {
-//            ops.update((byte)ch);
-//        }
-//
-//        PGPSignatureList        p3 = (PGPSignatureList)pgpFact.nextObject();
-//
-//        if (!ops.verify(p3.get(0)))
-//        {
-//            fail("Failed signature check");
-//        }
+        PGPLiteralData          p2 = (PGPLiteralData)pgpFact.nextObject();
+
+        InputStream             dIn = p2.getInputStream();
+        int                     ch;
+
+        ops.init(new BcPGPContentVerifierBuilderProvider(), pubKey);
+
+        while ((ch = dIn.read()) >= 0)
+        {
+            ops.update((byte)ch);
+        }
+
+        PGPSignatureList        p3 = (PGPSignatureList)pgpFact.nextObject();
+
+        if (!ops.verify(p3.get(0)))
+        {
+            fail("Failed signature check");
+        }
         
         //
         // signature generation
@@ -495,7 +490,7 @@ public class BcPGPDSATest
             ops.update((byte)ch);
         }
 
-        PGPSignatureList p3 = (PGPSignatureList)pgpFact.nextObject();
+        p3 = (PGPSignatureList)pgpFact.nextObject();
 
         if (!ops.verify(p3.get(0)))
         {
@@ -7,6 +7,8 @@ import java.util.Date;
 
 import javaaddin.security.SecureRandom;
 
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
 import org.bouncycastle.openpgp.PGPEncryptedData;
 import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
 import org.bouncycastle.openpgp.PGPEncryptedDataList;
@@ -70,7 +72,10 @@ public class BcPGPPBETest
         InputStream clear = pbe.getDataStream(new BcPBEDataDecryptorFactory(pass, new BcPGPDigestCalculatorProvider()));
         
         PGPObjectFactory         pgpFact = new PGPObjectFactory(clear);
-        
+        PGPCompressedData        cData = (PGPCompressedData)pgpFact.nextObject();
+
+        pgpFact = new PGPObjectFactory(cData.getDataStream());
+
         PGPLiteralData           ld = (PGPLiteralData)pgpFact.nextObject();
         
         ByteArrayOutputStream    bOut = new ByteArrayOutputStream();
@@ -111,7 +116,10 @@ public class BcPGPPBETest
 
         InputStream clear = pbe.getDataStream(new BcPBEDataDecryptorFactory(pass, new BcPGPDigestCalculatorProvider()));
 
-        PGPObjectFactory         pgpFact = new PGPObjectFactory(clear);;
+        PGPObjectFactory         pgpFact = new PGPObjectFactory(clear);
+        PGPCompressedData        cData = (PGPCompressedData)pgpFact.nextObject();
+
+        pgpFact = new PGPObjectFactory(cData.getDataStream());
 
         PGPLiteralData           ld = (PGPLiteralData)pgpFact.nextObject();
 
@@ -146,14 +154,13 @@ public class BcPGPPBETest
     public void performTest()
         throws Exception
     {
-        // compressed data not supported
-//        byte[] out = decryptMessage(enc1, TEST_DATE);
-//
-//        if (out[0] != 'h' || out[1] != 'e' || out[2] != 'l')
-//        {
-//            fail("wrong plain text in packet");
-//        }
-//
+        byte[] out = decryptMessage(enc1, TEST_DATE);
+
+        if (out[0] != 'h' || out[1] != 'e' || out[2] != 'l')
+        {
+            fail("wrong plain text in packet");
+        }
+
         //
         // create a PBE encrypted message and read it back.
         //
@@ -164,9 +171,12 @@ public class BcPGPPBETest
         //
         ByteArrayOutputStream bOut = new ByteArrayOutputStream();
 
+        PGPCompressedDataGenerator comData = new PGPCompressedDataGenerator(
+                                                                PGPCompressedData.ZIP);
+
         Date                       cDate = new Date((System.currentTimeMillis() / 1000) * 1000);
         PGPLiteralDataGenerator    lData = new PGPLiteralDataGenerator();
-        OutputStream               comOut = bOut;
+        OutputStream               comOut = comData.open(new UncloseableOutputStream(bOut));
         OutputStream               ldOut = lData.open(
             new UncloseableOutputStream(comOut),
             PGPLiteralData.BINARY, 
@@ -194,7 +204,7 @@ public class BcPGPPBETest
 
         cOut.close();
 
-        byte[] out = decryptMessage(cbOut.toByteArray(), cDate);
+        out = decryptMessage(cbOut.toByteArray(), cDate);
 
         if (!areEqual(out, text))
         {
@@ -232,7 +242,9 @@ public class BcPGPPBETest
         
         bOut = new ByteArrayOutputStream();
 
-        comOut = bOut;
+        comData = new PGPCompressedDataGenerator(
+                                 PGPCompressedData.ZIP);
+        comOut = comData.open(bOut);
         lData = new PGPLiteralDataGenerator();
 
         ldOut = lData.open(new UncloseableOutputStream(comOut),
@@ -305,22 +317,21 @@ public class BcPGPPBETest
 
         pgpFact = new PGPObjectFactory(clear);
 
-        // Compressed data not supported
-//        PGPLiteralData          ld = (PGPLiteralData)pgpFact.nextObject();
-//
-//        bOut = new ByteArrayOutputStream();
-//        InputStream    unc = ld.getInputStream();
-//        int    ch;
-//
-//        while ((ch = unc.read()) >= 0)
-//        {
-//            bOut.write(ch);
-//        }
-//
-//        if (!areEqual(bOut.toByteArray(), Hex.decode("5361742031302e30322e30370d0a")))
-//        {
-//            fail("data mismatch on combined PBE");
-//        }
+        PGPLiteralData          ld = (PGPLiteralData)pgpFact.nextObject();
+
+        bOut = new ByteArrayOutputStream();
+        InputStream    unc = ld.getInputStream();
+        int    ch;
+
+        while ((ch = unc.read()) >= 0)
+        {
+            bOut.write(ch);
+        }
+
+        if (!areEqual(bOut.toByteArray(), Hex.decode("5361742031302e30322e30370d0a")))
+        {
+            fail("data mismatch on combined PBE");
+        }
 
         //
         // with integrity packet - one byte message
@@ -328,8 +339,9 @@ public class BcPGPPBETest
         byte[] msg = new byte[1];
         bOut = new ByteArrayOutputStream();
 
+        comData = new PGPCompressedDataGenerator(PGPCompressedDataGenerator.ZIP);
         lData = new PGPLiteralDataGenerator();
-        comOut = bOut;
+        comOut = comData.open(new UncloseableOutputStream(bOut));
         ldOut = lData.open(
             new UncloseableOutputStream(comOut),
             PGPLiteralData.BINARY,
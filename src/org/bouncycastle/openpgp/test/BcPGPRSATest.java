@@ -29,6 +29,7 @@ import org.bouncycastle.crypto.engines.RSAEngine;
 import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPCompressedData;
 import org.bouncycastle.openpgp.PGPEncryptedData;
 import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
 import org.bouncycastle.openpgp.PGPEncryptedDataList;
@@ -866,30 +867,33 @@ public class BcPGPRSATest
         //
         PGPObjectFactory           pgpFact = new PGPObjectFactory(sig1, new BcKeyFingerprintCalculator());
 
-//        PGPOnePassSignatureList    p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
-        
-//        PGPOnePassSignature        ops = p1.get(0);
+        PGPCompressedData          c1 = (PGPCompressedData)pgpFact.nextObject();
+
+        pgpFact = new PGPObjectFactory(c1.getDataStream(), new BcKeyFingerprintCalculator());
+
+        PGPOnePassSignatureList    p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
+
+        PGPOnePassSignature        ops = p1.get(0);
+
+        PGPLiteralData             p2 = (PGPLiteralData)pgpFact.nextObject();
+
+        InputStream                dIn = p2.getInputStream();
+        int                        ch;
+
+        ops.init(new BcPGPContentVerifierBuilderProvider(), pgpPub.getPublicKey(ops.getKeyID()));
+
+        while ((ch = dIn.read()) >= 0)
+        {
+            ops.update((byte)ch);
+        }
+
+        PGPSignatureList                        p3 = (PGPSignatureList)pgpFact.nextObject();
+
+        if (!ops.verify(p3.get(0)))
+        {
+            fail("Failed signature check");
+        }
 
-        // compression not supported
-//        PGPLiteralData             p2 = (PGPLiteralData)pgpFact.nextObject();
-//
-//        InputStream                dIn = p2.getInputStream();
-//        int                        ch;
-//
-//        ops.init(new BcPGPContentVerifierBuilderProvider(), pgpPub.getPublicKey(ops.getKeyID()));
-//
-//        while ((ch = dIn.read()) >= 0)
-//        {
-//            ops.update((byte)ch);
-//        }
-//
-//        PGPSignatureList                        p3 = (PGPSignatureList)pgpFact.nextObject();
-//
-//        if (!ops.verify(p3.get(0)))
-//        {
-//            fail("Failed signature check");
-//        }
-//
         //
         // encrypted message - read subkey
         //
@@ -912,28 +916,30 @@ public class BcPGPRSATest
                  
         pgpFact = new PGPObjectFactory(clear, new BcKeyFingerprintCalculator());
 
-        // compressed data not supported
-//        PGPLiteralData    ld = (PGPLiteralData)pgpFact.nextObject();
-//
-//        bOut = new ByteArrayOutputStream();
-//
-//        if (!ld.getFileName().equals("test.txt"))
-//        {
-//            throw new RuntimeException("wrong filename in packet");
-//        }
-//
-//        InputStream    inLd = ld.getDataStream();
-//        int ch;
-//
-//        while ((ch = inLd.read()) >= 0)
-//        {
-//            bOut.write(ch);
-//        }
-//
-//        if (!areEqual(bOut.toByteArray(), text))
-//        {
-//            fail("wrong plain text in decrypted packet");
-//        }
+        c1 = (PGPCompressedData)pgpFact.nextObject();
+
+        pgpFact = new PGPObjectFactory(c1.getDataStream(), new BcKeyFingerprintCalculator());
+
+        PGPLiteralData    ld = (PGPLiteralData)pgpFact.nextObject();
+
+        bOut = new ByteArrayOutputStream();
+
+        if (!ld.getFileName().equals("test.txt"))
+        {
+            throw new RuntimeException("wrong filename in packet");
+        }
+
+        InputStream    inLd = ld.getDataStream();
+
+        while ((ch = inLd.read()) >= 0)
+        {
+            bOut.write(ch);
+        }
+
+        if (!areEqual(bOut.toByteArray(), text))
+        {
+            fail("wrong plain text in decrypted packet");
+        }
 
         //
         // encrypt - short message
@@ -971,7 +977,6 @@ public class BcPGPRSATest
         
         bOut.reset();
 
-        int ch;
         while ((ch = clear.read()) >= 0)
         {
             bOut.write(ch);
@@ -1202,17 +1207,17 @@ public class BcPGPRSATest
         //
         pgpFact = new PGPObjectFactory(bOut.toByteArray());
 
-        PGPOnePassSignatureList p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
+        p1 = (PGPOnePassSignatureList)pgpFact.nextObject();
         
-        PGPOnePassSignature ops = p1.get(0);
+        ops = p1.get(0);
         
-        PGPLiteralData p2 = (PGPLiteralData)pgpFact.nextObject();
+        p2 = (PGPLiteralData)pgpFact.nextObject();
         if (!p2.getModificationTime().equals(testDate))
         {
             fail("Modification time not preserved: " + p2.getModificationTime() + " " + testDate);
         }
 
-        InputStream dIn = p2.getInputStream();
+        dIn = p2.getInputStream();
 
         ops.init(new BcPGPContentVerifierBuilderProvider(), secretKey.getPublicKey());
         
@@ -1221,7 +1226,7 @@ public class BcPGPRSATest
             ops.update((byte)ch);
         }
 
-        PGPSignatureList p3 = (PGPSignatureList)pgpFact.nextObject();
+        p3 = (PGPSignatureList)pgpFact.nextObject();
 
         if (!ops.verify(p3.get(0)))
         {
@@ -6,6 +6,7 @@ import org.bouncycastle.util.test.TestResult;
 public class RegressionTest
 {
     public static Test[]    tests = {
+        new BcPGPCompressionTest(),
         new BcPGPDSAElGamalTest(),
         new BcPGPDSATest(),
         new BcPGPKeyRingTest(),
@@ -0,0 +1,46 @@
+package org.bouncycastle.operator.bc;
+
+import java.io.OutputStream;
+
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.OutputCompressor;
+import org.bouncycastle.util.zip.Deflater;
+import org.bouncycastle.util.zip.DeflaterOutputStream;
+
+/**
+ * ZLIB (RFC 1950) compression using the light weight DEFLATE implementation.
+ */
+public class BcZlibCompressor
+    implements OutputCompressor
+{
+    private final int level;
+
+    public BcZlibCompressor()
+    {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level compression level, 0 to 9 or Deflater.DEFAULT_COMPRESSION.
+     */
+    public BcZlibCompressor(int level)
+    {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+
+        this.level = level;
+    }
+
+    public AlgorithmIdentifier getAlgorithmIdentifier()
+    {
+        return new AlgorithmIdentifier(CMSObjectIdentifiers.zlibCompress);
+    }
+
+    public OutputStream getOutputStream(OutputStream comOut)
+    {
+        return new DeflaterOutputStream(comOut, new Deflater(level));
+    }
+}
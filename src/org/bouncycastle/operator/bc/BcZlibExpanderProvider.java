@@ -0,0 +1,102 @@
+package org.bouncycastle.operator.bc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.InputExpander;
+import org.bouncycastle.operator.InputExpanderProvider;
+import org.bouncycastle.util.io.StreamOverflowException;
+import org.bouncycastle.util.zip.Inflater;
+import org.bouncycastle.util.zip.InflaterInputStream;
+
+/**
+ * ZLIB (RFC 1950) decompression using the light weight DEFLATE implementation.
+ */
+public class BcZlibExpanderProvider
+    implements InputExpanderProvider
+{
+    private final long limit;
+
+    public BcZlibExpanderProvider()
+    {
+        this(-1);
+    }
+
+    /**
+     * Create a provider whose expanders will throw a StreamOverflowException if
+     * asked to produce more than limit bytes, guarding against compression bombs.
+     *
+     * @param limit the maximum number of bytes to expand to, -1 for no limit.
+     */
+    public BcZlibExpanderProvider(long limit)
+    {
+        this.limit = limit;
+    }
+
+    public InputExpander get(final AlgorithmIdentifier algorithm)
+    {
+        return new InputExpander()
+        {
+            public AlgorithmIdentifier getAlgorithmIdentifier()
+            {
+                return algorithm;
+            }
+
+            public InputStream getInputStream(InputStream comIn)
+            {
+                InputStream s = new InflaterInputStream(comIn, new Inflater());
+                if (limit >= 0)
+                {
+                    s = new LimitedInputStream(s, limit);
+                }
+                return s;
+            }
+        };
+    }
+
+    private static class LimitedInputStream
+        extends InputStream
+    {
+        private final InputStream in;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit)
+        {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        public int read()
+            throws IOException
+        {
+            int b = in.read();
+            if (b >= 0 && --remaining < 0)
+            {
+                throw new StreamOverflowException("expanded byte limit exceeded");
+            }
+            return b;
+        }
+
+        public int read(byte[] buf, int off, int len)
+            throws IOException
+        {
+            int n = in.read(buf, off, len);
+            if (n > 0)
+            {
+                remaining -= n;
+                if (remaining < 0)
+                {
+                    throw new StreamOverflowException("expanded byte limit exceeded");
+                }
+            }
+            return n;
+        }
+
+        public void close()
+            throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.bouncycastle.util.zip;
+
+/**
+ * Tables shared by the DEFLATE (RFC 1951) encoder and decoder, and the ZLIB
+ * (RFC 1950) Adler-32 checksum.
+ */
+final class DeflateConstants
+{
+    static final int WSIZE = 32768;
+    static final int MIN_MATCH = 3;
+    static final int MAX_MATCH = 258;
+    static final int MAX_BITS = 15;
+
+    static final int END_OF_BLOCK = 256;
+    static final int LITLEN_CODES = 288;
+    static final int DIST_CODES = 30;
+    static final int BL_CODES = 19;
+
+    static final int STORED = 0;
+    static final int FIXED = 1;
+    static final int DYNAMIC = 2;
+
+    static final int ZLIB_DEFLATE = 8;
+
+    static final short[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+
+    static final byte[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+
+    static final int[] DIST_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+
+    static final byte[] DIST_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+
+    /**
+     * the order in which code length code lengths are sent.
+     */
+    static final byte[] BL_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    /**
+     * code lengths of the fixed literal/length and distance codes.
+     */
+    static final byte[] FIXED_LITLEN_LENGTHS = new byte[LITLEN_CODES];
+    static final byte[] FIXED_DIST_LENGTHS = new byte[DIST_CODES];
+
+    static
+    {
+        for (int i = 0; i < LITLEN_CODES; i++)
+        {
+            FIXED_LITLEN_LENGTHS[i] = (byte)(i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+        }
+        for (int i = 0; i < DIST_CODES; i++)
+        {
+            FIXED_DIST_LENGTHS[i] = 5;
+        }
+    }
+
+    private static final int ADLER_BASE = 65521;
+    // largest n keeping s2 within a signed int (zlib's 5552 assumes unsigned)
+    private static final int ADLER_NMAX = 3800;
+
+    private DeflateConstants()
+    {
+    }
+
+    static int adler32(int adler, byte[] buf, int off, int len)
+    {
+        int s1 = adler & 0xffff;
+        int s2 = adler >>> 16;
+
+        while (len > 0)
+        {
+            int n = len < ADLER_NMAX ? len : ADLER_NMAX;
+
+            len -= n;
+            while (n-- > 0)
+            {
+                s1 += buf[off++] & 0xff;
+                s2 += s1;
+            }
+            s1 %= ADLER_BASE;
+            s2 %= ADLER_BASE;
+        }
+
+        return (s2 << 16) | s1;
+    }
+
+    /**
+     * Fill in codes with the canonical Huffman codes for the given lengths,
+     * bit reversed as DEFLATE sends codes starting from the most significant bit.
+     */
+    static void canonicalCodes(byte[] lengths, int n, short[] codes)
+    {
+        int[] count = new int[MAX_BITS + 1];
+        int[] next = new int[MAX_BITS + 1];
+
+        for (int i = 0; i < n; i++)
+        {
+            count[lengths[i]]++;
+        }
+        count[0] = 0;
+
+        int code = 0;
+        for (int bits = 1; bits <= MAX_BITS; bits++)
+        {
+            code = (code + count[bits - 1]) << 1;
+            next[bits] = code;
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            int len = lengths[i];
+            if (len != 0)
+            {
+                codes[i] = (short)reverse(next[len]++, len);
+            }
+        }
+    }
+
+    static int reverse(int code, int len)
+    {
+        int r = 0;
+
+        while (len-- > 0)
+        {
+            r = (r << 1) | (code & 1);
+            code >>>= 1;
+        }
+
+        return r;
+    }
+}
@@ -0,0 +1,940 @@
+package org.bouncycastle.util.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A streaming DEFLATE (RFC 1951) encoder, optionally adding the ZLIB (RFC 1950)
+ * header and Adler-32 trailer.
+ * <p>
+ * Data is matched against a 32K sliding window using hash chains with lazy
+ * evaluation, the effort spent searching being set by the compression level as in
+ * zlib. Each block is sent with whichever of dynamic Huffman codes, the fixed codes
+ * or no compression is shortest. Compressed data is written to an OutputStream as it
+ * is produced. The window, hash chains and Huffman tables are allocated once and
+ * reused by reset().
+ * </p>
+ */
+public class Deflater
+{
+    public static final int NO_COMPRESSION = 0;
+    public static final int BEST_SPEED = 1;
+    public static final int BEST_COMPRESSION = 9;
+    public static final int DEFAULT_COMPRESSION = -1;
+
+    private static final int WSIZE = DeflateConstants.WSIZE;
+    private static final int WMASK = WSIZE - 1;
+    private static final int MIN_MATCH = DeflateConstants.MIN_MATCH;
+    private static final int MAX_MATCH = DeflateConstants.MAX_MATCH;
+    private static final int MIN_LOOKAHEAD = MAX_MATCH + MIN_MATCH + 1;
+    private static final int MAX_DIST = WSIZE - MIN_LOOKAHEAD;
+    private static final int TOO_FAR = 4096;
+
+    private static final int HASH_BITS = 15;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+    private static final int HASH_MASK = HASH_SIZE - 1;
+    private static final int HASH_SHIFT = (HASH_BITS + MIN_MATCH - 1) / MIN_MATCH;
+
+    private static final int LIT_BUFSIZE = 16384;
+    private static final int LITLEN_USED = 286;
+    private static final int MAX_STORED = 65535;
+    private static final int MAX_BL_BITS = 7;
+
+    /*
+     * good length, max lazy, nice length and max chain for each level, from zlib.
+     */
+    private static final short[][] CONFIG = {
+        { 0, 0, 0, 0 },
+        { 4, 4, 8, 4 },
+        { 4, 5, 16, 8 },
+        { 4, 6, 32, 32 },
+        { 4, 4, 16, 16 },
+        { 8, 16, 32, 32 },
+        { 8, 16, 128, 128 },
+        { 8, 32, 128, 256 },
+        { 32, 128, 258, 1024 },
+        { 32, 258, 258, 4096 } };
+
+    private static final byte[] LENGTH_CODE = new byte[256];
+    private static final byte[] DIST_CODE = new byte[512];
+    private static final short[] FIXED_LITLEN_CODES = new short[DeflateConstants.LITLEN_CODES];
+    private static final short[] FIXED_DIST_CODES = new short[DeflateConstants.DIST_CODES];
+
+    static
+    {
+        for (int code = 0; code < 28; code++)
+        {
+            int base = DeflateConstants.LENGTH_BASE[code] - MIN_MATCH;
+            for (int i = 0; i < (1 << DeflateConstants.LENGTH_EXTRA[code]); i++)
+            {
+                LENGTH_CODE[base + i] = (byte)code;
+            }
+        }
+        LENGTH_CODE[255] = 28;
+
+        for (int code = 0; code < DeflateConstants.DIST_CODES; code++)
+        {
+            int base = DeflateConstants.DIST_BASE[code] - 1;
+            for (int i = 0; i < (1 << DeflateConstants.DIST_EXTRA[code]); i++)
+            {
+                int d = base + i;
+                DIST_CODE[d < 256 ? d : 256 + (d >> 7)] = (byte)code;
+            }
+        }
+
+        DeflateConstants.canonicalCodes(DeflateConstants.FIXED_LITLEN_LENGTHS, DeflateConstants.LITLEN_CODES, FIXED_LITLEN_CODES);
+        DeflateConstants.canonicalCodes(DeflateConstants.FIXED_DIST_LENGTHS, DeflateConstants.DIST_CODES, FIXED_DIST_CODES);
+    }
+
+    private final int level;
+    private final boolean nowrap;
+    private final int goodMatch;
+    private final int maxLazy;
+    private final int niceMatch;
+    private final int maxChain;
+
+    private final byte[] window = new byte[2 * WSIZE];
+    private final short[] head;
+    private final short[] prev;
+
+    private final byte[] symLc = new byte[LIT_BUFSIZE];
+    private final short[] symDist = new short[LIT_BUFSIZE];
+    private final int[] litFreq = new int[DeflateConstants.LITLEN_CODES];
+    private final int[] distFreq = new int[DeflateConstants.DIST_CODES];
+    private final int[] blFreq = new int[DeflateConstants.BL_CODES];
+    private final byte[] litLens = new byte[DeflateConstants.LITLEN_CODES];
+    private final byte[] distLens = new byte[DeflateConstants.DIST_CODES];
+    private final byte[] blLens = new byte[DeflateConstants.BL_CODES];
+    private final short[] litCodes = new short[DeflateConstants.LITLEN_CODES];
+    private final short[] distCodes = new short[DeflateConstants.DIST_CODES];
+    private final short[] blCodes = new short[DeflateConstants.BL_CODES];
+    private final byte[] allLens = new byte[LITLEN_USED + DeflateConstants.DIST_CODES];
+
+    // scratch space for building Huffman trees
+    private final int[] weight = new int[2 * DeflateConstants.LITLEN_CODES];
+    private final int[] parent = new int[2 * DeflateConstants.LITLEN_CODES];
+    private final int[] leaves = new int[DeflateConstants.LITLEN_CODES];
+
+    private final byte[] pending = new byte[4096];
+
+    private OutputStream out;
+    private int pendingLen;
+    private int bitBuf;
+    private int bitCnt;
+
+    private int strStart;
+    private int lookahead;
+    private int blockStart;
+    private int insH;
+    private boolean hashInit;
+    private int matchLength;
+    private int matchStart;
+    private int prevLength;
+    private int prevMatch;
+    private boolean matchAvailable;
+    private int symCount;
+
+    private boolean started;
+    private boolean finished;
+    private int adler;
+
+    /**
+     * Create a Deflater producing ZLIB format data at the default compression level.
+     */
+    public Deflater()
+    {
+        this(DEFAULT_COMPRESSION, false);
+    }
+
+    /**
+     * Create a Deflater producing ZLIB format data.
+     *
+     * @param level the compression level, 0 to 9 or DEFAULT_COMPRESSION.
+     */
+    public Deflater(int level)
+    {
+        this(level, false);
+    }
+
+    /**
+     * Create a Deflater.
+     *
+     * @param level the compression level, 0 to 9 or DEFAULT_COMPRESSION.
+     * @param nowrap true for raw DEFLATE data, false for ZLIB format.
+     */
+    public Deflater(int level, boolean nowrap)
+    {
+        if (level == DEFAULT_COMPRESSION)
+        {
+            level = 6;
+        }
+        if (level < NO_COMPRESSION || level > BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+
+        this.level = level;
+        this.nowrap = nowrap;
+        this.goodMatch = CONFIG[level][0];
+        this.maxLazy = CONFIG[level][1];
+        this.niceMatch = CONFIG[level][2];
+        this.maxChain = CONFIG[level][3];
+
+        if (level != NO_COMPRESSION)
+        {
+            head = new short[HASH_SIZE];
+            prev = new short[WSIZE];
+        }
+        else
+        {
+            head = null;
+            prev = null;
+        }
+    }
+
+    /**
+     * Start a new compressed stream, reusing this Deflater's buffers.
+     *
+     * @param out the stream the compressed data is written to.
+     */
+    public void reset(OutputStream out)
+    {
+        this.out = out;
+        this.pendingLen = 0;
+        this.bitBuf = 0;
+        this.bitCnt = 0;
+        this.strStart = 0;
+        this.lookahead = 0;
+        this.blockStart = 0;
+        this.hashInit = false;
+        this.matchLength = MIN_MATCH - 1;
+        this.prevLength = MIN_MATCH - 1;
+        this.matchAvailable = false;
+        this.started = false;
+        this.finished = false;
+        this.adler = 1;
+
+        if (head != null)
+        {
+            for (int i = 0; i < HASH_SIZE; i++)
+            {
+                head[i] = 0;
+            }
+        }
+        clearBlock();
+    }
+
+    /**
+     * Compress len bytes from in, writing out compressed data as it becomes available.
+     */
+    public void deflate(byte[] in, int inOff, int len)
+        throws IOException
+    {
+        checkState();
+
+        if (!nowrap)
+        {
+            adler = DeflateConstants.adler32(adler, in, inOff, len);
+        }
+
+        while (len > 0)
+        {
+            if (strStart >= WSIZE + MAX_DIST)
+            {
+                slideWindow();
+            }
+
+            int count = Math.min(len, window.length - strStart - lookahead);
+
+            System.arraycopy(in, inOff, window, strStart + lookahead, count);
+            lookahead += count;
+            inOff += count;
+            len -= count;
+
+            compress(false);
+        }
+    }
+
+    /**
+     * Compress all data passed in so far and write it out, followed by an empty
+     * stored block so a reader can decode everything up to this point (a ZLIB
+     * "sync flush"). Frequent flushing reduces the compression ratio.
+     */
+    public void flush()
+        throws IOException
+    {
+        checkState();
+
+        compress(true);
+        flushBlock(false);
+
+        sendBits(DeflateConstants.STORED << 1, 3);
+        alignToByte();
+        putShort(0);
+        putShort(0xffff);
+
+        flushPending();
+    }
+
+    /**
+     * Compress any remaining data and write the end of the compressed stream. The
+     * OutputStream is not flushed or closed.
+     */
+    public void finish()
+        throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+        checkState();
+
+        compress(true);
+        flushBlock(true);
+        alignToByte();
+
+        if (!nowrap)
+        {
+            putByte(adler >>> 24);
+            putByte(adler >>> 16);
+            putByte(adler >>> 8);
+            putByte(adler);
+        }
+
+        flushPending();
+        finished = true;
+    }
+
+    /**
+     * Return true if finish() has been called since the last reset.
+     */
+    public boolean finished()
+    {
+        return finished;
+    }
+
+    private void checkState()
+        throws IOException
+    {
+        if (out == null)
+        {
+            throw new IllegalStateException("Deflater not reset with an output stream");
+        }
+        if (finished)
+        {
+            throw new IllegalStateException("Deflater already finished");
+        }
+
+        if (!started)
+        {
+            started = true;
+            if (!nowrap)
+            {
+                int cmf = (7 << 4) | DeflateConstants.ZLIB_DEFLATE;
+                int flg = (level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3) << 6;
+
+                flg += 31 - ((cmf << 8) | flg) % 31;
+                putByte(cmf);
+                putByte(flg);
+            }
+        }
+    }
+
+    private void slideWindow()
+        throws IOException
+    {
+        if (level == NO_COMPRESSION)
+        {
+            flushBlock(false);
+        }
+
+        System.arraycopy(window, WSIZE, window, 0, WSIZE);
+        matchStart -= WSIZE;
+        strStart -= WSIZE;
+        blockStart -= WSIZE;
+
+        if (head != null)
+        {
+            for (int i = 0; i < HASH_SIZE; i++)
+            {
+                int m = head[i] & 0xffff;
+                head[i] = (short)(m >= WSIZE ? m - WSIZE : 0);
+            }
+            for (int i = 0; i < WSIZE; i++)
+            {
+                int m = prev[i] & 0xffff;
+                prev[i] = (short)(m >= WSIZE ? m - WSIZE : 0);
+            }
+        }
+    }
+
+    private void compress(boolean flush)
+        throws IOException
+    {
+        if (level == NO_COMPRESSION)
+        {
+            strStart += lookahead;
+            lookahead = 0;
+            if (strStart - blockStart >= MAX_STORED)
+            {
+                flushBlock(false);
+            }
+            return;
+        }
+
+        while (lookahead >= MIN_LOOKAHEAD || (flush && lookahead > 0))
+        {
+            if (!hashInit && lookahead >= MIN_MATCH)
+            {
+                insH = (((window[strStart] & 0xff) << HASH_SHIFT) ^ (window[strStart + 1] & 0xff)) & HASH_MASK;
+                hashInit = true;
+            }
+
+            int hashHead = 0;
+            if (lookahead >= MIN_MATCH)
+            {
+                hashHead = insertString(strStart);
+            }
+
+            prevLength = matchLength;
+            prevMatch = matchStart;
+            matchLength = MIN_MATCH - 1;
+
+            if (hashHead != 0 && prevLength < maxLazy && strStart - hashHead <= MAX_DIST)
+            {
+                matchLength = longestMatch(hashHead);
+
+                if (matchLength == MIN_MATCH && strStart - matchStart > TOO_FAR)
+                {
+                    // a short match a long way back costs more than its literals
+                    matchLength = MIN_MATCH - 1;
+                }
+            }
+
+            if (prevLength >= MIN_MATCH && matchLength <= prevLength)
+            {
+                // the previous match was better, emit it and skip over it
+                int maxInsert = strStart + lookahead - MIN_MATCH;
+
+                tally(strStart - 1 - prevMatch, prevLength - MIN_MATCH);
+
+                lookahead -= prevLength - 1;
+                prevLength -= 2;
+                do
+                {
+                    if (++strStart <= maxInsert)
+                    {
+                        insertString(strStart);
+                    }
+                }
+                while (--prevLength != 0);
+
+                matchAvailable = false;
+                matchLength = MIN_MATCH - 1;
+                strStart++;
+
+                if (symCount == LIT_BUFSIZE)
+                {
+                    flushBlock(false);
+                }
+            }
+            else if (matchAvailable)
+            {
+                tally(0, window[strStart - 1] & 0xff);
+                if (symCount == LIT_BUFSIZE)
+                {
+                    flushBlock(false);
+                }
+                strStart++;
+                lookahead--;
+            }
+            else
+            {
+                matchAvailable = true;
+                strStart++;
+                lookahead--;
+            }
+        }
+
+        if (flush && matchAvailable)
+        {
+            tally(0, window[strStart - 1] & 0xff);
+            matchAvailable = false;
+        }
+    }
+
+    private int insertString(int pos)
+    {
+        insH = ((insH << HASH_SHIFT) ^ (window[pos + MIN_MATCH - 1] & 0xff)) & HASH_MASK;
+
+        int match = head[insH] & 0xffff;
+        prev[pos & WMASK] = (short)match;
+        head[insH] = (short)pos;
+
+        return match;
+    }
+
+    private int longestMatch(int curMatch)
+    {
+        int chain = maxChain;
+        int bestLen = prevLength;
+        int maxLen = Math.min(MAX_MATCH, lookahead);
+        int nice = Math.min(niceMatch, lookahead);
+        int limit = strStart > MAX_DIST ? strStart - MAX_DIST : 0;
+        byte[] w = window;
+        int scan = strStart;
+
+        if (bestLen >= maxLen)
+        {
+            return bestLen;
+        }
+        if (prevLength >= goodMatch)
+        {
+            chain >>= 2;
+        }
+
+        do
+        {
+            int match = curMatch;
+
+            if (w[match + bestLen] != w[scan + bestLen]
+                || w[match + bestLen - 1] != w[scan + bestLen - 1]
+                || w[match] != w[scan]
+                || w[match + 1] != w[scan + 1])
+            {
+                continue;
+            }
+
+            int len = 2;
+            while (len < maxLen && w[match + len] == w[scan + len])
+            {
+                len++;
+            }
+
+            if (len > bestLen)
+            {
+                matchStart = curMatch;
+                bestLen = len;
+                if (len >= nice)
+                {
+                    break;
+                }
+            }
+        }
+        while ((curMatch = prev[curMatch & WMASK] & 0xffff) > limit && --chain != 0);
+
+        return bestLen;
+    }
+
+    private void tally(int dist, int lc)
+    {
+        symDist[symCount] = (short)dist;
+        symLc[symCount] = (byte)lc;
+        symCount++;
+
+        if (dist == 0)
+        {
+            litFreq[lc]++;
+        }
+        else
+        {
+            litFreq[LENGTH_CODE[lc] + 257]++;
+            distFreq[distCode(dist - 1)]++;
+        }
+    }
+
+    private static int distCode(int d)
+    {
+        return DIST_CODE[d < 256 ? d : 256 + (d >> 7)];
+    }
+
+    private void clearBlock()
+    {
+        for (int i = 0; i < litFreq.length; i++)
+        {
+            litFreq[i] = 0;
+        }
+        for (int i = 0; i < distFreq.length; i++)
+        {
+            distFreq[i] = 0;
+        }
+        symCount = 0;
+    }
+
+    private void flushBlock(boolean last)
+        throws IOException
+    {
+        int storedLen = strStart - blockStart;
+
+        if (level == NO_COMPRESSION)
+        {
+            sendStored(storedLen, last);
+        }
+        else
+        {
+            litFreq[DeflateConstants.END_OF_BLOCK]++;
+
+            buildLengths(litFreq, LITLEN_USED, DeflateConstants.MAX_BITS, litLens);
+            buildLengths(distFreq, DeflateConstants.DIST_CODES, DeflateConstants.MAX_BITS, distLens);
+
+            int nLit = LITLEN_USED;
+            while (nLit > 257 && litLens[nLit - 1] == 0)
+            {
+                nLit--;
+            }
+            int nDist = DeflateConstants.DIST_CODES;
+            while (nDist > 1 && distLens[nDist - 1] == 0)
+            {
+                nDist--;
+            }
+            System.arraycopy(litLens, 0, allLens, 0, nLit);
+            System.arraycopy(distLens, 0, allLens, nLit, nDist);
+
+            for (int i = 0; i < DeflateConstants.BL_CODES; i++)
+            {
+                blFreq[i] = 0;
+            }
+            scanLengths(nLit + nDist, false);
+            buildLengths(blFreq, DeflateConstants.BL_CODES, MAX_BL_BITS, blLens);
+
+            int nBl = DeflateConstants.BL_CODES;
+            while (nBl > 4 && blLens[DeflateConstants.BL_ORDER[nBl - 1]] == 0)
+            {
+                nBl--;
+            }
+
+            long dynamicBits = 3 + 14 + 3 * nBl + 2 * blFreq[16] + 3 * blFreq[17] + 7 * blFreq[18]
+                + dataBits(litLens, distLens);
+            for (int i = 0; i < DeflateConstants.BL_CODES; i++)
+            {
+                dynamicBits += blFreq[i] * blLens[i];
+            }
+            long fixedBits = 3 + dataBits(DeflateConstants.FIXED_LITLEN_LENGTHS, DeflateConstants.FIXED_DIST_LENGTHS);
+            long storedBits = blockStart >= 0
+                ? 8L * storedLen + 42L * ((storedLen + MAX_STORED - 1) / MAX_STORED + 1) : Long.MAX_VALUE;
+
+            if (storedBits <= fixedBits && storedBits <= dynamicBits)
+            {
+                sendStored(storedLen, last);
+            }
+            else if (fixedBits <= dynamicBits)
+            {
+                sendBits((DeflateConstants.FIXED << 1) | (last ? 1 : 0), 3);
+                sendSymbols(FIXED_LITLEN_CODES, DeflateConstants.FIXED_LITLEN_LENGTHS,
+                    FIXED_DIST_CODES, DeflateConstants.FIXED_DIST_LENGTHS);
+            }
+            else
+            {
+                DeflateConstants.canonicalCodes(litLens, LITLEN_USED, litCodes);
+                DeflateConstants.canonicalCodes(distLens, DeflateConstants.DIST_CODES, distCodes);
+                DeflateConstants.canonicalCodes(blLens, DeflateConstants.BL_CODES, blCodes);
+
+                sendBits((DeflateConstants.DYNAMIC << 1) | (last ? 1 : 0), 3);
+                sendBits(nLit - 257, 5);
+                sendBits(nDist - 1, 5);
+                sendBits(nBl - 4, 4);
+                for (int i = 0; i < nBl; i++)
+                {
+                    sendBits(blLens[DeflateConstants.BL_ORDER[i]], 3);
+                }
+                scanLengths(nLit + nDist, true);
+                sendSymbols(litCodes, litLens, distCodes, distLens);
+            }
+        }
+
+        blockStart = strStart;
+        clearBlock();
+    }
+
+    private long dataBits(byte[] lLens, byte[] dLens)
+    {
+        long bits = 0;
+
+        for (int i = 0; i < LITLEN_USED; i++)
+        {
+            bits += (long)litFreq[i] * lLens[i];
+        }
+        for (int i = 0; i < 29; i++)
+        {
+            bits += (long)litFreq[257 + i] * DeflateConstants.LENGTH_EXTRA[i];
+        }
+        for (int i = 0; i < DeflateConstants.DIST_CODES; i++)
+        {
+            bits += (long)distFreq[i] * (dLens[i] + DeflateConstants.DIST_EXTRA[i]);
+        }
+
+        return bits;
+    }
+
+    private void sendStored(int len, boolean last)
+        throws IOException
+    {
+        int pos = blockStart;
+
+        do
+        {
+            int count = Math.min(len, MAX_STORED);
+            len -= count;
+
+            sendBits((DeflateConstants.STORED << 1) | (last && len == 0 ? 1 : 0), 3);
+            alignToByte();
+            putShort(count);
+            putShort(count ^ 0xffff);
+
+            flushPending();
+            out.write(window, pos, count);
+            pos += count;
+        }
+        while (len > 0);
+    }
+
+    private void sendSymbols(short[] lCodes, byte[] lLens, short[] dCodes, byte[] dLens)
+        throws IOException
+    {
+        for (int i = 0; i < symCount; i++)
+        {
+            int dist = symDist[i] & 0xffff;
+            int lc = symLc[i] & 0xff;
+
+            if (dist == 0)
+            {
+                sendBits(lCodes[lc], lLens[lc]);
+            }
+            else
+            {
+                int code = LENGTH_CODE[lc];
+                sendBits(lCodes[code + 257], lLens[code + 257]);
+                sendBits(lc + MIN_MATCH - DeflateConstants.LENGTH_BASE[code], DeflateConstants.LENGTH_EXTRA[code]);
+
+                dist--;
+                code = distCode(dist);
+                sendBits(dCodes[code], dLens[code]);
+                sendBits(dist + 1 - DeflateConstants.DIST_BASE[code], DeflateConstants.DIST_EXTRA[code]);
+            }
+        }
+
+        sendBits(lCodes[DeflateConstants.END_OF_BLOCK], lLens[DeflateConstants.END_OF_BLOCK]);
+    }
+
+    /**
+     * Run length encode the code lengths in allLens, either counting the code length
+     * symbols needed or sending them.
+     */
+    private void scanLengths(int n, boolean send)
+        throws IOException
+    {
+        int i = 0;
+
+        while (i < n)
+        {
+            int len = allLens[i];
+            int run = 1;
+            while (i + run < n && allLens[i + run] == len)
+            {
+                run++;
+            }
+            i += run;
+
+            if (len == 0)
+            {
+                while (run >= 11)
+                {
+                    int r = Math.min(run, 138);
+                    sendLength(18, r - 11, 7, send);
+                    run -= r;
+                }
+                if (run >= 3)
+                {
+                    sendLength(17, run - 3, 3, send);
+                    run = 0;
+                }
+            }
+            else
+            {
+                sendLength(len, 0, 0, send);
+                run--;
+                while (run >= 3)
+                {
+                    int r = Math.min(run, 6);
+                    sendLength(16, r - 3, 2, send);
+                    run -= r;
+                }
+            }
+
+            while (run-- > 0)
+            {
+                sendLength(len, 0, 0, send);
+            }
+        }
+    }
+
+    private void sendLength(int sym, int extra, int extraBits, boolean send)
+        throws IOException
+    {
+        if (send)
+        {
+            sendBits(blCodes[sym], blLens[sym]);
+            sendBits(extra, extraBits);
+        }
+        else
+        {
+            blFreq[sym]++;
+        }
+    }
+
+    /**
+     * Set lens to Huffman code lengths of at most maxBits for the n symbols with the
+     * frequencies in freq. At least two symbols are always given a code, as some
+     * decoders reject a code with a single symbol.
+     */
+    private void buildLengths(int[] freq, int n, int maxBits, byte[] lens)
+    {
+        int m = 0;
+
+        for (int i = 0; i < n; i++)
+        {
+            lens[i] = 0;
+            if (freq[i] != 0)
+            {
+                leaves[m++] = i;
+            }
+        }
+        for (int i = 0; m < 2; i++)
+        {
+            if (freq[i] == 0)
+            {
+                leaves[m++] = i;
+            }
+        }
+
+        for (int i = 0; i < m; i++)
+        {
+            weight[i] = Math.max(freq[leaves[i]], 1);
+        }
+
+        for (;;)
+        {
+            // sort the leaves by weight
+            for (int i = 1; i < m; i++)
+            {
+                int w = weight[i];
+                int s = leaves[i];
+                int j = i - 1;
+                while (j >= 0 && weight[j] > w)
+                {
+                    weight[j + 1] = weight[j];
+                    leaves[j + 1] = leaves[j];
+                    j--;
+                }
+                weight[j + 1] = w;
+                leaves[j + 1] = s;
+            }
+
+            // leaves are nodes 0 to m - 1, internal nodes follow in order of creation
+            int leaf = 0;
+            int node = m;
+            for (int next = m; next < 2 * m - 1; next++)
+            {
+                int a, b;
+                if (leaf < m && (node >= next || weight[leaf] <= weight[node]))
+                {
+                    a = leaf++;
+                }
+                else
+                {
+                    a = node++;
+                }
+                if (leaf < m && (node >= next || weight[leaf] <= weight[node]))
+                {
+                    b = leaf++;
+                }
+                else
+                {
+                    b = node++;
+                }
+                weight[next] = weight[a] + weight[b];
+                parent[a] = next;
+                parent[b] = next;
+            }
+
+            // depths, using parent[] for the result as parents come after their children
+            int root = 2 * m - 2;
+            int maxDepth = 0;
+            parent[root] = 0;
+            for (int i = root - 1; i >= 0; i--)
+            {
+                parent[i] = parent[parent[i]] + 1;
+                if (i < m && parent[i] > maxDepth)
+                {
+                    maxDepth = parent[i];
+                }
+            }
+
+            if (maxDepth <= maxBits)
+            {
+                for (int i = 0; i < m; i++)
+                {
+                    lens[leaves[i]] = (byte)parent[i];
+                }
+                return;
+            }
+
+            // too deep, flatten the weights and try again
+            for (int i = 0; i < m; i++)
+            {
+                weight[i] = (weight[i] + 1) >> 1;
+            }
+        }
+    }
+
+    private void sendBits(int value, int len)
+        throws IOException
+    {
+        bitBuf |= value << bitCnt;
+        bitCnt += len;
+        while (bitCnt >= 8)
+        {
+            putByte(bitBuf);
+            bitBuf >>>= 8;
+            bitCnt -= 8;
+        }
+    }
+
+    private void alignToByte()
+        throws IOException
+    {
+        if (bitCnt > 0)
+        {
+            putByte(bitBuf);
+        }
+        bitBuf = 0;
+        bitCnt = 0;
+    }
+
+    private void putShort(int v)
+        throws IOException
+    {
+        putByte(v);
+        putByte(v >>> 8);
+    }
+
+    private void putByte(int b)
+        throws IOException
+    {
+        if (pendingLen == pending.length)
+        {
+            flushPending();
+        }
+        pending[pendingLen++] = (byte)b;
+    }
+
+    private void flushPending()
+        throws IOException
+    {
+        if (pendingLen > 0)
+        {
+            out.write(pending, 0, pendingLen);
+            pendingLen = 0;
+        }
+    }
+}
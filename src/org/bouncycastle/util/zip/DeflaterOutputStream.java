@@ -0,0 +1,101 @@
+package org.bouncycastle.util.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream compressing the data written to it with a Deflater.
+ */
+public class DeflaterOutputStream
+    extends OutputStream
+{
+    private final OutputStream out;
+    private final Deflater def;
+    private final boolean syncFlush;
+    private final byte[] oneByte = new byte[1];
+
+    private boolean closed;
+
+    /**
+     * Create a stream writing ZLIB format data at the default compression level.
+     */
+    public DeflaterOutputStream(OutputStream out)
+    {
+        this(out, new Deflater(), false);
+    }
+
+    /**
+     * Create a stream using the passed in Deflater, which is reset to write to out.
+     *
+     * @param out the stream to write the compressed data to.
+     * @param def the Deflater to compress with.
+     */
+    public DeflaterOutputStream(OutputStream out, Deflater def)
+    {
+        this(out, def, false);
+    }
+
+    /**
+     * Create a stream using the passed in Deflater, which is reset to write to out.
+     *
+     * @param out the stream to write the compressed data to.
+     * @param def the Deflater to compress with.
+     * @param syncFlush if true flush() makes all data written so far decodable at the
+     * other end, otherwise it only flushes out.
+     */
+    public DeflaterOutputStream(OutputStream out, Deflater def, boolean syncFlush)
+    {
+        this.out = out;
+        this.def = def;
+        this.syncFlush = syncFlush;
+
+        def.reset(out);
+    }
+
+    public void write(int b)
+        throws IOException
+    {
+        oneByte[0] = (byte)b;
+        write(oneByte, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("stream closed");
+        }
+        def.deflate(b, off, len);
+    }
+
+    public void flush()
+        throws IOException
+    {
+        if (syncFlush && !def.finished())
+        {
+            def.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the end of the compressed data without closing the underlying stream.
+     */
+    public void finish()
+        throws IOException
+    {
+        def.finish();
+    }
+
+    public void close()
+        throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            finish();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,643 @@
+package org.bouncycastle.util.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A streaming DEFLATE (RFC 1951) decoder, optionally expecting the ZLIB (RFC 1950)
+ * header and Adler-32 trailer around the compressed data.
+ * <p>
+ * Compressed data is pulled from an InputStream as output is asked for, so memory use
+ * is bounded by the 64K history window whatever the size of the data. The window, the
+ * input buffer and the Huffman tables are allocated once and reused by reset(), so a
+ * long lived Inflater can decode any number of streams without further allocation.
+ * </p>
+ * <p>
+ * <b>Note</b>: input is read ahead in blocks, so the underlying stream may be left
+ * positioned after the end of the compressed data.
+ * </p>
+ */
+public class Inflater
+{
+    private static final int FAST_BITS = 9;
+    private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+
+    private static final int WINDOW_MASK = 2 * DeflateConstants.WSIZE - 1;
+    // decoding stops short of this much pending output so matches never overwrite it
+    private static final int MAX_UNREAD = DeflateConstants.WSIZE - DeflateConstants.MAX_MATCH;
+
+    private static final int HEADER = 0;
+    private static final int BLOCK = 1;
+    private static final int STORED = 2;
+    private static final int CODES = 3;
+    private static final int DONE = 4;
+
+    private static Huffman fixedLitLen;
+    private static Huffman fixedDist;
+
+    private final boolean nowrap;
+    private final byte[] window = new byte[2 * DeflateConstants.WSIZE];
+    private final byte[] inBuf = new byte[4096];
+    private final byte[] lengths = new byte[DeflateConstants.LITLEN_CODES + DeflateConstants.DIST_CODES];
+    private final Huffman litLen = new Huffman(DeflateConstants.LITLEN_CODES);
+    private final Huffman dist = new Huffman(DeflateConstants.DIST_CODES);
+    private final Huffman codeLengths = new Huffman(DeflateConstants.BL_CODES);
+
+    private InputStream in;
+    private int inPos;
+    private int inEnd;
+    private int bitBuf;
+    private int bitCnt;
+
+    private int state;
+    private boolean lastBlock;
+    private int storedLeft;
+    private Huffman curLitLen;
+    private Huffman curDist;
+
+    private int wPos;
+    private int unread;
+    private long written;
+
+    private int adler;
+    private int expectedAdler;
+
+    /**
+     * Create an Inflater for ZLIB format data.
+     */
+    public Inflater()
+    {
+        this(false);
+    }
+
+    /**
+     * Create an Inflater.
+     *
+     * @param nowrap true if the data is raw DEFLATE data, false if it is ZLIB format.
+     */
+    public Inflater(boolean nowrap)
+    {
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * Start decoding a new compressed stream, reusing this Inflater's buffers.
+     *
+     * @param in the stream the compressed data is read from.
+     */
+    public void reset(InputStream in)
+    {
+        this.in = in;
+        this.inPos = 0;
+        this.inEnd = 0;
+        this.bitBuf = 0;
+        this.bitCnt = 0;
+        this.state = HEADER;
+        this.lastBlock = false;
+        this.storedLeft = 0;
+        this.wPos = 0;
+        this.unread = 0;
+        this.written = 0;
+        this.adler = 1;
+    }
+
+    /**
+     * Return true if the end of the compressed data has been reached and all
+     * the uncompressed data has been returned.
+     */
+    public boolean finished()
+    {
+        return state == DONE && unread == 0;
+    }
+
+    /**
+     * Decompress into the passed in buffer, blocking only until some output is available.
+     *
+     * @param out the buffer to decompress into.
+     * @param outOff offset into out to start at.
+     * @param len the maximum number of bytes to return.
+     * @return the number of bytes written to out, or -1 at the end of the compressed data.
+     * @throws IOException if the compressed data is corrupt or truncated, or cannot be read.
+     */
+    public int inflate(byte[] out, int outOff, int len)
+        throws IOException
+    {
+        if (in == null)
+        {
+            throw new IllegalStateException("Inflater not reset with an input stream");
+        }
+        if (len == 0)
+        {
+            return 0;
+        }
+
+        while (unread == 0)
+        {
+            if (state == DONE)
+            {
+                if (!nowrap && adler != expectedAdler)
+                {
+                    throw new IOException("incorrect ZLIB data checksum");
+                }
+                return -1;
+            }
+            decode(len);
+        }
+
+        int count = Math.min(len, unread);
+        int start = (wPos - unread) & WINDOW_MASK;
+        int first = Math.min(count, window.length - start);
+
+        System.arraycopy(window, start, out, outOff, first);
+        System.arraycopy(window, 0, out, outOff + first, count - first);
+        unread -= count;
+
+        if (!nowrap)
+        {
+            adler = DeflateConstants.adler32(adler, out, outOff, count);
+        }
+
+        return count;
+    }
+
+    private void decode(int want)
+        throws IOException
+    {
+        int limit = Math.min(want, MAX_UNREAD);
+
+        while (unread < limit && state != DONE)
+        {
+            switch (state)
+            {
+            case HEADER:
+                readHeader();
+                break;
+            case BLOCK:
+                readBlockHeader();
+                break;
+            case STORED:
+                copyStored(limit);
+                break;
+            case CODES:
+                decodeSymbols(limit);
+                break;
+            }
+
+            // only block on the input again if there is nothing to return
+            if (unread > 0 && inPos == inEnd)
+            {
+                break;
+            }
+        }
+    }
+
+    private void readHeader()
+        throws IOException
+    {
+        if (!nowrap)
+        {
+            int cmf = bits(8);
+            int flg = bits(8);
+
+            if ((cmf & 0x0f) != DeflateConstants.ZLIB_DEFLATE || (cmf >>> 4) > 7)
+            {
+                throw new IOException("unknown ZLIB compression method");
+            }
+            if (((cmf << 8) | flg) % 31 != 0)
+            {
+                throw new IOException("incorrect ZLIB header check");
+            }
+            if ((flg & 0x20) != 0)
+            {
+                throw new IOException("ZLIB preset dictionary not supported");
+            }
+        }
+        state = BLOCK;
+    }
+
+    private void readBlockHeader()
+        throws IOException
+    {
+        if (lastBlock)
+        {
+            if (!nowrap)
+            {
+                dropBits(bitCnt & 7);
+                expectedAdler = (bits(8) << 24) | (bits(8) << 16) | (bits(8) << 8) | bits(8);
+            }
+            state = DONE;
+            return;
+        }
+
+        lastBlock = bits(1) != 0;
+
+        switch (bits(2))
+        {
+        case DeflateConstants.STORED:
+            dropBits(bitCnt & 7);
+            int len = bits(16);
+            if ((len ^ 0xffff) != bits(16))
+            {
+                throw new IOException("invalid stored block lengths");
+            }
+            storedLeft = len;
+            state = STORED;
+            break;
+        case DeflateConstants.FIXED:
+            buildFixedTables();
+            curLitLen = fixedLitLen;
+            curDist = fixedDist;
+            state = CODES;
+            break;
+        case DeflateConstants.DYNAMIC:
+            readDynamicTables();
+            curLitLen = litLen;
+            curDist = dist;
+            state = CODES;
+            break;
+        default:
+            throw new IOException("invalid block type");
+        }
+    }
+
+    private static synchronized void buildFixedTables()
+    {
+        if (fixedLitLen == null)
+        {
+            Huffman l = new Huffman(DeflateConstants.LITLEN_CODES);
+            Huffman d = new Huffman(DeflateConstants.DIST_CODES);
+
+            l.build(DeflateConstants.FIXED_LITLEN_LENGTHS, 0, DeflateConstants.LITLEN_CODES);
+            d.build(DeflateConstants.FIXED_DIST_LENGTHS, 0, DeflateConstants.DIST_CODES);
+
+            fixedDist = d;
+            fixedLitLen = l;
+        }
+    }
+
+    private void readDynamicTables()
+        throws IOException
+    {
+        int nLen = bits(5) + 257;
+        int nDist = bits(5) + 1;
+        int nCode = bits(4) + 4;
+
+        if (nLen > 286 || nDist > DeflateConstants.DIST_CODES)
+        {
+            throw new IOException("too many length or distance codes");
+        }
+
+        for (int i = 0; i < DeflateConstants.BL_CODES; i++)
+        {
+            lengths[DeflateConstants.BL_ORDER[i]] = (byte)(i < nCode ? bits(3) : 0);
+        }
+        if (!codeLengths.build(lengths, 0, DeflateConstants.BL_CODES))
+        {
+            throw new IOException("invalid code lengths set");
+        }
+
+        int total = nLen + nDist;
+        int index = 0;
+        while (index < total)
+        {
+            int sym = decodeSymbol(codeLengths);
+
+            if (sym < 16)
+            {
+                lengths[index++] = (byte)sym;
+                continue;
+            }
+
+            byte value = 0;
+            int repeat;
+            if (sym == 16)
+            {
+                if (index == 0)
+                {
+                    throw new IOException("invalid bit length repeat");
+                }
+                value = lengths[index - 1];
+                repeat = 3 + bits(2);
+            }
+            else if (sym == 17)
+            {
+                repeat = 3 + bits(3);
+            }
+            else
+            {
+                repeat = 11 + bits(7);
+            }
+
+            if (index + repeat > total)
+            {
+                throw new IOException("invalid bit length repeat");
+            }
+            while (repeat-- > 0)
+            {
+                lengths[index++] = value;
+            }
+        }
+
+        if (lengths[DeflateConstants.END_OF_BLOCK] == 0)
+        {
+            throw new IOException("missing end-of-block code");
+        }
+        if (!litLen.build(lengths, 0, nLen))
+        {
+            throw new IOException("invalid literal/lengths set");
+        }
+        if (!dist.build(lengths, nLen, nDist))
+        {
+            throw new IOException("invalid distances set");
+        }
+    }
+
+    private void copyStored(int limit)
+        throws IOException
+    {
+        // whole bytes left in the bit buffer after the header come first
+        while (storedLeft > 0 && bitCnt >= 8 && unread < limit)
+        {
+            put(bits(8));
+            storedLeft--;
+        }
+
+        while (storedLeft > 0 && unread < limit)
+        {
+            if (inPos == inEnd && !fillInput())
+            {
+                throw new EOFException("unexpected end of compressed data");
+            }
+
+            int count = Math.min(Math.min(storedLeft, inEnd - inPos), limit - unread);
+            count = Math.min(count, window.length - wPos);
+
+            System.arraycopy(inBuf, inPos, window, wPos, count);
+            inPos += count;
+            wPos = (wPos + count) & WINDOW_MASK;
+            unread += count;
+            written += count;
+            storedLeft -= count;
+
+            if (inPos == inEnd)
+            {
+                break;
+            }
+        }
+
+        if (storedLeft == 0)
+        {
+            state = BLOCK;
+        }
+    }
+
+    private void decodeSymbols(int limit)
+        throws IOException
+    {
+        while (unread < limit)
+        {
+            int sym = decodeSymbol(curLitLen);
+
+            if (sym < DeflateConstants.END_OF_BLOCK)
+            {
+                put(sym);
+            }
+            else if (sym == DeflateConstants.END_OF_BLOCK)
+            {
+                state = BLOCK;
+                return;
+            }
+            else
+            {
+                sym -= 257;
+                if (sym >= 29)
+                {
+                    throw new IOException("invalid literal/length code");
+                }
+                int len = DeflateConstants.LENGTH_BASE[sym] + bits(DeflateConstants.LENGTH_EXTRA[sym]);
+
+                sym = decodeSymbol(curDist);
+                if (sym >= DeflateConstants.DIST_CODES)
+                {
+                    throw new IOException("invalid distance code");
+                }
+                int distance = DeflateConstants.DIST_BASE[sym] + bits(DeflateConstants.DIST_EXTRA[sym]);
+                if (distance > written)
+                {
+                    throw new IOException("invalid distance too far back");
+                }
+
+                int from = (wPos - distance) & WINDOW_MASK;
+                for (int i = 0; i < len; i++)
+                {
+                    window[wPos] = window[from];
+                    wPos = (wPos + 1) & WINDOW_MASK;
+                    from = (from + 1) & WINDOW_MASK;
+                }
+                unread += len;
+                written += len;
+            }
+
+            if (inPos == inEnd && bitCnt < DeflateConstants.MAX_BITS)
+            {
+                // let decode() decide whether to block on more input
+                return;
+            }
+        }
+    }
+
+    private void put(int b)
+    {
+        window[wPos] = (byte)b;
+        wPos = (wPos + 1) & WINDOW_MASK;
+        unread++;
+        written++;
+    }
+
+    private int decodeSymbol(Huffman h)
+        throws IOException
+    {
+        fillBits(FAST_BITS);
+
+        int entry = h.fast[bitBuf & FAST_MASK];
+        int len = entry & 15;
+        if (entry != 0 && len <= bitCnt)
+        {
+            bitBuf >>>= len;
+            bitCnt -= len;
+            return entry >>> 4;
+        }
+
+        // longer codes, one bit at a time
+        fillBits(DeflateConstants.MAX_BITS);
+
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (len = 1; len <= DeflateConstants.MAX_BITS; len++)
+        {
+            if (len > bitCnt)
+            {
+                throw new EOFException("unexpected end of compressed data");
+            }
+
+            code |= (bitBuf >>> (len - 1)) & 1;
+
+            int count = h.count[len];
+            if (code - count < first)
+            {
+                dropBits(len);
+                return h.symbol[index + (code - first)];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+
+        throw new IOException("invalid Huffman code");
+    }
+
+    private int bits(int n)
+        throws IOException
+    {
+        if (n == 0)
+        {
+            return 0;
+        }
+
+        fillBits(n);
+        if (bitCnt < n)
+        {
+            throw new EOFException("unexpected end of compressed data");
+        }
+
+        int v = bitBuf & ((1 << n) - 1);
+        bitBuf >>>= n;
+        bitCnt -= n;
+        return v;
+    }
+
+    private void dropBits(int n)
+    {
+        bitBuf >>>= n;
+        bitCnt -= n;
+    }
+
+    private void fillBits(int n)
+        throws IOException
+    {
+        while (bitCnt < n)
+        {
+            if (inPos == inEnd && !fillInput())
+            {
+                return;
+            }
+            bitBuf |= (inBuf[inPos++] & 0xff) << bitCnt;
+            bitCnt += 8;
+        }
+    }
+
+    private boolean fillInput()
+        throws IOException
+    {
+        int n;
+        do
+        {
+            n = in.read(inBuf, 0, inBuf.length);
+        }
+        while (n == 0);
+
+        if (n < 0)
+        {
+            return false;
+        }
+
+        inPos = 0;
+        inEnd = n;
+        return true;
+    }
+
+    /**
+     * A canonical Huffman decoding table: codes of up to FAST_BITS bits are
+     * looked up directly, longer ones are decoded from the code counts.
+     */
+    private static class Huffman
+    {
+        final short[] count = new short[DeflateConstants.MAX_BITS + 1];
+        final short[] symbol;
+        final short[] fast = new short[1 << FAST_BITS];
+
+        private final short[] offs = new short[DeflateConstants.MAX_BITS + 1];
+
+        Huffman(int maxSymbols)
+        {
+            symbol = new short[maxSymbols];
+        }
+
+        /**
+         * Build the table, returning false if the lengths over-subscribe the code space.
+         */
+        boolean build(byte[] lengths, int off, int n)
+        {
+            for (int len = 0; len <= DeflateConstants.MAX_BITS; len++)
+            {
+                count[len] = 0;
+            }
+            for (int i = 0; i < n; i++)
+            {
+                count[lengths[off + i]]++;
+            }
+
+            int left = 1;
+            for (int len = 1; len <= DeflateConstants.MAX_BITS; len++)
+            {
+                left = (left << 1) - count[len];
+                if (left < 0)
+                {
+                    return false;
+                }
+            }
+
+            offs[1] = 0;
+            for (int len = 1; len < DeflateConstants.MAX_BITS; len++)
+            {
+                offs[len + 1] = (short)(offs[len] + count[len]);
+            }
+            for (int i = 0; i < n; i++)
+            {
+                int len = lengths[off + i];
+                if (len != 0)
+                {
+                    symbol[offs[len]++] = (short)i;
+                }
+            }
+
+            for (int i = 0; i < fast.length; i++)
+            {
+                fast[i] = 0;
+            }
+
+            // symbols now sit in canonical code order, so walk them to assign codes
+            int code = 0;
+            int index = 0;
+            for (int len = 1; len <= FAST_BITS; len++)
+            {
+                for (int i = 0; i < count[len]; i++)
+                {
+                    int sym = symbol[index++];
+                    short entry = (short)((sym << 4) | len);
+
+                    for (int j = DeflateConstants.reverse(code, len); j < fast.length; j += 1 << len)
+                    {
+                        fast[j] = entry;
+                    }
+                    code++;
+                }
+                code <<= 1;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.bouncycastle.util.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream returning the decompressed contents of a compressed stream.
+ */
+public class InflaterInputStream
+    extends InputStream
+{
+    private final InputStream in;
+    private final Inflater inf;
+    private final byte[] oneByte = new byte[1];
+
+    /**
+     * Create a stream reading ZLIB format data.
+     */
+    public InflaterInputStream(InputStream in)
+    {
+        this(in, new Inflater());
+    }
+
+    /**
+     * Create a stream using the passed in Inflater, which is reset to read from in.
+     *
+     * @param in the stream to read the compressed data from.
+     * @param inf the Inflater to decompress with.
+     */
+    public InflaterInputStream(InputStream in, Inflater inf)
+    {
+        this.in = in;
+        this.inf = inf;
+
+        inf.reset(in);
+    }
+
+    public int read()
+        throws IOException
+    {
+        int n;
+        do
+        {
+            n = inf.inflate(oneByte, 0, 1);
+        }
+        while (n == 0);
+
+        return n < 0 ? -1 : oneByte[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        return inf.inflate(b, off, len);
+    }
+
+    public void close()
+        throws IOException
+    {
+        in.close();
+    }
+}
@@ -0,0 +1,354 @@
+package org.bouncycastle.util.zip.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.InputExpander;
+import org.bouncycastle.operator.OutputCompressor;
+import org.bouncycastle.operator.bc.BcZlibCompressor;
+import org.bouncycastle.operator.bc.BcZlibExpanderProvider;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.util.io.StreamOverflowException;
+import org.bouncycastle.util.io.Streams;
+import org.bouncycastle.util.test.SimpleTest;
+import org.bouncycastle.util.zip.Deflater;
+import org.bouncycastle.util.zip.DeflaterOutputStream;
+import org.bouncycastle.util.zip.Inflater;
+import org.bouncycastle.util.zip.InflaterInputStream;
+
+/**
+ * DEFLATE and ZLIB round trips, known streams and corrupt data.
+ */
+public class DeflateTest
+    extends SimpleTest
+{
+    private static final byte[] FOX = "The quick brown fox jumps over the lazy dog. The quick brown fox jumps over the lazy dog.".getBytes();
+
+    // produced by zlib - a fixed Huffman block, level 1 and level 9
+    private static final byte[] FOX_ZLIB_1 = Hex.decode(
+        "78010bc94855282ccd4cce56482aca2fcf5348cbaf50c82acd2d2856c82f4b2d5228014ae72456552aa4e4a7eb298490a01800aed1202f");
+    private static final byte[] FOX_ZLIB_9 = Hex.decode(
+        "78da0bc94855282ccd4cce56482aca2fcf5348cbaf50c82acd2d2856c82f4b2d5228014ae72456552aa4e4a7eb298490a01800aed1202f");
+
+    // produced by zlib - a dynamic Huffman block, see dynamicInput()
+    private static final byte[] DYNAMIC_ZLIB = Hex.decode(
+        "78da7591591203210844af040ca21c67b2effb3aa78f95a42613851fd0d755d2d8ed683c99cee68be56abdd9eef687e3e97cb9deee8f6707ae82"
+      + "9ec00e57e71d3131058b36620dd49a09572861351aa0248405602edceadf5565e899c27001f99d93f61b10f7bbe0d73fc0a733be5be25c0369"
+      + "2e513aa1d0ba214814578ba4ae94bc9012a3931e80cd05cd5481d8c4c9080b31480df36fd64ca5448d6815599159207c01be552ad8");
+
+    private final Random random = new Random(42);
+
+    public String getName()
+    {
+        return "Deflate";
+    }
+
+    public void performTest()
+        throws Exception
+    {
+        knownStreamTest();
+
+        byte[][] inputs = { new byte[0], new byte[1], FOX, new byte[100000], randomBytes(70000), textBytes(300000) };
+
+        for (int i = 0; i != inputs.length; i++)
+        {
+            for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++)
+            {
+                roundTripTest(inputs[i], level, false);
+                roundTripTest(inputs[i], level, true);
+            }
+        }
+
+        compressionTest();
+        reuseTest();
+        syncFlushTest();
+        corruptDataTest();
+        operatorTest();
+    }
+
+    private void knownStreamTest()
+        throws IOException
+    {
+        if (!Arrays.areEqual(FOX, inflate(FOX_ZLIB_1, false, 7)))
+        {
+            fail("level 1 zlib stream decoded incorrectly");
+        }
+        if (!Arrays.areEqual(FOX, inflate(FOX_ZLIB_9, false, 4096)))
+        {
+            fail("level 9 zlib stream decoded incorrectly");
+        }
+        // the same data without the zlib wrapper
+        if (!Arrays.areEqual(FOX, inflate(copy(FOX_ZLIB_9, 2, FOX_ZLIB_9.length - 4), true, 1)))
+        {
+            fail("raw deflate stream decoded incorrectly");
+        }
+        if (!Arrays.areEqual(dynamicInput(), inflate(DYNAMIC_ZLIB, false, 100)))
+        {
+            fail("dynamic block decoded incorrectly");
+        }
+    }
+
+    private void roundTripTest(byte[] data, int level, boolean nowrap)
+        throws IOException
+    {
+        byte[] compressed = deflate(data, level, nowrap, 1 + nextInt(5000));
+        byte[] out = inflate(compressed, nowrap, 1 + nextInt(5000));
+
+        if (!Arrays.areEqual(data, out))
+        {
+            fail("round trip failed for " + data.length + " bytes at level " + level + (nowrap ? " raw" : " zlib"));
+        }
+        if (level == Deflater.NO_COMPRESSION && compressed.length < data.length)
+        {
+            fail("level 0 compressed");
+        }
+    }
+
+    private void compressionTest()
+        throws IOException
+    {
+        byte[] text = textBytes(100000);
+        int last = Integer.MAX_VALUE;
+
+        for (int level = Deflater.BEST_SPEED; level <= Deflater.BEST_COMPRESSION; level += 4)
+        {
+            int len = deflate(text, level, false, text.length).length;
+            if (len >= text.length / 2 || len > last)
+            {
+                fail("poor compression at level " + level + ": " + len);
+            }
+            last = len;
+        }
+
+        // incompressible data should fall back to stored blocks
+        byte[] noise = randomBytes(50000);
+        if (deflate(noise, Deflater.BEST_COMPRESSION, true, noise.length).length > noise.length + 50)
+        {
+            fail("random data expanded");
+        }
+    }
+
+    private void reuseTest()
+        throws IOException
+    {
+        Deflater def = new Deflater(6, false);
+        Inflater inf = new Inflater(false);
+
+        for (int i = 0; i != 3; i++)
+        {
+            byte[] data = i == 1 ? randomBytes(40000) : textBytes(50000 + i);
+            ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+
+            def.reset(bOut);
+            def.deflate(data, 0, data.length);
+            def.finish();
+
+            if (!Arrays.areEqual(data, Streams.readAll(new InflaterInputStream(new ByteArrayInputStream(bOut.toByteArray()), inf))))
+            {
+                fail("reused Deflater/Inflater failed on pass " + i);
+            }
+            if (!inf.finished())
+            {
+                fail("Inflater not finished on pass " + i);
+            }
+        }
+    }
+
+    private void syncFlushTest()
+        throws IOException
+    {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        OutputStream dOut = new DeflaterOutputStream(bOut, new Deflater(6, true), true);
+        Inflater inf = new Inflater(true);
+        byte[] buf = new byte[100];
+
+        dOut.write(FOX, 0, 20);
+        dOut.flush();
+
+        // everything written so far can be read without the end of the stream
+        inf.reset(new ByteArrayInputStream(bOut.toByteArray()));
+        int n = 0;
+        while (n < 20)
+        {
+            n += inf.inflate(buf, n, buf.length - n);
+        }
+        if (!Arrays.areEqual(copy(FOX, 0, 20), copy(buf, 0, n)))
+        {
+            fail("sync flush data incorrect");
+        }
+
+        dOut.write(FOX, 20, FOX.length - 20);
+        dOut.close();
+        if (!Arrays.areEqual(FOX, inflate(bOut.toByteArray(), true, 10)))
+        {
+            fail("data after sync flush incorrect");
+        }
+    }
+
+    private void corruptDataTest()
+        throws IOException
+    {
+        byte[] compressed = deflate(textBytes(20000), 6, false, 20000);
+
+        byte[] badCheck = Arrays.clone(compressed);
+        badCheck[badCheck.length - 1] ^= 1;
+        corruptTest(badCheck, "checksum");
+
+        byte[] badHeader = Arrays.clone(compressed);
+        badHeader[1] ^= 1;
+        corruptTest(badHeader, "header");
+
+        corruptTest(copy(compressed, 0, compressed.length / 2), "truncated");
+
+        // block type 3 is reserved
+        corruptTest(new byte[] { 0x78, (byte)0x9c, 0x07 }, "block type");
+
+        // a distance reaching back before the start of the data
+        corruptTest(Hex.decode("789c030200"), "distance");
+    }
+
+    private void corruptTest(byte[] data, String label)
+    {
+        try
+        {
+            inflate(data, false, 1000);
+            fail("corrupt " + label + " not detected");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    private void operatorTest()
+        throws IOException
+    {
+        OutputCompressor compressor = new BcZlibCompressor(9);
+        AlgorithmIdentifier algId = compressor.getAlgorithmIdentifier();
+
+        if (!CMSObjectIdentifiers.zlibCompress.equals(algId.getAlgorithm()))
+        {
+            fail("wrong compressor algorithm");
+        }
+
+        byte[] data = textBytes(10000);
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        OutputStream cOut = compressor.getOutputStream(bOut);
+        cOut.write(data);
+        cOut.close();
+
+        InputExpander expander = new BcZlibExpanderProvider().get(algId);
+        if (!Arrays.areEqual(data, Streams.readAll(expander.getInputStream(new ByteArrayInputStream(bOut.toByteArray())))))
+        {
+            fail("operator round trip failed");
+        }
+
+        expander = new BcZlibExpanderProvider(data.length - 1).get(algId);
+        try
+        {
+            Streams.readAll(expander.getInputStream(new ByteArrayInputStream(bOut.toByteArray())));
+            fail("expansion limit not enforced");
+        }
+        catch (StreamOverflowException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            new BcZlibCompressor(10);
+            fail("bad level accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private byte[] deflate(byte[] data, int level, boolean nowrap, int chunk)
+        throws IOException
+    {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        OutputStream dOut = new DeflaterOutputStream(bOut, new Deflater(level, nowrap));
+
+        for (int off = 0; off < data.length; off += chunk)
+        {
+            dOut.write(data, off, Math.min(chunk, data.length - off));
+        }
+        dOut.close();
+
+        return bOut.toByteArray();
+    }
+
+    private byte[] inflate(byte[] data, boolean nowrap, int chunk)
+        throws IOException
+    {
+        InputStream iIn = new InflaterInputStream(new ByteArrayInputStream(data), new Inflater(nowrap));
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        byte[] buf = new byte[chunk];
+        int len;
+
+        while ((len = iIn.read(buf, 0, buf.length)) >= 0)
+        {
+            bOut.write(buf, 0, len);
+        }
+
+        return bOut.toByteArray();
+    }
+
+    private byte[] randomBytes(int len)
+    {
+        byte[] data = new byte[len];
+        for (int i = 0; i != len; i++)
+        {
+            data[i] = (byte)random.nextInt();
+        }
+        return data;
+    }
+
+    private byte[] textBytes(int len)
+    {
+        StringBuffer sb = new StringBuffer();
+        while (sb.length() < len)
+        {
+            sb.append("word").append(nextInt(1000)).append(nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return sb.toString().substring(0, len).getBytes();
+    }
+
+    private int nextInt(int n)
+    {
+        return (random.nextInt() >>> 1) % n;
+    }
+
+    private static byte[] copy(byte[] data, int from, int to)
+    {
+        byte[] tmp = new byte[to - from];
+        System.arraycopy(data, from, tmp, 0, tmp.length);
+        return tmp;
+    }
+
+    private static byte[] dynamicInput()
+    {
+        String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i != 40; i++)
+        {
+            sb.append(alphabet.substring(i % 26)).append(i * i);
+        }
+        return sb.toString().getBytes();
+    }
+
+    public static void main(
+        String[]    args)
+    {
+        runTest(new DeflateTest());
+    }
+}
@@ -0,0 +1,313 @@
+package telexme;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.tls.TlsMetricsHistogram;
+
+import telexme.transport.TransportConnection;
+
+/**
+ * Opens tunnels through whichever of several decoy hosts answers first, in the manner of
+ * Happy Eyeballs (RFC 8305): the best decoy is tried first, and every stagger interval
+ * without a finished handshake (or straight away when an attempt fails) the next one is
+ * started alongside. The first tunnel through its handshake is used and the other attempts
+ * are aborted.
+ *
+ * Each decoy keeps a smoothed handshake time, as TCP does for round trip times, and a count
+ * of failures in a row. Decoys are tried in order of those, decoys not yet measured first,
+ * so a slow or blocked path drops to the back after a few tunnels.
+ */
+public class DecoyRacer implements TunnelFactory {
+
+	/** Default delay before the next decoy is tried, in milliseconds. */
+	public static final long DEFAULT_STAGGER = 250;
+
+	// counted against a decoy for each failure in a row, in milliseconds
+	private static final long FAILURE_PENALTY = 10000;
+
+	private final Decoy[] decoys;
+	private final TlsMetricsHistogram metrics;
+	private long stagger = DEFAULT_STAGGER;
+
+	/**
+	 * @param connectors one for each decoy, in order of preference until measured
+	 * @param metrics where to record the handshake time through each decoy, or null
+	 */
+	public DecoyRacer(TunnelConnector[] connectors, TlsMetricsHistogram metrics) {
+		if (connectors.length == 0) {
+			throw new IllegalArgumentException("need at least one decoy");
+		}
+		decoys = new Decoy[connectors.length];
+		for (int i = 0; i < connectors.length; i++) {
+			decoys[i] = new Decoy(connectors[i]);
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param stagger milliseconds to wait for an attempt before starting the next
+	 */
+	public synchronized void setStagger(long stagger) {
+		if (stagger < 0) {
+			throw new IllegalArgumentException("stagger must not be negative");
+		}
+		this.stagger = stagger;
+	}
+
+	public Tunnel open() throws IOException {
+		long start = System.currentTimeMillis();
+		long metricsStart = metrics == null ? 0 : metrics.currentTime();
+		Decoy[] order = rank();
+		long delay;
+		synchronized (this) {
+			delay = stagger;
+		}
+
+		Race race = new Race();
+		Tunnel winner;
+		synchronized (race) {
+			int started = 0;
+			long nextStart = start;
+			while (race.winner == null) {
+				long now = System.currentTimeMillis();
+				if (started < order.length && (race.running == 0 || now >= nextStart)) {
+					race.start(order[started++]);
+					nextStart = now + delay;
+				} else if (started == order.length && race.running == 0) {
+					throw race.lastError;
+				} else {
+					try {
+						race.wait(started < order.length ? nextStart - now : 0);
+					} catch (InterruptedException e) {
+						// check again
+					}
+				}
+			}
+			winner = race.winner;
+		}
+		race.cancelLosers();
+
+		if (metrics != null) {
+			metrics.addSample("decoy race wait", metrics.currentTime() - metricsStart);
+		}
+		return winner;
+	}
+
+	public int getDecoyCount() {
+		return decoys.length;
+	}
+
+	public String getUrl(int decoy) {
+		return decoys[decoy].connector.getUrl();
+	}
+
+	/**
+	 * @return the smoothed handshake time through the decoy in milliseconds, 0 until one has
+	 *         succeeded
+	 */
+	public long getSmoothedTime(int decoy) {
+		return decoys[decoy].getSmoothedTime();
+	}
+
+	/**
+	 * @return the number of attempts through the decoy that failed since the last success
+	 */
+	public int getFailures(int decoy) {
+		return decoys[decoy].getFailures();
+	}
+
+	/**
+	 * @return the decoys, best first; equal ones keep their configured order
+	 */
+	private Decoy[] rank() {
+		Decoy[] order = new Decoy[decoys.length];
+		long[] scores = new long[decoys.length];
+		for (int i = 0; i < decoys.length; i++) {
+			long score = decoys[i].getScore();
+			int j = i;
+			while (j > 0 && scores[j - 1] > score) {
+				order[j] = order[j - 1];
+				scores[j] = scores[j - 1];
+				j--;
+			}
+			order[j] = decoys[i];
+			scores[j] = score;
+		}
+		return order;
+	}
+
+	private class Decoy {
+		final TunnelConnector connector;
+
+		// guarded by this
+		private long smoothedTime = 0;
+		private int failures = 0;
+
+		Decoy(TunnelConnector connector) {
+			this.connector = connector;
+		}
+
+		synchronized long getSmoothedTime() {
+			return smoothedTime;
+		}
+
+		synchronized int getFailures() {
+			return failures;
+		}
+
+		synchronized long getScore() {
+			return smoothedTime + failures * FAILURE_PENALTY;
+		}
+
+		/**
+		 * @param time milliseconds the handshake took, for the ranking
+		 * @param metricsStart {@link #metricsTime()} when it started
+		 */
+		void succeeded(long time, long metricsStart) {
+			synchronized (this) {
+				// weight 1/8 for the new sample, as TCP's SRTT
+				smoothedTime = smoothedTime == 0 ? time : (7 * smoothedTime + time) / 8;
+				failures = 0;
+			}
+			if (metrics != null) {
+				metrics.addSample("decoy " + connector.getUrl() + " handshake time",
+						metrics.currentTime() - metricsStart);
+			}
+		}
+
+		/**
+		 * @return the time in the metrics' clock and unit, which may differ from the ranking's
+		 */
+		long metricsTime() {
+			return metrics == null ? 0 : metrics.currentTime();
+		}
+
+		synchronized void failed() {
+			failures++;
+		}
+
+		/**
+		 * The decoy lost a race after the given time, so it takes at least that long.
+		 * Without this a slow decoy that always loses would never be measured, and stay
+		 * first in line.
+		 */
+		synchronized void lost(long time) {
+			if (time > smoothedTime) {
+				smoothedTime = smoothedTime == 0 ? time : (7 * smoothedTime + time) / 8;
+			}
+		}
+	}
+
+	/**
+	 * The attempts of one open(); the race is the lock for all their state.
+	 */
+	private static class Race {
+		final Vector attempts = new Vector();
+		int running = 0;
+		Tunnel winner = null;
+		IOException lastError = null;
+
+		void start(Decoy decoy) {
+			Attempt attempt = new Attempt(this, decoy);
+			attempts.addElement(attempt);
+			running++;
+			new Thread(attempt).start();
+		}
+
+		void cancelLosers() {
+			Attempt[] losers;
+			synchronized (this) {
+				losers = new Attempt[attempts.size()];
+				attempts.copyInto(losers);
+			}
+			for (int i = 0; i < losers.length; i++) {
+				losers[i].cancel();
+			}
+		}
+	}
+
+	/**
+	 * One connect and handshake through one decoy.
+	 */
+	static class Attempt implements Runnable {
+		private final Race race;
+		private final Decoy decoy;
+		private final long startTime = System.currentTimeMillis();
+		private final long metricsStart;
+
+		// guarded by this
+		private TransportConnection connection = null;
+		private boolean cancelled = false;
+
+		Attempt(Race race, Decoy decoy) {
+			this.race = race;
+			this.decoy = decoy;
+			this.metricsStart = decoy.metricsTime();
+		}
+
+		/**
+		 * @return false if the attempt was cancelled already
+		 */
+		synchronized boolean setConnection(TransportConnection connection) {
+			this.connection = connection;
+			return !cancelled;
+		}
+
+		/**
+		 * Abort the handshake, unless it has finished already.
+		 */
+		void cancel() {
+			TransportConnection c;
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				cancelled = true;
+				c = connection;
+			}
+			decoy.lost(System.currentTimeMillis() - startTime);
+			if (c != null) {
+				c.close();
+			}
+		}
+
+		public void run() {
+			Tunnel tunnel = null;
+			IOException error = null;
+			try {
+				tunnel = decoy.connector.open(this);
+				decoy.succeeded(System.currentTimeMillis() - startTime, metricsStart);
+			} catch (IOException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				// a broken handshake message, say; the race must hear of it either way
+				error = new IOException("handshake failed: " + e);
+			}
+			if (error != null) {
+				synchronized (this) {
+					// losing the race is not the decoy's fault
+					if (!cancelled) {
+						decoy.failed();
+					}
+				}
+			}
+
+			synchronized (race) {
+				race.running--;
+				race.attempts.removeElement(this);
+				if (tunnel != null && race.winner == null) {
+					race.winner = tunnel;
+					tunnel = null;
+				} else if (error != null) {
+					race.lastError = error;
+				}
+				race.notifyAll();
+			}
+			if (tunnel != null) {
+				// too late, another decoy won
+				tunnel.close();
+			}
+		}
+	}
+}
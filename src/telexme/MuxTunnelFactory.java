@@ -0,0 +1,94 @@
+package telexme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import telexme.mux.MuxSession;
+import telexme.mux.MuxStream;
+
+/**
+ * Carries all tunnels as streams of one long-lived tunnel, so only the first client pays for
+ * the TCP connect, the tag and the TLS handshake. The station end must speak the
+ * {@link MuxSession} framing.
+ *
+ * If the shared tunnel fails, its streams fail with it and the next open() sets up a new one.
+ */
+public class MuxTunnelFactory implements TunnelFactory {
+
+	private final TunnelFactory carrierFactory;
+
+	private Tunnel carrier = null;
+	private MuxSession session = null;
+
+	/**
+	 * @param carrierFactory opens the shared tunnel
+	 */
+	public MuxTunnelFactory(TunnelFactory carrierFactory) {
+		this.carrierFactory = carrierFactory;
+	}
+
+	public Tunnel open() throws IOException {
+		MuxSession current;
+		synchronized (this) {
+			if (session == null || session.isClosed()) {
+				closeCarrier();
+				carrier = carrierFactory.open();
+				session = new MuxSession(carrier.getInputStream(), carrier.getOutputStream(), true);
+				session.start();
+			}
+			current = session;
+		}
+
+		return new MuxTunnel(current.openStream());
+	}
+
+	/**
+	 * @return the number of tunnels currently carried
+	 */
+	public synchronized int getStreamCount() {
+		return session == null ? 0 : session.getStreamCount();
+	}
+
+	/**
+	 * Close the shared tunnel and with it every tunnel carried.
+	 */
+	public synchronized void close() {
+		closeCarrier();
+	}
+
+	private void closeCarrier() {
+		if (session != null) {
+			session.close();
+			session = null;
+		}
+		if (carrier != null) {
+			carrier.close();
+			carrier = null;
+		}
+	}
+
+	private static class MuxTunnel implements Tunnel {
+		private final MuxStream stream;
+
+		MuxTunnel(MuxStream stream) {
+			this.stream = stream;
+		}
+
+		public InputStream getInputStream() {
+			return stream.getInputStream();
+		}
+
+		public OutputStream getOutputStream() {
+			return stream.getOutputStream();
+		}
+
+		public boolean isUsable() {
+			return !stream.isReset();
+		}
+
+		public void close() {
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package telexme;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.tls.TlsMetricsHistogram;
+
+import telexme.transport.Transport;
+import telexme.transport.TransportConnection;
+import telexme.transport.TransportServer;
+
+/**
+ * The local proxy: accepts any number of clients and relays each one through a Telex tunnel
+ * of its own, see {@link TunnelFactory}.
+ *
+ * Accepted clients wait in a bounded queue for one of a fixed number of workers. A worker
+ * opens the tunnel and relays, using itself for one direction and one extra thread for the
+ * other, so a busy proxy runs two threads per client plus the acceptor. MIDP only has
+ * blocking sockets, so there is no way around a thread per blocked read here. Clients that
+ * find the queue full are disconnected straight away, and relays that see no data for the
+ * idle timeout are closed.
+ */
+public class ProxyServer {
+
+	private final Transport transport;
+	private final String url;
+	private final TunnelFactory tunnels;
+	private final TlsMetricsHistogram metrics;
+
+	private int maxClients = 16;
+	private int maxPending = 16;
+	private long idleTimeout = 5 * 60 * 1000;
+
+	private TransportServer server = null;
+	private Timer reaper = null;
+	private boolean running = false;
+	private boolean stopped = false;
+
+	// accepted clients waiting for a worker
+	private final Vector pending = new Vector();
+	// Relays in progress
+	private final Vector active = new Vector();
+
+	/**
+	 * @param transport listens for the clients
+	 * @param url where to listen, e.g. "socket://:8888"
+	 * @param tunnels opens the tunnels
+	 * @param metrics where to record relay throughput, or null
+	 */
+	public ProxyServer(Transport transport, String url, TunnelFactory tunnels, TlsMetricsHistogram metrics) {
+		this.transport = transport;
+		this.url = url;
+		this.tunnels = tunnels;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param maxClients the number of clients relayed at the same time
+	 * @param maxPending the number of clients that may wait for one of those
+	 */
+	public void setConnectionLimits(int maxClients, int maxPending) {
+		if (maxClients < 1 || maxPending < 0) {
+			throw new IllegalArgumentException("need at least one client and no negative queue");
+		}
+		this.maxClients = maxClients;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * @param idleTimeout milliseconds without data in either direction before a relay is
+	 *            closed, 0 for none
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Open the server socket and start the acceptor and the workers. A proxy can only be
+	 * started once.
+	 */
+	public synchronized void start() throws IOException {
+		if (running || stopped) {
+			throw new IllegalStateException("proxy already started");
+		}
+
+		server = transport.listen(url);
+		running = true;
+
+		for (int i = 0; i < maxClients; i++) {
+			new Thread(new Worker()).start();
+		}
+
+		if (idleTimeout > 0) {
+			reaper = new Timer();
+			long period = Math.min(idleTimeout, 1000);
+			reaper.schedule(new TimerTask() {
+				public void run() {
+					closeIdleRelays();
+				}
+			}, period, period);
+		}
+
+		new Thread(new Acceptor()).start();
+	}
+
+	/**
+	 * Stop accepting, disconnect waiting clients and close all relays. Returns without
+	 * waiting for the threads, which end by themselves once their streams are closed.
+	 */
+	public void stop() {
+		TransportServer s;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			stopped = true;
+			s = server;
+			if (reaper != null) {
+				reaper.cancel();
+				reaper = null;
+			}
+		}
+
+		s.close();
+
+		synchronized (pending) {
+			for (int i = 0; i < pending.size(); i++) {
+				((TransportConnection) pending.elementAt(i)).close();
+			}
+			pending.removeAllElements();
+			pending.notifyAll();
+		}
+
+		Relay[] relays;
+		synchronized (active) {
+			relays = new Relay[active.size()];
+			active.copyInto(relays);
+		}
+		for (int i = 0; i < relays.length; i++) {
+			relays[i].close();
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the number of clients being relayed right now
+	 */
+	public int getActiveCount() {
+		synchronized (active) {
+			return active.size();
+		}
+	}
+
+	// workers waiting in take(), guarded by pending
+	private int idleWorkers = 0;
+
+	/**
+	 * @return the port listened on, once started
+	 */
+	public int getLocalPort() throws IOException {
+		TransportServer s;
+		synchronized (this) {
+			s = server;
+		}
+		if (s == null) {
+			throw new IllegalStateException("proxy not started");
+		}
+		return s.getLocalPort();
+	}
+
+	private TransportConnection take() {
+		synchronized (pending) {
+			while (pending.isEmpty()) {
+				if (!isRunning()) {
+					return null;
+				}
+				idleWorkers++;
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					// check again
+				} finally {
+					idleWorkers--;
+				}
+			}
+			TransportConnection client = (TransportConnection) pending.elementAt(0);
+			pending.removeElementAt(0);
+			return client;
+		}
+	}
+
+	private void serve(TransportConnection client) {
+		Tunnel tunnel = null;
+		try {
+			tunnel = tunnels.open();
+			Relay relay = new Relay(client.getInputStream(), client.getOutputStream(),
+					tunnel.getInputStream(), tunnel.getOutputStream());
+
+			synchronized (active) {
+				if (!isRunning()) {
+					relay.close();
+					return;
+				}
+				active.addElement(relay);
+			}
+			try {
+				relay.run();
+			} finally {
+				synchronized (active) {
+					active.removeElement(relay);
+				}
+			}
+
+			if (metrics != null) {
+				metrics.addSample("upstream bytes/s", relay.getUpstreamThroughput());
+				metrics.addSample("downstream bytes/s", relay.getDownstreamThroughput());
+			}
+		} catch (IOException e) {
+			// the tunnel could not be opened; the client just sees its connection closed
+		} finally {
+			if (tunnel != null) {
+				tunnel.close();
+			}
+			client.close();
+		}
+	}
+
+	private void closeIdleRelays() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+
+		Relay[] relays;
+		synchronized (active) {
+			relays = new Relay[active.size()];
+			active.copyInto(relays);
+		}
+		for (int i = 0; i < relays.length; i++) {
+			if (relays[i].getLastActivityTime() < cutoff) {
+				relays[i].close();
+			}
+		}
+	}
+
+	private class Acceptor implements Runnable {
+		public void run() {
+			while (isRunning()) {
+				TransportConnection client;
+				try {
+					client = server.accept();
+				} catch (IOException e) {
+					// closed by stop(), or the server socket broke; either way nothing more to accept
+					stop();
+					return;
+				}
+
+				synchronized (pending) {
+					if (!isRunning() || pending.size() >= maxPending + idleWorkers) {
+						client.close();
+						continue;
+					}
+					pending.addElement(client);
+					pending.notify();
+				}
+			}
+		}
+	}
+
+	private class Worker implements Runnable {
+		public void run() {
+			TransportConnection client;
+			while ((client = take()) != null) {
+				serve(client);
+			}
+		}
+	}
+}
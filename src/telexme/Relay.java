@@ -0,0 +1,276 @@
+package telexme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies data both ways between a client connection and a Telex tunnel, with one pump
+ * thread per direction.
+ *
+ * Each pump holds at most one buffer of data: it only reads again once the last read has
+ * been written, so a slow reader on one side holds back the writer on the other. When one
+ * side reaches EOF, the other side's output is closed once everything before it has been
+ * sent, and the opposite direction keeps running until it ends too.
+ */
+public class Relay implements Runnable {
+
+	public static final int DEFAULT_UPSTREAM_BUFFER_SIZE = 4096;
+	// one full TLS record
+	public static final int DEFAULT_DOWNSTREAM_BUFFER_SIZE = 16384;
+
+	private final InputStream clientIn;
+	private final OutputStream clientOut;
+	private final InputStream tunnelIn;
+	private final OutputStream tunnelOut;
+
+	private int upstreamBufferSize = DEFAULT_UPSTREAM_BUFFER_SIZE;
+	private int downstreamBufferSize = DEFAULT_DOWNSTREAM_BUFFER_SIZE;
+
+	private Pump upstream = null;
+	private Pump downstream = null;
+
+	private long startTime = 0;
+	private long endTime = 0;
+	private long lastActivityTime = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param clientIn data from the client, sent into the tunnel
+	 * @param clientOut where data from the tunnel goes
+	 * @param tunnelIn data from the tunnel
+	 * @param tunnelOut the tunnel's OutputStream; closing it must only close the
+	 *            sending half, as a TLS OutputStream does
+	 */
+	public Relay(InputStream clientIn, OutputStream clientOut, InputStream tunnelIn, OutputStream tunnelOut) {
+		this.clientIn = clientIn;
+		this.clientOut = clientOut;
+		this.tunnelIn = tunnelIn;
+		this.tunnelOut = tunnelOut;
+	}
+
+	/**
+	 * Set the largest amount of data each direction holds at a time. Must be called before
+	 * start().
+	 */
+	public void setBufferSizes(int upstreamBufferSize, int downstreamBufferSize) {
+		if (upstreamBufferSize < 1 || downstreamBufferSize < 1) {
+			throw new IllegalArgumentException("buffer sizes must be at least 1");
+		}
+		if (upstream != null) {
+			throw new IllegalStateException("relay already started");
+		}
+		this.upstreamBufferSize = upstreamBufferSize;
+		this.downstreamBufferSize = downstreamBufferSize;
+	}
+
+	/**
+	 * Start both pump threads.
+	 */
+	public void start() {
+		createPumps();
+		upstream.start();
+		downstream.start();
+	}
+
+	/**
+	 * Wait until both directions have ended, then close all four streams.
+	 */
+	public void join() throws InterruptedException {
+		upstream.join();
+		downstream.join();
+		close();
+	}
+
+	/**
+	 * Relay using the calling thread for the upstream direction and one new thread for the
+	 * downstream one. Returns once both have ended, with all four streams closed.
+	 */
+	public void run() {
+		createPumps();
+		downstream.start();
+		upstream.run();
+		try {
+			downstream.join();
+		} catch (InterruptedException e) {
+			// closing makes the downstream pump end by itself
+		}
+		close();
+	}
+
+	private synchronized void createPumps() {
+		if (upstream != null) {
+			throw new IllegalStateException("relay already started");
+		}
+
+		startTime = System.currentTimeMillis();
+		lastActivityTime = startTime;
+		upstream = new Pump(clientIn, tunnelOut, upstreamBufferSize);
+		downstream = new Pump(tunnelIn, clientOut, downstreamBufferSize);
+	}
+
+	/**
+	 * Stop relaying now: all four streams are closed, which ends both pumps.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			endTime = System.currentTimeMillis();
+		}
+
+		closeQuietly(clientIn);
+		closeQuietly(tunnelIn);
+		closeQuietly(clientOut);
+		closeQuietly(tunnelOut);
+	}
+
+	/**
+	 * @return true once both directions have ended
+	 */
+	public boolean isDone() {
+		return upstream != null && upstream.isDone() && downstream.isDone();
+	}
+
+	/**
+	 * @return the time (as System.currentTimeMillis()) data last went through in either
+	 *         direction, or the relay was started
+	 */
+	public synchronized long getLastActivityTime() {
+		return lastActivityTime;
+	}
+
+	private synchronized void touch() {
+		lastActivityTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return bytes sent from the client into the tunnel so far
+	 */
+	public long getUpstreamBytes() {
+		return upstream == null ? 0 : upstream.getCount();
+	}
+
+	/**
+	 * @return bytes sent from the tunnel to the client so far
+	 */
+	public long getDownstreamBytes() {
+		return downstream == null ? 0 : downstream.getCount();
+	}
+
+	/**
+	 * @return milliseconds since start(), or from start() to close()
+	 */
+	public synchronized long getElapsedTime() {
+		if (startTime == 0) {
+			return 0;
+		}
+		return (closed ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	/**
+	 * @return average bytes per second from the client into the tunnel
+	 */
+	public long getUpstreamThroughput() {
+		return throughput(getUpstreamBytes());
+	}
+
+	/**
+	 * @return average bytes per second from the tunnel to the client
+	 */
+	public long getDownstreamThroughput() {
+		return throughput(getDownstreamBytes());
+	}
+
+	private long throughput(long bytes) {
+		long elapsed = getElapsedTime();
+		return elapsed == 0 ? 0 : bytes * 1000 / elapsed;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// already closed or failed, either way it is gone
+		}
+	}
+
+	private static void closeQuietly(OutputStream out) {
+		try {
+			out.close();
+		} catch (IOException e) {
+			// already closed or failed, either way it is gone
+		}
+	}
+
+	private class Pump implements Runnable {
+		private final InputStream in;
+		private final OutputStream out;
+		private final byte[] buf;
+		private long count = 0;
+		private boolean done = false;
+		private Thread thread = null;
+
+		Pump(InputStream in, OutputStream out, int bufferSize) {
+			this.in = in;
+			this.out = out;
+			this.buf = new byte[bufferSize];
+		}
+
+		synchronized long getCount() {
+			return count;
+		}
+
+		synchronized boolean isDone() {
+			return done;
+		}
+
+		void start() {
+			thread = new Thread(this);
+			thread.start();
+		}
+
+		void join() throws InterruptedException {
+			if (thread != null) {
+				thread.join();
+			}
+		}
+
+		public void run() {
+			try {
+				pump();
+			} finally {
+				synchronized (this) {
+					done = true;
+				}
+			}
+		}
+
+		private void pump() {
+			try {
+				int len;
+				while ((len = in.read(buf, 0, buf.length)) != -1) {
+					touch();
+					out.write(buf, 0, len);
+					touch();
+					synchronized (this) {
+						count += len;
+					}
+					// more already waiting goes out with this data, otherwise don't hold it back
+					if (in.available() == 0) {
+						out.flush();
+					}
+				}
+
+				// half-close: pass the EOF on, the other direction carries on
+				out.flush();
+				out.close();
+			} catch (IOException e) {
+				// one side failed, so neither direction can finish properly
+				Relay.this.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package telexme;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.tls.CertificateCache;
+import org.bouncycastle.crypto.tls.DefaultTlsCipherFactory;
+import org.bouncycastle.crypto.tls.TlsDecryptionPool;
+import org.bouncycastle.crypto.tls.TlsMetricsHistogram;
+
+import telexme.tag.TagGenerator;
+import telexme.transport.Transport;
+
+/**
+ * The proxy with everything it is built from, set up from the TelexMe-* properties (see the
+ * "Application Descriptor"). It only needs a {@link Transport} and a way to look up
+ * properties, so the MIDlet and the Java SE launcher share it.
+ */
+public abstract class TelexMeService {
+
+	private final Transport transport;
+	private final TlsMetricsHistogram metrics;
+
+	private ProxyServer proxy = null;
+	private TunnelPool pool = null;
+	private MuxTunnelFactory mux = null;
+	private TlsDecryptionPool decryptionPool = null;
+
+	/**
+	 * @param transport for the sockets and the station's public key
+	 * @param metrics where to record handshake, record and relay timings
+	 */
+	public TelexMeService(Transport transport, TlsMetricsHistogram metrics) {
+		this.transport = transport;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the value of the property, or null if not set
+	 */
+	protected abstract String getProperty(String key);
+
+	/**
+	 * Start the proxy, unless it is running already.
+	 */
+	public synchronized void start() throws IOException {
+		if (proxy != null) {
+			return;
+		}
+
+		TagGenerator.setPublicKeySource(transport, getProperty("TelexMe-Public-Key", "file:///root1/pubkey"));
+
+		// any number of decoys, separated by commas or spaces; the first to answer is used
+		Vector urls = split(getProperty("TelexMe-Station", "socket://notblocked.telex.cc:443"));
+		if (urls.isEmpty()) {
+			throw new IOException("no TelexMe-Station given");
+		}
+		TunnelConnector[] connectors = new TunnelConnector[urls.size()];
+		// threads to help decrypt large CBC records, for servers with cores to spare
+		DefaultTlsCipherFactory cipherFactory = new DefaultTlsCipherFactory();
+		int decryptThreads = getIntProperty("TelexMe-Decrypt-Threads", 0);
+		if (decryptThreads > 0) {
+			decryptionPool = new TlsDecryptionPool(decryptThreads);
+			cipherFactory.setDecryptionPool(decryptionPool);
+		}
+		// every handshake to a decoy gets the same chain, so it need only be parsed once
+		CertificateCache certificateCache = new CertificateCache(connectors.length * 2);
+		for (int i = 0; i < connectors.length; i++) {
+			connectors[i] = new TunnelConnector(transport, (String) urls.elementAt(i), metrics);
+			connectors[i].setCipherFactory(cipherFactory);
+			connectors[i].setCertificateCache(certificateCache);
+		}
+		TunnelFactory tunnels;
+		if (connectors.length == 1) {
+			tunnels = connectors[0];
+		} else {
+			DecoyRacer racer = new DecoyRacer(connectors, metrics);
+			racer.setStagger(getIntProperty("TelexMe-Connect-Stagger", (int) DecoyRacer.DEFAULT_STAGGER));
+			tunnels = racer;
+		}
+		if ("true".equals(getProperty("TelexMe-Multiplex", "false"))) {
+			// all clients share one tunnel, for stations that understand the mux framing; it is
+			// opened once, so a pool would only churn
+			mux = new MuxTunnelFactory(tunnels);
+			tunnels = mux;
+		} else {
+			// tunnels handshaken ahead of time, so clients skip the connect and the handshake
+			int poolSize = getIntProperty("TelexMe-Pool-Size", 2);
+			if (poolSize > 0) {
+				for (int i = 0; i < connectors.length; i++) {
+					connectors[i].setFalseStart(false);
+				}
+				pool = new TunnelPool(tunnels, poolSize, getIntProperty("TelexMe-Pool-Max-Age", 60) * 1000L,
+						metrics);
+				// refilled only while clients come and go, not forever on a timer
+				pool.setKeepWarm(getIntProperty("TelexMe-Pool-Keep-Warm",
+						(int) (TunnelPool.DEFAULT_KEEP_WARM / 1000)) * 1000L);
+				tunnels = pool;
+			}
+		}
+		proxy = new ProxyServer(transport, getProperty("TelexMe-Listen", "socket://:8888"), tunnels, metrics);
+		proxy.setConnectionLimits(getIntProperty("TelexMe-Max-Clients", 16),
+				getIntProperty("TelexMe-Max-Pending", 16));
+		proxy.setIdleTimeout(getIntProperty("TelexMe-Idle-Timeout", 300) * 1000L);
+
+		if (pool != null) {
+			pool.start();
+		}
+		try {
+			proxy.start();
+		} catch (IOException e) {
+			proxy = null;
+			stop();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop the proxy and close all tunnels. It can be started again.
+	 */
+	public synchronized void stop() {
+		if (proxy != null) {
+			proxy.stop();
+			proxy = null;
+		}
+		if (mux != null) {
+			mux.close();
+			mux = null;
+		}
+		if (pool != null) {
+			pool.stop();
+			pool = null;
+		}
+		if (decryptionPool != null) {
+			decryptionPool.close();
+			decryptionPool = null;
+		}
+	}
+
+	/**
+	 * @return the proxy while running, otherwise null
+	 */
+	public synchronized ProxyServer getProxy() {
+		return proxy;
+	}
+
+	public TlsMetricsHistogram getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the words of the list, separated by commas and/or spaces
+	 */
+	private static Vector split(String list) {
+		Vector words = new Vector();
+		int start = -1;
+		for (int i = 0; i <= list.length(); i++) {
+			char c = i < list.length() ? list.charAt(i) : ',';
+			if (c == ',' || c == ' ' || c == '\t') {
+				if (start >= 0) {
+					words.addElement(list.substring(start, i));
+					start = -1;
+				}
+			} else if (start < 0) {
+				start = i;
+			}
+		}
+		return words;
+	}
+
+	private String getProperty(String key, String defaultValue) {
+		String value = getProperty(key);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	private int getIntProperty(String key, int defaultValue) {
+		String value = getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package telexme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bouncycastle.crypto.tls.TlsProtocolHandler;
+
+import telexme.transport.TransportConnection;
+
+/**
+ * A TLS connection of its own to the Telex station.
+ */
+public class TlsTunnel implements Tunnel {
+
+	private final TransportConnection connection;
+	private final InputStream socketIn;
+	private final TlsProtocolHandler tls;
+
+	TlsTunnel(TransportConnection connection, InputStream socketIn, TlsProtocolHandler tls) {
+		this.connection = connection;
+		this.socketIn = socketIn;
+		this.tls = tls;
+	}
+
+	public InputStream getInputStream() {
+		return tls.getInputStream();
+	}
+
+	public OutputStream getOutputStream() {
+		return tls.getOutputStream();
+	}
+
+	/**
+	 * Meant for tunnels nobody has used yet: a fully handshaken tunnel that has not sent a
+	 * request gets no data, so anything waiting on the socket is an alert, most likely the
+	 * station giving up on it.
+	 *
+	 * This only catches alerts. available() also returns 0 once the other side has closed the
+	 * connection without one (FIN or RST), and there is no way to tell that apart from a live
+	 * connection without a blocking read, so such a tunnel passes. {@link TunnelPool} deals
+	 * with those when the first read or write fails.
+	 */
+	public boolean isUsable() {
+		if (tls.isClosed()) {
+			return false;
+		}
+		try {
+			return socketIn.available() == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Close the TLS connection and the socket under it.
+	 */
+	public void close() {
+		try {
+			tls.close();
+		} catch (IOException e) {
+			// the socket is closed below either way
+		}
+		connection.close();
+	}
+}
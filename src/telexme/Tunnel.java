@@ -0,0 +1,29 @@
+package telexme;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connection through the Telex station, carrying one client's traffic.
+ */
+public interface Tunnel {
+
+	InputStream getInputStream();
+
+	/**
+	 * @return the OutputStream; closing it only closes the sending half of the tunnel
+	 */
+	OutputStream getOutputStream();
+
+	/**
+	 * A cheap check that never blocks, so true does not promise the tunnel still works.
+	 *
+	 * @return false if the tunnel is known to be broken or closed by the other side
+	 */
+	boolean isUsable();
+
+	/**
+	 * Close both halves; anything still in transit is lost.
+	 */
+	void close();
+}
@@ -0,0 +1,168 @@
+package telexme;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bouncycastle.crypto.tls.AlwaysValidVerifyer;
+import org.bouncycastle.crypto.tls.CertificateCache;
+import org.bouncycastle.crypto.tls.CertificateVerifyer;
+import org.bouncycastle.crypto.tls.DefaultTlsCipherFactory;
+import org.bouncycastle.crypto.tls.LegacyTlsClient;
+import org.bouncycastle.crypto.tls.TlsCipherFactory;
+import org.bouncycastle.crypto.tls.TlsMetricsHistogram;
+import org.bouncycastle.crypto.tls.TlsProtocolHandler;
+
+import telexme.transport.Transport;
+import telexme.transport.TransportConnection;
+
+/**
+ * Opens a TLS connection to a Telex station for every tunnel.
+ *
+ * The tag is bound to the IPv4 address actually connected to, or failing that to the address
+ * in the URL, so any decoy host on the way to a station will do.
+ */
+public class TunnelConnector implements TunnelFactory {
+
+	// one for all connections, so a certificate cache can remember what it accepted
+	private static final CertificateVerifyer VERIFYER = new AlwaysValidVerifyer();
+
+	private final Transport transport;
+	private final String url;
+	private final TlsMetricsHistogram metrics;
+	private boolean falseStart = true;
+	private TlsCipherFactory cipherFactory = new DefaultTlsCipherFactory();
+	private CertificateCache certificateCache = null;
+
+	/**
+	 * @param transport makes the connections
+	 * @param url the station, e.g. "socket://notblocked.telex.cc:443"
+	 * @param metrics where to record connect and handshake timings, or null
+	 */
+	public TunnelConnector(Transport transport, String url, TlsMetricsHistogram metrics) {
+		this.transport = transport;
+		this.url = url;
+		this.metrics = metrics;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * With False Start (the default) open() returns before the station's Finished has
+	 * arrived. Tunnels made ahead of time gain nothing from it, and should be fully
+	 * handshaken so {@link TlsTunnel#isUsable()} works.
+	 */
+	public void setFalseStart(boolean falseStart) {
+		this.falseStart = falseStart;
+	}
+
+	/**
+	 * @param cipherFactory makes the record ciphers, e.g. a DefaultTlsCipherFactory with a
+	 *            decryption pool
+	 */
+	public void setCipherFactory(TlsCipherFactory cipherFactory) {
+		this.cipherFactory = cipherFactory;
+	}
+
+	/**
+	 * @param certificateCache keeps the decoys' certificate chains parsed between handshakes;
+	 *            it may be shared with other connectors, or null for none
+	 */
+	public void setCertificateCache(CertificateCache certificateCache) {
+		this.certificateCache = certificateCache;
+	}
+
+	/**
+	 * Connect and run the tagged TLS handshake.
+	 */
+	public Tunnel open() throws IOException {
+		return open(null);
+	}
+
+	/**
+	 * @param attempt gets the connection as soon as there is one, so that it can be closed
+	 *            from another thread to abort the handshake; or null
+	 */
+	Tunnel open(DecoyRacer.Attempt attempt) throws IOException {
+		long connectStart = metrics == null ? 0 : metrics.currentTime();
+		TransportConnection connection = transport.open(url);
+		if (metrics != null) {
+			metrics.addSample("tcp connect time", metrics.currentTime() - connectStart);
+		}
+
+		if (attempt != null && !attempt.setConnection(connection)) {
+			connection.close();
+			throw new IOException("connect cancelled");
+		}
+
+		try {
+			byte[] address = parseAddress(connection.getAddress());
+			if (address == null) {
+				address = parseAddress(getHost(url));
+			}
+			if (address == null) {
+				throw new IOException("no IPv4 address to tag for " + url);
+			}
+
+			InputStream socketIn = connection.getInputStream();
+			TlsProtocolHandler tls = new TlsProtocolHandler(socketIn, connection.getOutputStream());
+			if (metrics != null) {
+				tls.setMetricsListener(metrics);
+			}
+			// with a DHE/ECDHE suite the request can go out before the server's Finished
+			tls.setFalseStart(falseStart);
+			tls.setTagContextAddress(address);
+			tls.setCertificateCache(certificateCache);
+			tls.connect(new LegacyTlsClient(VERIFYER, cipherFactory));
+			// gather what the relay writes into full records, sent on flush()
+			tls.setWriteCoalescing(TlsProtocolHandler.MAX_FRAGMENT_LENGTH, 0);
+			return new TlsTunnel(connection, socketIn, tls);
+		} catch (IOException e) {
+			connection.close();
+			throw e;
+		} catch (RuntimeException e) {
+			// e.g. a garbled certificate; to the caller this is just a failed connect
+			connection.close();
+			throw new IOException("handshake failed: " + e);
+		}
+	}
+
+	/**
+	 * @return the host part of a "socket://host:port" URL
+	 */
+	private static String getHost(String url) {
+		int start = url.indexOf("://");
+		start = start < 0 ? 0 : start + 3;
+		int end = url.lastIndexOf(':');
+		return end < start ? url.substring(start) : url.substring(start, end);
+	}
+
+	/**
+	 * @return the 4 bytes of a dotted IPv4 address, or null if it is not one
+	 */
+	static byte[] parseAddress(String host) {
+		if (host == null) {
+			return null;
+		}
+
+		byte[] address = new byte[4];
+		int part = 0;
+		int value = -1;
+		for (int i = 0; i <= host.length(); i++) {
+			char c = i < host.length() ? host.charAt(i) : '.';
+			if (c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if (value > 255) {
+					return null;
+				}
+			} else if (c == '.' && value >= 0 && part < 4) {
+				address[part++] = (byte) value;
+				value = -1;
+			} else {
+				return null;
+			}
+		}
+		return part == 4 ? address : null;
+	}
+}
@@ -0,0 +1,14 @@
+package telexme;
+
+import java.io.IOException;
+
+/**
+ * Provides a {@link Tunnel} for each client of the proxy.
+ */
+public interface TunnelFactory {
+
+	/**
+	 * @return a new tunnel, ready for data in both directions
+	 */
+	Tunnel open() throws IOException;
+}
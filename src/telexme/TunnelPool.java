@@ -0,0 +1,497 @@
+package telexme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import org.bouncycastle.crypto.tls.TlsMetricsHistogram;
+
+/**
+ * Keeps a few tunnels connected, tagged and handshaken ahead of time, so a new client only
+ * waits for its own request to go out. A background thread refills the pool after each
+ * open().
+ *
+ * A tag is only good for so long (the station sees the time it was made in the handshake), and
+ * the station may drop an idle connection, so tunnels older than the maximum age and tunnels
+ * that fail {@link Tunnel#isUsable()} are closed rather than handed out. When the pool is
+ * empty, open() connects in the calling thread.
+ *
+ * The pool is only kept full while it is in use: once open() has not been called for the
+ * keep-warm time, aged tunnels are not replaced until the next open(), so an idle proxy does
+ * not handshake with the station for nothing.
+ *
+ * isUsable() cannot see a connection closed without an alert, so a tunnel from the pool that
+ * turns out to be dead is replaced by a new one, and the open() counts as a miss, but only while
+ * none of the client's data can have reached the station: when the very first write fails, or
+ * the tunnel reaches EOF or fails before anything was written. Nothing is ever sent twice, so
+ * after that a dead tunnel fails the client connection as usual.
+ */
+public class TunnelPool implements TunnelFactory {
+
+	// time between health checks while the pool is full
+	private static final long CHECK_INTERVAL = 1000;
+
+	/** Default time the pool is kept full after the last open(), in milliseconds. */
+	public static final long DEFAULT_KEEP_WARM = 300000;
+
+	// after a failed connect, wait this long before the next, doubling up to the maximum
+	private static final long MIN_RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	private final TunnelFactory factory;
+	private final int size;
+	private final long maxAge;
+	private final TlsMetricsHistogram metrics;
+	private long keepWarm = DEFAULT_KEEP_WARM;
+
+	// all state below is guarded by this; idle holds Entry, oldest first
+	private final Vector idle = new Vector();
+	private int hits = 0;
+	private int misses = 0;
+	private Thread refiller = null;
+	private boolean stopped = false;
+	// start() counts as a use, so the pool fills once to begin with
+	private long lastUse = 0;
+
+	/**
+	 * @param factory opens the tunnels; it should not use False Start, see
+	 *            {@link TunnelConnector#setFalseStart(boolean)}
+	 * @param size the number of tunnels kept ready
+	 * @param maxAge milliseconds after which an unused tunnel is replaced
+	 * @param metrics where to record hit and miss wait times and the time to ready, or null
+	 */
+	public TunnelPool(TunnelFactory factory, int size, long maxAge, TlsMetricsHistogram metrics) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be at least 1");
+		}
+		if (maxAge < 1) {
+			throw new IllegalArgumentException("maxAge must be at least 1");
+		}
+		this.factory = factory;
+		this.size = size;
+		this.maxAge = maxAge;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param keepWarm milliseconds after the last open() for which the pool is kept full
+	 */
+	public synchronized void setKeepWarm(long keepWarm) {
+		this.keepWarm = keepWarm;
+	}
+
+	/**
+	 * Start filling the pool in the background.
+	 */
+	public synchronized void start() {
+		if (refiller != null) {
+			throw new IllegalStateException("tunnel pool already started");
+		}
+		lastUse = System.currentTimeMillis();
+		refiller = new Thread(new Runnable() {
+			public void run() {
+				refill();
+			}
+		});
+		refiller.start();
+	}
+
+	/**
+	 * Stop refilling and close the idle tunnels. Tunnels already handed out are not affected.
+	 */
+	public void stop() {
+		Vector closing;
+		synchronized (this) {
+			stopped = true;
+			closing = takeAll();
+			notifyAll();
+		}
+		closeAll(closing);
+	}
+
+	/**
+	 * Hand out the newest ready tunnel, or connect now if there is none.
+	 */
+	public Tunnel open() throws IOException {
+		long start = System.currentTimeMillis();
+		long metricsStart = metricsTime();
+		Tunnel tunnel = null;
+		Vector stale = new Vector();
+
+		synchronized (this) {
+			if (stopped) {
+				throw new IOException("tunnel pool stopped");
+			}
+			lastUse = start;
+			while (tunnel == null && !idle.isEmpty()) {
+				Entry entry = (Entry) idle.elementAt(idle.size() - 1);
+				idle.removeElementAt(idle.size() - 1);
+				if (entry.isFresh(start) && entry.tunnel.isUsable()) {
+					tunnel = entry.tunnel;
+				} else {
+					stale.addElement(entry);
+				}
+			}
+			if (tunnel != null) {
+				++hits;
+			} else {
+				++misses;
+			}
+			// one fewer idle now, or the pool may have gone cold, so the refiller has work to do
+			notifyAll();
+		}
+		closeAll(stale);
+
+		if (tunnel != null) {
+			addSample("tunnel pool hit wait", metricsStart);
+			return new PooledTunnel(tunnel);
+		}
+		tunnel = factory.open();
+		addSample("tunnel pool miss wait", metricsStart);
+		return tunnel;
+	}
+
+	/**
+	 * @return the number of open() calls served from the pool
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of open() calls that found the pool empty and had to connect
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of tunnels ready now
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	private void refill() {
+		long retryDelay = MIN_RETRY_DELAY;
+
+		while (true) {
+			Vector stale;
+			boolean full;
+			boolean warm;
+			boolean empty;
+			synchronized (this) {
+				if (stopped) {
+					return;
+				}
+				long now = System.currentTimeMillis();
+				stale = takeStale(now);
+				full = idle.size() >= size;
+				warm = now - lastUse < keepWarm;
+				empty = idle.isEmpty();
+			}
+			closeAll(stale);
+
+			if (!warm && empty) {
+				// nothing to age out; sleep until open() is called
+				waitFor(0);
+				continue;
+			}
+			if (full || !warm) {
+				waitFor(CHECK_INTERVAL);
+				continue;
+			}
+
+			long start = System.currentTimeMillis();
+			long metricsStart = metricsTime();
+			Tunnel tunnel = null;
+			try {
+				tunnel = factory.open();
+			} catch (IOException e) {
+				// the station is unreachable for now; open() still connects on demand
+			} catch (RuntimeException e) {
+				// a bug or a broken handshake must not end the refiller for good
+			}
+			if (tunnel == null) {
+				waitFor(retryDelay);
+				retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+				continue;
+			}
+			retryDelay = MIN_RETRY_DELAY;
+			addSample("tunnel time-to-ready", metricsStart);
+
+			synchronized (this) {
+				if (!stopped) {
+					// the tag was made when the connect started, so the age counts from there
+					idle.addElement(new Entry(tunnel, start));
+					tunnel = null;
+				}
+			}
+			if (tunnel != null) {
+				tunnel.close();
+			}
+		}
+	}
+
+	/**
+	 * Wait for the given time (0 for no limit), or until open() or stop() is called.
+	 */
+	private synchronized void waitFor(long millis) {
+		if (stopped) {
+			return;
+		}
+		try {
+			wait(millis);
+		} catch (InterruptedException e) {
+			// the loop checks again
+		}
+	}
+
+	// called holding the lock; the tunnels are closed outside it
+
+	private Vector takeStale(long now) {
+		Vector stale = new Vector();
+		for (int i = idle.size() - 1; i >= 0; --i) {
+			Entry entry = (Entry) idle.elementAt(i);
+			if (!entry.isFresh(now) || !entry.tunnel.isUsable()) {
+				idle.removeElementAt(i);
+				stale.addElement(entry);
+			}
+		}
+		return stale;
+	}
+
+	private Vector takeAll() {
+		Vector all = new Vector();
+		for (int i = 0; i < idle.size(); ++i) {
+			all.addElement(idle.elementAt(i));
+		}
+		idle.removeAllElements();
+		return all;
+	}
+
+	private static void closeAll(Vector entries) {
+		for (int i = 0; i < entries.size(); ++i) {
+			((Entry) entries.elementAt(i)).tunnel.close();
+		}
+	}
+
+	// the samples use the metrics' own clock and unit, like the handshake timings they sit with
+
+	private long metricsTime() {
+		return metrics == null ? 0 : metrics.currentTime();
+	}
+
+	private void addSample(String name, long metricsStart) {
+		if (metrics != null) {
+			metrics.addSample(name, metrics.currentTime() - metricsStart);
+		}
+	}
+
+	/**
+	 * Counts a hit that turned out to be a dead tunnel as a miss.
+	 */
+	private synchronized void hitFailed() {
+		--hits;
+		++misses;
+	}
+
+	/**
+	 * A tunnel handed out from the pool, which is replaced once by a new one if it turns out to be
+	 * dead before any data has been sent through it.
+	 */
+	private class PooledTunnel implements Tunnel {
+
+		private final InputStream in = new PooledInputStream();
+		private final OutputStream out = new PooledOutputStream();
+
+		// all state below is guarded by this
+		private Tunnel tunnel;
+		// a write has been started, so the station may have some of the client's data
+		private boolean written = false;
+		// something has come back, so the tunnel was alive
+		private boolean answered = false;
+		private boolean replaceable = true;
+		private boolean replacing = false;
+		private boolean closed = false;
+
+		PooledTunnel(Tunnel tunnel) {
+			this.tunnel = tunnel;
+		}
+
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		public boolean isUsable() {
+			return current().isUsable();
+		}
+
+		public void close() {
+			Tunnel t;
+			synchronized (this) {
+				closed = true;
+				t = tunnel;
+			}
+			t.close();
+		}
+
+		private synchronized Tunnel current() {
+			return tunnel;
+		}
+
+		private synchronized void answered() {
+			answered = true;
+		}
+
+		/**
+		 * Called when failed reached EOF or threw. The new tunnel is connected outside the lock,
+		 * and the other direction waits for it rather than connecting a second one.
+		 *
+		 * @param firstWrite true if failed threw on the first write, which is then retried
+		 * @return true if the caller should carry on with the tunnel that replaced it
+		 */
+		private boolean replace(Tunnel failed, boolean firstWrite) throws IOException {
+			synchronized (this) {
+				while (replacing) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// the replacement finishes either way
+					}
+				}
+				if (tunnel != failed) {
+					// replaced already, by the other direction
+					return !closed;
+				}
+				if (!replaceable || closed || answered || (written && !firstWrite)) {
+					return false;
+				}
+				replaceable = false;
+				replacing = true;
+			}
+			failed.close();
+			hitFailed();
+
+			long metricsStart = metricsTime();
+			Tunnel replacement = null;
+			try {
+				replacement = factory.open();
+				addSample("tunnel pool miss wait", metricsStart);
+			} finally {
+				synchronized (this) {
+					replacing = false;
+					if (replacement != null && !closed) {
+						tunnel = replacement;
+						replacement = null;
+					}
+					notifyAll();
+				}
+			}
+			if (replacement != null) {
+				// closed while connecting
+				replacement.close();
+				return false;
+			}
+			return true;
+		}
+
+		private class PooledInputStream extends InputStream {
+
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int n = read(b, 0, 1);
+				return n < 0 ? -1 : b[0] & 0xff;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				while (true) {
+					Tunnel t = current();
+					int n;
+					try {
+						n = t.getInputStream().read(b, off, len);
+					} catch (IOException e) {
+						if (replace(t, false)) {
+							continue;
+						}
+						throw e;
+					}
+					if (n < 0 && replace(t, false)) {
+						continue;
+					}
+					if (n > 0) {
+						answered();
+					}
+					return n;
+				}
+			}
+
+			public int available() throws IOException {
+				return current().getInputStream().available();
+			}
+
+			public void close() throws IOException {
+				current().getInputStream().close();
+			}
+		}
+
+		private class PooledOutputStream extends OutputStream {
+
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				Tunnel t;
+				boolean first;
+				synchronized (PooledTunnel.this) {
+					first = !written;
+					written = true;
+					t = tunnel;
+				}
+				try {
+					t.getOutputStream().write(b, off, len);
+				} catch (IOException e) {
+					// a failed first write cannot have been delivered, so it alone may be retried
+					if (!(first && replace(t, true))) {
+						throw e;
+					}
+					current().getOutputStream().write(b, off, len);
+				}
+			}
+
+			public void flush() throws IOException {
+				current().getOutputStream().flush();
+			}
+
+			public void close() throws IOException {
+				Tunnel t;
+				synchronized (PooledTunnel.this) {
+					// the station sees the close, so it counts as sending
+					written = true;
+					t = tunnel;
+				}
+				t.getOutputStream().close();
+			}
+		}
+	}
+
+	private class Entry {
+		final Tunnel tunnel;
+		final long createTime;
+
+		Entry(Tunnel tunnel, long createTime) {
+			this.tunnel = tunnel;
+			this.createTime = createTime;
+		}
+
+		boolean isFresh(long now) {
+			return now - createTime < maxAge;
+		}
+	}
+}
@@ -0,0 +1,361 @@
+package telexme.mux;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Carries any number of {@link MuxStream}s over one connection, e.g. a single Telex tunnel.
+ *
+ * Every frame starts with a 7 byte header: type (1 byte), stream id (4 bytes) and payload
+ * length (2 bytes), all big-endian. The frame types are
+ * <ul>
+ * <li>OPEN: a new stream; the opening side uses odd ids, the accepting side even ones.</li>
+ * <li>DATA: up to {@link #MAX_FRAME_DATA} bytes of stream data.</li>
+ * <li>CLOSE: the sender will send no more data on the stream (a half-close).</li>
+ * <li>WINDOW_UPDATE: a 4 byte count of further bytes the receiver accepts.</li>
+ * <li>RESET: the stream is aborted in both directions.</li>
+ * </ul>
+ * Each stream starts with {@link #WINDOW_SIZE} bytes of credit in each direction, so a
+ * stream whose reader falls behind stops only itself. One thread reads frames; one thread
+ * writes them, taking at most {@link #QUANTUM} bytes from each stream in turn so that a bulk
+ * transfer cannot starve an interactive stream.
+ */
+public class MuxSession {
+
+	static final int FRAME_OPEN = 1;
+	static final int FRAME_DATA = 2;
+	static final int FRAME_CLOSE = 3;
+	static final int FRAME_WINDOW_UPDATE = 4;
+	static final int FRAME_RESET = 5;
+
+	static final int HEADER_SIZE = 7;
+
+	/** Largest payload of one DATA frame. */
+	public static final int MAX_FRAME_DATA = 16384;
+
+	/** Credit each side gives each stream, in bytes. */
+	public static final int WINDOW_SIZE = 65536;
+
+	/** Most bytes sent for one stream before the next stream with data gets its turn. */
+	public static final int QUANTUM = 4096;
+
+	private final InputStream in;
+	private final OutputStream out;
+
+	// all state below is guarded by this
+	private final Hashtable streams = new Hashtable();
+	private final Vector accepted = new Vector();
+	private final Vector control = new Vector();
+	private final Vector ready = new Vector();
+	private int nextStreamId;
+	private boolean closed = false;
+
+	/**
+	 * @param in the connection's InputStream
+	 * @param out the connection's OutputStream
+	 * @param initiator true for the side that opens streams (the proxy), false for the side
+	 *            that accepts them
+	 */
+	public MuxSession(InputStream in, OutputStream out, boolean initiator) {
+		this.in = in;
+		this.out = out;
+		this.nextStreamId = initiator ? 1 : 2;
+	}
+
+	/**
+	 * Start the reader and writer threads.
+	 */
+	public void start() {
+		new Thread(new Runnable() {
+			public void run() {
+				readFrames();
+			}
+		}).start();
+		new Thread(new Runnable() {
+			public void run() {
+				writeFrames();
+			}
+		}).start();
+	}
+
+	/**
+	 * Open a new stream. Data can be written to it straight away.
+	 */
+	public synchronized MuxStream openStream() throws IOException {
+		if (closed) {
+			throw new IOException("mux session closed");
+		}
+
+		int id = nextStreamId;
+		nextStreamId += 2;
+
+		MuxStream stream = new MuxStream(this, id);
+		streams.put(new Integer(id), stream);
+		control.addElement(header(FRAME_OPEN, id, 0));
+		notifyAll();
+		return stream;
+	}
+
+	/**
+	 * Wait for the other side to open a stream.
+	 *
+	 * @return the stream, or null once the session is closed
+	 */
+	public synchronized MuxStream acceptStream() {
+		while (accepted.isEmpty()) {
+			if (closed) {
+				return null;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				// check again
+			}
+		}
+		MuxStream stream = (MuxStream) accepted.elementAt(0);
+		accepted.removeElementAt(0);
+		return stream;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of streams not yet closed in both directions
+	 */
+	public synchronized int getStreamCount() {
+		return streams.size();
+	}
+
+	/**
+	 * Close the connection; all streams fail.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			Enumeration e = streams.elements();
+			while (e.hasMoreElements()) {
+				((MuxStream) e.nextElement()).resetReceived();
+			}
+			streams.clear();
+			notifyAll();
+		}
+
+		try {
+			in.close();
+		} catch (IOException e) {
+			// nothing left to do
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			// nothing left to do
+		}
+	}
+
+	// called by MuxStream, holding the session lock
+
+	void sendWindowUpdate(int id, int increment) {
+		byte[] frame = header(FRAME_WINDOW_UPDATE, id, 4);
+		writeInt(increment, frame, HEADER_SIZE);
+		control.addElement(frame);
+		notifyAll();
+	}
+
+	void sendReset(int id) {
+		control.addElement(header(FRAME_RESET, id, 0));
+		forget(id);
+		notifyAll();
+	}
+
+	/**
+	 * The stream has data (or its CLOSE) to send.
+	 */
+	void markReady(MuxStream stream) {
+		if (!ready.contains(stream)) {
+			ready.addElement(stream);
+		}
+		notifyAll();
+	}
+
+	void forget(int id) {
+		MuxStream stream = (MuxStream) streams.remove(new Integer(id));
+		if (stream != null) {
+			ready.removeElement(stream);
+		}
+	}
+
+	private void readFrames() {
+		byte[] header = new byte[HEADER_SIZE];
+		byte[] payload = new byte[MAX_FRAME_DATA];
+		try {
+			while (true) {
+				readFully(header, HEADER_SIZE);
+				int type = header[0] & 0xff;
+				int id = readInt(header, 1);
+				int length = ((header[5] & 0xff) << 8) | (header[6] & 0xff);
+				if (length > MAX_FRAME_DATA) {
+					throw new IOException("mux frame too long");
+				}
+				readFully(payload, length);
+
+				synchronized (this) {
+					if (closed) {
+						return;
+					}
+					processFrame(type, id, payload, length);
+				}
+			}
+		} catch (IOException e) {
+			// EOF or a broken connection ends the session
+		} finally {
+			close();
+		}
+	}
+
+	private void processFrame(int type, int id, byte[] payload, int length) throws IOException {
+		MuxStream stream = (MuxStream) streams.get(new Integer(id));
+
+		switch (type) {
+		case FRAME_OPEN:
+			if (stream != null || (id & 1) == (nextStreamId & 1)) {
+				throw new IOException("mux stream id " + id + " not valid for OPEN");
+			}
+			stream = new MuxStream(this, id);
+			streams.put(new Integer(id), stream);
+			accepted.addElement(stream);
+			notifyAll();
+			break;
+		case FRAME_DATA:
+			// data for a stream we reset may still be on its way; it is dropped
+			if (stream != null && !stream.dataReceived(payload, length)) {
+				// more than the window allows
+				stream.resetReceived();
+				sendReset(id);
+			}
+			break;
+		case FRAME_CLOSE:
+			if (stream != null) {
+				stream.closeReceived();
+			}
+			break;
+		case FRAME_WINDOW_UPDATE:
+			if (length != 4) {
+				throw new IOException("mux WINDOW_UPDATE must carry 4 bytes");
+			}
+			if (stream != null) {
+				stream.windowUpdateReceived(readInt(payload, 0));
+			}
+			break;
+		case FRAME_RESET:
+			if (stream != null) {
+				stream.resetReceived();
+				forget(id);
+			}
+			break;
+		default:
+			throw new IOException("unknown mux frame type " + type);
+		}
+	}
+
+	private void writeFrames() {
+		try {
+			while (true) {
+				byte[] frame;
+				boolean more;
+				synchronized (this) {
+					frame = nextFrame();
+					while (frame == null) {
+						if (closed) {
+							return;
+						}
+						wait();
+						frame = nextFrame();
+					}
+					more = !control.isEmpty() || !ready.isEmpty();
+				}
+
+				out.write(frame, 0, frame.length);
+				if (!more) {
+					// nothing else waiting, so nothing to batch this with
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// the connection is gone
+		} catch (InterruptedException e) {
+			// not expected; treat as fatal
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Control frames go first, then the ready streams in turn.
+	 */
+	private byte[] nextFrame() {
+		if (!control.isEmpty()) {
+			byte[] frame = (byte[]) control.elementAt(0);
+			control.removeElementAt(0);
+			return frame;
+		}
+
+		while (!ready.isEmpty()) {
+			MuxStream stream = (MuxStream) ready.elementAt(0);
+			ready.removeElementAt(0);
+
+			byte[] frame = stream.nextFrame(Math.min(QUANTUM, MAX_FRAME_DATA));
+			if (stream.hasFrameToSend()) {
+				// back of the queue: the others get their turn first
+				ready.addElement(stream);
+			}
+			if (frame != null) {
+				notifyAll();
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	private void readFully(byte[] buf, int len) throws IOException {
+		int off = 0;
+		while (off < len) {
+			int n = in.read(buf, off, len - off);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			off += n;
+		}
+	}
+
+	static byte[] header(int type, int id, int length) {
+		byte[] frame = new byte[HEADER_SIZE + length];
+		frame[0] = (byte) type;
+		writeInt(id, frame, 1);
+		frame[5] = (byte) (length >> 8);
+		frame[6] = (byte) length;
+		return frame;
+	}
+
+	static void writeInt(int i, byte[] buf, int off) {
+		buf[off] = (byte) (i >> 24);
+		buf[off + 1] = (byte) (i >> 16);
+		buf[off + 2] = (byte) (i >> 8);
+		buf[off + 3] = (byte) i;
+	}
+
+	static int readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16)
+				| ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+	}
+}
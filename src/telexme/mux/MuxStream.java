@@ -0,0 +1,256 @@
+package telexme.mux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One stream of a {@link MuxSession}.
+ *
+ * Closing the OutputStream sends a CLOSE once everything written before has gone out, so
+ * the other side reads EOF while it can still send. {@link #close()} ends the stream for
+ * good, resetting it if the other side had not finished sending yet.
+ */
+public class MuxStream {
+
+	private final MuxSession session;
+	private final int id;
+
+	// all state below is guarded by the session; the buffers grow with the data in them
+	private final StreamBuffer received = new StreamBuffer(MuxSession.WINDOW_SIZE);
+	private int consumed = 0;
+	private boolean closeReceived = false;
+
+	private final StreamBuffer sending = new StreamBuffer(MuxSession.WINDOW_SIZE);
+	private int sendWindow = MuxSession.WINDOW_SIZE;
+	private boolean outputClosed = false;
+	private boolean closeSent = false;
+
+	private boolean reset = false;
+
+	private final InputStream inputStream = new MuxInputStream();
+	private final OutputStream outputStream = new MuxOutputStream();
+
+	MuxStream(MuxSession session, int id) {
+		this.session = session;
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * @return true if the stream was aborted, by either side or with the session
+	 */
+	public boolean isReset() {
+		synchronized (session) {
+			return reset;
+		}
+	}
+
+	/**
+	 * Close both directions.
+	 */
+	public void close() {
+		synchronized (session) {
+			if (reset || (closeSent && closeReceived)) {
+				return;
+			}
+			if (closeReceived) {
+				// the other side is done; just finish ours
+				closeOutput();
+			} else {
+				setReset();
+				session.sendReset(id);
+			}
+		}
+	}
+
+	private void setReset() {
+		reset = true;
+		received.discard();
+		sending.discard();
+	}
+
+	private void closeOutput() {
+		if (!outputClosed) {
+			outputClosed = true;
+			session.markReady(this);
+		}
+	}
+
+	// called by the session, holding its lock
+
+	/**
+	 * @return false if the data does not fit the window
+	 */
+	boolean dataReceived(byte[] buf, int len) {
+		if (closeReceived || len > received.space()) {
+			return false;
+		}
+		if (reset) {
+			return true;
+		}
+
+		received.put(buf, 0, len);
+		session.notifyAll();
+		return true;
+	}
+
+	void closeReceived() {
+		closeReceived = true;
+		if (closeSent) {
+			session.forget(id);
+		}
+		session.notifyAll();
+	}
+
+	void windowUpdateReceived(int increment) {
+		sendWindow += increment;
+		if (hasFrameToSend()) {
+			session.markReady(this);
+		}
+	}
+
+	void resetReceived() {
+		setReset();
+		session.notifyAll();
+	}
+
+	boolean hasFrameToSend() {
+		if (reset) {
+			return false;
+		}
+		return (sending.size() > 0 && sendWindow > 0) || (outputClosed && !closeSent && sending.size() == 0);
+	}
+
+	/**
+	 * @return the next DATA frame of at most max bytes, the CLOSE frame, or null
+	 */
+	byte[] nextFrame(int max) {
+		if (!hasFrameToSend()) {
+			return null;
+		}
+
+		if (sending.size() == 0) {
+			closeSent = true;
+			if (closeReceived) {
+				session.forget(id);
+			}
+			return MuxSession.header(MuxSession.FRAME_CLOSE, id, 0);
+		}
+
+		int len = Math.min(max, Math.min(sending.size(), sendWindow));
+		byte[] frame = MuxSession.header(MuxSession.FRAME_DATA, id, len);
+		sending.take(frame, MuxSession.HEADER_SIZE, len);
+		sendWindow -= len;
+		return frame;
+	}
+
+	private void waitForSession() throws IOException {
+		try {
+			session.wait();
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted");
+		}
+	}
+
+	private class MuxInputStream extends InputStream {
+		private final byte[] single = new byte[1];
+
+		public int read() throws IOException {
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			synchronized (session) {
+				while (received.size() == 0) {
+					if (reset) {
+						throw new IOException("mux stream reset");
+					}
+					if (closeReceived) {
+						return -1;
+					}
+					waitForSession();
+				}
+
+				len = Math.min(len, received.size());
+				received.take(buf, off, len);
+
+				// give the credit back in batches, not for every read
+				consumed += len;
+				if (consumed >= MuxSession.WINDOW_SIZE / 2 && !closeReceived && !reset) {
+					session.sendWindowUpdate(id, consumed);
+					consumed = 0;
+				}
+				return len;
+			}
+		}
+
+		public int available() {
+			synchronized (session) {
+				return received.size();
+			}
+		}
+
+		public void close() {
+			// the data may still be wanted by MuxStream.close(); nothing to do here
+		}
+	}
+
+	private class MuxOutputStream extends OutputStream {
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			synchronized (session) {
+				while (len > 0) {
+					if (reset) {
+						throw new IOException("mux stream reset");
+					}
+					if (outputClosed) {
+						throw new IOException("mux stream output closed");
+					}
+
+					// a full buffer holds the writer back until the other side has caught up
+					int space = sending.space();
+					if (space == 0) {
+						waitForSession();
+						continue;
+					}
+
+					int count = Math.min(len, space);
+					sending.put(buf, off, count);
+					off += count;
+					len -= count;
+
+					if (sendWindow > 0) {
+						session.markReady(MuxStream.this);
+					}
+				}
+			}
+		}
+
+		public void close() {
+			synchronized (session) {
+				if (!reset) {
+					closeOutput();
+				}
+			}
+		}
+	}
+}
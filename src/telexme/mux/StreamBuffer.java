@@ -0,0 +1,93 @@
+package telexme.mux;
+
+/**
+ * A ring buffer of bytes for one direction of a {@link MuxStream}. It holds no memory until
+ * data arrives and then doubles only as far as the data waiting in it needs, so an
+ * interactive stream never costs the full window.
+ *
+ * Not thread-safe; MuxStream guards it with the session lock.
+ */
+class StreamBuffer {
+
+	private static final int MIN_CAPACITY = 1024;
+
+	private final int limit;
+	private byte[] buf = null;
+	private int start = 0;
+	private int length = 0;
+
+	/**
+	 * @param limit the most bytes it will ever hold
+	 */
+	StreamBuffer(int limit) {
+		this.limit = limit;
+	}
+
+	int size() {
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes that can still be put
+	 */
+	int space() {
+		return limit - length;
+	}
+
+	/**
+	 * Append len bytes; len must not exceed {@link #space()}.
+	 */
+	void put(byte[] src, int off, int len) {
+		ensureCapacity(length + len);
+		int end = (start + length) % buf.length;
+		int first = Math.min(len, buf.length - end);
+		System.arraycopy(src, off, buf, end, first);
+		System.arraycopy(src, off + first, buf, 0, len - first);
+		length += len;
+	}
+
+	/**
+	 * Remove the first len bytes into dst; len must not exceed {@link #size()}.
+	 */
+	void take(byte[] dst, int off, int len) {
+		if (len == 0) {
+			return;
+		}
+		int first = Math.min(len, buf.length - start);
+		System.arraycopy(buf, start, dst, off, first);
+		System.arraycopy(buf, 0, dst, off + first, len - first);
+		start = (start + len) % buf.length;
+		length -= len;
+	}
+
+	/**
+	 * Drop the contents and the memory.
+	 */
+	void discard() {
+		buf = null;
+		start = 0;
+		length = 0;
+	}
+
+	private void ensureCapacity(int needed) {
+		if (buf != null && needed <= buf.length) {
+			return;
+		}
+		int capacity = buf == null ? MIN_CAPACITY : buf.length;
+		while (capacity < needed) {
+			capacity *= 2;
+		}
+		if (capacity > limit) {
+			capacity = limit;
+		}
+
+		byte[] grown = new byte[capacity];
+		int count = length;
+		if (buf != null) {
+			take(grown, 0, count);
+		}
+		buf = grown;
+		start = 0;
+		length = count;
+	}
+}
@@ -0,0 +1,408 @@
+package telexme.mux.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import org.bouncycastle.util.test.SimpleTest;
+
+import telexme.mux.MuxSession;
+import telexme.mux.MuxStream;
+
+/**
+ * Runs two MuxSessions against each other over in-memory pipes: flow control, half-close,
+ * reset and the round-robin between streams.
+ */
+public class MuxSessionTest extends SimpleTest {
+	private static final long TIMEOUT = 5000;
+
+	public String getName() {
+		return "MuxSession";
+	}
+
+	public void performTest() throws Exception {
+		windowTest();
+		halfCloseTest();
+		resetTest();
+		fairnessTest();
+	}
+
+	/**
+	 * A reader that stops reading holds the writer back at one window plus the send buffer,
+	 * and reading again sends the WINDOW_UPDATEs that let the rest through.
+	 */
+	private void windowTest() throws Exception {
+		Pair pair = new Pair();
+		MuxStream a = pair.initiator.openStream();
+		MuxStream b = pair.acceptor.acceptStream();
+
+		final byte[] data = pattern(4 * MuxSession.WINDOW_SIZE);
+		Writer writer = new Writer(a.getOutputStream(), data);
+		writer.start();
+
+		InputStream bIn = b.getInputStream();
+		waitFor(bIn, MuxSession.WINDOW_SIZE);
+		Thread.sleep(200);
+		if (bIn.available() != MuxSession.WINDOW_SIZE) {
+			fail("receiver got more than its window: " + bIn.available());
+		}
+		if (!writer.isAlive()) {
+			fail("writer not held back by a full window");
+		}
+
+		byte[] got = readFully(bIn, data.length);
+		if (!areEqual(data, got)) {
+			fail("data corrupted across window updates");
+		}
+		writer.join(TIMEOUT);
+		if (writer.isAlive() || writer.error != null) {
+			fail("writer did not finish: " + writer.error);
+		}
+		pair.close();
+	}
+
+	/**
+	 * After a CLOSE the other side reads EOF but can still answer; the stream is forgotten
+	 * once both directions are closed.
+	 */
+	private void halfCloseTest() throws Exception {
+		Pair pair = new Pair();
+		MuxStream a = pair.initiator.openStream();
+		MuxStream b = pair.acceptor.acceptStream();
+
+		a.getOutputStream().write(bytes("request"));
+		a.getOutputStream().close();
+
+		InputStream bIn = b.getInputStream();
+		if (!"request".equals(new String(readFully(bIn, 7))) || bIn.read() != -1) {
+			fail("request not followed by EOF");
+		}
+		b.getOutputStream().write(bytes("response"));
+		b.getOutputStream().close();
+
+		InputStream aIn = a.getInputStream();
+		if (!"response".equals(new String(readFully(aIn, 8))) || aIn.read() != -1) {
+			fail("no response after half-close");
+		}
+		if (a.isReset() || b.isReset()) {
+			fail("half-close reset the stream");
+		}
+		waitForNoStreams(pair.initiator);
+		waitForNoStreams(pair.acceptor);
+
+		try {
+			a.getOutputStream().write(1);
+			fail("write after close accepted");
+		} catch (IOException e) {
+			// expected
+		}
+		pair.close();
+	}
+
+	/**
+	 * Closing a stream the other side is still sending on resets it, on both sides and
+	 * without disturbing other streams.
+	 */
+	private void resetTest() throws Exception {
+		Pair pair = new Pair();
+		MuxStream a = pair.initiator.openStream();
+		MuxStream b = pair.acceptor.acceptStream();
+		MuxStream other = pair.initiator.openStream();
+		MuxStream otherB = pair.acceptor.acceptStream();
+
+		b.close();
+		if (!b.isReset()) {
+			fail("close() before the other side's CLOSE did not reset");
+		}
+		try {
+			a.getInputStream().read();
+			fail("read on a reset stream returned");
+		} catch (IOException e) {
+			// expected
+		}
+		if (!a.isReset()) {
+			fail("RESET not received");
+		}
+		try {
+			a.getOutputStream().write(1);
+			fail("write on a reset stream accepted");
+		} catch (IOException e) {
+			// expected
+		}
+
+		other.getOutputStream().write(bytes("still here"));
+		if (!"still here".equals(new String(readFully(otherB.getInputStream(), 10)))) {
+			fail("reset disturbed another stream");
+		}
+		if (pair.initiator.isClosed() || pair.acceptor.isClosed()) {
+			fail("reset closed the session");
+		}
+		pair.close();
+	}
+
+	/**
+	 * With a bulk transfer queued, a small write on another stream goes out after at most
+	 * one quantum of the bulk stream, not behind all of it.
+	 */
+	private void fairnessTest() throws Exception {
+		Pair pair = new Pair();
+		pair.gate.hold();
+
+		MuxStream bulk = pair.initiator.openStream();
+		MuxStream small = pair.initiator.openStream();
+		bulk.getOutputStream().write(pattern(MuxSession.WINDOW_SIZE - MuxSession.QUANTUM));
+		small.getOutputStream().write(bytes("ping"));
+		pair.gate.release();
+
+		MuxStream bulkB = pair.acceptor.acceptStream();
+		MuxStream smallB = pair.acceptor.acceptStream();
+		if (!"ping".equals(new String(readFully(smallB.getInputStream(), 4)))) {
+			fail("small stream data lost");
+		}
+		readFully(bulkB.getInputStream(), MuxSession.WINDOW_SIZE - MuxSession.QUANTUM);
+
+		// the order the writer put DATA frames on the wire, by stream id
+		Vector ids = pair.gate.getDataFrameIds();
+		int smallAt = ids.indexOf(new Integer(small.getId()));
+		if (smallAt < 0 || smallAt > 1) {
+			fail("small stream sent after " + smallAt + " bulk frames");
+		}
+		pair.close();
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes();
+	}
+
+	private static byte[] pattern(int len) {
+		byte[] data = new byte[len];
+		for (int i = 0; i < len; i++) {
+			data[i] = (byte) (i * 7 + (i >> 8));
+		}
+		return data;
+	}
+
+	private byte[] readFully(InputStream in, int len) throws IOException {
+		byte[] buf = new byte[len];
+		int off = 0;
+		while (off < len) {
+			int n = in.read(buf, off, len - off);
+			if (n < 0) {
+				fail("EOF after " + off + " of " + len + " bytes");
+			}
+			off += n;
+		}
+		return buf;
+	}
+
+	private void waitFor(InputStream in, int available) throws Exception {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (in.available() < available) {
+			if (System.currentTimeMillis() > end) {
+				fail("only " + in.available() + " of " + available + " bytes arrived");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private void waitForNoStreams(MuxSession session) throws Exception {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (session.getStreamCount() != 0) {
+			if (System.currentTimeMillis() > end) {
+				fail(session.getStreamCount() + " streams left after both sides closed");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	public static void main(String[] args) {
+		runTest(new MuxSessionTest());
+	}
+
+	/**
+	 * Two sessions connected back to back.
+	 */
+	private static class Pair {
+		final Gate gate;
+		final MuxSession initiator;
+		final MuxSession acceptor;
+
+		Pair() {
+			Pipe toAcceptor = new Pipe();
+			Pipe toInitiator = new Pipe();
+			gate = new Gate(toAcceptor.getOutputStream());
+			initiator = new MuxSession(toInitiator.getInputStream(), gate, true);
+			acceptor = new MuxSession(toAcceptor.getInputStream(), toInitiator.getOutputStream(), false);
+			initiator.start();
+			acceptor.start();
+		}
+
+		void close() {
+			initiator.close();
+			acceptor.close();
+		}
+	}
+
+	private static class Writer extends Thread {
+		private final OutputStream out;
+		private final byte[] data;
+		IOException error = null;
+
+		Writer(OutputStream out, byte[] data) {
+			this.out = out;
+			this.data = data;
+		}
+
+		public void run() {
+			try {
+				out.write(data);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Holds the initiator's frames back while held, and notes the stream id of each DATA
+	 * frame; the session writes one frame per write() call.
+	 */
+	private static class Gate extends OutputStream {
+		private final OutputStream out;
+		private final Vector dataFrameIds = new Vector();
+		private boolean held = false;
+
+		Gate(OutputStream out) {
+			this.out = out;
+		}
+
+		synchronized void hold() {
+			held = true;
+		}
+
+		synchronized void release() {
+			held = false;
+			notifyAll();
+		}
+
+		synchronized Vector getDataFrameIds() {
+			return dataFrameIds;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (this) {
+				while (held) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new IOException("interrupted");
+					}
+				}
+				// type 2 is DATA; the id follows the type
+				if (len >= 5 && b[off] == 2) {
+					dataFrameIds.addElement(new Integer(((b[off + 1] & 0xff) << 24)
+							| ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 8) | (b[off + 4] & 0xff)));
+				}
+			}
+			out.write(b, off, len);
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * An in-memory pipe; java.io has none on CLDC.
+	 */
+	private static class Pipe {
+		private final byte[] buf = new byte[4096];
+		private int start = 0;
+		private int length = 0;
+		private boolean closed = false;
+
+		InputStream getInputStream() {
+			return new InputStream() {
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+				}
+
+				public int read(byte[] b, int off, int len) throws IOException {
+					synchronized (Pipe.this) {
+						while (length == 0) {
+							if (closed) {
+								return -1;
+							}
+							waitForPipe();
+						}
+						len = Math.min(len, Math.min(length, buf.length - start));
+						System.arraycopy(buf, start, b, off, len);
+						start = (start + len) % buf.length;
+						length -= len;
+						Pipe.this.notifyAll();
+						return len;
+					}
+				}
+
+				public void close() {
+					closePipe();
+				}
+			};
+		}
+
+		OutputStream getOutputStream() {
+			return new OutputStream() {
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				public void write(byte[] b, int off, int len) throws IOException {
+					synchronized (Pipe.this) {
+						while (len > 0) {
+							if (closed) {
+								throw new IOException("pipe closed");
+							}
+							if (length == buf.length) {
+								waitForPipe();
+								continue;
+							}
+							int end = (start + length) % buf.length;
+							int count = Math.min(len, Math.min(buf.length - length, buf.length - end));
+							System.arraycopy(b, off, buf, end, count);
+							length += count;
+							off += count;
+							len -= count;
+							Pipe.this.notifyAll();
+						}
+					}
+				}
+
+				public void close() {
+					closePipe();
+				}
+			};
+		}
+
+		private synchronized void closePipe() {
+			closed = true;
+			notifyAll();
+		}
+
+		private void waitForPipe() throws IOException {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package telexme.mux.test;
+
+import org.bouncycastle.util.test.Test;
+import org.bouncycastle.util.test.TestResult;
+
+public final class RegressionTest {
+	public static Test[] tests = {
+		new MuxSessionTest()
+	};
+
+	public static void main(String[] args) {
+		for (int i = 0; i != tests.length; i++) {
+			TestResult result = tests[i].perform();
+			System.out.println(result);
+		}
+	}
+}
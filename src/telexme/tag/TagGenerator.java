@@ -3,12 +3,11 @@ package telexme.tag;
 import java.io.IOException;
 import java.io.InputStream;
 
-import javax.microedition.io.Connector;
-import javax.microedition.io.file.FileConnection;
-
 import org.bouncycastle.crypto.digests.SHA256Digest;
 
 import javaaddin.security.SecureRandom;
+import telexme.transport.CldcTransport;
+import telexme.transport.Transport;
 
 public class TagGenerator {
 	
@@ -22,20 +21,39 @@ public class TagGenerator {
 	public static byte[] temptag = new byte[28];
 	public static byte[] tempkey = new byte[16];
 	
+	private static Transport pubkeyTransport = null;
+	private static String pubkeyUrl = "file:///root1/pubkey";
+	private static boolean pubkeyLoaded = false;
+	
 	static {
 		for (int i = 0; i < PTwist.PTWIST_BYTES; i++) {
 			maingen[i] = 0;
 			twistgen[i] = 0;
 		}
 		maingen[0] = 2;
-		
-		tag_load_pubkey();
 	}
 	
-	private static void tag_load_pubkey() {
+	/**
+	 * Where to read the station's public key from. Must be called before the first tag is
+	 * made; the default is "file:///root1/pubkey", read through a {@link CldcTransport}.
+	 */
+	public static synchronized void setPublicKeySource(Transport transport, String url) {
+		pubkeyTransport = transport;
+		pubkeyUrl = url;
+		pubkeyLoaded = false;
+	}
+	
+	private static synchronized void tag_load_pubkey() {
+		if (pubkeyLoaded) {
+			return;
+		}
+		// tried once only; without the key every tag is made against zeros, as before
+		pubkeyLoaded = true;
+		if (pubkeyTransport == null) {
+			pubkeyTransport = new CldcTransport();
+		}
 		try {
-			FileConnection fc = (FileConnection) Connector.open("file:///root1/pubkey");
-			InputStream is = fc.openInputStream();
+			InputStream is = pubkeyTransport.openFile(pubkeyUrl);
 			is.read(mainpub, 0, PTwist.PTWIST_BYTES);
 			is.read(twistpub, 0, PTwist.PTWIST_BYTES);
 //			for (int i = 0; i < mainpub.length; i++) {
@@ -46,7 +64,7 @@ public class TagGenerator {
 //				System.out.print(" "+twistpub[i]);
 //			}
 //			System.out.println();
-			fc.close();
+			is.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -59,6 +77,8 @@ public class TagGenerator {
 		byte usetwist;
 		byte[] taghashout = new byte[32];
 		
+		tag_load_pubkey();
+		
 		// assert(context_len <= MAX_CONTEXT_LEN);
 		
 		for (int i = 0; i < tag.length; i++) {
@@ -0,0 +1,96 @@
+package telexme.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.ServerSocketConnection;
+import javax.microedition.io.SocketConnection;
+import javax.microedition.io.file.FileConnection;
+
+/**
+ * The Generic Connection Framework of CLDC/MIDP, plus the FileConnection API (JSR 75).
+ */
+public class CldcTransport implements Transport {
+
+	public TransportConnection open(String url) throws IOException {
+		return new CldcConnection((SocketConnection) Connector.open(url));
+	}
+
+	public TransportServer listen(String url) throws IOException {
+		return new CldcServer((ServerSocketConnection) Connector.open(url));
+	}
+
+	public InputStream openFile(String url) throws IOException {
+		FileConnection fc = (FileConnection) Connector.open(url, Connector.READ);
+		try {
+			// the file stays open until the stream is closed too
+			return fc.openInputStream();
+		} finally {
+			fc.close();
+		}
+	}
+
+	private static class CldcConnection implements TransportConnection {
+		private final SocketConnection connection;
+
+		// MIDP lets each stream be opened only once
+		private InputStream in = null;
+		private OutputStream out = null;
+
+		CldcConnection(SocketConnection connection) {
+			this.connection = connection;
+		}
+
+		public synchronized InputStream getInputStream() throws IOException {
+			if (in == null) {
+				in = connection.openInputStream();
+			}
+			return in;
+		}
+
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (out == null) {
+				out = connection.openOutputStream();
+			}
+			return out;
+		}
+
+		public String getAddress() throws IOException {
+			return connection.getAddress();
+		}
+
+		public void close() {
+			try {
+				connection.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	private static class CldcServer implements TransportServer {
+		private final ServerSocketConnection server;
+
+		CldcServer(ServerSocketConnection server) {
+			this.server = server;
+		}
+
+		public TransportConnection accept() throws IOException {
+			return new CldcConnection((SocketConnection) server.acceptAndOpen());
+		}
+
+		public int getLocalPort() throws IOException {
+			return server.getLocalPort();
+		}
+
+		public void close() {
+			try {
+				server.close();
+			} catch (IOException e) {
+				// the acceptor ends either way
+			}
+		}
+	}
+}
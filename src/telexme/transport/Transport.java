@@ -0,0 +1,37 @@
+package telexme.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Everything TelexMe needs from the platform: client sockets, server sockets and reading
+ * files. Addresses are Generic Connection Framework URLs on every platform, so the same
+ * settings work everywhere: "socket://host:port" to connect, "socket://:port" to listen and
+ * "file:///path" for files.
+ *
+ * {@link CldcTransport} is the one used on phones; the Java SE build adds one based on
+ * java.nio channels.
+ */
+public interface Transport {
+
+	/**
+	 * Connect to a server.
+	 *
+	 * @param url e.g. "socket://notblocked.telex.cc:443"
+	 */
+	TransportConnection open(String url) throws IOException;
+
+	/**
+	 * Listen for connections.
+	 *
+	 * @param url e.g. "socket://:8888"
+	 */
+	TransportServer listen(String url) throws IOException;
+
+	/**
+	 * Open a file for reading.
+	 *
+	 * @param url e.g. "file:///root1/pubkey"
+	 */
+	InputStream openFile(String url) throws IOException;
+}
@@ -0,0 +1,31 @@
+package telexme.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected stream socket.
+ */
+public interface TransportConnection {
+
+	/**
+	 * @return the socket's InputStream; every call returns the same one
+	 */
+	InputStream getInputStream() throws IOException;
+
+	/**
+	 * @return the socket's OutputStream; every call returns the same one
+	 */
+	OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * @return the address of the other end, an IP address where the platform tells it
+	 */
+	String getAddress() throws IOException;
+
+	/**
+	 * Close the socket and both streams.
+	 */
+	void close();
+}
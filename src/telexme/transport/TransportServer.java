@@ -0,0 +1,26 @@
+package telexme.transport;
+
+import java.io.IOException;
+
+/**
+ * A listening server socket.
+ */
+public interface TransportServer {
+
+	/**
+	 * Wait for the next client.
+	 *
+	 * @throws IOException if the server was closed, also while waiting
+	 */
+	TransportConnection accept() throws IOException;
+
+	/**
+	 * @return the port listened on, useful when listening on port 0
+	 */
+	int getLocalPort() throws IOException;
+
+	/**
+	 * Stop listening. A thread blocked in accept() gets an IOException.
+	 */
+	void close();
+}